@@ -34,6 +34,7 @@ function processThreadEmbeds(replacementArea) {
 	}
 	// There's no vimeo setting
 	replaceVimeo();
+	resolveVimeoLinks();
 
 	/**
 	 * Replaces all instagram links with instagram embeds
@@ -84,6 +85,21 @@ function processThreadEmbeds(replacementArea) {
 		});
 	}
 
+	/**
+	 * Asks the app to resolve each video behind the placeholder Vimeo links.
+	 * The app looks them up in the background, and patches the links with updateVimeoLinks
+	 */
+	function resolveVimeoLinks() {
+		var requested = {};
+		replacementArea.querySelectorAll('.postcontent a.vimeo-link[data-vimeo-id]').forEach(function each(vimeoLink) {
+			var videoId = vimeoLink.getAttribute('data-vimeo-id');
+			if (!requested[videoId]) {
+				requested[videoId] = true;
+				listener.resolveVimeoUrl(videoId);
+			}
+		});
+	}
+
 	/**
 	 * Replaces all twitter status links (tweets) with twitter embeds
 	 */
@@ -254,3 +270,25 @@ function processThreadEmbeds(replacementArea) {
 		return !nmws && !spoileredElement;
 	}
 }
+
+/**
+ * Patches any placeholder links for a Vimeo video, once the app has resolved its metadata
+ * @param {String} videoId The Vimeo ID of the video
+ * @param {String} url The resolved link for the video
+ */
+function updateVimeoLinks(videoId, url) {
+	document.querySelectorAll('.postcontent a.vimeo-link[data-vimeo-id="' + videoId + '"]').forEach(function each(vimeoLink) {
+		setVimeoLink(vimeoLink, url);
+	});
+}
+
+/**
+ * Points a placeholder Vimeo link at its resolved URL
+ * @param {Element} vimeoLink The placeholder link
+ * @param {String} url The resolved link for the video
+ */
+function setVimeoLink(vimeoLink, url) {
+	vimeoLink.href = url;
+	vimeoLink.textContent = url;
+	vimeoLink.classList.remove('vimeo-link');
+}
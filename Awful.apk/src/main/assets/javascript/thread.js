@@ -109,10 +109,123 @@ function findInPath(event, cssClass, returnElement) {
 	return returnElement ? search[0] : search.length > 0;
 }
 
+/**
+ * Where the page content is fetched from - the app serves this, it never reaches the site
+ */
+var PAGE_CONTENT_PATH = '/awful-app/page-content';
+
+/**
+ * The revision of the page content currently displayed, or 0 if nothing has been loaded
+ */
+window.pageRevision = 0;
+
+/**
+ * How many page content requests are still in progress
+ */
+var pendingPageRequests = 0;
+
+/**
+ * Functions waiting for the page content to be displayed, see afterPageContent
+ */
+var afterPageContentQueue = [];
+
+/**
+ * Runs a function once the page content has been displayed. The content is fetched asynchronously,
+ * so anything that works on the displayed posts has to wait for any requests in progress - otherwise
+ * it would run against the old content, which then gets replaced.
+ * @param {Function} callback The function to run, straight away if no content is being fetched
+ */
+function afterPageContent(callback) {
+	if (pendingPageRequests > 0) {
+		afterPageContentQueue.push(callback);
+	} else {
+		callback();
+	}
+}
+
+/**
+ * Runs everything that was waiting for the page content, once the last request has finished
+ */
+function pageContentFinished() {
+	pendingPageRequests--;
+	if (pendingPageRequests > 0) {
+		return;
+	}
+	var waiting = afterPageContentQueue;
+	afterPageContentQueue = [];
+	waiting.forEach(function each(callback) {
+		try {
+			callback();
+		} catch (error) {
+			listener.debugMessage('Couldn\'t run queued page script: ' + error);
+		}
+	});
+}
+
 /**
  * Loads the current thread html into the body container
  */
 function loadPageHtml() {
+	requestPageContent(0);
+}
+
+/**
+ * Updates the displayed page to the current thread html, only replacing the posts that have changed.
+ * Falls back to loading the whole page if it can't be patched.
+ */
+function updatePageHtml() {
+	requestPageContent(window.pageRevision);
+}
+
+/**
+ * Fetches the current page content from the app, which streams it in without blocking the page
+ * @param {number} have The revision already displayed, to get a patch from, or 0 to get the whole page
+ */
+function requestPageContent(have) {
+	pendingPageRequests++;
+	fetch(PAGE_CONTENT_PATH + '?have=' + have, { cache: 'no-store' }).then(function received(response) {
+		return response.text().then(function read(body) {
+			showPageContent(response.headers, body);
+		});
+	}).catch(function failed(error) {
+		listener.debugMessage('Couldn\'t load page content: ' + error);
+	}).then(pageContentFinished);
+}
+
+/**
+ * Displays some fetched page content, unless something newer has already been displayed
+ * @param {Headers} headers The response headers, describing the content
+ * @param {String} body The page html, or a patch for the displayed page
+ */
+function showPageContent(headers, body) {
+	var revision = Number(headers.get('X-Page-Revision'));
+	if (revision < window.pageRevision) {
+		return;
+	}
+	if (headers.get('X-Page-Content') !== 'patch') {
+		window.pageRevision = revision;
+		showPageHtml(body);
+		return;
+	}
+	// patches only apply to the version they were made from
+	if (Number(headers.get('X-Page-Base')) !== window.pageRevision) {
+		loadPageHtml();
+		return;
+	}
+	try {
+		applyPagePatch(JSON.parse(body));
+		window.pageRevision = revision;
+	} catch (error) {
+		listener.debugMessage('Couldn\'t patch page, reloading it: ' + error);
+		loadPageHtml();
+	}
+}
+
+/**
+ * Replaces the body container's contents with some page html
+ * @param {String} html The html to display
+ */
+function showPageHtml(html) {
 	if (window.topScrollTimeout) {
 		window.clearTimeout(window.topScrollTimeout);
 		window.cancelAnimationFrame(window.topScrollID);
@@ -121,7 +234,6 @@ function loadPageHtml() {
 	window.topScrollItem = null;
 	window.topScrollPos = 0;
 	window.topScrollCount = 0;
-	var html = listener.getBodyHtml();
 	document.getElementById('container').innerHTML = html;
 	if (!html) {
 		return;
@@ -136,6 +248,118 @@ function loadPageHtml() {
 	});
 }
 
+/**
+ * Applies a page patch, inserting, replacing and removing posts by their IDs. Posts that haven't
+ * changed are left in place, so their images, embeds and videos don't get reloaded.
+ * @param {Object} patch The posts on the new page in order, with HTML for the ones that changed, and the header and footer if they changed
+ */
+function applyPagePatch(patch) {
+	var content = document.querySelector('#container > .content');
+	if (!content) {
+		throw new Error('no page content to patch');
+	}
+
+	var wanted = {};
+	patch.posts.forEach(function each(post) {
+		wanted['post' + post.id] = true;
+	});
+	// remove the posts that aren't on the page anymore first, so nothing else has to move around them
+	var displayed = {};
+	Array.prototype.slice.call(content.children).forEach(function each(element) {
+		if (element.tagName !== 'ARTICLE' || !element.id) {
+			return;
+		}
+		if (wanted[element.id]) {
+			displayed[element.id] = element;
+		} else {
+			element.remove();
+		}
+	});
+
+	if (patch.header !== undefined) {
+		content.querySelectorAll(':scope > .toggleread').forEach(function each(header) {
+			header.remove();
+		});
+		content.insertBefore(createFragment(patch.header), content.firstChild);
+	}
+	if (patch.footer !== undefined) {
+		content.querySelectorAll(':scope > div.unread').forEach(function each(footer) {
+			footer.remove();
+		});
+		content.appendChild(createFragment(patch.footer));
+	}
+
+	var hideReadPosts = content.querySelector(':scope > .toggleread') !== null;
+	var next = firstPost(content);
+	var added = [];
+	patch.posts.forEach(function each(post) {
+		var id = 'post' + post.id;
+		var existing = displayed[id];
+		if (post.html === undefined) {
+			if (!existing) {
+				throw new Error('missing post ' + id);
+			}
+			if (existing === next) {
+				next = existing.nextElementSibling;
+			} else {
+				content.insertBefore(existing, next);
+			}
+			// a new header can mean the read posts need hiding, or showing again
+			if (patch.header !== undefined && existing.classList.contains('read')) {
+				existing.style.display = hideReadPosts ? 'none' : '';
+			}
+			return;
+		}
+		var element = createFragment(post.html).firstElementChild;
+		if (!element || element.id !== id) {
+			throw new Error('unexpected html for post ' + id);
+		}
+		if (existing) {
+			if (existing === next) {
+				next = existing.nextElementSibling;
+			}
+			existing.remove();
+		}
+		content.insertBefore(element, next);
+		added.push(element);
+	});
+
+	added.forEach(function each(element) {
+		if (hideReadPosts && element.classList.contains('read')) {
+			element.style.display = 'none';
+		}
+		initSpoilers(element);
+		processPosts(element);
+	});
+	if (added.length > 0 && window.twttr && !window.twttr.init) {
+		window.twttr.insertTag();
+	}
+}
+
+/**
+ * Parses some html into a document fragment
+ * @param {String} html The html to parse
+ * @returns {DocumentFragment} The parsed elements
+ */
+function createFragment(html) {
+	var template = document.createElement('template');
+	template.innerHTML = html;
+	return template.content;
+}
+
+/**
+ * Finds the first post in the page content
+ * @param {Element} content The page content
+ * @returns {Element|null} The first post, or the footer if there are none
+ */
+function firstPost(content) {
+	var element = content.firstElementChild;
+	while (element && element.classList.contains('toggleread')) {
+		element = element.nextElementSibling;
+	}
+	return element;
+}
+
 /**
  * Initializes the newly added posts that have just been added to the container
  */
@@ -143,14 +367,7 @@ function pageInit() {
 	document.head.querySelectorAll('.JSONP').forEach(function removeScripts(script) {
 		script.remove();
 	});
-	var spoilers = document.body.querySelectorAll('.bbc-spoiler');
-	spoilers.forEach(function each(spoiler) {
-		spoiler.removeAttribute('onmouseover');
-		spoiler.removeAttribute('onmouseout');
-		if (listener.getPreference('showSpoilers') === 'true') {
-			spoiler.classList.remove('bbc-spoiler');
-		}
-	});
+	initSpoilers(document.body);
 	// hide-old posts
 	if (document.body.querySelector('.toggleread') !== null) {
 		document.body.querySelectorAll('.read').forEach(function each(post) {
@@ -165,6 +382,20 @@ function pageInit() {
 
 }
 
+/**
+ * Removes the site's spoiler hover handlers, and reveals spoilers if they're always shown
+ * @param {Element} scopeElement The element containing spoilers to set up
+ */
+function initSpoilers(scopeElement) {
+	scopeElement.querySelectorAll('.bbc-spoiler').forEach(function each(spoiler) {
+		spoiler.removeAttribute('onmouseover');
+		spoiler.removeAttribute('onmouseout');
+		if (listener.getPreference('showSpoilers') === 'true') {
+			spoiler.classList.remove('bbc-spoiler');
+		}
+	});
+}
+
 /**
  * Processes posts
  * @param {Element} scopeElement The element containing posts to process
@@ -1,11 +1,11 @@
 package com.ferg.awfulapp
 
-import android.database.Cursor
 import android.os.Bundle
 import android.text.Editable
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import android.widget.BaseAdapter
 import android.widget.EditText
 import android.widget.GridView
 import android.widget.ImageButton
@@ -14,23 +14,25 @@ import android.widget.Toast
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.FragmentManager
 import androidx.fragment.app.FragmentPagerAdapter
-import androidx.loader.app.LoaderManager
-import androidx.loader.content.CursorLoader
-import androidx.loader.content.Loader
+import androidx.lifecycle.lifecycleScope
 import androidx.viewpager.widget.ViewPager
 import com.android.volley.VolleyError
-import com.ferg.awfulapp.constants.Constants
 import com.ferg.awfulapp.preferences.AwfulPreferences
 import com.ferg.awfulapp.preferences.Keys
-import com.ferg.awfulapp.provider.AwfulProvider
+import com.ferg.awfulapp.provider.AwfulDatabase
 import com.ferg.awfulapp.provider.ColorProvider
-import com.ferg.awfulapp.service.AwfulCursorAdapter
+import com.ferg.awfulapp.provider.EmoteDao
+import com.ferg.awfulapp.provider.EmoteEntity
 import com.ferg.awfulapp.task.AwfulRequest
 import com.ferg.awfulapp.task.EmoteRequest
 import com.ferg.awfulapp.thread.AwfulEmote
 import com.ferg.awfulapp.util.PassiveTextWatcher
 import com.ferg.awfulapp.util.bind
 import com.google.android.material.tabs.TabLayout
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
 import timber.log.Timber
 
 /**
@@ -165,7 +167,7 @@ class EmoteFragment : EmoteGridFragment() {
             setTextColor(ColorProvider.PRIMARY_TEXT.color)
             addTextChangedListener(object : PassiveTextWatcher() {
                 override fun afterTextChanged(s: Editable?) {
-                    emoteLoader.currentFilter = (text.toString().trim())
+                    emoteQuery.currentFilter = (text.toString().trim())
                 }
             })
         }
@@ -186,7 +188,7 @@ class EmoteHistoryFragment : EmoteGridFragment() {
     override fun onActivityCreated(aSavedState: Bundle?) {
         super.onActivityCreated(aSavedState)
         emoteGrid.setUpEmoteGrid()
-        with(emoteLoader) {
+        with(emoteQuery) {
             filterExactCode = true
             currentFilter = EmoteHistory.getRecent().let { recent ->
                 // a blank filter list will show all emotes, so we need a term that shouldn't match anything...
@@ -204,9 +206,10 @@ abstract class EmoteGridFragment : AwfulFragment() {
 
     protected abstract val layoutId: Int
 
-    private val cursorAdapter by lazy { AwfulCursorAdapter(activity as AwfulActivity, null, null) }
-    val emoteLoader by lazy { EmoteDataCallback(cursorAdapter) }
-    // TODO can go in the loader callbacks?
+    private val emoteAdapter by lazy { EmoteAdapter(activity as AwfulActivity) }
+    val emoteQuery = EmoteQuery()
+    /** observes the current query while the fragment is started */
+    private var emoteJob: Job? = null
     var loadFailed = false
 
     override fun onCreateView(
@@ -225,7 +228,7 @@ abstract class EmoteGridFragment : AwfulFragment() {
      * Initialises a GridView as an EmoteGrid with all the basic settings - call this from your subclass!
      */
     fun GridView.setUpEmoteGrid() {
-        adapter = cursorAdapter
+        adapter = emoteAdapter
         setBackgroundColor(ColorProvider.BACKGROUND.color)
         setOnItemClickListener { _, view, _, _ ->
             val emoteCode = view.findViewById<TextView>(R.id.emote_text).text.toString().trim()
@@ -235,15 +238,31 @@ abstract class EmoteGridFragment : AwfulFragment() {
 
     override fun onStart() {
         super.onStart()
-        restartLoader()
+        observeEmotes()
     }
 
     override fun onStop() {
         super.onStop()
-        loaderManager.destroyLoader(Constants.EMOTE_LOADER_ID)
+        emoteJob?.cancel()
     }
 
-    private fun restartLoader() = restartLoader(Constants.EMOTE_LOADER_ID, null, emoteLoader)
+    /**
+     * Start showing the emotes for the current query, replacing any previous one. The grid updates
+     * by itself when the stored emotes change.
+     */
+    private fun observeEmotes() {
+        emoteJob?.cancel()
+        val dao = AwfulDatabase.getInstance(context ?: return).emoteDao()
+        emoteJob = lifecycleScope.launch {
+            emoteQuery.emotes(dao).collect { emotes ->
+                Timber.v("Showing %d emotes", emotes.size)
+                emoteAdapter.emotes = emotes
+                if (emotes.size < 5 && emoteQuery.currentFilter == null && !loadFailed) {
+                    syncEmotes()
+                }
+            }
+        }
+    }
 
     fun syncEmotes() {
         activity?.let { activity ->
@@ -252,8 +271,8 @@ abstract class EmoteGridFragment : AwfulFragment() {
                             this,
                             object : AwfulRequest.AwfulResultCallback<Void?> {
                                 override fun success(result: Void?) {
+                                    // the new emotes get picked up from the database
                                     loadFailed = false
-                                    awfulActivity?.run { restartLoader() }
                                 }
 
                                 override fun failure(error: VolleyError?) {
@@ -264,70 +283,66 @@ abstract class EmoteGridFragment : AwfulFragment() {
         }
     }
 
-    inner class EmoteDataCallback(
-            private val adapter: AwfulCursorAdapter
-    ) : LoaderManager.LoaderCallbacks<Cursor> {
+    inner class EmoteQuery {
 
         /** when true the filter will only match emote codes exactly, otherwise it searches within codes and the emotes' title subtexts */
         var filterExactCode = false
         var currentFilter: String? = null
             get() = field?.takeUnless(String::isNullOrBlank)
             set(value) {
-                field = value; restartLoader()
+                field = value; if (isAdded) observeEmotes()
             }
 
 
         /**
-         * Generate an SQL query selection string and its argument list from a set of search terms, according to the type of filtering we're doing.
+         * The emotes matching the current filter - the filter text is broken into multiple keywords,
+         * and an emote that matches any of them is included.
          */
-        private fun List<String>.asSelectionAndArgs(): Pair<String, Array<String>> {
-            return if (filterExactCode) {
-                // searching for the specific code strings, used to select specific emotes - look in names only, match exactly
-                val selection = Array(size) { "${AwfulEmote.TEXT}=?" }.joinToString(separator = " OR ")
-                Pair(selection, this.toTypedArray())
-            } else {
-                // general search (used for the search view) - search for each term twice, in emote titles and also the subtext (image title attribute)
-                val searchColumns = listOf(AwfulEmote.TEXT, AwfulEmote.SUBTEXT)
-                val selection =
-                        flatMap { searchColumns }.joinToString(separator = " OR ") { "$it  LIKE '%' || ? || '%'" }
-                Pair(
-                        selection,
-                        flatMap { term -> List(searchColumns.size) { term } }.toTypedArray()
-                )
+        fun emotes(dao: EmoteDao): Flow<List<EmoteEntity>> {
+            val terms = currentFilter?.split(EmoteHistory.SEPARATOR)?.filterNot(String::isBlank)
+            return when {
+                terms.isNullOrEmpty() -> dao.emotes()
+                // searching for the specific code strings, used to select specific emotes
+                filterExactCode -> dao.emotesWithCodes(terms)
+                // general search (used for the search view) - there's only a few thousand emotes, so
+                // filtering the full list is quicker than querying the database on every keystroke
+                else -> dao.emotes().map { emotes ->
+                    emotes.filter { emote ->
+                        terms.any { term ->
+                            emote.text.orEmpty().contains(term, ignoreCase = true)
+                                    || emote.subtext.orEmpty().contains(term, ignoreCase = true)
+                        }
+                    }
+                }
             }
-
         }
+    }
 
+}
 
-        override fun onCreateLoader(id: Int, args: Bundle?): Loader<Cursor> {
-            Timber.v("Creating emote cursor")
-            // break the filter text into multiple keywords, and create a query that matches any of them
-            val selectionAndArgs = currentFilter?.split(EmoteHistory.SEPARATOR)
-                    ?.filterNot(String::isBlank)
-                    ?.asSelectionAndArgs()
-                    ?: Pair(null, null)
-            return CursorLoader(
-                activity!!,
-                AwfulEmote.CONTENT_URI,
-                AwfulProvider.EmoteProjection,
-                selectionAndArgs.first,
-                selectionAndArgs.second,
-                AwfulEmote.INDEX
-            )
-        }
 
-        override fun onLoadFinished(loader: Loader<Cursor>, data: Cursor) {
-            adapter.swapCursor(data)
-            if (data.count < 5 && currentFilter == null && !loadFailed) {
-                syncEmotes()
-            }
-        }
+/**
+ * Displays a list of emotes in a grid.
+ */
+private class EmoteAdapter(private val activity: AwfulActivity) : BaseAdapter() {
 
-        override fun onLoaderReset(loader: Loader<Cursor>) {
-            adapter.swapCursor(null)
+    var emotes: List<EmoteEntity> = emptyList()
+        set(value) {
+            field = value; notifyDataSetChanged()
         }
-    }
 
+    override fun getCount() = emotes.size
+    override fun getItem(position: Int) = emotes[position]
+    override fun getItemId(position: Int) = emotes[position].id.toLong()
+    override fun hasStableIds() = true
+
+    override fun getView(position: Int, convertView: View?, parent: ViewGroup): View {
+        val view = convertView
+                ?: LayoutInflater.from(parent.context).inflate(R.layout.emote_grid_item, parent, false)
+        AwfulEmote.getView(view, emotes[position])
+        activity.setPreferredFont(view)
+        return view
+    }
 }
 
 
@@ -28,18 +28,18 @@
 package com.ferg.awfulapp;
 
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.DialogInterface;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
-import androidx.loader.content.Loader;
+import androidx.lifecycle.FlowLiveDataConversions;
+import androidx.lifecycle.LiveData;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.LayoutInflater;
@@ -57,17 +57,19 @@ import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.network.NetworkUtils;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.preferences.Keys;
+import com.ferg.awfulapp.provider.AwfulDatabase;
 import com.ferg.awfulapp.provider.AwfulProvider;
 import com.ferg.awfulapp.provider.ColorProvider;
-import com.ferg.awfulapp.provider.DatabaseHelper;
+import com.ferg.awfulapp.provider.ForumEntity;
+import com.ferg.awfulapp.provider.ThreadDao;
+import com.ferg.awfulapp.provider.ThreadEntity;
 import com.ferg.awfulapp.search.SearchFilter;
-import com.ferg.awfulapp.service.ThreadCursorAdapter;
+import com.ferg.awfulapp.service.ThreadListAdapter;
 import com.ferg.awfulapp.task.AwfulRequest;
 import com.ferg.awfulapp.task.BookmarkColorRequest;
 import com.ferg.awfulapp.task.BookmarkRequest;
 import com.ferg.awfulapp.task.MarkUnreadRequest;
 import com.ferg.awfulapp.task.ThreadListRequest;
-import com.ferg.awfulapp.thread.AwfulForum;
 import com.ferg.awfulapp.thread.AwfulPagedItem;
 import com.ferg.awfulapp.thread.AwfulThread;
 import com.ferg.awfulapp.widget.PageBar;
@@ -121,9 +123,13 @@ public class ForumDisplayFragment extends AwfulFragment implements SwipyRefreshL
     }
 
 
-	private ThreadCursorAdapter mCursorAdapter;
-    private ForumContentsCallback mForumLoaderCallback = new ForumContentsCallback();
-    private ForumDataCallback mForumDataCallback = new ForumDataCallback();
+	private ThreadListAdapter mThreadAdapter;
+    /** The threads on the page being shown - see {@link #showThreads()} */
+    @Nullable
+    private LiveData<PagingData<ThreadEntity>> threads;
+    /** The details of the forum being shown - see {@link #showForumDetails()} */
+    @Nullable
+    private LiveData<ForumEntity> forum;
 
 
     @Override
@@ -187,8 +193,8 @@ public class ForumDisplayFragment extends AwfulFragment implements SwipyRefreshL
             Timber.i("restored state - forumID: %d, page %d, skipLoad: %b", currentForumId, currentPage, skipLoad);
         }
 
-        mCursorAdapter = new ThreadCursorAdapter((AwfulActivity) getActivity(), null, this);
-        mListView.setAdapter(mCursorAdapter);
+        mThreadAdapter = new ThreadListAdapter((AwfulActivity) getActivity(), this);
+        mListView.setAdapter(mThreadAdapter);
         mListView.setOnItemClickListener(onThreadSelected);
         // TODO: save and restore scroll position - probably need to do the listview trick (get top item, and scroll offset from that) and save it as a deferred value, i.e. on load if there's a scroll value pending, do it and clear it
         updateColors();
@@ -287,10 +293,10 @@ public class ForumDisplayFragment extends AwfulFragment implements SwipyRefreshL
         if(aMenuInfo instanceof AdapterContextMenuInfo){
 	        android.view.MenuInflater inflater = getActivity().getMenuInflater();
 	        AdapterContextMenuInfo info = (AdapterContextMenuInfo) aMenuInfo;
-	        Cursor row = mCursorAdapter.getRow(info.id);
-            if(row != null && row.getInt(row.getColumnIndex(AwfulThread.BOOKMARKED))>-1) {
+	        AwfulThread thread = mThreadAdapter.getThread(info.id);
+            if(thread != null && thread.bookmarkType>-1) {
 	              inflater.inflate(R.menu.thread_longpress, aMenu);
-	              if(row.getInt(row.getColumnIndex(AwfulThread.BOOKMARKED))<1 || !getPrefs().coloredBookmarks){
+	              if(thread.bookmarkType<1 || !getPrefs().coloredBookmarks){
 	            	  MenuItem bookmarkColor = aMenu.findItem(R.id.thread_bookmark_color);
 	            	  if(bookmarkColor != null){
 	            		  bookmarkColor.setEnabled(false);
@@ -305,26 +311,29 @@ public class ForumDisplayFragment extends AwfulFragment implements SwipyRefreshL
     public boolean onContextItemSelected(android.view.MenuItem aItem) {
         AdapterContextMenuInfo info = (AdapterContextMenuInfo) aItem.getMenuInfo();
         int threadId = (int) info.id;
+        AwfulThread thread = mThreadAdapter.getThread(info.id);
+        int postCount = thread == null ? 0 : thread.postCount;
+        int bookmarkType = thread == null ? 0 : thread.bookmarkType;
         switch (aItem.getItemId()) {
             case R.id.first_page:
             	viewThread(threadId,1);
                 return true;
             case R.id.last_page:
-                int lastPage = AwfulPagedItem.indexToPage(mCursorAdapter.getInt(threadId, AwfulThread.POSTCOUNT), getPrefs().postPerPage);
+                int lastPage = AwfulPagedItem.indexToPage(postCount, getPrefs().postPerPage);
                 viewThread(threadId,lastPage);
                 return true;
             case R.id.go_to_page:
-                int maxPage = AwfulPagedItem.indexToPage(mCursorAdapter.getInt(threadId, AwfulThread.POSTCOUNT), getPrefs().postPerPage);
+                int maxPage = AwfulPagedItem.indexToPage(postCount, getPrefs().postPerPage);
                 selectThreadPage(threadId, maxPage);
                 return true;
             case R.id.mark_thread_unread:
             	markUnread(threadId);
                 return true;
             case R.id.thread_bookmark:
-            	toggleThreadBookmark(threadId, (mCursorAdapter.getInt(threadId, AwfulThread.BOOKMARKED)+1)%2>0);
+            	toggleThreadBookmark(threadId, (bookmarkType+1)%2>0);
                 return true;
             case R.id.thread_bookmark_color:
-            	toggleBookmarkColor(threadId, (mCursorAdapter.getInt(threadId, AwfulThread.BOOKMARKED)));
+            	toggleBookmarkColor(threadId, bookmarkType);
                 return true;
             case R.id.search_thread:
                 SearchFilter threadFilter = new SearchFilter(SearchFilter.FilterType.ThreadId, Integer.toString(threadId));
@@ -375,17 +384,14 @@ public class ForumDisplayFragment extends AwfulFragment implements SwipyRefreshL
 
     private AdapterView.OnItemClickListener onThreadSelected = new AdapterView.OnItemClickListener() {
         public void onItemClick(AdapterView<?> aParent, View aView, int aPosition, long aId) {
-            // TODO: 04/06/2017 why is all this in a threadlist click listener? We know it's a thread! It's not a forum!
-            Cursor row = mCursorAdapter.getRow(aId);
-            if(row != null && row.getColumnIndex(AwfulThread.BOOKMARKED)>-1) {
+            AwfulThread thread = mThreadAdapter.getThread(aId);
+            if(thread != null) {
                     Timber.i("Thread ID: " + aId);
-                    int unreadPage = AwfulPagedItem.getLastReadPage(row.getInt(row.getColumnIndex(AwfulThread.UNREADCOUNT)),
-                    												row.getInt(row.getColumnIndex(AwfulThread.POSTCOUNT)),
+                    int unreadPage = AwfulPagedItem.getLastReadPage(thread.unreadCount,
+                    												thread.postCount,
                     												getPrefs().postPerPage,
-                    												row.getInt(row.getColumnIndex(AwfulThread.HAS_VIEWED_THREAD)));
+                    												thread.hasBeenViewed ? 1 : 0);
                     viewThread((int) aId, unreadPage);
-            }else if(row != null && row.getColumnIndex(AwfulForum.PARENT_ID)>-1){
-                navigate(new NavigationEvent.Forum((int) aId, null));
             }
         }
     };
@@ -596,90 +602,59 @@ public class ForumDisplayFragment extends AwfulFragment implements SwipyRefreshL
         syncForum();
     }
 
-    private class ForumContentsCallback implements LoaderManager.LoaderCallbacks<Cursor> {
-
-		@NonNull
-        @Override
-		public Loader<Cursor> onCreateLoader(int aId, Bundle aArgs) {
-			Timber.i("Creating forum cursor: "+getForumId());
-            // TODO: move this query code into a provider class
-            boolean isBookmarks = (getForumId() == USERCP_ID);
-            int thisPageIndex = AwfulPagedItem.forumPageToIndex(getPage());
-            int nextPageIndex = AwfulPagedItem.forumPageToIndex(getPage() + 1);
-
-            // set up some cursor query stuff, depending on whether this is a normal forum or the bookmarks one
-            Uri contentUri = isBookmarks ? AwfulThread.CONTENT_URI_UCP : AwfulThread.CONTENT_URI;
-
-            String selection;
-            String[] selectionArgs;
-            if (isBookmarks) {
-                selection = String.format("%s.%s>=? AND %s.%s<?",
-                        DatabaseHelper.TABLE_UCP_THREADS, AwfulThread.INDEX, DatabaseHelper.TABLE_UCP_THREADS, AwfulThread.INDEX);
-                selectionArgs = AwfulProvider.int2StrArray(thisPageIndex, nextPageIndex);
-            } else {
-                selection = String.format("%s=? AND %s>=? AND %s<?",
-                        AwfulThread.FORUM_ID, AwfulThread.INDEX, AwfulThread.INDEX);
-                selectionArgs = AwfulProvider.int2StrArray(getForumId(), thisPageIndex, nextPageIndex);
-            }
-
-            boolean sortNewFirst = (isBookmarks && getPrefs().newThreadsFirstUCP) || (!isBookmarks && getPrefs().newThreadsFirstForum);
-            String sortOrder = sortNewFirst ? AwfulThread.HAS_NEW_POSTS + " DESC, " + AwfulThread.INDEX : AwfulThread.INDEX;
-
-            return new CursorLoader(getActivity(), contentUri, AwfulProvider.ThreadProjection, selection, selectionArgs, sortOrder);
-        }
-
-		@Override
-        public void onLoadFinished(@NonNull Loader<Cursor> aLoader, Cursor aData) {
-			Timber.i("Forum contents finished, populating");
-        	if(aData != null && !aData.isClosed() && aData.moveToFirst()){
-            	mCursorAdapter.swapCursor(aData);
-        	}else{
-            	mCursorAdapter.swapCursor(null);
-        	}
+    /**
+     * Show the cached threads on the current page of the forum. The list updates itself whenever
+     * they change, e.g. when the page is synced.
+     */
+    private void showThreads() {
+        if (threads != null) {
+            threads.removeObservers(this);
         }
-
-		@Override
-		public void onLoaderReset(@NonNull Loader<Cursor> arg0) {
-			Timber.i("ForumContentsCallback - onLoaderReset");
-			mCursorAdapter.swapCursor(null);
-		}
+        Timber.i("Creating forum threads pager: "+getForumId());
+        boolean isBookmarks = (getForumId() == USERCP_ID);
+        int forumId = getForumId();
+        int thisPageIndex = AwfulPagedItem.forumPageToIndex(getPage());
+        int nextPageIndex = AwfulPagedItem.forumPageToIndex(getPage() + 1);
+        boolean sortNewFirst = (isBookmarks && getPrefs().newThreadsFirstUCP) || (!isBookmarks && getPrefs().newThreadsFirstForum);
+
+        ThreadDao threadDao = AwfulDatabase.getInstance(requireContext()).threadDao();
+        Pager<Integer, ThreadEntity> pager = new Pager<>(new PagingConfig(Constants.THREADS_PER_PAGE), () -> isBookmarks
+                ? threadDao.bookmarksPage(thisPageIndex, nextPageIndex, sortNewFirst)
+                : threadDao.forumPage(forumId, thisPageIndex, nextPageIndex, sortNewFirst));
+        threads = PagingLiveData.cachedIn(PagingLiveData.getLiveData(pager), getLifecycle());
+        threads.observe(this, page -> mThreadAdapter.submitData(getLifecycle(), page));
     }
 
 
-	private class ForumDataCallback implements LoaderManager.LoaderCallbacks<Cursor> {
-
-		@NonNull
-        public Loader<Cursor> onCreateLoader(int aId, Bundle aArgs) {
-            Timber.i("Creating forum title cursor: "+getForumId());
-            return new CursorLoader(getActivity(), ContentUris.withAppendedId(AwfulForum.CONTENT_URI, getForumId()),
-            		AwfulProvider.ForumProjection, null, null, null);
+    /**
+     * Show the current forum's title and page count, updating them whenever they change.
+     */
+    private void showForumDetails() {
+        if (forum != null) {
+            forum.removeObservers(this);
         }
-
-        @Override
-        public void onLoadFinished(@NonNull Loader<Cursor> aLoader, Cursor aData) {
-            if (aData != null && !aData.isClosed() && aData.moveToFirst()) {
-                Timber.i("Forum title finished, populating: " + aData.getCount());
-                mTitle = aData.getString(aData.getColumnIndex(AwfulForum.TITLE));
-                mLastPage = aData.getInt(aData.getColumnIndex(AwfulForum.PAGE_COUNT));
+        Timber.i("Creating forum title query: "+getForumId());
+        forum = FlowLiveDataConversions.asLiveData(AwfulDatabase.getInstance(requireContext()).forumDao().forum(getForumId()));
+        forum.observe(this, data -> {
+            if (data != null) {
+                Timber.i("Forum title finished, populating");
+                mTitle = data.getTitle();
+                mLastPage = data.getPageCount() == null ? 0 : data.getPageCount();
                 ForumsIndexActivity activity = ((ForumsIndexActivity) getActivity());
                 if (activity != null) {
                     activity.onPageContentChanged();
                 }
             }
 
-			updatePageBar();
-			refreshProbationBar();
-        }
-
-        @Override
-        public void onLoaderReset(@NonNull Loader<Cursor> aLoader) {
-        }
+            updatePageBar();
+            refreshProbationBar();
+        });
     }
 
 	private void refreshInfo(){
 		if(getActivity() != null){
-			restartLoader(Constants.FORUM_THREADS_LOADER_ID, null, mForumLoaderCallback);
-	    	restartLoader(Constants.FORUM_LOADER_ID, null, mForumDataCallback);
+			showThreads();
+			showForumDetails();
 		}
 	}
 
@@ -488,7 +488,7 @@ public class PostReplyFragment extends AwfulFragment {
                 if (context != null) {
                     Toast.makeText(context, context.getString(R.string.post_sent), Toast.LENGTH_LONG).show();
                 }
-                mContentResolver.notifyChange(AwfulThread.CONTENT_URI, null);
+                mContentResolver.notifyChange(ContentUris.withAppendedId(AwfulThread.CONTENT_URI, mThreadId), null);
                 leave(mReplyType == TYPE_EDIT ? mPostId : RESULT_POSTED);
             }
 
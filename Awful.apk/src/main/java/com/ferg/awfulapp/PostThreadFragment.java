@@ -432,7 +432,7 @@ public class PostThreadFragment extends AwfulFragment {
                 if (context != null) {
                     Toast.makeText(context, context.getString(R.string.post_sent), Toast.LENGTH_LONG).show();
                 }
-                mContentResolver.notifyChange(AwfulThread.CONTENT_URI, null);
+                mContentResolver.notifyChange(AwfulThread.forumUri(mForumId), null);
                 leave(RESULT_POSTED);
             }
 
@@ -33,19 +33,15 @@ import android.app.AlertDialog;
 import android.app.DownloadManager;
 import android.app.DownloadManager.Request;
 import android.content.ActivityNotFoundException;
-import android.content.ContentUris;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.ContentObserver;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
 import android.text.TextUtils;
 import android.text.format.Formatter;
 import android.view.InflateException;
@@ -59,7 +55,6 @@ import android.webkit.CookieManager;
 import android.webkit.DownloadListener;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -72,9 +67,13 @@ import com.ferg.awfulapp.popupmenu.PostContextMenu;
 import com.ferg.awfulapp.popupmenu.UrlContextMenu;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.preferences.Keys;
-import com.ferg.awfulapp.provider.AwfulProvider;
+import com.ferg.awfulapp.provider.AwfulDatabase;
 import com.ferg.awfulapp.provider.AwfulTheme;
+import com.ferg.awfulapp.provider.CacheRetention;
 import com.ferg.awfulapp.provider.ColorProvider;
+import com.ferg.awfulapp.provider.DisplayedThread;
+import com.ferg.awfulapp.provider.ThreadDao;
+import com.ferg.awfulapp.provider.ThreadEntity;
 import com.ferg.awfulapp.search.SearchFilter;
 import com.ferg.awfulapp.task.AwfulRequest;
 import com.ferg.awfulapp.task.BookmarkRequest;
@@ -92,12 +91,14 @@ import com.ferg.awfulapp.thread.AwfulHtmlPage;
 import com.ferg.awfulapp.thread.AwfulMessage;
 import com.ferg.awfulapp.thread.AwfulPagedItem;
 import com.ferg.awfulapp.thread.AwfulPost;
-import com.ferg.awfulapp.thread.AwfulThread;
 import com.ferg.awfulapp.thread.AwfulURL;
 import com.ferg.awfulapp.thread.AwfulURL.TYPE;
+import com.ferg.awfulapp.thread.PostContentPreferences;
+import com.ferg.awfulapp.thread.ThreadPageLoader;
 import com.ferg.awfulapp.util.AwfulError;
 import com.ferg.awfulapp.util.AwfulUtils;
 import com.ferg.awfulapp.webview.AwfulWebView;
+import com.ferg.awfulapp.webview.AwfulWebViewClient;
 import com.ferg.awfulapp.webview.LoggingWebChromeClient;
 import com.ferg.awfulapp.webview.WebViewJsInterface;
 import com.ferg.awfulapp.widget.PageBar;
@@ -110,7 +111,6 @@ import com.orangegangsters.github.swipyrefreshlayout.library.SwipyRefreshLayoutD
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -126,9 +126,11 @@ import androidx.appcompat.widget.ShareActionProvider;
 import androidx.core.content.ContextCompat;
 import androidx.core.view.MenuItemCompat;
 import androidx.fragment.app.FragmentManager;
+import androidx.lifecycle.FlowLiveDataConversions;
+import androidx.lifecycle.LiveData;
 import androidx.loader.app.LoaderManager;
-import androidx.loader.content.CursorLoader;
 import androidx.loader.content.Loader;
+import kotlinx.coroutines.flow.FlowKt;
 import timber.log.Timber;
 
 /**
@@ -146,7 +148,9 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	private static final String SCROLL_POSITION_KEY = "scroll_position";
 	private static final String KEEP_SCREEN_ON_KEY = "screen_stays_on";
 	private PostLoaderManager mPostLoaderCallback;
-    private ThreadDataCallback mThreadLoaderCallback;
+    /** The thread's data, while it's being observed - see {@link #refreshInfo()} */
+    @Nullable
+    private LiveData<DisplayedThread> threadInfo;
 
 	/*
 		Potentially null views, if layout inflation failed (i.e. the WebView package is updating)
@@ -196,6 +200,9 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	private int savedScrollPosition = 0;
 	/** Whether the currently displayed page represents a full page of posts */
 	private boolean displayingFullPage = false;
+	/** The settings the displayed posts' content was processed with, so we can tell when they need re-rendering */
+	@Nullable
+	private PostContentPreferences displayedContentPrefs = null;
 
 	private ShareActionProvider shareProvider;
 
@@ -211,7 +218,6 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
     private AsyncTask<Void, Void, String> redirect = null;
 	private Uri downloadLink;
 
-	private final ThreadContentObserver mThreadObserver = new ThreadContentObserver(getHandler());
 
 
 
@@ -281,7 +287,6 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
         setHasOptionsMenu(true);
         parentActivity = (ForumsIndexActivity) getActivity();
         mPostLoaderCallback = new PostLoaderManager();
-        mThreadLoaderCallback = new ThreadDataCallback();
 
 		// if a navigation event is pending, we don't care about any saved state - just do the navigation
 		if (pendingNavigation != null) {
@@ -345,7 +350,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 
 
 
-	private WebViewClient threadWebViewClient = new WebViewClient() {
+	private AwfulWebViewClient threadWebViewClient = new AwfulWebViewClient() {
 
 		@Override
 		public boolean shouldOverrideUrlLoading(WebView aView, String aUrl) {
@@ -430,7 +435,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		if(mThreadView != null){
 			mThreadView.onResume();
 		}
-        getActivity().getContentResolver().registerContentObserver(AwfulThread.CONTENT_URI, true, mThreadObserver);
+        // the thread info is observed from the database, so it updates by itself when the thread changes
         refreshInfo();
     }
 
@@ -454,8 +459,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
     @Override
     public void onPause() {
         super.onPause();
-        getActivity().getContentResolver().unregisterContentObserver(mThreadObserver);
-        getLoaderManager().destroyLoader(Constants.THREAD_INFO_LOADER_ID);
+        stopThreadInfoUpdates();
 		if (mThreadView != null) {
 			mThreadView.onPause();
 		}
@@ -924,7 +928,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		getPrefs().amberDefaultPos = !getPrefs().amberDefaultPos;
 		getPrefs().setPreference(Keys.AMBER_DEFAULT_POS, getPrefs().amberDefaultPos);
 		if (mThreadView != null) {
-			mThreadView.runJavascript(String.format("changeCSS('%s')", AwfulTheme.forForum(mParentForumId).getCssPath()));
+			mThreadView.runJavascriptAfterContent(String.format("changeCSS('%s')", AwfulTheme.forForum(mParentForumId).getCssPath()));
 		}
 	}
 
@@ -1086,7 +1090,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		}));
 	}
 
-	private void populateThreadView(ArrayList<AwfulPost> aPosts) {
+	private void populateThreadView(ThreadPageLoader.RenderedPage page) {
 		if (mThreadView == null) {
 			Timber.w("populateThreadView called with null WebView");
 			return;
@@ -1094,11 +1098,13 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		updateUiElements();
 
         try {
-            Timber.d("populateThreadView: displaying %d posts", aPosts.size());
-            String html = AwfulHtmlPage.getThreadHtml(aPosts, AwfulPreferences.getInstance(getActivity()), getPageNumber(), mLastPage);
+            Timber.d("populateThreadView: displaying %d posts", page.getPostCount());
+            displayedContentPrefs = page.getPrefs().getContent();
             refreshSessionCookie();
-			mThreadView.setBodyHtml(html);
-			displayingFullPage = aPosts.size() >= getPrefs().postPerPage; // shouldn't ever be > but just to be safe
+            // refreshing the same page only replaces the posts that changed
+            String pageKey = getThreadId() + "/" + getPageNumber() + "/" + postFilterUserId;
+			mThreadView.setThreadPage(pageKey, page.getHtml());
+			displayingFullPage = page.getPostCount() >= getPrefs().postPerPage; // shouldn't ever be > but just to be safe
             setProgress(100);
         } catch (Exception e) {
             // If we've already left the activity the webview may still be working to populate,
@@ -1200,7 +1206,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 					public void success(String result) {
 						ignorePostsHtml.put(ignorePost,result);
 						if (mThreadView != null) {
-							mThreadView.runJavascript(String.format("insertIgnoredPost('%s')", ignorePost));
+							mThreadView.runJavascriptAfterContent(String.format("insertIgnoredPost('%s')", ignorePost));
 						}
 					}
 
@@ -1303,7 +1309,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 
 	public void showImageInline(String url){
 		if(mThreadView != null){
-			mThreadView.runJavascript(String.format("showInlineImage('%s')", url));
+			mThreadView.runJavascriptAfterContent(String.format("showInlineImage('%s')", url));
 		}
 	}
 
@@ -1370,10 +1376,14 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
             mThreadView.getSettings().setDefaultFixedFontSize(mPrefs.postFixedFontSizeSp);
 
 			if("marked_users".equals(key)){
-				mThreadView.runJavascript(String.format("updateMarkedUsers('%s')", TextUtils.join(",", mPrefs.markedUsers)));
+				mThreadView.runJavascriptAfterContent(String.format("updateMarkedUsers('%s')", TextUtils.join(",", mPrefs.markedUsers)));
 			}
 		}
 		clickInterface.updatePreferences();
+		// posts are processed for display according to some of the settings - if they've changed, render the posts again
+		if (displayedContentPrefs != null && !displayedContentPrefs.equals(PostContentPreferences.from(mPrefs))) {
+			refreshPosts();
+		}
 		if(mFAB != null) {
 			if (mPrefs.noFAB) {
 				mFAB.hide();
@@ -1448,13 +1458,15 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	 * @param name	the user's username
      */
 	private void showUsersPosts(int id, String name){
-		// TODO: legend has it this doesn't work and shows other people's posts if the page isn't full
 		pageBeforeFiltering = getPageNumber();
 		setPostFiltering(id, name);
 		setPageNumber(FIRST_PAGE);
 		mLastPage = FIRST_PAGE;
 		setPostJump("");
-        refresh();
+		// the filtered thread is cached separately, so show what we have while it's updated
+		refreshInfo();
+		refreshPosts();
+		syncThread();
 	}
 
 
@@ -1471,7 +1483,10 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 			setPageNumber(pageBeforeFiltering);
 			mLastPage = 0;
 			setPostJump("");
-			refresh();
+			// the full thread's cached pages weren't touched by the filtered view, so they can be shown straight away
+			refreshInfo();
+			refreshPosts();
+			syncThread();
 		}
 	}
 
@@ -1497,100 +1512,82 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	}
 
 
-    private class PostLoaderManager implements LoaderManager.LoaderCallbacks<Cursor> {
-        private final static String sortOrder = AwfulPost.POST_INDEX + " ASC";
-        private final static String selection = AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?";
-        public Loader<Cursor> onCreateLoader(int aId, Bundle aArgs) {
-            int index = AwfulPagedItem.pageToIndex(getPageNumber(), getPrefs().postPerPage, 0);
-            Timber.i("Loading page %d of thread %d from database\nStart index is %d with %d posts per page",
-                    getPageNumber(), getThreadId(), index, getPrefs().postPerPage);
-            return new CursorLoader(getActivity(),
-            						AwfulPost.CONTENT_URI,
-            						AwfulProvider.PostProjection,
-            						selection,
-            						AwfulProvider.int2StrArray(getThreadId(), index, index+ getPrefs().postPerPage),
-            						sortOrder);
+    private class PostLoaderManager implements LoaderManager.LoaderCallbacks<ThreadPageLoader.RenderedPage> {
+        public Loader<ThreadPageLoader.RenderedPage> onCreateLoader(int aId, Bundle aArgs) {
+            Timber.i("Loading page %d of thread %d from database with %d posts per page",
+                    getPageNumber(), getThreadId(), getPrefs().postPerPage);
+            // only changes to the posts on this page will reload it
+            Uri pageUri = postFilterUserId == null
+                    ? AwfulPost.threadPageUri(getThreadId(), getPageNumber())
+                    : AwfulPost.filteredPageUri(getThreadId(), postFilterUserId, getPageNumber());
+            // the page is read and rendered in the background, loading the posts' content as it goes
+            return new ThreadPageLoader(getActivity(), pageUri, getPageNumber(), () -> mLastPage);
         }
 
-        public void onLoadFinished(Loader<Cursor> aLoader, Cursor aData) {
+        public void onLoadFinished(Loader<ThreadPageLoader.RenderedPage> aLoader, ThreadPageLoader.RenderedPage aData) {
         	setProgress(90);
-        	if(aData.isClosed()){
+        	if(aData == null){
         		return;
         	}
         	if(mThreadView != null){
-        		populateThreadView(AwfulPost.fromCursor(getActivity(), aData));
+        		populateThreadView(aData);
         	}
+			// keep this thread in the cache for longer
+			CacheRetention.touch(getActivity().getContentResolver(), getThreadId());
 			// TODO: 04/05/2017 sometimes you don't want this resetting, e.g. restoring fragment state
 			savedScrollPosition = 0;
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> aLoader) {
+        public void onLoaderReset(Loader<ThreadPageLoader.RenderedPage> aLoader) {
         }
     }
 
 
-    private class ThreadDataCallback implements LoaderManager.LoaderCallbacks<Cursor> {
-
-        public Loader<Cursor> onCreateLoader(int aId, Bundle aArgs) {
-            return new CursorLoader(getActivity(), ContentUris.withAppendedId(AwfulThread.CONTENT_URI, getThreadId()), 
-            		AwfulProvider.ThreadProjection, null, null, null);
-        }
-
-        public void onLoadFinished(Loader<Cursor> aLoader, Cursor aData) {
-        	Timber.i("Loaded thread metadata, updating fragment state and UI");
-        	if(aData.getCount() >0 && aData.moveToFirst()){
-        		mLastPage = AwfulPagedItem.indexToPage(aData.getInt(aData.getColumnIndex(AwfulThread.POSTCOUNT)), getPrefs().postPerPage);
-				threadLocked = aData.getInt(aData.getColumnIndex(AwfulThread.LOCKED))>0;
-				threadLockableUnlockable = aData.getInt(aData.getColumnIndex(AwfulThread.CAN_OPEN_CLOSE))>0;
-        		threadBookmarked = aData.getInt(aData.getColumnIndex(AwfulThread.BOOKMARKED))>0;
-				threadArchived = aData.getInt(aData.getColumnIndex(AwfulThread.ARCHIVED))>0;
-				mTitle = aData.getString(aData.getColumnIndex(AwfulThread.TITLE));
-        		mParentForumId = aData.getInt(aData.getColumnIndex(AwfulThread.FORUM_ID));
-				if(mParentForumId != 0 && mThreadView != null){
-					mThreadView.runJavascript(String.format("changeCSS('%s')", AwfulTheme.forForum(mParentForumId).getCssPath()));
-				}
+    /**
+     * Update the fragment with the thread's data (bookmarked, locked etc.) - this is called again
+     * whenever it changes in the database.
+     */
+    private void onThreadLoaded(@Nullable DisplayedThread displayed) {
+        Timber.i("Loaded thread metadata, updating fragment state and UI");
+        if (displayed != null) {
+            ThreadEntity thread = displayed.getThread();
+            mLastPage = AwfulPagedItem.indexToPage(displayed.getPostCount(), getPrefs().postPerPage);
+            threadLocked = Boolean.TRUE.equals(thread.getLocked());
+            threadLockableUnlockable = Boolean.TRUE.equals(thread.getCanOpenClose());
+            threadBookmarked = thread.getBookmarked() != null && thread.getBookmarked() > 0;
+            threadArchived = Boolean.TRUE.equals(thread.getArchived());
+            mTitle = thread.getTitle();
+            mParentForumId = thread.getForumId() == null ? 0 : thread.getForumId();
+			if(mParentForumId != 0 && mThreadView != null){
+				mThreadView.runJavascriptAfterContent(String.format("changeCSS('%s')", AwfulTheme.forForum(mParentForumId).getCssPath()));
+			}
 
-				parentActivity.onPageContentChanged();
+			parentActivity.onPageContentChanged();
 
-				updateUiElements();
-				if (mUserPostNotice != null) {
-					if (postFilterUserId != null) {
-						mUserPostNotice.setVisibility(View.VISIBLE);
-						mUserPostNotice.setText(String.format("Viewing posts by %s in this thread,\nPress the back button to return.", postFilterUsername));
-						mUserPostNotice.setTextColor(ColorProvider.PRIMARY_TEXT.getColor());
-						mUserPostNotice.setBackgroundColor(ColorProvider.BACKGROUND.getColor());
-					} else {
-						mUserPostNotice.setVisibility(View.GONE);
-					}
+			updateUiElements();
+			if (mUserPostNotice != null) {
+				if (postFilterUserId != null) {
+					mUserPostNotice.setVisibility(View.VISIBLE);
+					mUserPostNotice.setText(String.format("Viewing posts by %s in this thread,\nPress the back button to return.", postFilterUsername));
+					mUserPostNotice.setTextColor(ColorProvider.PRIMARY_TEXT.getColor());
+					mUserPostNotice.setBackgroundColor(ColorProvider.BACKGROUND.getColor());
+				} else {
+					mUserPostNotice.setVisibility(View.GONE);
 				}
-        		if(shareProvider != null){
-        			shareProvider.setShareIntent(createShareIntent(null));
-        		}
-                invalidateOptionsMenu();
-				if (mFAB != null) {
-					if (getPrefs().noFAB || threadLocked || threadArchived) {
-						mFAB.hide();
-					} else {
-						mFAB.show();
-					}
+			}
+    		if(shareProvider != null){
+    			shareProvider.setShareIntent(createShareIntent(null));
+    		}
+            invalidateOptionsMenu();
+			if (mFAB != null) {
+				if (getPrefs().noFAB || threadLocked || threadArchived) {
+					mFAB.hide();
+				} else {
+					mFAB.show();
 				}
-        	}
-        }
-        
-        @Override
-        public void onLoaderReset(Loader<Cursor> aLoader) {
-        }
-    }
-    private class ThreadContentObserver extends ContentObserver {
-        public ThreadContentObserver(Handler aHandler) {
-            super(aHandler);
-        }
-        @Override
-        public void onChange (boolean selfChange){
-        	Timber.i("Thread metadata has been updated - forcing refresh");
-        	refreshInfo();
-        }
+			}
+    	}
     }
 
 
@@ -1599,10 +1596,21 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 	 *
 	 * This loads from the database, and reflects the last cached status of the thread.
 	 * To actually download current data from the site call {@link #syncThread()} instead.
-	 * @see ThreadDataCallback
+	 * @see #onThreadLoaded(DisplayedThread)
 	 */
 	private void refreshInfo() {
-		restartLoader(Constants.THREAD_INFO_LOADER_ID, null, mThreadLoaderCallback);
+		stopThreadInfoUpdates();
+		ThreadDao threadDao = AwfulDatabase.getInstance(requireContext()).threadDao();
+		threadInfo = FlowLiveDataConversions.asLiveData(
+				FlowKt.distinctUntilChanged(threadDao.displayedThread(getThreadId(), postFilterUserId)));
+		threadInfo.observe(this, this::onThreadLoaded);
+	}
+
+	private void stopThreadInfoUpdates() {
+		if (threadInfo != null) {
+			threadInfo.removeObservers(this);
+			threadInfo = null;
+		}
 	}
 
 
@@ -1734,7 +1742,7 @@ public class ThreadDisplayFragment extends AwfulFragment implements NavigationEv
 		updateUiElements();
 		showBlankPage();
 		if(getActivity() != null){
-			getLoaderManager().destroyLoader(Constants.THREAD_INFO_LOADER_ID);
+			stopThreadInfoUpdates();
 			getLoaderManager().destroyLoader(Constants.POST_LOADER_ID);
 			refreshInfo();
 			// TODO: shouldn't every load do a sync?
@@ -11,7 +11,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.webkit.JavascriptInterface;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 
 import com.android.volley.VolleyError;
 import com.ferg.awfulapp.AwfulFragment;
@@ -24,6 +23,7 @@ import com.ferg.awfulapp.task.AwfulRequest;
 import com.ferg.awfulapp.thread.AwfulHtmlPage;
 import com.ferg.awfulapp.thread.AwfulPost;
 import com.ferg.awfulapp.webview.AwfulWebView;
+import com.ferg.awfulapp.webview.AwfulWebViewClient;
 import com.ferg.awfulapp.webview.WebViewJsInterface;
 import com.ferg.awfulapp.widget.StatusFrog;
 
@@ -89,7 +89,7 @@ public class AnnouncementsFragment extends AwfulFragment {
             }
 
         });
-        binding.announcementsWebview.setWebViewClient(new WebViewClient() {
+        binding.announcementsWebview.setWebViewClient(new AwfulWebViewClient() {
             // this lets links open back in the main activity if we handle them (e.g. 'look at this thread'),
             // and opens them in a browser or whatever if we don't (e.g. 'click here to buy a thing on the site')
             @Override
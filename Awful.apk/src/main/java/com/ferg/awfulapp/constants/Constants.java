@@ -69,6 +69,7 @@ public class Constants {
     public static final String ACTION_NEW_THREAD          = "newthread";
 	public static final String ACTION_SHOWPOST 			  = "showpost";
     public static final String ACTION_ADDLIST 			  = "addlist";
+    public static final String ACTION_VIEWLIST 			  = "viewlist";
     public static final String ACTION_QUERY 			  = "query";
     public static final String ACTION_RESULTS 			  = "results";
     public static final String ACTION_TOGGLE_THREAD_LOCKED = "openclosethread";
@@ -0,0 +1,123 @@
+package com.ferg.awfulapp.network
+
+import android.content.Context
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.util.LruCache
+import androidx.annotation.MainThread
+import androidx.annotation.WorkerThread
+import com.ferg.awfulapp.provider.AwfulProvider
+import com.ferg.awfulapp.provider.DatabaseHelper
+import com.ferg.awfulapp.task.VimeoMetadataRequest
+import com.ferg.awfulapp.thread.AwfulEmbed
+import timber.log.Timber
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Resolves metadata for videos embedded in posts, without holding up post parsing.
+ *
+ * Parsed posts contain placeholder links for embeds (see [AwfulEmbed.VIMEO_LINK_CLASS]). When the
+ * WebView displays them it asks for the real data through [lookupVimeo], which checks a small
+ * in-memory cache and then (on a background thread) the database. If nothing fresh is cached,
+ * [resolveVimeo] fetches it and calls back once it's been stored, so the link can be patched in.
+ *
+ * Cached metadata is considered fresh for [CACHE_TTL_DAYS] days - stale database rows are culled by
+ * [com.ferg.awfulapp.provider.CacheRetention.trim].
+ */
+object EmbedMetadataResolver {
+
+    const val CACHE_TTL_DAYS = 7
+
+    fun interface Callback {
+        @MainThread
+        fun onResolved(embed: AwfulEmbed)
+    }
+
+    private val memoryCache = LruCache<String, AwfulEmbed>(100)
+
+    /** callbacks waiting on in-flight requests, keyed by embed key */
+    private val pending = HashMap<String, MutableList<Callback>>()
+
+    /** runs the database lookups for [lookupVimeo], so the caller never waits on them */
+    private val lookupExecutor: ExecutorService by lazy {
+        Executors.newSingleThreadExecutor { r -> Thread(r, "embed-lookup").apply { isDaemon = true } }
+    }
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+
+    /**
+     * Get the metadata for a Vimeo video, passing it to the [callback] on the main thread.
+     *
+     * This returns immediately - the cache lookup happens on a background thread, and if there's
+     * nothing fresh cached, the metadata is fetched with [resolveVimeo].
+     */
+    fun lookupVimeo(context: Context, videoId: String, callback: Callback) {
+        val appContext = context.applicationContext
+        lookupExecutor.execute {
+            val cached = try {
+                getCachedVimeo(appContext, videoId)
+            } catch (e: Exception) {
+                Timber.w(e, "Failed to read cached metadata for Vimeo video %s", videoId)
+                null
+            }
+            if (cached != null) {
+                mainHandler.post { callback.onResolved(cached) }
+            } else {
+                mainHandler.post { resolveVimeo(appContext, videoId, callback) }
+            }
+        }
+    }
+
+
+    /**
+     * Get the cached metadata for a Vimeo video, if there's a fresh copy.
+     *
+     * This may hit the database, so don't call it on the main thread.
+     */
+    @WorkerThread
+    private fun getCachedVimeo(context: Context, videoId: String): AwfulEmbed? {
+        val key = AwfulEmbed.vimeoKey(videoId)
+        memoryCache.get(key)?.let { return it }
+        return context.contentResolver.query(
+            Uri.withAppendedPath(AwfulEmbed.CONTENT_URI, key),
+            AwfulProvider.EmbedProjection,
+            "${DatabaseHelper.UPDATED_TIMESTAMP} > datetime('now','-$CACHE_TTL_DAYS days')",
+            null,
+            null
+        )?.use { cursor ->
+            cursor.moveToFirst()
+            AwfulEmbed.fromCursorRow(cursor)
+        }?.also { memoryCache.put(key, it) }
+    }
+
+
+    /**
+     * Fetch and store the metadata for a Vimeo video, passing it to the [callback] when it's available.
+     *
+     * Multiple requests for the same video share a single network call. Failures are logged and
+     * the callback is never called, leaving the placeholder link in place.
+     */
+    fun resolveVimeo(context: Context, videoId: String, callback: Callback) {
+        val key = AwfulEmbed.vimeoKey(videoId)
+        synchronized(pending) {
+            pending[key]?.let { waiting ->
+                waiting.add(callback)
+                return
+            }
+            pending[key] = mutableListOf(callback)
+        }
+
+        NetworkUtils.queueRequest(VimeoMetadataRequest(context.applicationContext.contentResolver, videoId) { embed ->
+            val callbacks = synchronized(pending) { pending.remove(key) }.orEmpty()
+            if (embed == null) {
+                Timber.w("Failed to resolve metadata for Vimeo video %s", videoId)
+            } else {
+                memoryCache.put(key, embed)
+                callbacks.forEach { it.onResolved(embed) }
+            }
+        })
+    }
+}
@@ -0,0 +1,309 @@
+package com.ferg.awfulapp.network
+
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+
+/**
+ * Removes unwanted elements from raw page HTML before it's parsed, so jsoup has less to parse and
+ * the resulting Document is smaller.
+ *
+ * This works directly on the response bytes in a single pass, copying everything except the pruned
+ * elements into one output buffer - there's no decoding to a String and no regex matching. That
+ * relies on the site's encoding (windows-1252) being a superset of ASCII, so tags and attributes can
+ * be matched byte-for-byte.
+ *
+ * Each [PruneRule] describes an element to remove, by tag name and optionally an attribute value.
+ * Matching elements are removed along with all their contents (nested elements with the same tag are
+ * tracked, so the right closing tag is found). If a rule has a [PruneRule.Listener] it gets to see the
+ * element before it's dropped, e.g. to pull out a value the request needs.
+ *
+ * This isn't a real HTML parser, so rules should only target well-formed elements - if a matching
+ * element isn't closed properly it's left in place for jsoup to deal with.
+ */
+class HtmlPruner(private val rules: List<PruneRule>) {
+
+    /**
+     * Prune the first [length] bytes of [html], returning the remaining markup.
+     *
+     * The original array isn't modified - if there are no rules, the result just wraps it.
+     */
+    @JvmOverloads
+    fun prune(html: ByteArray, length: Int = html.size): PrunedHtml {
+        if (rules.isEmpty()) return PrunedHtml(html, length)
+        val out = ByteArray(length)
+        var outLength = 0
+        var copyFrom = 0
+        var pos = 0
+        while (true) {
+            val tagStart = html.indexOf(LT, pos, length)
+            if (tagStart < 0) break
+            if (html.startsWith(COMMENT_START, tagStart, length)) {
+                pos = html.indexOf(COMMENT_END, tagStart + COMMENT_START.size, length).let { if (it < 0) length else it + COMMENT_END.size }
+                continue
+            }
+
+            if (tagStart + 1 < length && !isLetter(html[tagStart + 1])) {
+                // closing tag, doctype, or just a stray '<' in some text
+                pos = tagStart + 1
+                continue
+            }
+            val openTagEnd = html.tagEnd(tagStart, length)
+            if (openTagEnd < 0) break
+            val rule = rules.firstOrNull { it.matches(html, tagStart, openTagEnd) }
+            if (rule == null) {
+                pos = skipRawText(html, tagStart, openTagEnd, length)
+                continue
+            }
+
+            val elementEnd = rule.findElementEnd(html, openTagEnd, length)
+            if (elementEnd < 0) {
+                // unclosed element - leave it alone
+                pos = openTagEnd
+                continue
+            }
+            rule.listener?.onPruned(html, tagStart, elementEnd)
+            System.arraycopy(html, copyFrom, out, outLength, tagStart - copyFrom)
+            outLength += tagStart - copyFrom
+            copyFrom = elementEnd
+            pos = elementEnd
+        }
+        System.arraycopy(html, copyFrom, out, outLength, length - copyFrom)
+        outLength += length - copyFrom
+        return PrunedHtml(out, outLength)
+    }
+
+
+    /**
+     * The result of pruning some HTML - the first [length] bytes of [data].
+     */
+    class PrunedHtml(val data: ByteArray, val length: Int) {
+        fun inputStream(): InputStream = ByteArrayInputStream(data, 0, length)
+    }
+
+
+    /**
+     * Describes an element to prune.
+     *
+     * @param tag               the element's tag name, in lower case
+     * @param attribute         an attribute the element must have, if any
+     * @param value             the value the [attribute] must have, if any
+     * @param matchValuePrefix  whether [value] only needs to match the start of the attribute's value
+     * @param listener          called with each matching element before it's removed
+     */
+    class PruneRule @JvmOverloads constructor(
+        tag: String,
+        attribute: String? = null,
+        value: String? = null,
+        private val matchValuePrefix: Boolean = false,
+        val listener: Listener? = null
+    ) {
+        private val tag = tag.toByteArray(Charsets.US_ASCII)
+        private val closeTag = "/$tag".toByteArray(Charsets.US_ASCII)
+        private val attribute = attribute?.toByteArray(Charsets.US_ASCII)
+        private val value = value?.toByteArray(Charsets.US_ASCII)
+        private val isRawText = tag in RAW_TEXT_TAGS
+
+        fun interface Listener {
+            /**
+             * Called with the bytes of a matching element, from [start] (its opening '<') to [end] (exclusive).
+             */
+            fun onPruned(html: ByteArray, start: Int, end: Int)
+        }
+
+        /**
+         * Get a copy of this rule which passes each matching element to a [listener].
+         */
+        fun withListener(listener: Listener) =
+            PruneRule(String(tag, Charsets.US_ASCII), attribute?.let { String(it, Charsets.US_ASCII) },
+                value?.let { String(it, Charsets.US_ASCII) }, matchValuePrefix, listener)
+
+        internal fun matches(html: ByteArray, tagStart: Int, openTagEnd: Int): Boolean {
+            if (!html.isTagName(tag, tagStart + 1, openTagEnd)) return false
+            if (attribute == null) return true
+            val valueStart = html.attributeValueStart(attribute, tagStart + 1 + tag.size, openTagEnd)
+            if (valueStart < 0) return false
+            if (value == null) return true
+            val quote = html[valueStart - 1]
+            val valueEnd = if (quote == QUOTE || quote == APOSTROPHE) html.indexOf(quote, valueStart, openTagEnd) else -1
+            if (valueEnd < 0) return false
+            val valueLength = valueEnd - valueStart
+            return (valueLength == value.size || matchValuePrefix && valueLength > value.size) &&
+                    html.startsWith(value, valueStart, valueEnd)
+        }
+
+        /**
+         * Find the end (exclusive) of an element matching this rule, or -1 if it isn't closed.
+         */
+        internal fun findElementEnd(html: ByteArray, openTagEnd: Int, length: Int): Int {
+            if (html[openTagEnd - 2] == SLASH) return openTagEnd
+            if (isRawText) return html.rawTextEnd(tag, openTagEnd, length)
+            var depth = 1
+            var pos = openTagEnd
+            while (depth > 0) {
+                val nextTag = html.indexOf(LT, pos, length)
+                if (nextTag < 0) return -1
+                if (html.startsWith(COMMENT_START, nextTag, length)) {
+                    pos = html.indexOf(COMMENT_END, nextTag, length).let { if (it < 0) return -1 else it + COMMENT_END.size }
+                    continue
+                }
+                val nextTagEnd = html.tagEnd(nextTag, length)
+                if (nextTagEnd < 0) return -1
+                when {
+                    html.isTagName(closeTag, nextTag + 1, nextTagEnd) -> depth--
+                    html.isTagName(tag, nextTag + 1, nextTagEnd) && html[nextTagEnd - 2] != SLASH -> depth++
+                }
+                pos = skipRawText(html, nextTag, nextTagEnd, length)
+            }
+            return pos
+        }
+    }
+
+
+    companion object {
+        private const val LT: Byte = 0x3C          // <
+        private const val GT: Byte = 0x3E          // >
+        private const val SLASH: Byte = 0x2F       // /
+        private const val EQUALS: Byte = 0x3D      // =
+        private const val QUOTE: Byte = 0x22       // "
+        private const val APOSTROPHE: Byte = 0x27  // '
+        private val COMMENT_START = "<!--".toByteArray(Charsets.US_ASCII)
+        private val COMMENT_END = "-->".toByteArray(Charsets.US_ASCII)
+
+        /** elements whose contents aren't markup, so shouldn't be scanned for tags */
+        private val RAW_TEXT_TAGS = setOf("script", "style")
+        private val RAW_TEXT_TAG_NAMES = RAW_TEXT_TAGS.map { it.toByteArray(Charsets.US_ASCII) }
+
+        /**
+         * Removes all scripts and stylesheets - the app never uses the site's own ones, but requests
+         * have to opt in to this, so it only applies to pages whose parsers are known not to need them
+         */
+        @JvmField
+        val SCRIPTS_AND_STYLES = listOf(PruneRule("script"), PruneRule("style"))
+
+        /** Removes the page selector dropdowns - add a listener to get the current and last page numbers from them */
+        @JvmField
+        val PAGE_SELECTOR = PruneRule("select", "data-url")
+
+        /** Removes the site's navigation menus */
+        @JvmField
+        val SITE_NAVIGATION = listOf(PruneRule("div", "id", "globalmenu"), PruneRule("div", "id", "nav_purchase"))
+
+        /** Removes the site's ad containers */
+        @JvmField
+        val ADS = listOf(PruneRule("div", "id", "ad_", matchValuePrefix = true))
+
+
+        /**
+         * If the tag between [tagStart] and [tagEnd] opens a script or style element, get the position
+         * just after the element, otherwise just after the tag.
+         */
+        private fun skipRawText(html: ByteArray, tagStart: Int, tagEnd: Int, length: Int): Int {
+            for (name in RAW_TEXT_TAG_NAMES) {
+                if (html.isTagName(name, tagStart + 1, tagEnd) && html[tagEnd - 2] != SLASH) {
+                    return html.rawTextEnd(name, tagEnd, length).let { if (it < 0) length else it }
+                }
+            }
+            return tagEnd
+        }
+
+        /** Find the end (exclusive) of the closing tag for raw text element [name], or -1 if there isn't one. */
+        private fun ByteArray.rawTextEnd(name: ByteArray, from: Int, length: Int): Int {
+            var pos = from
+            while (true) {
+                val closeStart = indexOf(LT, pos, length)
+                if (closeStart < 0 || closeStart + 1 >= length) return -1
+                if (this[closeStart + 1] == SLASH && isTagName(name, closeStart + 2, length)) {
+                    return indexOf(GT, closeStart, length).let { if (it < 0) -1 else it + 1 }
+                }
+                pos = closeStart + 1
+            }
+        }
+
+        /** Find the end (exclusive) of the tag starting at [tagStart], skipping over quoted attribute values. */
+        private fun ByteArray.tagEnd(tagStart: Int, length: Int): Int {
+            var quote: Byte = 0
+            var afterEquals = false
+            for (i in tagStart + 1 until length) {
+                val b = this[i]
+                when {
+                    quote != 0.toByte() -> if (b == quote) quote = 0
+                    b == GT -> return i + 1
+                    // only treat quotes as delimiters where they start an attribute value
+                    afterEquals && (b == QUOTE || b == APOSTROPHE) -> quote = b
+                }
+                if (quote == 0.toByte() && !isWhitespace(b)) afterEquals = b == EQUALS
+            }
+            return -1
+        }
+
+        /** Check if the tag name starting at [pos] is [name] (case-insensitive), i.e. it's followed by whitespace, '/' or '>' */
+        private fun ByteArray.isTagName(name: ByteArray, pos: Int, limit: Int): Boolean {
+            if (pos + name.size >= limit) return false
+            for (i in name.indices) {
+                if (lowerCase(this[pos + i]) != name[i]) return false
+            }
+            val next = this[pos + name.size]
+            return next == GT || next == SLASH || isWhitespace(next)
+        }
+
+        /**
+         * Find the start of the value for an [attribute] in the tag contents between [from] and [limit],
+         * i.e. the position after its opening quote. Returns -1 if the attribute isn't there.
+         */
+        private fun ByteArray.attributeValueStart(attribute: ByteArray, from: Int, limit: Int): Int {
+            var pos = from
+            while (pos < limit) {
+                if (isWhitespace(this[pos - 1]) && matchesIgnoreCase(attribute, pos, limit)) {
+                    var i = pos + attribute.size
+                    while (i < limit && isWhitespace(this[i])) i++
+                    if (i < limit && this[i] == EQUALS) {
+                        i++
+                        while (i < limit && isWhitespace(this[i])) i++
+                        return if (i < limit) i + 1 else -1
+                    }
+                }
+                pos++
+            }
+            return -1
+        }
+
+        private fun ByteArray.matchesIgnoreCase(lowerCaseBytes: ByteArray, pos: Int, limit: Int): Boolean {
+            if (pos + lowerCaseBytes.size > limit) return false
+            for (i in lowerCaseBytes.indices) {
+                if (lowerCase(this[pos + i]) != lowerCaseBytes[i]) return false
+            }
+            return true
+        }
+
+        private fun ByteArray.startsWith(bytes: ByteArray, pos: Int, limit: Int): Boolean {
+            if (pos + bytes.size > limit) return false
+            for (i in bytes.indices) {
+                if (this[pos + i] != bytes[i]) return false
+            }
+            return true
+        }
+
+        private fun ByteArray.indexOf(b: Byte, from: Int, limit: Int): Int {
+            for (i in from until limit) {
+                if (this[i] == b) return i
+            }
+            return -1
+        }
+
+        private fun ByteArray.indexOf(bytes: ByteArray, from: Int, limit: Int): Int {
+            var pos = indexOf(bytes[0], from, limit)
+            while (pos >= 0) {
+                if (startsWith(bytes, pos, limit)) return pos
+                pos = indexOf(bytes[0], pos + 1, limit)
+            }
+            return -1
+        }
+
+        private fun isLetter(b: Byte) = lowerCase(b) in 'a'.code..'z'.code
+
+        private fun lowerCase(b: Byte): Byte = if (b in 'A'.code..'Z'.code) (b + 32).toByte() else b
+
+        private fun isWhitespace(b: Byte) = b == ' '.code.toByte() || b == '\n'.code.toByte() ||
+                b == '\t'.code.toByte() || b == '\r'.code.toByte() || b == '\u000C'.code.toByte()
+    }
+}
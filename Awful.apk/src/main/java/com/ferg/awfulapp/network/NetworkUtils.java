@@ -102,7 +102,12 @@ public class NetworkUtils {
         }
     }
 
+    /**
+     * Cancel any queued or running requests with this tag, including any parsing and storage of their
+     * responses that's still going on in the {@link ParsePipeline}.
+     */
     public static void cancelRequests(Object tag) {
+        ParsePipeline.cancel(tag);
         if (mNetworkQueue != null) {
             mNetworkQueue.cancelAll(tag);
         } else {
@@ -0,0 +1,212 @@
+package com.ferg.awfulapp.network
+
+import timber.log.Timber
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Handles the work of turning a downloaded response into stored data, away from Volley's threads.
+ *
+ * Volley only has a few network dispatcher threads, and it parses each response on the thread that
+ * downloaded it - so a large thread page that takes a while to parse and store holds up the requests
+ * behind it. Instead, requests pass their raw responses to the [parse] stage, and the parsers pass
+ * the database writes they produce to the [write] stage - so one page being stored doesn't hold up
+ * the next one being parsed, and the writes happen one batch at a time, in the order they were made.
+ *
+ * Work is submitted with the tag of the request it belongs to, and [cancel] drops anything queued
+ * with that tag and interrupts anything already running. [NetworkUtils.cancelRequests] does this as
+ * well as cancelling the network requests, so when the user leaves a page, the parse threads don't
+ * stay busy with it while they're waiting for the next one.
+ */
+object ParsePipeline {
+
+    /**
+     * Parses responses. This only has a couple of threads - parsers that can split up their work (like
+     * thread pages) fan it out over the parse task threads in ForumParsing anyway.
+     *
+     * Responses are queued from the main thread, so this never blocks or turns work away when it's
+     * busy - its queue just grows, and a warning is logged once it's longer than expected.
+     */
+    @JvmField
+    val parse = Stage("parse", threads = 2, queueCapacity = 16, blockWhenFull = false)
+
+    /**
+     * Stores parsed data. This has a single thread, so batches are written in the order they were
+     * queued, and a short queue - when the database falls behind, whatever is queueing writes (i.e.
+     * the [parse] threads) waits for space, instead of piling up parsed pages in memory.
+     *
+     * Since queueing work here can block, it should only be done from a background thread.
+     */
+    @JvmField
+    val write = Stage("write", threads = 1, queueCapacity = 8, blockWhenFull = true)
+
+    /**
+     * Cancel all the work in every stage with this [tag].
+     */
+    @JvmStatic
+    fun cancel(tag: Any) {
+        parse.cancel(tag)
+        write.cancel(tag)
+    }
+}
+
+
+/**
+ * A step in the [ParsePipeline], with its own threads and queue.
+ *
+ * @param name          used for the stage's thread names, and logging
+ * @param threads       the number of threads working on this stage
+ * @param queueCapacity the number of jobs that can be waiting for a thread before the stage is full
+ * @param blockWhenFull if true, submitting a job to a full stage waits until there's space for it,
+ * otherwise the queue keeps growing and the stage just logs a warning
+ */
+class Stage(
+    val name: String,
+    threads: Int,
+    private val queueCapacity: Int,
+    blockWhenFull: Boolean
+) {
+
+    private val threadCount = AtomicInteger()
+    private val executor = ThreadPoolExecutor(
+        threads, threads, 0L, TimeUnit.MILLISECONDS,
+        if (blockWhenFull) LinkedBlockingQueue(queueCapacity) else LinkedBlockingQueue(),
+        { runnable -> Thread(runnable, "$name-${threadCount.incrementAndGet()}").apply { isDaemon = true } },
+        WaitForSpace()
+    )
+
+    /** jobs that are waiting or running, so they can be found by tag */
+    private val jobs: MutableSet<Job<*>> = ConcurrentHashMap.newKeySet()
+
+    private val submitted = AtomicLong()
+    private val completed = AtomicLong()
+    private val failed = AtomicLong()
+    private val cancelled = AtomicLong()
+    private val rejected = AtomicLong()
+    private val totalWaitMs = AtomicLong()
+    private val totalRunMs = AtomicLong()
+    private val maxQueued = AtomicInteger()
+
+
+    /**
+     * Queue some [work] on this stage, tagged with the [tag] of the request it belongs to.
+     *
+     * If this stage blocks when it's full, this waits until there's space in the queue.
+     *
+     * @throws RejectedExecutionException if the thread was interrupted while waiting for space
+     */
+    fun <T> submit(tag: Any, work: Callable<T>): Future<T> {
+        val job = Job(tag, work)
+        jobs.add(job)
+        submitted.incrementAndGet()
+        try {
+            executor.execute(job)
+        } catch (e: RejectedExecutionException) {
+            jobs.remove(job)
+            rejected.incrementAndGet()
+            Timber.w("%s stage rejected a job: %s", name, metrics)
+            throw e
+        }
+        val queued = executor.queue.size
+        if (queued > queueCapacity) {
+            Timber.w("%s stage is falling behind: %s", name, metrics)
+        }
+        maxQueued.accumulateAndGet(queued) { a, b -> maxOf(a, b) }
+        return job
+    }
+
+
+    /**
+     * Cancel any jobs with this [tag], interrupting them if they've already started.
+     */
+    fun cancel(tag: Any) {
+        val count = jobs.filter { it.tag == tag }.count { it.cancel(true) }
+        if (count > 0) {
+            // get the cancelled jobs out of the queue, instead of waiting for a thread to skip them
+            executor.purge()
+            Timber.i("%s stage: cancelled %d jobs", name, count)
+        }
+    }
+
+
+    /**
+     * A snapshot of this stage's activity so far.
+     */
+    val metrics: Metrics
+        get() {
+            val finished = (completed.get() + failed.get()).coerceAtLeast(1)
+            return Metrics(
+                submitted = submitted.get(),
+                completed = completed.get(),
+                failed = failed.get(),
+                cancelled = cancelled.get(),
+                rejected = rejected.get(),
+                queued = executor.queue.size,
+                active = executor.activeCount,
+                maxQueued = maxQueued.get(),
+                averageWaitMs = totalWaitMs.get() / finished,
+                averageRunMs = totalRunMs.get() / finished
+            )
+        }
+
+    data class Metrics(
+        val submitted: Long,
+        val completed: Long,
+        val failed: Long,
+        val cancelled: Long,
+        val rejected: Long,
+        val queued: Int,
+        val active: Int,
+        val maxQueued: Int,
+        val averageWaitMs: Long,
+        val averageRunMs: Long
+    )
+
+
+    private inner class Job<T>(val tag: Any, work: Callable<T>) : FutureTask<T>(work) {
+        private val queuedAt = System.currentTimeMillis()
+        @Volatile
+        private var startedAt = 0L
+
+        override fun run() {
+            startedAt = System.currentTimeMillis()
+            super.run()
+        }
+
+        override fun done() {
+            jobs.remove(this)
+            if (isCancelled) {
+                cancelled.incrementAndGet()
+                return
+            }
+            val finishedAt = System.currentTimeMillis()
+            totalWaitMs.addAndGet(startedAt - queuedAt)
+            totalRunMs.addAndGet(finishedAt - startedAt)
+            try {
+                get()
+                completed.incrementAndGet()
+            } catch (e: ExecutionException) {
+                failed.incrementAndGet()
+                Timber.w(e.cause, "%s stage: job failed", name)
+            }
+            Timber.d("%s stage: job took %dms after waiting %dms - %s", name, finishedAt - startedAt, startedAt - queuedAt, metrics)
+        }
+    }
+
+
+    /**
+     * Handles a full queue by waiting for space, which holds up whatever is producing the work.
+     */
+    private class WaitForSpace : RejectedExecutionHandler {
+        override fun rejectedExecution(runnable: Runnable, executor: ThreadPoolExecutor) {
+            if (executor.isShutdown) throw RejectedExecutionException("Executor has been shut down")
+            try {
+                executor.queue.put(runnable)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw RejectedExecutionException("Interrupted while waiting for space in the queue", e)
+            }
+        }
+    }
+}
@@ -44,6 +44,7 @@ import android.util.TypedValue;
 
 import com.ferg.awfulapp.R;
 import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.util.AwfulUtils;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
@@ -161,6 +162,8 @@ public class AwfulPreferences implements OnSharedPreferenceChangeListener {
     public Float p2rDistance;
     public boolean immersionMode;
     public String transformer;
+    /** the most space the cached forum data should take up in the database, in megabytes */
+    public int cacheSizeLimitMb;
 
 	public boolean postWarningAccepted;
 
@@ -308,6 +311,7 @@ public class AwfulPreferences implements OnSharedPreferenceChangeListener {
 		immersionMode			 = getPreference(Keys.IMMERSION_MODE, false);
 		hideSignatures  		 = getPreference(Keys.HIDE_SIGNATURES, false);
 		transformer  		     = getPreference(Keys.TRANSFORMER, "Default");
+		cacheSizeLimitMb		 = (int) AwfulUtils.safeParseLong(getPreference(Keys.CACHE_SIZE_LIMIT, "100"), 100);
 		amberDefaultPos  		 = getPreference(Keys.AMBER_DEFAULT_POS, false);
 		hideIgnoredPosts  		 = getPreference(Keys.HIDE_IGNORED_POSTS, false);
 		markedUsers				 = getPreference(Keys.MARKED_USERS, new HashSet<>());
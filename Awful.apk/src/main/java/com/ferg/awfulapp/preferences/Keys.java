@@ -34,6 +34,7 @@ public abstract class Keys {
             ORIENTATION,
             PAGE_LAYOUT,
             TRANSFORMER,
+            CACHE_SIZE_LIMIT,
             FAVOURITE_FORUMS,
             RECENT_EMOTES,
             IMGUR_ACCOUNT,
@@ -158,6 +159,7 @@ public abstract class Keys {
     public static final int ORIENTATION = R.string.pref_key_orientation;
     public static final int PAGE_LAYOUT = R.string.pref_key_page_layout;
     public static final int TRANSFORMER = R.string.pref_key_transformer;
+    public static final int CACHE_SIZE_LIMIT = R.string.pref_key_cache_size_limit;
 
     public static final int POST_FONT_SIZE_SP = R.string.pref_key_post_font_size_sp;
     public static final int POST_FIXED_FONT_SIZE_SP = R.string.pref_key_post_fixed_font_size_sp;
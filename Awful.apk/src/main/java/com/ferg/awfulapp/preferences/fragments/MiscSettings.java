@@ -22,7 +22,8 @@ public class MiscSettings extends SettingsFragment {
     {
         SETTINGS_XML_RES_ID = R.xml.miscsettings;
         VALUE_SUMMARY_PREF_KEYS = new int[] {
-                R.string.pref_key_orientation
+                R.string.pref_key_orientation,
+                R.string.pref_key_cache_size_limit
         };
         prefClickListeners.put(new P2RDistanceListener(), new int[] {
                 R.string.pref_key_pull_to_refresh_distance
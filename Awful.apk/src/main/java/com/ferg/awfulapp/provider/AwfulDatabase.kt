@@ -0,0 +1,118 @@
+package com.ferg.awfulapp.provider
+
+import android.content.Context
+import androidx.room.Database
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteDatabase
+import com.ferg.awfulapp.provider.DatabaseHelper.DATABASE_VERSION
+import com.ferg.awfulapp.provider.DatabaseHelper.FIRST_LEGACY_VERSION
+import com.ferg.awfulapp.provider.DatabaseHelper.LAST_LEGACY_VERSION
+import androidx.room.migration.Migration as RoomMigration
+
+/**
+ * The app's database, opened with Room.
+ *
+ * The schema is still defined in [DatabaseHelper] - its creation and migration code runs through
+ * Room's callbacks and migrations here, and Room checks the result against the entities before
+ * anything reads from it. [AwfulProvider] works on this database too, so writes through the provider
+ * update any Flows and PagingSources from the DAOs, and everything shares one connection pool.
+ *
+ * Only the tables something reads through a DAO have entities - the rest are still only used through
+ * the provider, so there's nothing for Room to check them against.
+ *
+ * Room won't run DAO queries on the main thread, so anything reading from here on the UI uses a Flow or
+ * a PagingSource. The provider still handles its own calls on whatever thread makes them.
+ */
+@Database(
+    entities = [
+        ForumEntity::class,
+        ThreadEntity::class,
+        BookmarkEntity::class,
+        FilteredThreadEntity::class,
+        PostEntity::class,
+        EmoteEntity::class,
+        PrivateMessageEntity::class,
+        MessageDraftEntity::class,
+        ThreadDraftEntity::class
+    ],
+    version = DATABASE_VERSION,
+    exportSchema = false
+)
+abstract class AwfulDatabase : RoomDatabase() {
+
+    abstract fun forumDao(): ForumDao
+
+    abstract fun threadDao(): ThreadDao
+
+    abstract fun postDao(): PostDao
+
+    abstract fun messageDao(): MessageDao
+
+    abstract fun emoteDao(): EmoteDao
+
+    companion object {
+
+        @Volatile
+        private var instance: AwfulDatabase? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): AwfulDatabase =
+            instance ?: synchronized(this) {
+                instance ?: build(context.applicationContext).also { instance = it }
+            }
+
+        private fun build(context: Context): AwfulDatabase =
+            Room.databaseBuilder(context, AwfulDatabase::class.java, DatabaseHelper.DATABASE_NAME)
+                .addMigrations(*migrations())
+                // a downgrade can't know what a newer version changed, so it gets a fresh database
+                .fallbackToDestructiveMigrationOnDowngrade()
+                .addCallback(SchemaCallback)
+                // let the loaders keep reading (on their own pooled connections) while a page is being written
+                .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+                .build()
+
+        /**
+         * A migration from each version that can be upgraded straight to the current one, running
+         * the same upgrades [DatabaseHelper] always has. Versions older than the legacy upgrades are
+         * recreated from scratch, like they always have been.
+         */
+        private fun migrations(): Array<RoomMigration> {
+            val recreated = (1 until FIRST_LEGACY_VERSION).map { version ->
+                migration(version) { db -> DatabaseHelper.wipeRecreateTables(db) }
+            }
+            val legacy = (FIRST_LEGACY_VERSION until LAST_LEGACY_VERSION).map { version ->
+                migration(version) { db ->
+                    DatabaseHelper.upgradeLegacySchema(db, version)
+                    Migration.migrate(db, DatabaseHelper.MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION)
+                }
+            }
+            val current = (LAST_LEGACY_VERSION until DATABASE_VERSION).map { version ->
+                migration(version) { db -> Migration.migrate(db, DatabaseHelper.MIGRATIONS, version, DATABASE_VERSION) }
+            }
+            return (recreated + legacy + current).toTypedArray()
+        }
+
+        private fun migration(fromVersion: Int, upgrade: (DatabaseHelper.SqlExecutor) -> Unit) =
+            object : RoomMigration(fromVersion, DATABASE_VERSION) {
+                override fun migrate(db: SupportSQLiteDatabase) = upgrade(DatabaseHelper.SqlExecutor { db.execSQL(it) })
+            }
+    }
+
+
+    /**
+     * Creates the parts of the schema Room doesn't know about (the search index, the filtered posts
+     * and the tables only the provider uses), and handles recreating the database after a downgrade.
+     */
+    private object SchemaCallback : RoomDatabase.Callback() {
+
+        override fun onCreate(db: SupportSQLiteDatabase) {
+            // Room has already created its own tables, and the rest of the schema skips those
+            DatabaseHelper.createSchema { db.execSQL(it) }
+        }
+
+        override fun onDestructiveMigration(db: SupportSQLiteDatabase) {
+            DatabaseHelper.wipeRecreateTables { db.execSQL(it) }
+        }
+    }
+}
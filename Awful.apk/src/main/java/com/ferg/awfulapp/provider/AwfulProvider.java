@@ -29,47 +29,69 @@ package com.ferg.awfulapp.provider;
 
 import android.annotation.SuppressLint;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
-import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import android.util.Log;
 
 import com.ferg.awfulapp.AwfulApplication;
 import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.preferences.AwfulPreferences;
+import com.ferg.awfulapp.thread.AwfulEmbed;
 import com.ferg.awfulapp.thread.AwfulEmote;
 import com.ferg.awfulapp.thread.AwfulForum;
 import com.ferg.awfulapp.thread.AwfulMessage;
+import com.ferg.awfulapp.thread.AwfulPagedItem;
 import com.ferg.awfulapp.thread.AwfulPost;
 import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.thread.CachedPostSearch;
+import com.ferg.awfulapp.users.IgnoreList;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_DRAFTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMBEDS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FILTERED_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FILTERED_THREADS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FORUM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_IGNORED_USERS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS_SEARCH;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_ACCESS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_DRAFTS;
 import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS;
 
 public class AwfulProvider extends ContentProvider {
     private static final String TAG = "AwfulProvider";
 
-    private DatabaseHelper mDbHelper;
+    private AwfulDatabase database;
+    private final TransactionMetrics transactionMetrics = new TransactionMetrics();
+    /** The changes made by the batch being applied on this thread, if there is one - see {@link #applyBatch} */
+    private final ThreadLocal<ChangeNotifications> batchChanges = new ThreadLocal<>();
     /** Set in #onCreate, so it should never be null when methods come to use it*/
     private Context context;
 
@@ -94,8 +116,19 @@ public class AwfulProvider extends ContentProvider {
     private static final int URI_EMOTE_ID = 13;
     private static final int URI_THREAD_DRAFT = 14;
     private static final int URI_THREAD_DRAFT_ID = 15;
+    private static final int URI_EMBED = 16;
+    private static final int URI_EMBED_ID = 17;
+    private static final int URI_POST_SEARCH = 18;
+    private static final int URI_THREAD_ACCESS = 19;
+    private static final int URI_POST_THREAD_PAGE = 20;
+    private static final int URI_THREAD_FORUM = 21;
+    private static final int URI_IGNORED_USER = 22;
+    private static final int URI_FILTERED_POST = 23;
+    private static final int URI_FILTERED_THREAD = 24;
+    private static final int URI_POST_THREAD_USER_PAGE = 25;
+    private static final int URI_THREAD_USER = 26;
     /** This just holds the Uri types that directly refer to tables, not IDs */
-	private static final Set<Integer> TABLE_URIS = new HashSet<>(Arrays.asList(URI_FORUM, URI_POST, URI_THREAD, URI_UCP_THREAD, URI_PM, URI_DRAFT, URI_EMOTE, URI_THREAD_DRAFT));
+	private static final Set<Integer> TABLE_URIS = new HashSet<>(Arrays.asList(URI_FORUM, URI_POST, URI_THREAD, URI_UCP_THREAD, URI_PM, URI_DRAFT, URI_EMOTE, URI_THREAD_DRAFT, URI_EMBED, URI_THREAD_ACCESS, URI_IGNORED_USER, URI_FILTERED_POST, URI_FILTERED_THREAD));
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     static {
@@ -103,8 +136,13 @@ public class AwfulProvider extends ContentProvider {
         sUriMatcher.addURI(Constants.AUTHORITY, "forum/#", URI_FORUM_ID);
         sUriMatcher.addURI(Constants.AUTHORITY, "thread", URI_THREAD);
         sUriMatcher.addURI(Constants.AUTHORITY, "thread/#", URI_THREAD_ID);
+        sUriMatcher.addURI(Constants.AUTHORITY, "thread/forum/#", URI_THREAD_FORUM);
+        sUriMatcher.addURI(Constants.AUTHORITY, "thread/#/user/#", URI_THREAD_USER);
         sUriMatcher.addURI(Constants.AUTHORITY, "post", URI_POST);
         sUriMatcher.addURI(Constants.AUTHORITY, "post/#", URI_POST_ID);
+        sUriMatcher.addURI(Constants.AUTHORITY, "post/search/*", URI_POST_SEARCH);
+        sUriMatcher.addURI(Constants.AUTHORITY, "post/thread/#/page/#", URI_POST_THREAD_PAGE);
+        sUriMatcher.addURI(Constants.AUTHORITY, "post/thread/#/user/#/page/#", URI_POST_THREAD_USER_PAGE);
         sUriMatcher.addURI(Constants.AUTHORITY, "ucpthread", URI_UCP_THREAD);
         sUriMatcher.addURI(Constants.AUTHORITY, "ucpthread/#", URI_UCP_THREAD_ID);
         sUriMatcher.addURI(Constants.AUTHORITY, "privatemessages", URI_PM);
@@ -115,6 +153,12 @@ public class AwfulProvider extends ContentProvider {
         sUriMatcher.addURI(Constants.AUTHORITY, "emote/#", URI_EMOTE_ID);
         sUriMatcher.addURI(Constants.AUTHORITY, "draftthreads", URI_THREAD_DRAFT);
         sUriMatcher.addURI(Constants.AUTHORITY, "draftthreads/#", URI_THREAD_DRAFT_ID);
+        sUriMatcher.addURI(Constants.AUTHORITY, "embed", URI_EMBED);
+        sUriMatcher.addURI(Constants.AUTHORITY, "embed/*", URI_EMBED_ID);
+        sUriMatcher.addURI(Constants.AUTHORITY, "threadaccess", URI_THREAD_ACCESS);
+        sUriMatcher.addURI(Constants.AUTHORITY, "ignoredusers", URI_IGNORED_USER);
+        sUriMatcher.addURI(Constants.AUTHORITY, "filteredpost", URI_FILTERED_POST);
+        sUriMatcher.addURI(Constants.AUTHORITY, "filteredthread", URI_FILTERED_THREAD);
     }
 
 
@@ -153,6 +197,7 @@ public class AwfulProvider extends ContentProvider {
         sThreadProjectionMap.put(AwfulThread.TITLE, TABLE_THREADS+"."+AwfulThread.TITLE+" AS "+AwfulThread.TITLE);
         sThreadProjectionMap.put(AwfulThread.POSTCOUNT, AwfulThread.POSTCOUNT);
         sThreadProjectionMap.put(AwfulThread.UNREADCOUNT, AwfulThread.UNREADCOUNT);
+        sThreadProjectionMap.put(AwfulThread.LAST_READ_INDEX, AwfulThread.LAST_READ_INDEX);
         sThreadProjectionMap.put(AwfulThread.AUTHOR, AwfulThread.AUTHOR);
         sThreadProjectionMap.put(AwfulThread.AUTHOR_ID, AwfulThread.AUTHOR_ID);
         sThreadProjectionMap.put(AwfulThread.LOCKED, AwfulThread.LOCKED);
@@ -173,6 +218,15 @@ public class AwfulProvider extends ContentProvider {
     }
     public static final String[] ThreadProjection = arrayOfKeys(sThreadProjectionMap);
 
+    // Thread filtered to one user's posts - the same data, but paged by the filtered thread's post count
+    private static final HashMap<String, String> sFilteredThreadProjectionMap = new HashMap<>(sThreadProjectionMap);
+    static {
+        sFilteredThreadProjectionMap.put(AwfulThread.POSTCOUNT, "IFNULL("+TABLE_FILTERED_THREADS+"."+AwfulThread.POSTCOUNT+", 0) AS "+AwfulThread.POSTCOUNT);
+        sFilteredThreadProjectionMap.put(AwfulThread.UNREADCOUNT, "0 AS "+AwfulThread.UNREADCOUNT);
+        sFilteredThreadProjectionMap.put(AwfulThread.LAST_READ_INDEX, "0 AS "+AwfulThread.LAST_READ_INDEX);
+        sFilteredThreadProjectionMap.put(AwfulThread.HAS_NEW_POSTS, "0 AS "+AwfulThread.HAS_NEW_POSTS);
+    }
+
     // Post
 	private static final HashMap<String, String> sPostProjectionMap = new HashMap<>();
     static {
@@ -183,8 +237,13 @@ public class AwfulProvider extends ContentProvider {
         sPostProjectionMap.put(AwfulPost.REGDATE, AwfulPost.REGDATE);
         sPostProjectionMap.put(AwfulPost.USER_ID, AwfulPost.USER_ID);
         sPostProjectionMap.put(AwfulPost.USERNAME, AwfulPost.USERNAME);
-        sPostProjectionMap.put(AwfulPost.IS_IGNORED, AwfulPost.IS_IGNORED);
-        sPostProjectionMap.put(AwfulPost.PREVIOUSLY_READ, AwfulPost.PREVIOUSLY_READ);
+        // whether the poster is ignored comes from the ignore list, so it's always up to date
+        sPostProjectionMap.put(AwfulPost.IS_IGNORED, "EXISTS (SELECT 1 FROM " + TABLE_IGNORED_USERS + " WHERE " + TABLE_IGNORED_USERS + "."
+                + IgnoreList.USER_ID + "=" + TABLE_POSTS + "." + AwfulPost.USER_ID + ") AS " + AwfulPost.IS_IGNORED);
+        // read state isn't stored with the posts - it comes from their thread's last read index
+        sPostProjectionMap.put(AwfulPost.PREVIOUSLY_READ, "(" + TABLE_POSTS + "." + AwfulPost.POST_INDEX + " <= IFNULL((SELECT "
+                + AwfulThread.LAST_READ_INDEX + " FROM " + TABLE_THREADS + " WHERE " + TABLE_THREADS + "." + AwfulThread.ID
+                + "=" + TABLE_POSTS + "." + AwfulPost.THREAD_ID + "), 0)) AS " + AwfulPost.PREVIOUSLY_READ);
         sPostProjectionMap.put(AwfulPost.EDITABLE, AwfulPost.EDITABLE);
         sPostProjectionMap.put(AwfulPost.IS_OP, AwfulPost.IS_OP);
         sPostProjectionMap.put(AwfulPost.IS_PLAT, AwfulPost.IS_PLAT);
@@ -194,8 +253,32 @@ public class AwfulProvider extends ContentProvider {
         sPostProjectionMap.put(AwfulPost.AVATAR_TEXT, AwfulPost.AVATAR_TEXT);
         sPostProjectionMap.put(AwfulPost.CONTENT, AwfulPost.CONTENT);
         sPostProjectionMap.put(AwfulPost.EDITED, AwfulPost.EDITED);
+        sPostProjectionMap.put(AwfulPost.CONTENT_HASH, AwfulPost.CONTENT_HASH);
     }
     public static final String[] PostProjection = arrayOfKeys(sPostProjectionMap);
+    /**
+     * The posts' data without their content, which is loaded separately by a
+     * {@link com.ferg.awfulapp.thread.PostContentLoader}. A page of posts with large content can
+     * overflow a cursor's window, so this keeps the page's own cursor small - it has the size of each
+     * post's stored content instead.
+     */
+    public static final String[] PostMetadataProjection;
+    static {
+        sPostProjectionMap.put(AwfulPost.CONTENT_LENGTH, "LENGTH(" + AwfulPost.CONTENT + ") AS " + AwfulPost.CONTENT_LENGTH);
+        Set<String> columns = new HashSet<>(sPostProjectionMap.keySet());
+        columns.remove(AwfulPost.CONTENT);
+        PostMetadataProjection = columns.toArray(new String[0]);
+    }
+
+    // Post from a thread filtered to one user's posts - these don't have a read state, since their
+    // indexes aren't the ones the thread's last read index counts
+    private static final HashMap<String, String> sFilteredPostProjectionMap = new HashMap<>(sPostProjectionMap);
+    static {
+        sFilteredPostProjectionMap.put(AwfulPost.IS_IGNORED, "EXISTS (SELECT 1 FROM " + TABLE_IGNORED_USERS + " WHERE " + TABLE_IGNORED_USERS + "."
+                + IgnoreList.USER_ID + "=" + TABLE_FILTERED_POSTS + "." + AwfulPost.USER_ID + ") AS " + AwfulPost.IS_IGNORED);
+        sFilteredPostProjectionMap.put(AwfulPost.PREVIOUSLY_READ, "0 AS " + AwfulPost.PREVIOUSLY_READ);
+        sFilteredPostProjectionMap.put(AwfulPost.FILTER_USER_ID, AwfulPost.FILTER_USER_ID);
+    }
 
     // UCP Thread
 	private static final HashMap<String, String> sUCPThreadProjectionMap = new HashMap<>();
@@ -335,6 +418,30 @@ public class AwfulProvider extends ContentProvider {
     }
     public static final String[] EmoteProjection = arrayOfKeys(sEmoteProjectionMap);
 
+    // Embed metadata
+	private static final HashMap<String, String> sEmbedProjectionMap = new HashMap<>();
+    static {
+        sEmbedProjectionMap.put(AwfulEmbed.ID, AwfulEmbed.ID);
+        sEmbedProjectionMap.put(AwfulEmbed.URL, AwfulEmbed.URL);
+        sEmbedProjectionMap.put(AwfulEmbed.THUMBNAIL_URL, AwfulEmbed.THUMBNAIL_URL);
+        sEmbedProjectionMap.put(DatabaseHelper.UPDATED_TIMESTAMP, DatabaseHelper.UPDATED_TIMESTAMP);
+    }
+    public static final String[] EmbedProjection = arrayOfKeys(sEmbedProjectionMap);
+
+    // Cached post search
+	private static final HashMap<String, String> sPostSearchProjectionMap = new HashMap<>();
+    static {
+        sPostSearchProjectionMap.put(AwfulPost.ID, TABLE_POSTS+"."+AwfulPost.ID+" AS "+AwfulPost.ID);
+        sPostSearchProjectionMap.put(AwfulPost.THREAD_ID, TABLE_POSTS+"."+AwfulPost.THREAD_ID+" AS "+AwfulPost.THREAD_ID);
+        sPostSearchProjectionMap.put(AwfulPost.POST_INDEX, TABLE_POSTS+"."+AwfulPost.POST_INDEX+" AS "+AwfulPost.POST_INDEX);
+        sPostSearchProjectionMap.put(AwfulPost.USERNAME, TABLE_POSTS+"."+AwfulPost.USERNAME+" AS "+AwfulPost.USERNAME);
+        sPostSearchProjectionMap.put(CachedPostSearch.THREAD_TITLE, TABLE_POSTS_SEARCH+"."+CachedPostSearch.THREAD_TITLE+" AS "+CachedPostSearch.THREAD_TITLE);
+        // snippets are taken from the post text column
+        sPostSearchProjectionMap.put(CachedPostSearch.SNIPPET, String.format("snippet(%s, '%s', '%s', '…', 0, 15) AS %s",
+                TABLE_POSTS_SEARCH, CachedPostSearch.HIGHLIGHT_START, CachedPostSearch.HIGHLIGHT_END, CachedPostSearch.SNIPPET));
+        sPostSearchProjectionMap.put(CachedPostSearch.MATCH_INFO, "matchinfo("+TABLE_POSTS_SEARCH+", 'pcnalx') AS "+CachedPostSearch.MATCH_INFO);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////
     // ContentProvider functions
@@ -343,7 +450,7 @@ public class AwfulProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         context = getContext();
-        mDbHelper = new DatabaseHelper(context);
+        database = AwfulDatabase.getInstance(context);
         return true;
     }
 
@@ -354,20 +461,28 @@ public class AwfulProvider extends ContentProvider {
 
     @Override
     public int delete(@NonNull Uri aUri, String aWhere, String[] aWhereArgs) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
         final int uriType = matchUri(aUri, true);
         assertIsTableUri(uriType);
         String table = getTableForUriType(uriType);
 
         // if there's no Where clause, this will delete everything in the table!
-        return db.delete(table, aWhere, aWhereArgs);
+        int result = inTransaction("delete from " + table, db -> {
+            if (uriType == URI_POST) {
+                PostSearchIndex.remove(db, aWhere, aWhereArgs);
+            }
+            return db.delete(table, aWhere, aWhereArgs);
+        });
+        if (result > 0 && uriType == URI_IGNORED_USER) {
+            ChangeNotifications changes = newChangeNotifications();
+            changes.addIgnoreList();
+            sendChanges(changes);
+        }
+        return result;
     }
 
 
     @Override
     public int update(@NonNull Uri aUri, ContentValues aValues, String aWhere, String[] aWhereArgs) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
         final int uriType = matchUri(aUri, true);
         String table = getTableForUriType(uriType);
         String whereClause;
@@ -391,6 +506,15 @@ public class AwfulProvider extends ContentProvider {
             case URI_EMOTE_ID:
                 whereClause = AwfulEmote.ID;
                 break;
+            case URI_EMBED_ID:
+                whereClause = AwfulEmbed.ID;
+                break;
+            case URI_POST_THREAD_PAGE:
+            case URI_POST_THREAD_USER_PAGE:
+            case URI_THREAD_FORUM:
+            case URI_THREAD_USER:
+                // these are for queries and notifications - updates need to say exactly which rows they're changing
+                throw new IllegalArgumentException("Can't update " + aUri + " - use the table Uri with a where clause");
             default:
                 whereClause = null;
         }
@@ -399,22 +523,62 @@ public class AwfulProvider extends ContentProvider {
             aWhereArgs = insertSelectionArg(aWhereArgs, aUri.getLastPathSegment());
         }
 
-        int result = db.update(table, aValues, aWhere, aWhereArgs);
-        context.getContentResolver().notifyChange(aUri, null);
+        String where = aWhere;
+        String[] whereArgs = aWhereArgs;
+        ChangeNotifications changes = newChangeNotifications();
+        int result = inTransaction("update " + table, db -> {
+            // work out what's changing before it changes, since the update might move rows out of the where clause
+            if (TABLE_POSTS.equals(table)) {
+                changes.addPostsWhere(db, where, whereArgs);
+            } else if (TABLE_THREADS.equals(table)) {
+                changes.addThreadsWhere(db, where, whereArgs, aValues.getAsInteger(AwfulThread.LAST_READ_INDEX));
+                Integer newForumId = aValues.getAsInteger(AwfulThread.FORUM_ID);
+                if (newForumId != null) {
+                    changes.add(AwfulThread.forumUri(newForumId));
+                }
+            } else {
+                changes.add(aUri);
+            }
+            int updated = db.update(table, SQLiteDatabase.CONFLICT_NONE, aValues, where, whereArgs);
+            String title = aValues.getAsString(AwfulThread.TITLE);
+            if (updated > 0 && title != null && TABLE_THREADS.equals(table)) {
+                PostSearchIndex.updateThreadTitles(db, title, where, whereArgs);
+            }
+            return updated;
+        });
+        if (result > 0) {
+            sendChanges(changes);
+        }
         return result;
     }
 
 
     @Override
     public Uri insert(@NonNull Uri aUri, ContentValues aValues) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
         final int uriType = matchUri(aUri, true);
         assertIsTableUri(uriType);
         String table = getTableForUriType(uriType);
 
-        long rowId = db.insert(table, "", aValues);
+        ChangeNotifications changes = newChangeNotifications();
+        addInsertedRow(changes, uriType, aUri, aValues);
+        ContentValues[] posts = {aValues};
+        String[] postText = uriType == URI_POST ? PostSearchIndex.extractText(posts) : null;
+        long rowId = inTransaction("insert into " + table, db -> {
+            if (uriType == URI_POST) {
+                // same as a bulk insert, so a post that's already stored gets replaced
+                PostSearchIndex.index(db, posts, postText);
+                return db.insert(table, SQLiteDatabase.CONFLICT_REPLACE, aValues);
+            } else if (uriType == URI_FILTERED_POST || uriType == URI_FILTERED_THREAD) {
+                return db.insert(table, SQLiteDatabase.CONFLICT_REPLACE, aValues);
+            }
+            long inserted = db.insert(table, SQLiteDatabase.CONFLICT_NONE, aValues);
+            if (inserted > -1 && uriType == URI_THREAD) {
+                updateThreadTitles(db, new ContentValues[]{aValues});
+            }
+            return inserted;
+        });
         if (rowId > -1) {
+            sendChanges(changes);
             return ContentUris.withAppendedId(aUri, rowId);
         }
         throw new SQLException("Failed to insert row into " + aUri);
@@ -427,35 +591,309 @@ public class AwfulProvider extends ContentProvider {
         if (aValues.length == 0) {
             return 0;
         }
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
-
         final int uriType = matchUri(aUri, true);
         assertIsTableUri(uriType);
         String table = getTableForUriType(uriType);
 
-        db.beginTransaction();
+        ChangeNotifications changes = newChangeNotifications();
+        for (ContentValues row : aValues) {
+            addInsertedRow(changes, uriType, aUri, row);
+        }
+
+        String[] postText = uriType == URI_POST ? PostSearchIndex.extractText(aValues) : null;
+        try {
+            // posts and emotes are unique on (thread ID, post index) and text, so existing rows get replaced
+            inTransaction("bulk insert into " + table, db -> insertOrReplace(db, uriType, table, aValues, postText));
+        } catch (SQLException e) {
+            Log.w(TAG, e.toString());
+            // transaction failed, no rows inserted
+            return 0;
+        }
+        // transaction succeeded, all rows inserted - only notify now, so anything reloading sees the new data
+        sendChanges(changes);
+        return aValues.length;
+    }
+
+
+    /**
+     * Insert or replace some rows, keeping the search index up to date if they're posts or threads. This doesn't
+     * handle transactions - see {@link BulkInsert}.
+     *
+     * @param postText the posts' text from {@link PostSearchIndex#extractText}, if they're being inserted into {@link #URI_POST}
+     */
+    private static int insertOrReplace(@NonNull SupportSQLiteDatabase db, int uriType, @NonNull String table, @NonNull ContentValues[] rows, @Nullable String[] postText) {
+        if (uriType == URI_POST && postText != null) {
+            PostSearchIndex.index(db, rows, postText);
+        }
+        int inserted = BulkInsert.insertOrReplace(db, table, rows);
+        if (uriType == URI_THREAD) {
+            updateThreadTitles(db, rows);
+        }
+        return inserted;
+    }
+
+
+    /**
+     * Give any indexed posts in some threads that have just been written their threads' titles - see
+     * {@link PostSearchIndex#updateThreadTitles}.
+     */
+    private static void updateThreadTitles(@NonNull SupportSQLiteDatabase db, @NonNull ContentValues[] threads) {
+        for (ContentValues thread : threads) {
+            String title = thread.getAsString(AwfulThread.TITLE);
+            String threadId = thread.getAsString(AwfulThread.ID);
+            if (title != null && threadId != null) {
+                PostSearchIndex.updateThreadTitles(db, title, AwfulThread.ID + "=?", new String[]{threadId});
+            }
+        }
+    }
+
+
+    /**
+     * Apply a batch of operations in a single transaction, so readers see either all of them or none
+     * of them. Observers are notified once the whole batch has been committed, instead of after each
+     * operation.
+     * <p>
+     * Each run of inserts into the posts (or filtered posts) table is stored all together, the same as
+     * a {@link #bulkInsert}, instead of going through {@link #insert} one post at a time. Their values
+     * are read before the transaction starts, so they can't use back references.
+     *
+     * @throws SQLException if any of the operations fail, in which case none of them are applied
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) {
+        ChangeNotifications changes = newChangeNotifications();
+        batchChanges.set(changes);
+        // get the posts' search text ready first, so the write lock isn't held while it's extracted
+        List<PostInserts> postInserts = findPostInserts(operations);
+        ContentProviderResult[] results;
         try {
-            for (ContentValues value : aValues) {
-                if (uriType == URI_POST) {
-                    db.delete(table, AwfulPost.POST_INDEX + "=? AND " + AwfulPost.THREAD_ID + "=?",
-                            int2StrArray(value.getAsInteger(AwfulPost.POST_INDEX), value.getAsInteger(AwfulPost.THREAD_ID)));
-                } else if (uriType == URI_EMOTE) {
-                    db.delete(table, AwfulEmote.TEXT + "=?", new String[]{value.getAsString(AwfulEmote.TEXT)});
+            results = inTransaction("batch of " + operations.size() + " operations", db -> {
+                ContentProviderResult[] applied = new ContentProviderResult[operations.size()];
+                int next = 0;
+                try {
+                    // the other operations each run in their own nested transaction, which all commit with this one
+                    for (PostInserts run : postInserts) {
+                        for (; next < run.start; next++) {
+                            applied[next] = operations.get(next).apply(this, applied, next);
+                        }
+                        next = run.store(db, changes, applied);
+                    }
+                    for (; next < operations.size(); next++) {
+                        applied[next] = operations.get(next).apply(this, applied, next);
+                    }
+                } catch (OperationApplicationException e) {
+                    throw new SQLException("Failed to apply batch", e);
                 }
-                db.replace(table, "", value);
+                return applied;
+            });
+        } finally {
+            batchChanges.remove();
+        }
+        changes.send(context.getContentResolver());
+        return results;
+    }
+
+
+    /**
+     * Find the runs of consecutive post inserts in a batch of operations, in order.
+     */
+    @NonNull
+    private static List<PostInserts> findPostInserts(@NonNull List<ContentProviderOperation> operations) {
+        List<PostInserts> runs = new ArrayList<>();
+        int next = 0;
+        while (next < operations.size()) {
+            int uriType = postInsertType(operations.get(next));
+            if (uriType == UriMatcher.NO_MATCH) {
+                next++;
+                continue;
+            }
+            int start = next;
+            List<ContentValues> rows = new ArrayList<>();
+            for (; next < operations.size() && postInsertType(operations.get(next)) == uriType; next++) {
+                rows.add(operations.get(next).resolveValueBackReferences(new ContentProviderResult[0], 0));
+            }
+            runs.add(new PostInserts(start, uriType, rows.toArray(new ContentValues[0])));
+        }
+        return runs;
+    }
+
+    /**
+     * The type of table an operation inserts a post into, or {@link UriMatcher#NO_MATCH} if it isn't a post insert.
+     */
+    private static int postInsertType(@NonNull ContentProviderOperation operation) {
+        if (!operation.isInsert()) {
+            return UriMatcher.NO_MATCH;
+        }
+        int uriType = matchUri(operation.getUri(), false);
+        return uriType == URI_POST || uriType == URI_FILTERED_POST ? uriType : UriMatcher.NO_MATCH;
+    }
+
+    /**
+     * A run of consecutive inserts into one of the post tables, in a batch of operations.
+     */
+    private static final class PostInserts {
+        /** the position of the first insert in the batch */
+        final int start;
+        final int uriType;
+        @NonNull
+        final ContentValues[] rows;
+        @Nullable
+        final String[] postText;
+
+        PostInserts(int start, int uriType, @NonNull ContentValues[] rows) {
+            this.start = start;
+            this.uriType = uriType;
+            this.rows = rows;
+            postText = uriType == URI_POST ? PostSearchIndex.extractText(rows) : null;
+        }
+
+        /**
+         * Store the posts as part of the batch's transaction, recording the changes and each insert's result.
+         *
+         * @return the position in the batch after the last insert
+         */
+        int store(@NonNull SupportSQLiteDatabase db, @NonNull ChangeNotifications changes, @NonNull ContentProviderResult[] results) {
+            boolean filtered = uriType == URI_FILTERED_POST;
+            for (ContentValues row : rows) {
+                addInsertedRow(changes, uriType, filtered ? AwfulPost.FILTERED_CONTENT_URI : AwfulPost.CONTENT_URI, row);
+            }
+            insertOrReplace(db, uriType, filtered ? TABLE_FILTERED_POSTS : TABLE_POSTS, rows, postText);
+            for (int i = 0; i < rows.length; i++) {
+                results[start + i] = new ContentProviderResult(1);
             }
+            return start + rows.length;
+        }
+    }
 
+
+    /**
+     * Add the URIs affected by inserting a row to a set of changes.
+     */
+    private static void addInsertedRow(@NonNull ChangeNotifications changes, int uriType, @NonNull Uri aUri, @NonNull ContentValues row) {
+        if (uriType == URI_POST) {
+            Integer threadId = row.getAsInteger(AwfulPost.THREAD_ID);
+            Integer postIndex = row.getAsInteger(AwfulPost.POST_INDEX);
+            if (threadId != null && postIndex != null) {
+                changes.addPost(threadId, postIndex);
+            }
+        } else if (uriType == URI_THREAD) {
+            Integer threadId = row.getAsInteger(AwfulThread.ID);
+            if (threadId != null) {
+                changes.addThread(threadId, row.getAsInteger(AwfulThread.FORUM_ID));
+            }
+        } else if (uriType == URI_FILTERED_POST) {
+            Integer threadId = row.getAsInteger(AwfulPost.THREAD_ID);
+            Integer userId = row.getAsInteger(AwfulPost.FILTER_USER_ID);
+            Integer postIndex = row.getAsInteger(AwfulPost.POST_INDEX);
+            if (threadId != null && userId != null && postIndex != null) {
+                changes.addFilteredPost(threadId, userId, postIndex);
+            }
+        } else if (uriType == URI_FILTERED_THREAD) {
+            Integer threadId = row.getAsInteger(AwfulThread.ID);
+            Integer userId = row.getAsInteger(AwfulThread.FILTER_USER_ID);
+            if (threadId != null && userId != null) {
+                changes.addFilteredThread(threadId, userId);
+            }
+        } else if (uriType == URI_IGNORED_USER) {
+            changes.addIgnoreList();
+        } else {
+            changes.add(aUri);
+        }
+    }
+
+
+    /**
+     * Get somewhere to collect the changes for a write - if it's part of a batch, that's the batch's changes.
+     */
+    @NonNull
+    private ChangeNotifications newChangeNotifications() {
+        ChangeNotifications batch = batchChanges.get();
+        return batch != null ? batch : new ChangeNotifications(AwfulPreferences.getInstance(context).postPerPage);
+    }
+
+
+    /**
+     * Notify observers of a committed write - unless it's part of a batch, which notifies everything
+     * at the end.
+     */
+    private void sendChanges(@NonNull ChangeNotifications changes) {
+        if (batchChanges.get() == null) {
+            changes.send(context.getContentResolver());
+        }
+    }
+
+
+    /**
+     * Run a write in its own transaction, recording how long it had to wait for the write lock and
+     * how long it held it.
+     * <p>
+     * The database uses write-ahead logging, so queries can keep running on the other connections
+     * while this happens - they just won't see the changes until the transaction is committed. Once
+     * it's committed, Room re-runs any of its observed queries on the tables that changed.
+     * <p>
+     * This starts the transaction on the connection itself rather than through Room, since Room's
+     * transactions can't be used on the main thread, and the provider's callers still write from it.
+     *
+     * @param operation a description of the write, for logging
+     * @param write     the work to do - if this throws, the transaction is rolled back
+     */
+    private <T> T inTransaction(@NonNull String operation, @NonNull Function<SupportSQLiteDatabase, T> write) {
+        long requestedAt = SystemClock.elapsedRealtime();
+        long startedAt = requestedAt;
+        boolean successful = false;
+        SupportSQLiteDatabase db = getDatabase();
+        // takes the write lock without shutting out readers
+        db.beginTransactionNonExclusive();
+        try {
+            startedAt = SystemClock.elapsedRealtime();
+            T result = write.apply(db);
             db.setTransactionSuccessful();
-            context.getContentResolver().notifyChange(aUri, null);
-        } catch (SQLiteConstraintException e) {
-            Log.w(TAG, e.toString());
-            // transaction failed (exception throws before #setTransactionSuccessful), no rows inserted
-            return 0;
+            successful = true;
+            return result;
         } finally {
             db.endTransaction();
+            long endedAt = SystemClock.elapsedRealtime();
+            transactionMetrics.record(operation, startedAt - requestedAt, endedAt - startedAt, successful);
+            if (successful && !db.inTransaction()) {
+                database.getInvalidationTracker().refreshVersionsAsync();
+            }
+        }
+    }
+
+
+    @NonNull
+    private SupportSQLiteDatabase getDatabase() {
+        return database.getOpenHelper().getWritableDatabase();
+    }
+
+
+    /**
+     * Handles the cache maintenance methods in {@link CacheRetention}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        switch (method) {
+            case CacheRetention.METHOD_STORAGE:
+                return CacheRetention.measureStorage(getDatabase());
+            case CacheRetention.METHOD_TABLE_SIZES:
+                return CacheRetention.measureTables(getDatabase());
+            case CacheRetention.METHOD_EVICT:
+                int limit = Integer.parseInt(arg);
+                ChangeNotifications changes = newChangeNotifications();
+                Bundle evicted = inTransaction("evict cached threads", db -> CacheRetention.evictThreads(db, limit, changes));
+                sendChanges(changes);
+                return evicted;
+            case CacheRetention.METHOD_VACUUM:
+                // this rebuilds the whole file, and can't happen inside a transaction
+                long startedAt = SystemClock.elapsedRealtime();
+                getDatabase().execSQL("VACUUM");
+                Log.i(TAG, "Vacuumed database in " + (SystemClock.elapsedRealtime() - startedAt) + "ms");
+                return null;
+            default:
+                return super.call(method, arg, extras);
         }
-        // transaction succeeded, all rows inserted
-        return aValues.length;
     }
 
 
@@ -465,9 +903,9 @@ public class AwfulProvider extends ContentProvider {
                         String[] aSelectionArgs, String aSortOrder)
     {
         SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
-        // Typically this should fetch a readable database but we're querying before
-        // we actually add anything, so make it writable.
-        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        // outside of a transaction, queries run on one of the pool's read connections,
+        // so with write-ahead logging they don't have to wait for any writes to finish
+        SupportSQLiteDatabase db = getDatabase();
 
         final int uriType = matchUri(aUri, false);
         // check for non-match, return null since an unrecognised/malformed Uri gives us nothing useful to do
@@ -495,8 +933,48 @@ public class AwfulProvider extends ContentProvider {
                 builder.setProjectionMap(sPostProjectionMap);
                 break;
 
+            case URI_POST_THREAD_PAGE:
+                builder.setProjectionMap(sPostProjectionMap);
+                builder.appendWhere(AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?");
+                int perPage = AwfulPreferences.getInstance(context).postPerPage;
+                int firstIndex = AwfulPagedItem.pageToIndex(Integer.parseInt(aUri.getPathSegments().get(4)), perPage, 0);
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, Integer.toString(firstIndex + perPage));
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, Integer.toString(firstIndex));
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, aUri.getPathSegments().get(2));
+                break;
+
+            case URI_POST_THREAD_USER_PAGE:
+                builder.setProjectionMap(sFilteredPostProjectionMap);
+                builder.appendWhere(AwfulPost.THREAD_ID + "=? AND " + AwfulPost.FILTER_USER_ID + "=? AND "
+                        + AwfulPost.POST_INDEX + ">=? AND " + AwfulPost.POST_INDEX + "<?");
+                int filteredPerPage = AwfulPreferences.getInstance(context).postPerPage;
+                int filteredFirstIndex = AwfulPagedItem.pageToIndex(Integer.parseInt(aUri.getPathSegments().get(6)), filteredPerPage, 0);
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, Integer.toString(filteredFirstIndex + filteredPerPage));
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, Integer.toString(filteredFirstIndex));
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, aUri.getPathSegments().get(4));
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, aUri.getPathSegments().get(2));
+                break;
+
+            case URI_FILTERED_POST:
+                builder.setProjectionMap(sFilteredPostProjectionMap);
+                break;
+
+            case URI_THREAD_USER:
+                // the user ID is a number (or the Uri wouldn't have matched), so it can go straight into the join
+                table = TABLE_THREADS+" LEFT OUTER JOIN "+ TABLE_FORUM+" ON "+ TABLE_THREADS+"."+AwfulThread.FORUM_ID+"="+ TABLE_FORUM+"."+AwfulForum.ID
+                        +" LEFT OUTER JOIN "+ TABLE_FILTERED_THREADS+" ON "+ TABLE_THREADS+"."+AwfulThread.ID+"="+ TABLE_FILTERED_THREADS+"."+AwfulThread.ID
+                        +" AND "+ TABLE_FILTERED_THREADS+"."+AwfulThread.FILTER_USER_ID+"="+ Long.parseLong(aUri.getLastPathSegment());
+                builder.setProjectionMap(sFilteredThreadProjectionMap);
+                builder.appendWhere(TABLE_THREADS+"."+AwfulThread.ID+"=?");
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, aUri.getPathSegments().get(1));
+                break;
+
+            case URI_FILTERED_THREAD:
+                break;
+
             case URI_THREAD_ID:
-                whereClause = TABLE_THREADS+"."+AwfulThread.ID;
+            case URI_THREAD_FORUM:
+                whereClause = TABLE_THREADS+"."+(uriType == URI_THREAD_FORUM ? AwfulThread.FORUM_ID : AwfulThread.ID);
             case URI_THREAD:
                 table = TABLE_THREADS+" LEFT OUTER JOIN "+ TABLE_FORUM+" ON "+ TABLE_THREADS+"."+AwfulThread.FORUM_ID+"="+ TABLE_FORUM+"."+AwfulForum.ID;
                 builder.setProjectionMap(sThreadProjectionMap);
@@ -534,6 +1012,23 @@ public class AwfulProvider extends ContentProvider {
             case URI_EMOTE:
                 builder.setProjectionMap(sEmoteProjectionMap);
                 break;
+
+            case URI_EMBED_ID:
+                whereClause = AwfulEmbed.ID;
+            case URI_EMBED:
+                builder.setProjectionMap(sEmbedProjectionMap);
+                break;
+
+            case URI_IGNORED_USER:
+                break;
+
+            case URI_POST_SEARCH:
+                // the last segment is the full-text query - see PostSearchQuery#toMatchQuery
+                table = TABLE_POSTS_SEARCH+" JOIN "+ TABLE_POSTS+" ON "+ TABLE_POSTS_SEARCH+".docid="+ TABLE_POSTS+"."+AwfulPost.ID;
+                builder.setProjectionMap(sPostSearchProjectionMap);
+                builder.appendWhere(TABLE_POSTS_SEARCH + " MATCH ?");
+                aSelectionArgs = insertSelectionArg(aSelectionArgs, aUri.getLastPathSegment());
+                break;
             default:
                 // this should explicitly handle all valid Uris, so if we get here, someone blew it
                 throw new RuntimeException(TAG + " - Unhandled URI type: " + uriType);
@@ -547,8 +1042,8 @@ public class AwfulProvider extends ContentProvider {
 
         // perform the query
         try {
-            Cursor result = builder.query(db, aProjection, aSelection,
-                    aSelectionArgs, null, null, aSortOrder);
+            String sql = builder.buildQuery(aProjection, aSelection, null, null, aSortOrder, null);
+            Cursor result = db.query(sql, aSelectionArgs == null ? new Object[0] : aSelectionArgs);
             result.setNotificationUri(context.getContentResolver(), aUri);
             return result;
         } catch (Exception e) {
@@ -579,9 +1074,11 @@ public class AwfulProvider extends ContentProvider {
 				return TABLE_FORUM;
 			case URI_POST_ID:
 			case URI_POST:
+			case URI_POST_THREAD_PAGE:
 				return TABLE_POSTS;
 			case URI_THREAD_ID:
 			case URI_THREAD:
+			case URI_THREAD_FORUM:
 				return TABLE_THREADS;
 			case URI_UCP_THREAD_ID:
 			case URI_UCP_THREAD:
@@ -598,6 +1095,22 @@ public class AwfulProvider extends ContentProvider {
 			case URI_EMOTE_ID:
 			case URI_EMOTE:
 				return TABLE_EMOTES;
+			case URI_EMBED_ID:
+			case URI_EMBED:
+				return TABLE_EMBEDS;
+			case URI_POST_SEARCH:
+				return TABLE_POSTS_SEARCH;
+			case URI_THREAD_ACCESS:
+				return TABLE_THREAD_ACCESS;
+			case URI_IGNORED_USER:
+				return TABLE_IGNORED_USERS;
+			case URI_FILTERED_POST:
+			case URI_POST_THREAD_USER_PAGE:
+				return TABLE_FILTERED_POSTS;
+			case URI_FILTERED_THREAD:
+				return TABLE_FILTERED_THREADS;
+			case URI_THREAD_USER:
+				return TABLE_THREADS;
 			default:
 				throw new RuntimeException("Invalid table constant: " + uriType);
 		}
@@ -0,0 +1,116 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a batch of rows to a table, replacing any existing rows they conflict with.
+ * <p>
+ * {@link SQLiteDatabase#replace} builds and compiles a new statement for every row, which adds up
+ * when we're storing a page of posts. This compiles one INSERT OR REPLACE statement for each set of
+ * columns in the batch (normally just the one) and binds each row's values to it by position.
+ * <p>
+ * Rows are replaced when they clash with any unique column or index on the table - e.g. for posts,
+ * that's the post ID, or the thread ID and post index, so a post that's moved to a different index
+ * replaces whatever was there before, and the old copy of itself. Replaced rows are deleted first,
+ * so any columns that aren't in the new row end up null, same as {@link SQLiteDatabase#replace}.
+ * <p>
+ * This doesn't handle transactions - callers should wrap the whole batch in one.
+ */
+final class BulkInsert {
+
+    private BulkInsert() {
+    }
+
+
+    /**
+     * Insert or replace all these rows in a table.
+     *
+     * @return the number of rows written
+     */
+    static int insertOrReplace(@NonNull SupportSQLiteDatabase db, @NonNull String table, @NonNull ContentValues[] rows) {
+        Map<Set<String>, Statement> statements = new HashMap<>();
+        try {
+            for (ContentValues row : rows) {
+                Set<String> columns = row.keySet();
+                Statement statement = statements.get(columns);
+                if (statement == null) {
+                    statement = new Statement(db, table, columns);
+                    statements.put(new HashSet<>(columns), statement);
+                }
+                statement.execute(row);
+            }
+        } finally {
+            for (Statement statement : statements.values()) {
+                statement.close();
+            }
+        }
+        return rows.length;
+    }
+
+
+    /**
+     * A compiled insert for a particular set of columns.
+     */
+    private static class Statement {
+        @NonNull
+        private final String[] columns;
+        @NonNull
+        private final SupportSQLiteStatement statement;
+
+        Statement(@NonNull SupportSQLiteDatabase db, @NonNull String table, @NonNull Set<String> columns) {
+            if (columns.isEmpty()) {
+                throw new IllegalArgumentException("Can't insert an empty row into " + table);
+            }
+            this.columns = columns.toArray(new String[0]);
+            StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ").append(table).append(" (");
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < this.columns.length; i++) {
+                String separator = i == 0 ? "" : ",";
+                sql.append(separator).append(this.columns[i]);
+                placeholders.append(separator).append('?');
+            }
+            sql.append(") VALUES (").append(placeholders).append(')');
+            statement = db.compileStatement(sql.toString());
+        }
+
+        void execute(@NonNull ContentValues row) {
+            for (int i = 0; i < columns.length; i++) {
+                bind(i + 1, row.get(columns[i]));
+            }
+            statement.executeInsert();
+        }
+
+        /**
+         * Bind a value the same way as SQLiteDatabase#insert does, e.g. booleans as 1/0.
+         */
+        private void bind(int index, @Nullable Object value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+
+        void close() {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.network.EmbedMetadataResolver;
+import com.ferg.awfulapp.preferences.AwfulPreferences;
+import com.ferg.awfulapp.thread.AwfulEmbed;
+import com.ferg.awfulapp.thread.AwfulEmote;
+import com.ferg.awfulapp.thread.AwfulMessage;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulThread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_DRAFTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMBEDS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FILTERED_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FILTERED_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FORUM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_ACCESS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_DRAFTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS;
+
+/**
+ * Keeps the cached forum data in the database within the size the user has set in the settings.
+ * <p>
+ * Threads are evicted least recently viewed first (see {@link #touch}), along with all their posts.
+ * Threads that were never viewed count as accessed when they were last listed in a forum. Bookmarked
+ * threads and threads with a draft reply are never evicted. Eviction happens a few threads at a time,
+ * each batch in its own short transaction on a background thread, so it never holds up the app's
+ * own writes for long. Emotes and embed metadata aren't part of any thread, so they're trimmed by age
+ * instead. Deleted data leaves free pages behind in the database file, and once enough
+ * of the file is free space, it's vacuumed to give the space back.
+ * <p>
+ * All the database work happens in {@link AwfulProvider}, which calls into here through
+ * {@link AwfulProvider#call}.
+ */
+public final class CacheRetention {
+
+    public static final String PATH = "/threadaccess";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + Constants.AUTHORITY + PATH);
+
+    // columns in the thread access table
+    public static final String THREAD_ID = "thread_id";
+    /** when the thread was last viewed, in milliseconds since the epoch */
+    public static final String LAST_ACCESSED = "last_accessed";
+
+    // provider methods, and their results
+    static final String METHOD_STORAGE = "cacheStorage";
+    static final String METHOD_TABLE_SIZES = "cacheTableSizes";
+    static final String METHOD_EVICT = "cacheEvict";
+    static final String METHOD_VACUUM = "cacheVacuum";
+    private static final String KEY_DATABASE_BYTES = "databaseBytes";
+    private static final String KEY_FREE_BYTES = "freeBytes";
+    private static final String KEY_EVICTED = "evicted";
+
+    /** the number of threads to evict in each transaction */
+    private static final int BATCH_SIZE = 10;
+    /** how long to wait between batches, so other writes get a turn */
+    private static final long BATCH_DELAY_MS = 500;
+    /** vacuum when more than this much of the database file is free pages */
+    private static final double VACUUM_FREE_RATIO = 0.25;
+    /** don't bother vacuuming a database smaller than this */
+    private static final long VACUUM_MIN_BYTES = 1024 * 1024;
+    /** emotes that haven't been fetched again for this long are deleted */
+    private static final int EMOTE_TTL_DAYS = 7;
+
+    /** the tables whose sizes are reported by {@link #getTableSizes} */
+    private static final String[] TABLES = {TABLE_POSTS, TABLE_POSTS_SEARCH, TABLE_FILTERED_POSTS, TABLE_THREADS, TABLE_FILTERED_THREADS,
+            TABLE_UCP_THREADS, TABLE_THREAD_ACCESS, TABLE_FORUM, TABLE_EMOTES, TABLE_EMBEDS, TABLE_PM, TABLE_DRAFTS, TABLE_THREAD_DRAFTS};
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Cache retention");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private static final AtomicBoolean trimRunning = new AtomicBoolean(false);
+
+    private CacheRetention() {
+    }
+
+
+    /**
+     * Record that a thread has just been viewed, so it's the last to be evicted.
+     */
+    public static void touch(@NonNull ContentResolver resolver, int threadId) {
+        ContentValues access = new ContentValues();
+        access.put(THREAD_ID, threadId);
+        access.put(LAST_ACCESSED, System.currentTimeMillis());
+        scheduler.execute(() -> resolver.bulkInsert(CONTENT_URI, new ContentValues[]{access}));
+    }
+
+
+    /**
+     * Start trimming the cache down to the size limit in the user's settings, in the background.
+     * Does nothing if a trim is already running.
+     */
+    public static void trim(@NonNull Context context) {
+        if (!trimRunning.compareAndSet(false, true)) {
+            return;
+        }
+        ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        long budgetBytes = AwfulPreferences.getInstance(context).cacheSizeLimitMb * 1024L * 1024L;
+        scheduler.execute(() -> {
+            // stale embed metadata isn't used, so there's no point keeping it around
+            int staleEmbeds = resolver.delete(AwfulEmbed.CONTENT_URI, olderThan(EmbedMetadataResolver.CACHE_TTL_DAYS), null);
+            // emotes are fetched again when the emote list is opened, so old ones are only taking up space
+            int staleEmotes = resolver.delete(AwfulEmote.CONTENT_URI, olderThan(EMOTE_TTL_DAYS), null);
+            Timber.i("Trimming cache to %,d bytes - deleted %d stale embeds and %d stale emotes", budgetBytes, staleEmbeds, staleEmotes);
+            trimStep(resolver, budgetBytes, 0);
+        });
+    }
+
+
+    /**
+     * A where clause for rows that were last updated more than some number of days ago.
+     */
+    @NonNull
+    private static String olderThan(int days) {
+        return DatabaseHelper.UPDATED_TIMESTAMP + " < datetime('now','-" + days + " days')";
+    }
+
+
+    private static void trimStep(@NonNull ContentResolver resolver, long budgetBytes, int evictedSoFar) {
+        boolean finished = true;
+        try {
+            Bundle storage = resolver.call(CONTENT_URI, METHOD_STORAGE, null, null);
+            long databaseBytes = storage.getLong(KEY_DATABASE_BYTES);
+            long freeBytes = storage.getLong(KEY_FREE_BYTES);
+            if (databaseBytes - freeBytes > budgetBytes) {
+                Bundle result = resolver.call(CONTENT_URI, METHOD_EVICT, String.valueOf(BATCH_SIZE), null);
+                int evicted = result.getInt(KEY_EVICTED);
+                if (evicted > 0) {
+                    finished = false;
+                    scheduler.schedule(() -> trimStep(resolver, budgetBytes, evictedSoFar + evicted), BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                Timber.w("Cache is %,d bytes over its limit, but there's nothing left to evict", databaseBytes - freeBytes - budgetBytes);
+            }
+            Timber.i("Cache trimmed - evicted %d threads, %,d bytes used, %,d bytes free", evictedSoFar, databaseBytes - freeBytes, freeBytes);
+            if (databaseBytes >= VACUUM_MIN_BYTES && freeBytes > databaseBytes * VACUUM_FREE_RATIO) {
+                resolver.call(CONTENT_URI, METHOD_VACUUM, null, null);
+            }
+        } catch (RuntimeException e) {
+            Timber.w(e, "Failed to trim cache");
+        } finally {
+            if (finished) {
+                trimRunning.set(false);
+            }
+        }
+    }
+
+
+    /**
+     * Get the approximate size of the data in each table, in bytes, largest first. This doesn't
+     * include the space used by indexes and page overheads, so the total is less than the size of
+     * the database file.
+     * <p>
+     * This reads every row, so don't call it on the main thread.
+     */
+    @WorkerThread
+    @NonNull
+    public static Map<String, Long> getTableSizes(@NonNull ContentResolver resolver) {
+        Bundle sizes = resolver.call(CONTENT_URI, METHOD_TABLE_SIZES, null, null);
+        if (sizes == null) {
+            return Collections.emptyMap();
+        }
+        List<String> tables = new ArrayList<>(sizes.keySet());
+        tables.sort((a, b) -> Long.compare(sizes.getLong(b), sizes.getLong(a)));
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (String table : tables) {
+            result.put(table, sizes.getLong(table));
+        }
+        return result;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Provider side
+    ///////////////////////////////////////////////////////////////////////////
+
+
+    /**
+     * The size of the database file, and how much of it is free pages.
+     */
+    @NonNull
+    static Bundle measureStorage(@NonNull SupportSQLiteDatabase db) {
+        long pageSize = longForQuery(db, "PRAGMA page_size");
+        Bundle storage = new Bundle();
+        storage.putLong(KEY_DATABASE_BYTES, pageSize * longForQuery(db, "PRAGMA page_count"));
+        storage.putLong(KEY_FREE_BYTES, pageSize * longForQuery(db, "PRAGMA freelist_count"));
+        return storage;
+    }
+
+
+    /**
+     * Total up the length of every value in each table, by table name.
+     */
+    @NonNull
+    static Bundle measureTables(@NonNull SupportSQLiteDatabase db) {
+        Bundle sizes = new Bundle();
+        for (String table : TABLES) {
+            List<String> lengths = new ArrayList<>();
+            try (Cursor columns = db.query("PRAGMA table_info(" + table + ")")) {
+                int nameIndex = columns.getColumnIndexOrThrow("name");
+                while (columns.moveToNext()) {
+                    // casting to a blob gives the length in bytes, rather than characters
+                    lengths.add("IFNULL(LENGTH(CAST(" + columns.getString(nameIndex) + " AS BLOB)), 0)");
+                }
+            }
+            if (!lengths.isEmpty()) {
+                sizes.putLong(table, longForQuery(db,
+                        "SELECT IFNULL(SUM(" + String.join(" + ", lengths) + "), 0) FROM " + table));
+            }
+        }
+        return sizes;
+    }
+
+
+    /**
+     * Delete the least recently viewed threads that aren't pinned, and all their posts. This needs
+     * to run in a transaction.
+     * <p>
+     * Evicted threads can be in any forum, and their posts on any page, so if anything is evicted the
+     * whole threads and posts URIs are added to the changes, for any open lists and pages to reload.
+     *
+     * @param limit   the maximum number of threads to evict
+     * @param changes where to add the URIs to notify once the transaction is committed
+     * @return a result bundle with the number of threads evicted
+     */
+    @NonNull
+    static Bundle evictThreads(@NonNull SupportSQLiteDatabase db, int limit, @NonNull ChangeNotifications changes) {
+        // posts can be cached for threads that don't have a row in the threads table (e.g. opened from a link)
+        String cached = "SELECT " + AwfulThread.ID + " AS cached_id FROM " + TABLE_THREADS
+                + " UNION SELECT " + AwfulPost.THREAD_ID + " FROM " + TABLE_POSTS
+                + " UNION SELECT " + AwfulPost.THREAD_ID + " FROM " + TABLE_FILTERED_POSTS;
+        String candidates = "SELECT cached_id FROM (" + cached + ")"
+                + " LEFT JOIN " + TABLE_THREADS + " ON " + TABLE_THREADS + "." + AwfulThread.ID + "=cached_id"
+                + " LEFT JOIN " + TABLE_THREAD_ACCESS + " ON " + TABLE_THREAD_ACCESS + "." + THREAD_ID + "=cached_id"
+                + " WHERE IFNULL(" + AwfulThread.BOOKMARKED + ", 0)=0"
+                + " AND cached_id NOT IN (SELECT " + AwfulThread.ID + " FROM " + TABLE_UCP_THREADS + ")"
+                + " AND cached_id NOT IN (SELECT " + AwfulMessage.ID + " FROM " + TABLE_DRAFTS + ")"
+                + " ORDER BY IFNULL(" + LAST_ACCESSED + ", IFNULL(STRFTIME('%s', " + TABLE_THREADS + "." + DatabaseHelper.UPDATED_TIMESTAMP + ") * 1000, 0))"
+                + " LIMIT " + limit;
+        List<String> threadIds = new ArrayList<>();
+        try (Cursor cursor = db.query(candidates)) {
+            while (cursor.moveToNext()) {
+                threadIds.add(Long.toString(cursor.getLong(0)));
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(KEY_EVICTED, threadIds.size());
+        if (threadIds.isEmpty()) {
+            return result;
+        }
+        String ids = " IN (" + String.join(",", threadIds) + ")";
+        PostSearchIndex.remove(db, AwfulPost.THREAD_ID + ids, null);
+        int posts = db.delete(TABLE_POSTS, AwfulPost.THREAD_ID + ids, null);
+        posts += db.delete(TABLE_FILTERED_POSTS, AwfulPost.THREAD_ID + ids, null);
+        db.delete(TABLE_THREADS, AwfulThread.ID + ids, null);
+        db.delete(TABLE_FILTERED_THREADS, AwfulThread.ID + ids, null);
+        db.delete(TABLE_THREAD_ACCESS, THREAD_ID + ids, null);
+        changes.add(AwfulThread.CONTENT_URI);
+        changes.add(AwfulPost.CONTENT_URI);
+        Timber.d("Evicted threads %s with %d posts", threadIds, posts);
+        return result;
+    }
+
+
+    private static long longForQuery(@NonNull SupportSQLiteDatabase db, @NonNull String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteQueryBuilder;
+
+import com.ferg.awfulapp.thread.AwfulPagedItem;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.users.IgnoreList;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+
+/**
+ * Collects the URIs affected by a write, so observers can be notified once it's been committed.
+ * <p>
+ * Posts are notified on the {@link AwfulPost#threadPageUri page} they're on, and threads on their
+ * own URI and their {@link AwfulThread#forumUri forum's}. Notifying a URI also notifies anything
+ * watching one of its ancestors, so observers of the whole table still see every change - but a
+ * thread page or a forum page only wakes up for its own data. Each URI is only notified once, however
+ * many rows in the write affected it.
+ * <p>
+ * Changing a thread's last read index changes the read state of all its posts, so that's notified on
+ * the {@link AwfulPost#threadUri parent} of all the thread's pages.
+ * <p>
+ * Posts and post counts for threads filtered to one user's posts are notified on their own
+ * {@link AwfulPost#filteredPageUri pages} and {@link AwfulThread#filteredUri thread URI}.
+ */
+final class ChangeNotifications {
+
+    private final Set<Uri> uris = new LinkedHashSet<>();
+    private final int postsPerPage;
+
+
+    /**
+     * @param postsPerPage the posts-per-page setting, which decides the page URIs posts are notified on
+     */
+    ChangeNotifications(int postsPerPage) {
+        this.postsPerPage = postsPerPage;
+    }
+
+
+    void add(@NonNull Uri uri) {
+        uris.add(uri);
+    }
+
+
+    void addPost(int threadId, int postIndex) {
+        uris.add(AwfulPost.threadPageUri(threadId, AwfulPagedItem.indexToPage(postIndex, postsPerPage)));
+    }
+
+
+    void addFilteredPost(int threadId, int userId, int postIndex) {
+        uris.add(AwfulPost.filteredPageUri(threadId, userId, AwfulPagedItem.indexToPage(postIndex, postsPerPage)));
+    }
+
+
+    /**
+     * Changing the ignore list changes which posts are shown as ignored, in every thread.
+     */
+    void addIgnoreList() {
+        uris.add(IgnoreList.CONTENT_URI);
+        uris.add(AwfulPost.CONTENT_URI);
+    }
+
+
+    void addThread(int threadId, @Nullable Integer forumId) {
+        uris.add(ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId));
+        if (forumId != null) {
+            uris.add(AwfulThread.forumUri(forumId));
+        }
+    }
+
+
+    void addFilteredThread(int threadId, int userId) {
+        uris.add(AwfulThread.filteredUri(threadId, userId));
+    }
+
+
+    /**
+     * Add the pages of any posts matching a where clause - this needs to happen before they're
+     * changed, in the same transaction.
+     */
+    void addPostsWhere(@NonNull SupportSQLiteDatabase db, @Nullable String where, @Nullable String[] whereArgs) {
+        String page = "(" + AwfulPost.POST_INDEX + " - 1) / " + postsPerPage + " + 1";
+        try (Cursor pages = db.query(SupportSQLiteQueryBuilder.builder(TABLE_POSTS)
+                .distinct()
+                .columns(new String[]{AwfulPost.THREAD_ID, page})
+                .selection(where, whereArgs)
+                .create())) {
+            while (pages.moveToNext()) {
+                uris.add(AwfulPost.threadPageUri(pages.getInt(0), pages.getInt(1)));
+            }
+        }
+    }
+
+
+    /**
+     * Add any threads matching a where clause - this needs to happen before they're changed, in the
+     * same transaction.
+     *
+     * @param lastReadIndex the {@link AwfulThread#LAST_READ_INDEX} the threads are being given, if
+     *                      it's being changed - this changes the read state of their posts too
+     */
+    void addThreadsWhere(@NonNull SupportSQLiteDatabase db, @Nullable String where, @Nullable String[] whereArgs, @Nullable Integer lastReadIndex) {
+        try (Cursor threads = db.query(SupportSQLiteQueryBuilder.builder(TABLE_THREADS)
+                .columns(new String[]{AwfulThread.ID, AwfulThread.FORUM_ID, AwfulThread.LAST_READ_INDEX})
+                .selection(where, whereArgs)
+                .create())) {
+            while (threads.moveToNext()) {
+                int threadId = threads.getInt(0);
+                addThread(threadId, threads.isNull(1) ? null : threads.getInt(1));
+                if (lastReadIndex != null && (threads.isNull(2) || threads.getInt(2) != lastReadIndex)) {
+                    uris.add(AwfulPost.threadUri(threadId));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Notify observers of every affected URI.
+     */
+    void send(@NonNull ContentResolver resolver) {
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ferg.awfulapp.provider
+
+import androidx.paging.PagingSource
+import androidx.room.ColumnInfo
+import androidx.room.Dao
+import androidx.room.Embedded
+import androidx.room.Query
+import kotlinx.coroutines.flow.Flow
+
+/*
+ * Typed queries on the cached data. Room checks these against the entities when the app is built,
+ * and the Flows and PagingSources re-run their queries whenever a table they read from changes -
+ * including changes written through AwfulProvider, which uses the same database.
+ */
+
+
+@Dao
+interface ForumDao {
+
+    @Query("SELECT * FROM forum ORDER BY forum_index")
+    fun forums(): Flow<List<ForumEntity>>
+
+    @Query("SELECT * FROM forum WHERE _id = :forumId")
+    fun forum(forumId: Int): Flow<ForumEntity?>
+}
+
+
+/**
+ * A thread as the thread screen shows it. When it's filtered to one user's posts, [postCount] is the
+ * number of posts in the filtered thread.
+ */
+data class DisplayedThread(
+    @Embedded val thread: ThreadEntity,
+    @ColumnInfo(name = "displayed_post_count") val postCount: Int
+)
+
+
+@Dao
+interface ThreadDao {
+
+    /**
+     * The cached threads on a page of a forum - the ones from [firstIndex] up to (but not including)
+     * [endIndex], see AwfulPagedItem.forumPageToIndex. They're in the order they're listed on the
+     * site, unless [newFirst] puts the threads with unread posts at the top.
+     */
+    @Query(
+        "SELECT * FROM threads WHERE forum_id = :forumId AND thread_index >= :firstIndex AND thread_index < :endIndex"
+                + " ORDER BY CASE WHEN :newFirst THEN unread_count > 0 ELSE 0 END DESC, thread_index"
+    )
+    fun forumPage(forumId: Int, firstIndex: Int, endIndex: Int, newFirst: Boolean): PagingSource<Int, ThreadEntity>
+
+    /** A page of the user's bookmarked threads, like [forumPage] but in bookmark order. */
+    @Query(
+        "SELECT threads.* FROM ucp_thread JOIN threads ON ucp_thread._id = threads._id"
+                + " WHERE ucp_thread.thread_index >= :firstIndex AND ucp_thread.thread_index < :endIndex"
+                + " ORDER BY CASE WHEN :newFirst THEN threads.unread_count > 0 ELSE 0 END DESC, ucp_thread.thread_index"
+    )
+    fun bookmarksPage(firstIndex: Int, endIndex: Int, newFirst: Boolean): PagingSource<Int, ThreadEntity>
+
+    @Query("SELECT * FROM threads WHERE _id = :threadId")
+    fun thread(threadId: Int): Flow<ThreadEntity?>
+
+    /**
+     * A thread, with its post count filtered to [filterUserId]'s posts if that's set - like the
+     * provider's filtered thread URIs, a filtered thread that hasn't been loaded yet has no posts.
+     */
+    @Query(
+        "SELECT threads.*, CASE WHEN :filterUserId IS NULL THEN IFNULL(threads.post_count, 0)"
+                + " ELSE IFNULL(filtered_threads.post_count, 0) END AS displayed_post_count"
+                + " FROM threads LEFT JOIN filtered_threads"
+                + " ON filtered_threads._id = threads._id AND filtered_threads.filter_user_id = :filterUserId"
+                + " WHERE threads._id = :threadId"
+    )
+    fun displayedThread(threadId: Int, filterUserId: Int?): Flow<DisplayedThread?>
+}
+
+
+@Dao
+interface PostDao {
+
+    /** All the cached posts in a thread, in order. */
+    @Query("SELECT * FROM posts WHERE thread_id = :threadId ORDER BY post_index")
+    fun threadPosts(threadId: Int): PagingSource<Int, PostEntity>
+
+    /**
+     * A page of a thread's posts - the [count] posts starting at [firstIndex] (see AwfulPagedItem for
+     * working those out).
+     */
+    @Query(
+        "SELECT * FROM posts WHERE thread_id = :threadId"
+                + " AND post_index >= :firstIndex AND post_index < :firstIndex + :count ORDER BY post_index"
+    )
+    fun page(threadId: Int, firstIndex: Int, count: Int): Flow<List<PostEntity>>
+
+    @Query("SELECT * FROM posts WHERE _id = :postId")
+    suspend fun post(postId: Long): PostEntity?
+}
+
+
+@Dao
+interface MessageDao {
+
+    /** The private messages in a folder, newest first. */
+    @Query("SELECT * FROM private_messages WHERE folder = :folder ORDER BY _id DESC")
+    fun folder(folder: Int): Flow<List<PrivateMessageEntity>>
+
+    @Query("SELECT * FROM private_messages WHERE _id = :messageId")
+    fun message(messageId: Int): Flow<PrivateMessageEntity?>
+
+    /** The draft reply to a thread or a private message, by its ID. */
+    @Query("SELECT * FROM draft_messages WHERE _id = :id")
+    fun draft(id: Int): Flow<MessageDraftEntity?>
+
+    /** The draft new thread for a forum. */
+    @Query("SELECT * FROM draft_threads WHERE _id = :forumId")
+    fun threadDraft(forumId: Int): Flow<ThreadDraftEntity?>
+}
+
+
+@Dao
+interface EmoteDao {
+
+    /** All the emotes, in the order the site lists them. */
+    @Query("SELECT * FROM emotes ORDER BY emote_index")
+    fun emotes(): Flow<List<EmoteEntity>>
+
+    /** The emotes with these exact codes, in the order the site lists them. */
+    @Query("SELECT * FROM emotes WHERE text IN (:codes) ORDER BY emote_index")
+    fun emotesWithCodes(codes: List<String>): Flow<List<EmoteEntity>>
+}
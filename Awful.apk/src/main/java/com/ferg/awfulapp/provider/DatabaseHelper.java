@@ -1,236 +1,574 @@
 package com.ferg.awfulapp.provider;
 
-import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
+import com.ferg.awfulapp.thread.AwfulEmbed;
 import com.ferg.awfulapp.thread.AwfulEmote;
 import com.ferg.awfulapp.thread.AwfulForum;
 import com.ferg.awfulapp.thread.AwfulMessage;
 import com.ferg.awfulapp.thread.AwfulPost;
 import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.thread.CachedPostSearch;
+import com.ferg.awfulapp.users.IgnoreList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Created by baka kaba on 06/05/2017.
  *
- * Manages the app database, handling initialisation and version changes.
+ * Defines the app database's schema, and the upgrades between its versions.
  * Extracted from {@link AwfulProvider}.
+ * <p>
+ * The database itself is opened by {@link AwfulDatabase}, which runs the schema creation and
+ * migrations here. The tables Room reads have entities in {@link AwfulDatabase}'s package, and Room
+ * checks each table matches its entity when the database is opened - so if you change one of those
+ * tables, change its entity to match (the column types are TEXT, INTEGER or BLOB, and Room's
+ * generated indexes are named the same way as {@link #createIndex}).
+ * <p>
+ * Schema changes after version {@link #LAST_LEGACY_VERSION} are made with {@link Migration}s, which
+ * modify the existing tables instead of dropping them. To change the schema, update the table and
+ * index definitions here (which are used for new databases), bump {@link #DATABASE_VERSION} and add a
+ * migration for that version to {@link #MIGRATIONS}. Migrations create tables from the definitions
+ * frozen in {@link SchemaHistory}, so add the new version of any table they create there too.
  */
-public class DatabaseHelper extends SQLiteOpenHelper {
+public final class DatabaseHelper {
+
+    static final String DATABASE_NAME = "awful.db";
+    static final int DATABASE_VERSION = 45;
+    /** The oldest version that can be upgraded - anything older is recreated from scratch */
+    static final int FIRST_LEGACY_VERSION = 23;
+    /** The last version handled by the old drop-and-recreate upgrades in {@link #upgradeLegacySchema} */
+    static final int LAST_LEGACY_VERSION = 40;
 
-    private static final String DATABASE_NAME = "awful.db";
-    private static final int DATABASE_VERSION = 37;
+    /**
+     * Migrations for every version after {@link #LAST_LEGACY_VERSION}. Once a migration has been
+     * released, don't change what it does - add a new one instead.
+     */
+    static final List<Migration> MIGRATIONS = Arrays.asList(
+            new Migration(41, DatabaseHelper::addQueryIndexes),
+            new Migration(42, DatabaseHelper::addNaturalKeys),
+            new Migration(43, SchemaHistory::createPostSearchTable43),
+            new Migration(44, DatabaseHelper::addThreadAccessTable),
+            new Migration(45, DatabaseHelper::rebuildTables)
+    );
 
     static final String TABLE_FORUM    = "forum";
     static final String TABLE_THREADS    = "threads";
-    // TODO: 06/05/2017 this is only public because a fragment is building selection arguments - move that out of there!
-    public static final String TABLE_UCP_THREADS    = "ucp_thread";
+    static final String TABLE_UCP_THREADS    = "ucp_thread";
     static final String TABLE_POSTS    = "posts";
+    static final String TABLE_POSTS_SEARCH    = "posts_search";
     static final String TABLE_EMOTES    = "emotes";
     static final String TABLE_PM    = "private_messages";
     static final String TABLE_DRAFTS    = "draft_messages";
     static final String TABLE_THREAD_DRAFTS    = "draft_threads";
+    static final String TABLE_EMBEDS    = "embeds";
+    static final String TABLE_THREAD_ACCESS    = "thread_access";
+    static final String TABLE_IGNORED_USERS    = "ignored_users";
+    static final String TABLE_FILTERED_POSTS    = "filtered_posts";
+    static final String TABLE_FILTERED_THREADS    = "filtered_threads";
 
     public static final String UPDATED_TIMESTAMP    = "timestamp_row_update";
 
-    DatabaseHelper(Context aContext) {
-        super(aContext, DATABASE_NAME, null, DATABASE_VERSION);
+    private DatabaseHelper() {
+    }
+
+    /**
+     * Something that can run SQL statements - usually a {@link androidx.sqlite.db.SupportSQLiteDatabase}.
+     */
+    interface SqlExecutor {
+        void execSQL(String sql);
+    }
+
+
+    /**
+     * Create all the tables and indexes for the current version of the schema.
+     */
+    static void createSchema(@NonNull SqlExecutor aDb) {
+        createTables(aDb);
+        createIndexes(aDb);
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase aDb) {
+
+    @VisibleForTesting
+    static void createTables(@NonNull SqlExecutor aDb) {
         createForumTable(aDb);
         createThreadTable(aDb);
         createUCPTable(aDb);
         createPostTable(aDb);
+        createPostSearchTable(aDb);
         createEmoteTable(aDb);
         createPMTable(aDb);
         createDraftTable(aDb);
         createThreadDraftTable(aDb);
+        createEmbedTable(aDb);
+        createThreadAccessTable(aDb);
+        createIgnoredUsersTable(aDb);
+        createFilteredPostTable(aDb);
+        createFilteredThreadTable(aDb);
+    }
+
+
+    /**
+     * Create indexes for the columns the app's common queries filter on - the posts on a page of a
+     * thread, the threads on a page of a forum or the bookmarks, emotes by their text, and the
+     * update timestamps and access times used to trim old data. Without these, each query scans the
+     * whole table.
+     * <p>
+     * Posts and emotes are unique on their position in a thread and their text respectively, so
+     * {@link BulkInsert} can replace the old rows with a single statement.
+     */
+    private static void createIndexes(@NonNull SqlExecutor aDb) {
+        createIndex(aDb, true, TABLE_POSTS, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX);
+        createIndex(aDb, false, TABLE_POSTS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_THREADS, AwfulThread.FORUM_ID, AwfulThread.INDEX);
+        createIndex(aDb, false, TABLE_THREADS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_UCP_THREADS, AwfulThread.INDEX);
+        createIndex(aDb, false, TABLE_UCP_THREADS, UPDATED_TIMESTAMP);
+        createIndex(aDb, true, TABLE_EMOTES, AwfulEmote.TEXT);
+        createIndex(aDb, false, TABLE_EMOTES, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_EMBEDS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_THREAD_ACCESS, CacheRetention.LAST_ACCESSED);
+    }
+
+
+    /**
+     * Create an index on one or more columns of a table, named after the table and columns.
+     */
+    private static void createIndex(@NonNull SqlExecutor aDb, boolean unique, @NonNull String table, @NonNull String... columns) {
+        aDb.execSQL("CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + indexName(table, columns)
+                + " ON " + table + " (" + String.join(", ", columns) + ");");
+    }
+
+    @NonNull
+    private static String indexName(@NonNull String table, @NonNull String... columns) {
+        return "index_" + table + "_" + String.join("_", columns);
     }
 
 
-    private void createForumTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_FORUM + " (" +
-                AwfulForum.ID + " INTEGER UNIQUE," +
+    ///////////////////////////////////////////////////////////////////////////
+    // Migrations
+    ///////////////////////////////////////////////////////////////////////////
+
+
+    /**
+     * Version 41: index the columns used by common queries.
+     */
+    private static void addQueryIndexes(@NonNull SqlExecutor aDb) {
+        createIndex(aDb, false, TABLE_POSTS, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX);
+        createIndex(aDb, false, TABLE_POSTS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_THREADS, AwfulThread.FORUM_ID, AwfulThread.INDEX);
+        createIndex(aDb, false, TABLE_THREADS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_UCP_THREADS, AwfulThread.INDEX);
+        createIndex(aDb, false, TABLE_UCP_THREADS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_EMOTES, AwfulEmote.TEXT);
+        createIndex(aDb, false, TABLE_EMOTES, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_EMBEDS, UPDATED_TIMESTAMP);
+    }
+
+
+    /**
+     * Version 42: make posts unique on their thread and index, and emotes on their text. Any
+     * duplicates are dropped first, keeping the most recently inserted row.
+     */
+    private static void addNaturalKeys(@NonNull SqlExecutor aDb) {
+        replaceWithUniqueIndex(aDb, TABLE_POSTS, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX);
+        replaceWithUniqueIndex(aDb, TABLE_EMOTES, AwfulEmote.TEXT);
+    }
+
+    private static void replaceWithUniqueIndex(@NonNull SqlExecutor aDb, @NonNull String table, @NonNull String... columns) {
+        aDb.execSQL("DELETE FROM " + table + " WHERE rowid NOT IN (SELECT MAX(rowid) FROM " + table
+                + " GROUP BY " + String.join(", ", columns) + ");");
+        aDb.execSQL("DROP INDEX IF EXISTS " + indexName(table, columns) + ";");
+        createIndex(aDb, true, table, columns);
+    }
+
+
+    /**
+     * Version 44: track when each thread was last viewed, for {@link CacheRetention}.
+     */
+    private static void addThreadAccessTable(@NonNull SqlExecutor aDb) {
+        SchemaHistory.createThreadAccessTable44(aDb);
+        createIndex(aDb, false, TABLE_THREAD_ACCESS, CacheRetention.LAST_ACCESSED);
+    }
+
+
+    /**
+     * Version 45: rebuild the tables {@link AwfulDatabase} reads into the form Room expects - with
+     * the ID as the primary key, timestamps as TEXT, and post content as a BLOB (so it can hold the
+     * compressed content Room reads as bytes). At the same time:
+     * <ul>
+     *     <li>read state moves from a flag on every post to a last-read index on each thread, which
+     *     starts at the number of posts the thread listing counted as read</li>
+     *     <li>ignored users move from a flag on each of their posts to their own table, which starts
+     *     with everyone whose posts were marked</li>
+     *     <li>threads filtered to one user's posts get their own tables</li>
+     *     <li>the embeds table gets the same TEXT types as everything else</li>
+     * </ul>
+     * SQLite can't change a column's type, add a primary key or drop a column in place (on older
+     * versions of Android), so each table is renamed, recreated and copied over - once, straight into
+     * its new form. Dropping the old tables drops their indexes, so those are recreated too.
+     */
+    private static void rebuildTables(@NonNull SqlExecutor aDb) {
+        rebuildTable(aDb, TABLE_FORUM, SchemaHistory::createForumTable45);
+        rebuildTable(aDb, TABLE_THREADS, SchemaHistory::createThreadTable45,
+                append(THREAD_COLUMNS_44, AwfulThread.LAST_READ_INDEX),
+                append(THREAD_COLUMNS_44, "CASE WHEN " + AwfulThread.HAS_VIEWED_THREAD + " THEN MAX(IFNULL("
+                        + AwfulThread.POSTCOUNT + ", 0) - IFNULL(" + AwfulThread.UNREADCOUNT + ", 0), 0) ELSE 0 END"));
+        rebuildTable(aDb, TABLE_UCP_THREADS, SchemaHistory::createUCPTable45);
+        // this needs the posts' old ignored state, so it has to happen before they're rebuilt
+        SchemaHistory.createIgnoredUsersTable45(aDb);
+        aDb.execSQL("INSERT OR IGNORE INTO " + TABLE_IGNORED_USERS + " (" + IgnoreList.USER_ID + ") SELECT DISTINCT "
+                + AwfulPost.USER_ID + " FROM " + TABLE_POSTS + " WHERE " + AwfulPost.IS_IGNORED + " AND "
+                + AwfulPost.USER_ID + " IS NOT NULL;");
+        rebuildTable(aDb, TABLE_POSTS, SchemaHistory::createPostTable45, POST_COLUMNS_45, POST_COLUMNS_45);
+        rebuildTable(aDb, TABLE_EMOTES, SchemaHistory::createEmoteTable45);
+        rebuildTable(aDb, TABLE_PM, SchemaHistory::createPMTable45);
+        rebuildTable(aDb, TABLE_DRAFTS, SchemaHistory::createDraftTable45);
+        rebuildTable(aDb, TABLE_THREAD_DRAFTS, SchemaHistory::createThreadDraftTable45);
+        rebuildTable(aDb, TABLE_EMBEDS, SchemaHistory::createEmbedTable45);
+        SchemaHistory.createFilteredPostTable45(aDb);
+        SchemaHistory.createFilteredThreadTable45(aDb);
+        createIndex(aDb, true, TABLE_POSTS, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX);
+        createIndex(aDb, false, TABLE_POSTS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_THREADS, AwfulThread.FORUM_ID, AwfulThread.INDEX);
+        createIndex(aDb, false, TABLE_THREADS, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_UCP_THREADS, AwfulThread.INDEX);
+        createIndex(aDb, false, TABLE_UCP_THREADS, UPDATED_TIMESTAMP);
+        createIndex(aDb, true, TABLE_EMOTES, AwfulEmote.TEXT);
+        createIndex(aDb, false, TABLE_EMOTES, UPDATED_TIMESTAMP);
+        createIndex(aDb, false, TABLE_EMBEDS, UPDATED_TIMESTAMP);
+    }
+
+    /**
+     * Recreate a table and copy all its rows over - the old and new tables need matching columns.
+     */
+    private static void rebuildTable(@NonNull SqlExecutor aDb, @NonNull String table, @NonNull Consumer<SqlExecutor> createTable) {
+        String oldTable = table + "_old";
+        aDb.execSQL("ALTER TABLE " + table + " RENAME TO " + oldTable + ";");
+        createTable.accept(aDb);
+        // rows with no ID get one assigned, same as any other insert into the primary key
+        aDb.execSQL("INSERT INTO " + table + " SELECT * FROM " + oldTable + ";");
+        dropTables(aDb, oldTable);
+    }
+
+    /**
+     * Recreate a table and copy its rows over, filling some of the new table's columns with values
+     * selected from the old table.
+     *
+     * @param columns the columns to fill in the new table
+     * @param values  the expression to fill each column with, in terms of the old table's columns
+     */
+    private static void rebuildTable(@NonNull SqlExecutor aDb, @NonNull String table, @NonNull Consumer<SqlExecutor> createTable,
+                                     @NonNull String[] columns, @NonNull String[] values) {
+        String oldTable = table + "_old";
+        aDb.execSQL("ALTER TABLE " + table + " RENAME TO " + oldTable + ";");
+        createTable.accept(aDb);
+        aDb.execSQL("INSERT INTO " + table + " (" + String.join(", ", columns) + ") SELECT "
+                + String.join(", ", values) + " FROM " + oldTable + ";");
+        dropTables(aDb, oldTable);
+    }
+
+    @NonNull
+    private static String[] append(@NonNull String[] values, @NonNull String value) {
+        String[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    /** The threads table's columns at version 44, before {@link AwfulThread#LAST_READ_INDEX} was added */
+    private static final String[] THREAD_COLUMNS_44 = {
+            AwfulThread.ID, AwfulThread.FORUM_ID, AwfulThread.INDEX, AwfulThread.TITLE, AwfulThread.POSTCOUNT,
+            AwfulThread.UNREADCOUNT, AwfulThread.AUTHOR, AwfulThread.AUTHOR_ID, AwfulThread.LOCKED,
+            AwfulThread.CAN_OPEN_CLOSE, AwfulThread.BOOKMARKED, AwfulThread.STICKY, AwfulThread.CATEGORY,
+            AwfulThread.LASTPOSTER, AwfulThread.TAG_URL, AwfulThread.TAG_CACHEFILE, AwfulThread.TAG_EXTRA,
+            AwfulThread.HAS_VIEWED_THREAD, AwfulThread.ARCHIVED, AwfulThread.RATING, UPDATED_TIMESTAMP
+    };
+
+    /** The posts table's columns from version 45, without the read and ignored state */
+    private static final String[] POST_COLUMNS_45 = {
+            AwfulPost.ID, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX, AwfulPost.DATE, AwfulPost.REGDATE,
+            AwfulPost.USER_ID, AwfulPost.USERNAME, AwfulPost.EDITABLE, AwfulPost.IS_OP,
+            AwfulPost.IS_PLAT, AwfulPost.ROLE, AwfulPost.AVATAR, AwfulPost.AVATAR_SECOND, AwfulPost.AVATAR_TEXT,
+            AwfulPost.CONTENT, AwfulPost.EDITED, AwfulPost.CONTENT_HASH, UPDATED_TIMESTAMP
+    };
+
+
+    private static void createForumTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FORUM + " (" +
+                AwfulForum.ID + " INTEGER NOT NULL PRIMARY KEY," +
                 AwfulForum.PARENT_ID + " INTEGER," + //subforums list parent forum id, primary forums list 0 (index)
                 AwfulForum.INDEX + " INTEGER," +
-                AwfulForum.TITLE + " VARCHAR," +
-                AwfulForum.SUBTEXT + " VARCHAR," +
+                AwfulForum.TITLE + " TEXT," +
+                AwfulForum.SUBTEXT + " TEXT," +
                 AwfulForum.PAGE_COUNT + " INTEGER," +
-                AwfulForum.TAG_URL + " VARCHAR," +
-                AwfulForum.TAG_CACHEFILE + " VARCHAR," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+                AwfulForum.TAG_URL + " TEXT," +
+                AwfulForum.TAG_CACHEFILE + " TEXT," +
+                UPDATED_TIMESTAMP + " TEXT);");
     }
 
-    private void createThreadTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_THREADS + " (" +
-                AwfulThread.ID + " INTEGER UNIQUE," +
+    private static void createThreadTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_THREADS + " (" +
+                AwfulThread.ID + " INTEGER NOT NULL PRIMARY KEY," +
                 AwfulThread.FORUM_ID + " INTEGER," +
                 AwfulThread.INDEX + " INTEGER," +
-                AwfulThread.TITLE + " VARCHAR," +
+                AwfulThread.TITLE + " TEXT," +
                 AwfulThread.POSTCOUNT + " INTEGER," +
                 AwfulThread.UNREADCOUNT + " INTEGER," +
-                AwfulThread.AUTHOR + " VARCHAR," +
+                AwfulThread.AUTHOR + " TEXT," +
                 AwfulThread.AUTHOR_ID + " INTEGER," +
                 AwfulThread.LOCKED + " INTEGER," +
                 AwfulThread.CAN_OPEN_CLOSE + " INTEGER," +
                 AwfulThread.BOOKMARKED + " INTEGER," +
                 AwfulThread.STICKY + " INTEGER," +
                 AwfulThread.CATEGORY + " INTEGER," +
-                AwfulThread.LASTPOSTER + " VARCHAR," +
-                AwfulThread.TAG_URL + " VARCHAR," +
-                AwfulThread.TAG_CACHEFILE + " VARCHAR," +
+                AwfulThread.LASTPOSTER + " TEXT," +
+                AwfulThread.TAG_URL + " TEXT," +
+                AwfulThread.TAG_CACHEFILE + " TEXT," +
                 AwfulThread.TAG_EXTRA + " INTEGER, " +
                 AwfulThread.HAS_VIEWED_THREAD + " INTEGER, " +
                 AwfulThread.ARCHIVED + " INTEGER, " +
                 AwfulThread.RATING + " INTEGER, " +
-                UPDATED_TIMESTAMP + " DATETIME);");
+                AwfulThread.LAST_READ_INDEX + " INTEGER, " +
+                UPDATED_TIMESTAMP + " TEXT);");
     }
 
-    private void createUCPTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_UCP_THREADS + " (" +
-                AwfulThread.ID + " INTEGER UNIQUE," + //to be joined with thread table
+    private static void createUCPTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_UCP_THREADS + " (" +
+                AwfulThread.ID + " INTEGER NOT NULL PRIMARY KEY," + //to be joined with thread table
                 AwfulThread.INDEX + " INTEGER," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+                UPDATED_TIMESTAMP + " TEXT);");
     }
 
-    private void createPostTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_POSTS + " (" +
-                AwfulPost.ID + " INTEGER UNIQUE," +
+    private static void createPostTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_POSTS + " (" +
+                AwfulPost.ID + " INTEGER NOT NULL PRIMARY KEY," +
                 AwfulPost.THREAD_ID + " INTEGER," +
                 AwfulPost.POST_INDEX + " INTEGER," +
-                AwfulPost.DATE + " VARCHAR," +
-                AwfulPost.REGDATE + " VARCHAR," +
+                AwfulPost.DATE + " TEXT," +
+                AwfulPost.REGDATE + " TEXT," +
                 AwfulPost.USER_ID + " INTEGER," +
-                AwfulPost.USERNAME + " VARCHAR," +
-                AwfulPost.IS_IGNORED + " INTEGER," +
-                AwfulPost.PREVIOUSLY_READ + " INTEGER," +
+                AwfulPost.USERNAME + " TEXT," +
                 AwfulPost.EDITABLE + " INTEGER," +
                 AwfulPost.IS_OP + " INTEGER," +
                 AwfulPost.IS_PLAT + " INTEGER," +
-                AwfulPost.ROLE + " VARCHAR," +
-                AwfulPost.AVATAR + " VARCHAR," +
-                AwfulPost.AVATAR_SECOND + " VARCHAR," +
-                AwfulPost.AVATAR_TEXT + " VARCHAR," +
-                AwfulPost.CONTENT + " VARCHAR," +
-                AwfulPost.EDITED + " VARCHAR," +
-                UPDATED_TIMESTAMP + " DATETIME);");
-    }
-
-    private void createEmoteTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_EMOTES + " (" +
-                AwfulEmote.ID + " INTEGER UNIQUE," +
-                AwfulEmote.TEXT + " VARCHAR," +
-                AwfulEmote.SUBTEXT + " VARCHAR," +
-                AwfulEmote.URL + " VARCHAR," +
+                AwfulPost.ROLE + " TEXT," +
+                AwfulPost.AVATAR + " TEXT," +
+                AwfulPost.AVATAR_SECOND + " TEXT," +
+                AwfulPost.AVATAR_TEXT + " TEXT," +
+                AwfulPost.CONTENT + " BLOB," + // plain text, or compressed by PostContentCodec
+                AwfulPost.EDITED + " TEXT," +
+                AwfulPost.CONTENT_HASH + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    /**
+     * A full-text index over the posts table, maintained by {@link PostSearchIndex}. The docids are post IDs.
+     * <p>
+     * This uses FTS4, since FTS5 isn't available in the SQLite that ships with older versions of Android.
+     */
+    private static void createPostSearchTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_POSTS_SEARCH + " USING fts4(" +
+                CachedPostSearch.POST_TEXT + ", " +
+                CachedPostSearch.USERNAME + ", " +
+                CachedPostSearch.THREAD_TITLE + ", " +
+                "tokenize=porter);");
+    }
+
+    private static void createEmoteTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_EMOTES + " (" +
+                AwfulEmote.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulEmote.TEXT + " TEXT," +
+                AwfulEmote.SUBTEXT + " TEXT," +
+                AwfulEmote.URL + " TEXT," +
                 AwfulEmote.INDEX + " INTEGER," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+                UPDATED_TIMESTAMP + " TEXT);");
     }
 
-    private void createPMTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_PM + " (" +
-                AwfulMessage.ID + " INTEGER UNIQUE," +
-                AwfulMessage.TITLE + " VARCHAR," +
-                AwfulMessage.AUTHOR + " VARCHAR," +
-                AwfulMessage.CONTENT + " VARCHAR," +
+    private static void createPMTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PM + " (" +
+                AwfulMessage.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulMessage.TITLE + " TEXT," +
+                AwfulMessage.AUTHOR + " TEXT," +
+                AwfulMessage.CONTENT + " TEXT," +
                 AwfulMessage.UNREAD + " INTEGER," +
                 AwfulMessage.FOLDER + " INTEGER," +
-                AwfulMessage.ICON + " VARCHAR," +
-                AwfulMessage.DATE + " VARCHAR," +
-                UPDATED_TIMESTAMP + " DATETIME);");
+                AwfulMessage.ICON + " TEXT," +
+                AwfulMessage.DATE + " TEXT," +
+                UPDATED_TIMESTAMP + " TEXT);");
     }
 
-    private void createDraftTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_DRAFTS + " (" +
-                AwfulMessage.ID + " INTEGER UNIQUE," +
+    private static void createDraftTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_DRAFTS + " (" +
+                AwfulMessage.ID + " INTEGER NOT NULL PRIMARY KEY," +
                 AwfulMessage.TYPE + " INTEGER," +
-                AwfulMessage.TITLE + " VARCHAR," +
-                AwfulPost.FORM_KEY + " VARCHAR," +
-                AwfulPost.FORM_COOKIE + " VARCHAR," +
+                AwfulMessage.TITLE + " TEXT," +
+                AwfulPost.FORM_KEY + " TEXT," +
+                AwfulPost.FORM_COOKIE + " TEXT," +
                 AwfulPost.EDIT_POST_ID + " INTEGER," +
-                AwfulMessage.RECIPIENT      + " VARCHAR,"   +
-                AwfulMessage.REPLY_CONTENT      + " VARCHAR," +
-                AwfulMessage.REPLY_ICON      + " VARCHAR," +
-                AwfulPost.REPLY_ORIGINAL_CONTENT + " VARCHAR," +
-                AwfulPost.FORM_BOOKMARK + " VARCHAR," +
-                AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
+                AwfulMessage.RECIPIENT      + " TEXT,"   +
+                AwfulMessage.REPLY_CONTENT      + " TEXT," +
+                AwfulMessage.REPLY_ICON      + " TEXT," +
+                AwfulPost.REPLY_ORIGINAL_CONTENT + " TEXT," +
+                AwfulPost.FORM_BOOKMARK + " TEXT," +
+                AwfulMessage.REPLY_ATTACHMENT + " TEXT," +
                 AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
-                UPDATED_TIMESTAMP + " DATETIME);");
-    }
-
-    private void createThreadDraftTable(SQLiteDatabase aDb) {
-        aDb.execSQL("CREATE TABLE " + TABLE_THREAD_DRAFTS + " (" +
-                AwfulMessage.ID + " INTEGER UNIQUE," +
-                AwfulPost.FORM_KEY + " VARCHAR," +
-                AwfulPost.FORM_COOKIE + " VARCHAR," +
-                AwfulMessage.POST_CONTENT      + " VARCHAR," +
-                AwfulMessage.POST_SUBJECT      + " VARCHAR," +
-                AwfulMessage.POST_ICON_ID      + " VARCHAR," +
-                AwfulMessage.POST_ICON_URL      + " VARCHAR," +
-                AwfulPost.FORM_BOOKMARK + " VARCHAR," +
-                AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    private static void createThreadDraftTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_THREAD_DRAFTS + " (" +
+                AwfulMessage.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulPost.FORM_KEY + " TEXT," +
+                AwfulPost.FORM_COOKIE + " TEXT," +
+                AwfulMessage.POST_CONTENT      + " TEXT," +
+                AwfulMessage.POST_SUBJECT      + " TEXT," +
+                AwfulMessage.POST_ICON_ID      + " TEXT," +
+                AwfulMessage.POST_ICON_URL      + " TEXT," +
+                AwfulPost.FORM_BOOKMARK + " TEXT," +
+                AwfulMessage.REPLY_ATTACHMENT + " TEXT," +
                 AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
-                UPDATED_TIMESTAMP + " DATETIME);");
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    private static void createEmbedTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_EMBEDS + " (" +
+                AwfulEmbed.ID + " TEXT UNIQUE," +
+                AwfulEmbed.URL + " TEXT," +
+                AwfulEmbed.THUMBNAIL_URL + " TEXT," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    /**
+     * When each thread was last viewed. This is kept out of the threads table, since thread rows are
+     * replaced whenever a forum page is loaded, and not every thread with posts has a row there.
+     */
+    private static void createThreadAccessTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_THREAD_ACCESS + " (" +
+                CacheRetention.THREAD_ID + " INTEGER PRIMARY KEY," +
+                CacheRetention.LAST_ACCESSED + " INTEGER);");
+    }
+
+    /**
+     * The users on the user's ignore list - see {@link IgnoreList}.
+     */
+    private static void createIgnoredUsersTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_IGNORED_USERS + " (" +
+                IgnoreList.USER_ID + " INTEGER NOT NULL PRIMARY KEY," +
+                UPDATED_TIMESTAMP + " TEXT);");
     }
 
 
-    @Override
-    public void onUpgrade(SQLiteDatabase aDb, int aOldVersion, int aNewVersion) {
+    /**
+     * Posts from threads filtered to one user's posts, keyed on their position in the filtered thread.
+     * The same post can be in here and in the posts table, at different indexes, so its ID isn't unique.
+     */
+    private static void createFilteredPostTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FILTERED_POSTS + " (" +
+                AwfulPost.THREAD_ID + " INTEGER NOT NULL," +
+                AwfulPost.FILTER_USER_ID + " INTEGER NOT NULL," +
+                AwfulPost.POST_INDEX + " INTEGER NOT NULL," +
+                AwfulPost.ID + " INTEGER NOT NULL," +
+                AwfulPost.DATE + " TEXT," +
+                AwfulPost.REGDATE + " TEXT," +
+                AwfulPost.USER_ID + " INTEGER," +
+                AwfulPost.USERNAME + " TEXT," +
+                AwfulPost.EDITABLE + " INTEGER," +
+                AwfulPost.IS_OP + " INTEGER," +
+                AwfulPost.IS_PLAT + " INTEGER," +
+                AwfulPost.ROLE + " TEXT," +
+                AwfulPost.AVATAR + " TEXT," +
+                AwfulPost.AVATAR_SECOND + " TEXT," +
+                AwfulPost.AVATAR_TEXT + " TEXT," +
+                AwfulPost.CONTENT + " BLOB," + // plain text, or compressed by PostContentCodec
+                AwfulPost.EDITED + " TEXT," +
+                AwfulPost.CONTENT_HASH + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT," +
+                "PRIMARY KEY (" + AwfulPost.THREAD_ID + ", " + AwfulPost.FILTER_USER_ID + ", " + AwfulPost.POST_INDEX + "));");
+    }
+
+    /**
+     * The number of posts in each thread filtered to one user's posts. The rest of their thread data
+     * comes from the threads table.
+     */
+    private static void createFilteredThreadTable(SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FILTERED_THREADS + " (" +
+                AwfulThread.ID + " INTEGER NOT NULL," +
+                AwfulThread.FILTER_USER_ID + " INTEGER NOT NULL," +
+                AwfulThread.POSTCOUNT + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT," +
+                "PRIMARY KEY (" + AwfulThread.ID + ", " + AwfulThread.FILTER_USER_ID + "));");
+    }
+
+
+    /**
+     * The old way of upgrading the database to {@link #LAST_LEGACY_VERSION}, by dropping and
+     * recreating any tables that changed. They're recreated as they were at that version, ready for
+     * the {@link #MIGRATIONS}.
+     *
+     * @param aOldVersion a version from {@link #FIRST_LEGACY_VERSION} up to (but not including) {@link #LAST_LEGACY_VERSION}
+     */
+    static void upgradeLegacySchema(@NonNull SqlExecutor aDb, int aOldVersion) {
         switch (aOldVersion) {//this switch intentionally falls through!
             case 23:
             case 24:
             case 25:
             case 26:
                 dropTables(aDb, TABLE_DRAFTS);
-                createDraftTable(aDb);
+                SchemaHistory.createDraftTable40(aDb);
             case 27:
             case 28:
             case 29:
                 dropTables(aDb, TABLE_PM, TABLE_POSTS);
-                createPMTable(aDb);
-                createPostTable(aDb);
+                SchemaHistory.createPMTable40(aDb);
+                SchemaHistory.createPostTable40(aDb);
             case 30:
                 dropTables(aDb, TABLE_FORUM);
-                createForumTable(aDb);
+                SchemaHistory.createForumTable40(aDb);
             case 31:
                 dropTables(aDb, TABLE_THREADS);
-                createThreadTable(aDb);
+                SchemaHistory.createThreadTable40(aDb);
             case 32:
                 dropTables(aDb, TABLE_DRAFTS);
-                createDraftTable(aDb);
+                SchemaHistory.createDraftTable40(aDb);
             case 33:
             case 34:
             case 35:
                 dropTables(aDb, TABLE_POSTS);
-                createPostTable(aDb);
+                SchemaHistory.createPostTable40(aDb);
             case 36:
                 dropTables(aDb, TABLE_THREAD_DRAFTS);
-                createThreadDraftTable(aDb);
+                SchemaHistory.createThreadDraftTable40(aDb);
+            case 37:
+                SchemaHistory.createEmbedTable40(aDb);
+            case 38:
+            case 39:
+                dropTables(aDb, TABLE_POSTS);
+                SchemaHistory.createPostTable40(aDb);
                 break;//make sure to keep this break statement on the last case of this switch
             default:
-                wipeRecreateTables(aDb);
+                throw new IllegalArgumentException("No legacy upgrade from version " + aOldVersion);
         }
     }
 
-    @Override
-    public void onDowngrade(SQLiteDatabase aDb, int oldVersion, int newVersion) {
-        wipeRecreateTables(aDb);
-    }
-
     /**
      * Attempt to drop the named tables in the given database
      */
-    private void dropTables(@NonNull SQLiteDatabase db, @NonNull String... tableNames) {
+    private static void dropTables(@NonNull SqlExecutor db, @NonNull String... tableNames) {
         for (String table : tableNames) {
             db.execSQL("DROP TABLE IF EXISTS " + table);
         }
     }
 
-    private void wipeRecreateTables(SQLiteDatabase aDb) {
-        String[] allTables = {TABLE_FORUM, TABLE_THREADS, TABLE_POSTS, TABLE_EMOTES, TABLE_UCP_THREADS, TABLE_PM, TABLE_DRAFTS, TABLE_THREAD_DRAFTS};
+    /**
+     * Drop every table and create the current schema from scratch.
+     */
+    static void wipeRecreateTables(@NonNull SqlExecutor aDb) {
+        String[] allTables = {TABLE_FORUM, TABLE_THREADS, TABLE_POSTS, TABLE_POSTS_SEARCH, TABLE_EMOTES, TABLE_UCP_THREADS, TABLE_PM, TABLE_DRAFTS, TABLE_THREAD_DRAFTS, TABLE_EMBEDS, TABLE_THREAD_ACCESS, TABLE_IGNORED_USERS, TABLE_FILTERED_POSTS, TABLE_FILTERED_THREADS};
+        // dropping a table drops its indexes too
         dropTables(aDb, allTables);
-        onCreate(aDb);
+        createSchema(aDb);
     }
 }
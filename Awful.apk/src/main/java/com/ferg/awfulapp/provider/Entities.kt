@@ -0,0 +1,215 @@
+package com.ferg.awfulapp.provider
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP
+import com.ferg.awfulapp.thread.AwfulEmote
+import com.ferg.awfulapp.thread.AwfulForum
+import com.ferg.awfulapp.thread.AwfulMessage
+import com.ferg.awfulapp.thread.AwfulPost
+import com.ferg.awfulapp.thread.AwfulThread
+import com.ferg.awfulapp.thread.PostContentCodec
+
+/*
+ * Room entities for the tables in [DatabaseHelper], which is still where the tables are defined.
+ * Room checks each table matches its entity when the database is opened, so the columns and indexes
+ * here need to be kept in step with the definitions there.
+ *
+ * Everything apart from the IDs is nullable, since rows are written by the provider from whatever
+ * the parsers put in their ContentValues, and that's not always every column.
+ */
+
+
+@Entity(tableName = DatabaseHelper.TABLE_FORUM)
+data class ForumEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulForum.ID) val id: Int,
+    @ColumnInfo(name = AwfulForum.PARENT_ID) val parentId: Int?,
+    @ColumnInfo(name = AwfulForum.INDEX) val index: Int?,
+    @ColumnInfo(name = AwfulForum.TITLE) val title: String?,
+    @ColumnInfo(name = AwfulForum.SUBTEXT) val subtext: String?,
+    @ColumnInfo(name = AwfulForum.PAGE_COUNT) val pageCount: Int?,
+    @ColumnInfo(name = AwfulForum.TAG_URL) val tagUrl: String?,
+    @ColumnInfo(name = AwfulForum.TAG_CACHEFILE) val tagCacheFile: String?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+@Entity(
+    tableName = DatabaseHelper.TABLE_THREADS,
+    indices = [
+        Index(AwfulThread.FORUM_ID, AwfulThread.INDEX),
+        Index(UPDATED_TIMESTAMP)
+    ]
+)
+data class ThreadEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulThread.ID) val id: Int,
+    @ColumnInfo(name = AwfulThread.FORUM_ID) val forumId: Int?,
+    @ColumnInfo(name = AwfulThread.INDEX) val index: Int?,
+    @ColumnInfo(name = AwfulThread.TITLE) val title: String?,
+    @ColumnInfo(name = AwfulThread.POSTCOUNT) val postCount: Int?,
+    @ColumnInfo(name = AwfulThread.UNREADCOUNT) val unreadCount: Int?,
+    @ColumnInfo(name = AwfulThread.AUTHOR) val author: String?,
+    @ColumnInfo(name = AwfulThread.AUTHOR_ID) val authorId: Int?,
+    @ColumnInfo(name = AwfulThread.LOCKED) val locked: Boolean?,
+    @ColumnInfo(name = AwfulThread.CAN_OPEN_CLOSE) val canOpenClose: Boolean?,
+    /** the bookmark colour, or 0 if it's not bookmarked */
+    @ColumnInfo(name = AwfulThread.BOOKMARKED) val bookmarked: Int?,
+    @ColumnInfo(name = AwfulThread.STICKY) val sticky: Boolean?,
+    @ColumnInfo(name = AwfulThread.CATEGORY) val category: Int?,
+    @ColumnInfo(name = AwfulThread.LASTPOSTER) val lastPoster: String?,
+    @ColumnInfo(name = AwfulThread.TAG_URL) val tagUrl: String?,
+    @ColumnInfo(name = AwfulThread.TAG_CACHEFILE) val tagCacheFile: String?,
+    @ColumnInfo(name = AwfulThread.TAG_EXTRA) val tagExtra: Int?,
+    @ColumnInfo(name = AwfulThread.HAS_VIEWED_THREAD) val hasViewedThread: Boolean?,
+    @ColumnInfo(name = AwfulThread.ARCHIVED) val archived: Boolean?,
+    @ColumnInfo(name = AwfulThread.RATING) val rating: Int?,
+    /** the index of the last post the user had read, when they last viewed the thread */
+    @ColumnInfo(name = AwfulThread.LAST_READ_INDEX) val lastReadIndex: Int?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+/**
+ * A thread in the user's bookmarks (the UCP), in bookmark order. The thread's details are in the
+ * threads table.
+ */
+@Entity(
+    tableName = DatabaseHelper.TABLE_UCP_THREADS,
+    indices = [
+        Index(AwfulThread.INDEX),
+        Index(UPDATED_TIMESTAMP)
+    ]
+)
+data class BookmarkEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulThread.ID) val threadId: Int,
+    @ColumnInfo(name = AwfulThread.INDEX) val index: Int?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+/**
+ * The number of posts in a thread filtered to one user's posts - the rest of the thread's details are
+ * in the threads table.
+ */
+@Entity(
+    tableName = DatabaseHelper.TABLE_FILTERED_THREADS,
+    primaryKeys = [AwfulThread.ID, AwfulThread.FILTER_USER_ID]
+)
+data class FilteredThreadEntity(
+    @ColumnInfo(name = AwfulThread.ID) val threadId: Int,
+    @ColumnInfo(name = AwfulThread.FILTER_USER_ID) val filterUserId: Int,
+    @ColumnInfo(name = AwfulThread.POSTCOUNT) val postCount: Int?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+@Entity(
+    tableName = DatabaseHelper.TABLE_POSTS,
+    indices = [
+        Index(AwfulPost.THREAD_ID, AwfulPost.POST_INDEX, unique = true),
+        Index(UPDATED_TIMESTAMP)
+    ]
+)
+data class PostEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulPost.ID) val id: Long,
+    @ColumnInfo(name = AwfulPost.THREAD_ID) val threadId: Int?,
+    /** the post's position in its thread, starting at 1 */
+    @ColumnInfo(name = AwfulPost.POST_INDEX) val postIndex: Int?,
+    @ColumnInfo(name = AwfulPost.DATE) val date: String?,
+    @ColumnInfo(name = AwfulPost.REGDATE) val regDate: String?,
+    @ColumnInfo(name = AwfulPost.USER_ID) val userId: Int?,
+    @ColumnInfo(name = AwfulPost.USERNAME) val username: String?,
+    @ColumnInfo(name = AwfulPost.EDITABLE) val editable: Boolean?,
+    @ColumnInfo(name = AwfulPost.IS_OP) val isOp: Boolean?,
+    @ColumnInfo(name = AwfulPost.IS_PLAT) val isPlat: Boolean?,
+    @ColumnInfo(name = AwfulPost.ROLE) val role: String?,
+    @ColumnInfo(name = AwfulPost.AVATAR) val avatar: String?,
+    @ColumnInfo(name = AwfulPost.AVATAR_SECOND) val avatarSecond: String?,
+    @ColumnInfo(name = AwfulPost.AVATAR_TEXT) val avatarText: String?,
+    /** the stored content, as bytes - use [html] to read it */
+    @ColumnInfo(name = AwfulPost.CONTENT) val content: ByteArray?,
+    @ColumnInfo(name = AwfulPost.EDITED) val edited: String?,
+    @ColumnInfo(name = AwfulPost.CONTENT_HASH) val contentHash: Long?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+) {
+    /**
+     * The post's HTML, decompressed if it was stored compressed.
+     */
+    fun html(): String? = content?.let(PostContentCodec::fromStoredBytes)
+}
+
+
+@Entity(
+    tableName = DatabaseHelper.TABLE_EMOTES,
+    indices = [
+        Index(AwfulEmote.TEXT, unique = true),
+        Index(UPDATED_TIMESTAMP)
+    ]
+)
+data class EmoteEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulEmote.ID) val id: Int,
+    /** the emote's code, e.g. :v: */
+    @ColumnInfo(name = AwfulEmote.TEXT) val text: String?,
+    @ColumnInfo(name = AwfulEmote.SUBTEXT) val subtext: String?,
+    @ColumnInfo(name = AwfulEmote.URL) val url: String?,
+    @ColumnInfo(name = AwfulEmote.INDEX) val index: Int?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+@Entity(tableName = DatabaseHelper.TABLE_PM)
+data class PrivateMessageEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulMessage.ID) val id: Int,
+    @ColumnInfo(name = AwfulMessage.TITLE) val title: String?,
+    @ColumnInfo(name = AwfulMessage.AUTHOR) val author: String?,
+    @ColumnInfo(name = AwfulMessage.CONTENT) val content: String?,
+    @ColumnInfo(name = AwfulMessage.UNREAD) val unread: Boolean?,
+    @ColumnInfo(name = AwfulMessage.FOLDER) val folder: Int?,
+    @ColumnInfo(name = AwfulMessage.ICON) val icon: String?,
+    @ColumnInfo(name = AwfulMessage.DATE) val date: String?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+/**
+ * A draft reply to a thread or a private message, by the ID of the thread or message. The [type] is
+ * one of the AwfulMessage TYPE constants.
+ */
+@Entity(tableName = DatabaseHelper.TABLE_DRAFTS)
+data class MessageDraftEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulMessage.ID) val id: Int,
+    @ColumnInfo(name = AwfulMessage.TYPE) val type: Int?,
+    @ColumnInfo(name = AwfulMessage.TITLE) val title: String?,
+    @ColumnInfo(name = AwfulPost.FORM_KEY) val formKey: String?,
+    @ColumnInfo(name = AwfulPost.FORM_COOKIE) val formCookie: String?,
+    @ColumnInfo(name = AwfulPost.EDIT_POST_ID) val editPostId: Int?,
+    @ColumnInfo(name = AwfulMessage.RECIPIENT) val recipient: String?,
+    @ColumnInfo(name = AwfulMessage.REPLY_CONTENT) val replyContent: String?,
+    @ColumnInfo(name = AwfulMessage.REPLY_ICON) val replyIcon: String?,
+    @ColumnInfo(name = AwfulPost.REPLY_ORIGINAL_CONTENT) val originalContent: String?,
+    @ColumnInfo(name = AwfulPost.FORM_BOOKMARK) val bookmark: String?,
+    @ColumnInfo(name = AwfulMessage.REPLY_ATTACHMENT) val attachment: String?,
+    @ColumnInfo(name = AwfulMessage.EPOC_TIMESTAMP) val savedAt: Long?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
+
+
+/**
+ * A draft of a new thread, by the ID of the forum it's being posted in.
+ */
+@Entity(tableName = DatabaseHelper.TABLE_THREAD_DRAFTS)
+data class ThreadDraftEntity(
+    @PrimaryKey @ColumnInfo(name = AwfulMessage.ID) val forumId: Int,
+    @ColumnInfo(name = AwfulPost.FORM_KEY) val formKey: String?,
+    @ColumnInfo(name = AwfulPost.FORM_COOKIE) val formCookie: String?,
+    @ColumnInfo(name = AwfulMessage.POST_CONTENT) val content: String?,
+    @ColumnInfo(name = AwfulMessage.POST_SUBJECT) val subject: String?,
+    @ColumnInfo(name = AwfulMessage.POST_ICON_ID) val iconId: String?,
+    @ColumnInfo(name = AwfulMessage.POST_ICON_URL) val iconUrl: String?,
+    @ColumnInfo(name = AwfulPost.FORM_BOOKMARK) val bookmark: String?,
+    @ColumnInfo(name = AwfulMessage.REPLY_ATTACHMENT) val attachment: String?,
+    @ColumnInfo(name = AwfulMessage.EPOC_TIMESTAMP) val savedAt: Long?,
+    @ColumnInfo(name = UPDATED_TIMESTAMP) val updated: String?
+)
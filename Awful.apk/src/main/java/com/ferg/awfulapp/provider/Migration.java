@@ -0,0 +1,70 @@
+package com.ferg.awfulapp.provider;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * A change to the database schema, which brings an existing database up to a particular version.
+ * <p>
+ * Unlike the old upgrades in {@link DatabaseHelper}, migrations work on the existing tables - adding
+ * columns and indexes etc. - so the cached data survives an app update.
+ */
+final class Migration {
+
+    /** The version the database is at after this migration has run */
+    final int version;
+    @NonNull
+    private final Step step;
+
+    Migration(int version, @NonNull Step step) {
+        this.version = version;
+        this.step = step;
+    }
+
+    /**
+     * The work a migration does.
+     */
+    interface Step {
+        void migrate(@NonNull DatabaseHelper.SqlExecutor db);
+    }
+
+
+    /**
+     * Run just this migration.
+     */
+    void run(@NonNull DatabaseHelper.SqlExecutor db) {
+        step.migrate(db);
+    }
+
+
+    /**
+     * Run every migration needed to take a database from one version to another, in version order.
+     * The full set of migrations is checked before any of them run, so a missing one doesn't leave
+     * the database half-migrated.
+     *
+     * @param migrations all the available migrations, in ascending version order
+     * @throws IllegalStateException if there's a version with no migration, so the database can't
+     *                               be upgraded this way
+     */
+    static void migrate(@NonNull DatabaseHelper.SqlExecutor db, @NonNull List<Migration> migrations, int fromVersion, int toVersion) {
+        List<Migration> path = new ArrayList<>();
+        int version = fromVersion;
+        for (Migration migration : migrations) {
+            if (migration.version == version + 1 && version < toVersion) {
+                path.add(migration);
+                version = migration.version;
+            }
+        }
+        if (version != toVersion) {
+            throw new IllegalStateException("No migration from version " + version + " to " + (version + 1));
+        }
+        for (Migration migration : path) {
+            Timber.i("Migrating database to version %d", migration.version);
+            migration.run(db);
+        }
+    }
+}
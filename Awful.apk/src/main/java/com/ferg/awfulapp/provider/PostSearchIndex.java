@@ -0,0 +1,142 @@
+package com.ferg.awfulapp.provider;
+
+import android.content.ContentValues;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.thread.CachedPostSearch;
+import com.ferg.awfulapp.thread.PostContentCodec;
+
+import org.jsoup.Jsoup;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+
+/**
+ * Keeps the full-text search table for cached posts in step with the posts table.
+ * <p>
+ * The search table holds the plain text of each post (with the HTML stripped out), the poster's
+ * username, and the title of the thread it's in, with the post's ID as its docid. This needs doing in
+ * code rather than with triggers, since SQLite can't strip the HTML itself - so anything that adds or
+ * removes posts needs to go through here, in the same transaction. Stripping the HTML is the slow
+ * part, so that's done with {@link #extractText} before the transaction starts. See
+ * {@link CachedPostSearch} for querying it.
+ * <p>
+ * Posts are indexed with their thread's stored title, so a batch that stores a page's posts along
+ * with its thread data needs to write the thread first. Anything that writes a thread's title needs
+ * to call {@link #updateThreadTitles} too, so the posts that are already indexed get the new title.
+ */
+final class PostSearchIndex {
+
+    private PostSearchIndex() {
+    }
+
+
+    /**
+     * Get the plain text of a batch of posts, for {@link #index}. This doesn't touch the database, so
+     * call it before starting the transaction, to avoid holding the write lock while it runs.
+     *
+     * @return each post's text, in the same order as the posts
+     */
+    @NonNull
+    static String[] extractText(@NonNull ContentValues[] posts) {
+        String[] text = new String[posts.length];
+        for (int i = 0; i < posts.length; i++) {
+            text[i] = toText(PostContentCodec.toHtml(posts[i].get(AwfulPost.CONTENT)));
+        }
+        return text;
+    }
+
+
+    /**
+     * Index a batch of posts that are about to be written, replacing any entries for the posts
+     * they'll replace.
+     *
+     * @param postText the posts' text, from {@link #extractText}
+     */
+    static void index(@NonNull SupportSQLiteDatabase db, @NonNull ContentValues[] posts, @NonNull String[] postText) {
+        SupportSQLiteStatement deleteAtPosition = db.compileStatement("DELETE FROM " + TABLE_POSTS_SEARCH + " WHERE docid IN (SELECT "
+                + AwfulPost.ID + " FROM " + TABLE_POSTS + " WHERE " + AwfulPost.THREAD_ID + "=? AND " + AwfulPost.POST_INDEX + "=?)");
+        SupportSQLiteStatement deleteById = db.compileStatement("DELETE FROM " + TABLE_POSTS_SEARCH + " WHERE docid=?");
+        SupportSQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_POSTS_SEARCH + " (docid, "
+                + CachedPostSearch.POST_TEXT + ", " + CachedPostSearch.USERNAME + ", " + CachedPostSearch.THREAD_TITLE + ") VALUES (?, ?, ?, "
+                + "(SELECT " + AwfulThread.TITLE + " FROM " + TABLE_THREADS + " WHERE " + AwfulThread.ID + "=?))");
+        try {
+            for (int i = 0; i < posts.length; i++) {
+                ContentValues post = posts[i];
+                Long postId = post.getAsLong(AwfulPost.ID);
+                Long threadId = post.getAsLong(AwfulPost.THREAD_ID);
+                Long postIndex = post.getAsLong(AwfulPost.POST_INDEX);
+                if (postId == null || threadId == null || postIndex == null) {
+                    continue;
+                }
+                // the post might have moved, e.g. when an earlier one was deleted, so clear out
+                // whatever's at its new position as well as its old entry
+                deleteAtPosition.bindLong(1, threadId);
+                deleteAtPosition.bindLong(2, postIndex);
+                deleteAtPosition.executeUpdateDelete();
+                deleteById.bindLong(1, postId);
+                deleteById.executeUpdateDelete();
+
+                insert.bindLong(1, postId);
+                bindStringOrNull(insert, 2, postText[i]);
+                bindStringOrNull(insert, 3, post.getAsString(AwfulPost.USERNAME));
+                insert.bindLong(4, threadId);
+                insert.executeInsert();
+            }
+        } finally {
+            deleteAtPosition.close();
+            deleteById.close();
+            insert.close();
+        }
+    }
+
+
+    /**
+     * Update the title indexed with the posts in any threads matching a where clause, after their
+     * title has been written. Only the entries that have a different title are changed, since FTS
+     * has to index each changed entry again.
+     *
+     * @param title the title that was written
+     */
+    static void updateThreadTitles(@NonNull SupportSQLiteDatabase db, @NonNull String title, @Nullable String where, @Nullable String[] whereArgs) {
+        String selectThreads = "SELECT " + AwfulThread.ID + " FROM " + TABLE_THREADS + (where == null ? "" : " WHERE " + where);
+        String selectPosts = "SELECT " + AwfulPost.ID + " FROM " + TABLE_POSTS + " WHERE " + AwfulPost.THREAD_ID + " IN (" + selectThreads + ")";
+        Object[] args = new Object[(whereArgs == null ? 0 : whereArgs.length) + 2];
+        args[0] = title;
+        if (whereArgs != null) {
+            System.arraycopy(whereArgs, 0, args, 1, whereArgs.length);
+        }
+        args[args.length - 1] = title;
+        db.execSQL("UPDATE " + TABLE_POSTS_SEARCH + " SET " + CachedPostSearch.THREAD_TITLE + "=? WHERE docid IN ("
+                + selectPosts + ") AND " + CachedPostSearch.THREAD_TITLE + " IS NOT ?", args);
+    }
+
+
+    /**
+     * Remove the entries for any posts matching a where clause, before they're deleted.
+     */
+    static void remove(@NonNull SupportSQLiteDatabase db, @Nullable String where, @Nullable String[] whereArgs) {
+        String selectPosts = "SELECT " + AwfulPost.ID + " FROM " + TABLE_POSTS + (where == null ? "" : " WHERE " + where);
+        db.execSQL("DELETE FROM " + TABLE_POSTS_SEARCH + " WHERE docid IN (" + selectPosts + ")", whereArgs == null ? new String[0] : whereArgs);
+    }
+
+
+    @Nullable
+    private static String toText(@Nullable String html) {
+        return html == null ? null : Jsoup.parseBodyFragment(html).text();
+    }
+
+    private static void bindStringOrNull(@NonNull SupportSQLiteStatement statement, int index, @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
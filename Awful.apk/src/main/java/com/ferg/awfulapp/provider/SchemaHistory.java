@@ -0,0 +1,397 @@
+package com.ferg.awfulapp.provider;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.ferg.awfulapp.provider.DatabaseHelper.SqlExecutor;
+import com.ferg.awfulapp.thread.AwfulEmbed;
+import com.ferg.awfulapp.thread.AwfulEmote;
+import com.ferg.awfulapp.thread.AwfulForum;
+import com.ferg.awfulapp.thread.AwfulMessage;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.thread.CachedPostSearch;
+import com.ferg.awfulapp.users.IgnoreList;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_DRAFTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMBEDS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_EMOTES;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FILTERED_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FILTERED_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_FORUM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_IGNORED_USERS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_PM;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_POSTS_SEARCH;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_ACCESS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_THREAD_DRAFTS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.TABLE_UCP_THREADS;
+import static com.ferg.awfulapp.provider.DatabaseHelper.UPDATED_TIMESTAMP;
+
+/**
+ * The tables as the legacy upgrades and each {@link Migration} in {@link DatabaseHelper#MIGRATIONS}
+ * created them, named after the version they belong to.
+ * <p>
+ * Migrations have to keep doing exactly what they did when they were released, whatever the current
+ * schema looks like - so they create their tables from here, never from the current definitions in
+ * {@link DatabaseHelper}. Don't change anything in here: when a table changes, add its new version
+ * here for the new migration to use.
+ */
+final class SchemaHistory {
+
+    private SchemaHistory() {
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Version 40, the last of the legacy drop-and-recreate upgrades
+    ///////////////////////////////////////////////////////////////////////////
+
+
+    /**
+     * Create all the tables as they were at version 40, the version the migrations start from.
+     */
+    @VisibleForTesting
+    static void createTables40(@NonNull SqlExecutor aDb) {
+        createForumTable40(aDb);
+        createThreadTable40(aDb);
+        createUCPTable40(aDb);
+        createPostTable40(aDb);
+        createEmoteTable40(aDb);
+        createPMTable40(aDb);
+        createDraftTable40(aDb);
+        createThreadDraftTable40(aDb);
+        createEmbedTable40(aDb);
+    }
+
+    static void createForumTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_FORUM + " (" +
+                AwfulForum.ID + " INTEGER UNIQUE," +
+                AwfulForum.PARENT_ID + " INTEGER," +
+                AwfulForum.INDEX + " INTEGER," +
+                AwfulForum.TITLE + " VARCHAR," +
+                AwfulForum.SUBTEXT + " VARCHAR," +
+                AwfulForum.PAGE_COUNT + " INTEGER," +
+                AwfulForum.TAG_URL + " VARCHAR," +
+                AwfulForum.TAG_CACHEFILE + " VARCHAR," +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createThreadTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_THREADS + " (" +
+                AwfulThread.ID + " INTEGER UNIQUE," +
+                AwfulThread.FORUM_ID + " INTEGER," +
+                AwfulThread.INDEX + " INTEGER," +
+                AwfulThread.TITLE + " VARCHAR," +
+                AwfulThread.POSTCOUNT + " INTEGER," +
+                AwfulThread.UNREADCOUNT + " INTEGER," +
+                AwfulThread.AUTHOR + " VARCHAR," +
+                AwfulThread.AUTHOR_ID + " INTEGER," +
+                AwfulThread.LOCKED + " INTEGER," +
+                AwfulThread.CAN_OPEN_CLOSE + " INTEGER," +
+                AwfulThread.BOOKMARKED + " INTEGER," +
+                AwfulThread.STICKY + " INTEGER," +
+                AwfulThread.CATEGORY + " INTEGER," +
+                AwfulThread.LASTPOSTER + " VARCHAR," +
+                AwfulThread.TAG_URL + " VARCHAR," +
+                AwfulThread.TAG_CACHEFILE + " VARCHAR," +
+                AwfulThread.TAG_EXTRA + " INTEGER, " +
+                AwfulThread.HAS_VIEWED_THREAD + " INTEGER, " +
+                AwfulThread.ARCHIVED + " INTEGER, " +
+                AwfulThread.RATING + " INTEGER, " +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createUCPTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_UCP_THREADS + " (" +
+                AwfulThread.ID + " INTEGER UNIQUE," +
+                AwfulThread.INDEX + " INTEGER," +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createPostTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_POSTS + " (" +
+                AwfulPost.ID + " INTEGER UNIQUE," +
+                AwfulPost.THREAD_ID + " INTEGER," +
+                AwfulPost.POST_INDEX + " INTEGER," +
+                AwfulPost.DATE + " VARCHAR," +
+                AwfulPost.REGDATE + " VARCHAR," +
+                AwfulPost.USER_ID + " INTEGER," +
+                AwfulPost.USERNAME + " VARCHAR," +
+                AwfulPost.IS_IGNORED + " INTEGER," +
+                AwfulPost.PREVIOUSLY_READ + " INTEGER," +
+                AwfulPost.EDITABLE + " INTEGER," +
+                AwfulPost.IS_OP + " INTEGER," +
+                AwfulPost.IS_PLAT + " INTEGER," +
+                AwfulPost.ROLE + " VARCHAR," +
+                AwfulPost.AVATAR + " VARCHAR," +
+                AwfulPost.AVATAR_SECOND + " VARCHAR," +
+                AwfulPost.AVATAR_TEXT + " VARCHAR," +
+                AwfulPost.CONTENT + " VARCHAR," +
+                AwfulPost.EDITED + " VARCHAR," +
+                AwfulPost.CONTENT_HASH + " INTEGER," +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createEmoteTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_EMOTES + " (" +
+                AwfulEmote.ID + " INTEGER UNIQUE," +
+                AwfulEmote.TEXT + " VARCHAR," +
+                AwfulEmote.SUBTEXT + " VARCHAR," +
+                AwfulEmote.URL + " VARCHAR," +
+                AwfulEmote.INDEX + " INTEGER," +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createPMTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_PM + " (" +
+                AwfulMessage.ID + " INTEGER UNIQUE," +
+                AwfulMessage.TITLE + " VARCHAR," +
+                AwfulMessage.AUTHOR + " VARCHAR," +
+                AwfulMessage.CONTENT + " VARCHAR," +
+                AwfulMessage.UNREAD + " INTEGER," +
+                AwfulMessage.FOLDER + " INTEGER," +
+                AwfulMessage.ICON + " VARCHAR," +
+                AwfulMessage.DATE + " VARCHAR," +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createDraftTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_DRAFTS + " (" +
+                AwfulMessage.ID + " INTEGER UNIQUE," +
+                AwfulMessage.TYPE + " INTEGER," +
+                AwfulMessage.TITLE + " VARCHAR," +
+                AwfulPost.FORM_KEY + " VARCHAR," +
+                AwfulPost.FORM_COOKIE + " VARCHAR," +
+                AwfulPost.EDIT_POST_ID + " INTEGER," +
+                AwfulMessage.RECIPIENT + " VARCHAR," +
+                AwfulMessage.REPLY_CONTENT + " VARCHAR," +
+                AwfulMessage.REPLY_ICON + " VARCHAR," +
+                AwfulPost.REPLY_ORIGINAL_CONTENT + " VARCHAR," +
+                AwfulPost.FORM_BOOKMARK + " VARCHAR," +
+                AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
+                AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createThreadDraftTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_THREAD_DRAFTS + " (" +
+                AwfulMessage.ID + " INTEGER UNIQUE," +
+                AwfulPost.FORM_KEY + " VARCHAR," +
+                AwfulPost.FORM_COOKIE + " VARCHAR," +
+                AwfulMessage.POST_CONTENT + " VARCHAR," +
+                AwfulMessage.POST_SUBJECT + " VARCHAR," +
+                AwfulMessage.POST_ICON_ID + " VARCHAR," +
+                AwfulMessage.POST_ICON_URL + " VARCHAR," +
+                AwfulPost.FORM_BOOKMARK + " VARCHAR," +
+                AwfulMessage.REPLY_ATTACHMENT + " VARCHAR," +
+                AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+    static void createEmbedTable40(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE " + TABLE_EMBEDS + " (" +
+                AwfulEmbed.ID + " VARCHAR UNIQUE," +
+                AwfulEmbed.URL + " VARCHAR," +
+                AwfulEmbed.THUMBNAIL_URL + " VARCHAR," +
+                UPDATED_TIMESTAMP + " DATETIME);");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Versions 43 and 44
+    ///////////////////////////////////////////////////////////////////////////
+
+
+    static void createPostSearchTable43(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_POSTS_SEARCH + " USING fts4(" +
+                CachedPostSearch.POST_TEXT + ", " +
+                CachedPostSearch.USERNAME + ", " +
+                CachedPostSearch.THREAD_TITLE + ", " +
+                "tokenize=porter);");
+    }
+
+    static void createThreadAccessTable44(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_THREAD_ACCESS + " (" +
+                CacheRetention.THREAD_ID + " INTEGER PRIMARY KEY," +
+                CacheRetention.LAST_ACCESSED + " INTEGER);");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Version 45, rebuilt for Room, with the read and ignored state moved out of the posts
+    ///////////////////////////////////////////////////////////////////////////
+
+
+    static void createForumTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FORUM + " (" +
+                AwfulForum.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulForum.PARENT_ID + " INTEGER," +
+                AwfulForum.INDEX + " INTEGER," +
+                AwfulForum.TITLE + " TEXT," +
+                AwfulForum.SUBTEXT + " TEXT," +
+                AwfulForum.PAGE_COUNT + " INTEGER," +
+                AwfulForum.TAG_URL + " TEXT," +
+                AwfulForum.TAG_CACHEFILE + " TEXT," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createThreadTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_THREADS + " (" +
+                AwfulThread.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulThread.FORUM_ID + " INTEGER," +
+                AwfulThread.INDEX + " INTEGER," +
+                AwfulThread.TITLE + " TEXT," +
+                AwfulThread.POSTCOUNT + " INTEGER," +
+                AwfulThread.UNREADCOUNT + " INTEGER," +
+                AwfulThread.AUTHOR + " TEXT," +
+                AwfulThread.AUTHOR_ID + " INTEGER," +
+                AwfulThread.LOCKED + " INTEGER," +
+                AwfulThread.CAN_OPEN_CLOSE + " INTEGER," +
+                AwfulThread.BOOKMARKED + " INTEGER," +
+                AwfulThread.STICKY + " INTEGER," +
+                AwfulThread.CATEGORY + " INTEGER," +
+                AwfulThread.LASTPOSTER + " TEXT," +
+                AwfulThread.TAG_URL + " TEXT," +
+                AwfulThread.TAG_CACHEFILE + " TEXT," +
+                AwfulThread.TAG_EXTRA + " INTEGER, " +
+                AwfulThread.HAS_VIEWED_THREAD + " INTEGER, " +
+                AwfulThread.ARCHIVED + " INTEGER, " +
+                AwfulThread.RATING + " INTEGER, " +
+                AwfulThread.LAST_READ_INDEX + " INTEGER, " +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createUCPTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_UCP_THREADS + " (" +
+                AwfulThread.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulThread.INDEX + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createPostTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_POSTS + " (" +
+                AwfulPost.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulPost.THREAD_ID + " INTEGER," +
+                AwfulPost.POST_INDEX + " INTEGER," +
+                AwfulPost.DATE + " TEXT," +
+                AwfulPost.REGDATE + " TEXT," +
+                AwfulPost.USER_ID + " INTEGER," +
+                AwfulPost.USERNAME + " TEXT," +
+                AwfulPost.EDITABLE + " INTEGER," +
+                AwfulPost.IS_OP + " INTEGER," +
+                AwfulPost.IS_PLAT + " INTEGER," +
+                AwfulPost.ROLE + " TEXT," +
+                AwfulPost.AVATAR + " TEXT," +
+                AwfulPost.AVATAR_SECOND + " TEXT," +
+                AwfulPost.AVATAR_TEXT + " TEXT," +
+                AwfulPost.CONTENT + " BLOB," +
+                AwfulPost.EDITED + " TEXT," +
+                AwfulPost.CONTENT_HASH + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createEmoteTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_EMOTES + " (" +
+                AwfulEmote.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulEmote.TEXT + " TEXT," +
+                AwfulEmote.SUBTEXT + " TEXT," +
+                AwfulEmote.URL + " TEXT," +
+                AwfulEmote.INDEX + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createPMTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PM + " (" +
+                AwfulMessage.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulMessage.TITLE + " TEXT," +
+                AwfulMessage.AUTHOR + " TEXT," +
+                AwfulMessage.CONTENT + " TEXT," +
+                AwfulMessage.UNREAD + " INTEGER," +
+                AwfulMessage.FOLDER + " INTEGER," +
+                AwfulMessage.ICON + " TEXT," +
+                AwfulMessage.DATE + " TEXT," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createDraftTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_DRAFTS + " (" +
+                AwfulMessage.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulMessage.TYPE + " INTEGER," +
+                AwfulMessage.TITLE + " TEXT," +
+                AwfulPost.FORM_KEY + " TEXT," +
+                AwfulPost.FORM_COOKIE + " TEXT," +
+                AwfulPost.EDIT_POST_ID + " INTEGER," +
+                AwfulMessage.RECIPIENT + " TEXT," +
+                AwfulMessage.REPLY_CONTENT + " TEXT," +
+                AwfulMessage.REPLY_ICON + " TEXT," +
+                AwfulPost.REPLY_ORIGINAL_CONTENT + " TEXT," +
+                AwfulPost.FORM_BOOKMARK + " TEXT," +
+                AwfulMessage.REPLY_ATTACHMENT + " TEXT," +
+                AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createThreadDraftTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_THREAD_DRAFTS + " (" +
+                AwfulMessage.ID + " INTEGER NOT NULL PRIMARY KEY," +
+                AwfulPost.FORM_KEY + " TEXT," +
+                AwfulPost.FORM_COOKIE + " TEXT," +
+                AwfulMessage.POST_CONTENT + " TEXT," +
+                AwfulMessage.POST_SUBJECT + " TEXT," +
+                AwfulMessage.POST_ICON_ID + " TEXT," +
+                AwfulMessage.POST_ICON_URL + " TEXT," +
+                AwfulPost.FORM_BOOKMARK + " TEXT," +
+                AwfulMessage.REPLY_ATTACHMENT + " TEXT," +
+                AwfulMessage.EPOC_TIMESTAMP + " INTEGER, " +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createEmbedTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_EMBEDS + " (" +
+                AwfulEmbed.ID + " TEXT UNIQUE," +
+                AwfulEmbed.URL + " TEXT," +
+                AwfulEmbed.THUMBNAIL_URL + " TEXT," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createIgnoredUsersTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_IGNORED_USERS + " (" +
+                IgnoreList.USER_ID + " INTEGER NOT NULL PRIMARY KEY," +
+                UPDATED_TIMESTAMP + " TEXT);");
+    }
+
+    static void createFilteredPostTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FILTERED_POSTS + " (" +
+                AwfulPost.THREAD_ID + " INTEGER NOT NULL," +
+                AwfulPost.FILTER_USER_ID + " INTEGER NOT NULL," +
+                AwfulPost.POST_INDEX + " INTEGER NOT NULL," +
+                AwfulPost.ID + " INTEGER NOT NULL," +
+                AwfulPost.DATE + " TEXT," +
+                AwfulPost.REGDATE + " TEXT," +
+                AwfulPost.USER_ID + " INTEGER," +
+                AwfulPost.USERNAME + " TEXT," +
+                AwfulPost.EDITABLE + " INTEGER," +
+                AwfulPost.IS_OP + " INTEGER," +
+                AwfulPost.IS_PLAT + " INTEGER," +
+                AwfulPost.ROLE + " TEXT," +
+                AwfulPost.AVATAR + " TEXT," +
+                AwfulPost.AVATAR_SECOND + " TEXT," +
+                AwfulPost.AVATAR_TEXT + " TEXT," +
+                AwfulPost.CONTENT + " BLOB," +
+                AwfulPost.EDITED + " TEXT," +
+                AwfulPost.CONTENT_HASH + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT," +
+                "PRIMARY KEY (" + AwfulPost.THREAD_ID + ", " + AwfulPost.FILTER_USER_ID + ", " + AwfulPost.POST_INDEX + "));");
+    }
+
+    static void createFilteredThreadTable45(@NonNull SqlExecutor aDb) {
+        aDb.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FILTERED_THREADS + " (" +
+                AwfulThread.ID + " INTEGER NOT NULL," +
+                AwfulThread.FILTER_USER_ID + " INTEGER NOT NULL," +
+                AwfulThread.POSTCOUNT + " INTEGER," +
+                UPDATED_TIMESTAMP + " TEXT," +
+                "PRIMARY KEY (" + AwfulThread.ID + ", " + AwfulThread.FILTER_USER_ID + "));");
+    }
+}
@@ -0,0 +1,67 @@
+package com.ferg.awfulapp.provider;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Keeps track of how long {@link AwfulProvider}'s writes spend waiting for the database's write
+ * lock, and how long they hold it for.
+ * <p>
+ * With write-ahead logging, readers don't block on writers, but writers still run one at a time -
+ * so a long transaction (like storing a big page of posts) holds up every other write behind it.
+ * Slow transactions and long waits get logged as warnings, so it's easy to see when that's happening.
+ */
+final class TransactionMetrics {
+
+    /** waits or transactions longer than this get logged as warnings */
+    private static final long SLOW_MS = 200;
+
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLockWaitMs = new AtomicLong();
+    private final AtomicLong maxLockWaitMs = new AtomicLong();
+    private final AtomicLong totalTransactionMs = new AtomicLong();
+    private final AtomicLong maxTransactionMs = new AtomicLong();
+
+
+    /**
+     * Record a finished transaction.
+     *
+     * @param operation     a description of what the transaction was for, for logging
+     * @param lockWaitMs    how long it took to begin the transaction, i.e. get the write lock
+     * @param transactionMs how long the transaction took, from beginning to ending it
+     * @param successful    whether the transaction was committed
+     */
+    void record(@NonNull String operation, long lockWaitMs, long transactionMs, boolean successful) {
+        transactions.incrementAndGet();
+        if (!successful) {
+            failed.incrementAndGet();
+        }
+        totalLockWaitMs.addAndGet(lockWaitMs);
+        maxLockWaitMs.accumulateAndGet(lockWaitMs, Math::max);
+        totalTransactionMs.addAndGet(transactionMs);
+        maxTransactionMs.accumulateAndGet(transactionMs, Math::max);
+
+        if (lockWaitMs > SLOW_MS || transactionMs > SLOW_MS) {
+            Timber.w("Slow database write (%s): waited %dms for lock, transaction took %dms - %s", operation, lockWaitMs, transactionMs, this);
+        } else {
+            Timber.d("Database write (%s): waited %dms for lock, transaction took %dms", operation, lockWaitMs, transactionMs);
+        }
+    }
+
+
+    @NonNull
+    @Override
+    public String toString() {
+        long count = Math.max(transactions.get(), 1);
+        return String.format(Locale.US,
+                "%d transactions (%d failed), lock wait avg %dms max %dms, transaction avg %dms max %dms",
+                transactions.get(), failed.get(),
+                totalLockWaitMs.get() / count, maxLockWaitMs.get(),
+                totalTransactionMs.get() / count, maxTransactionMs.get());
+    }
+}
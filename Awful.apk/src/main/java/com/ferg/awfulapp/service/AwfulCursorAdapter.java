@@ -39,7 +39,6 @@ import com.ferg.awfulapp.AwfulActivity;
 import com.ferg.awfulapp.AwfulFragment;
 import com.ferg.awfulapp.R;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
-import com.ferg.awfulapp.thread.AwfulEmote;
 import com.ferg.awfulapp.thread.AwfulForum;
 import com.ferg.awfulapp.thread.AwfulMessage;
 import com.ferg.awfulapp.thread.AwfulThread;
@@ -80,8 +79,6 @@ public class AwfulCursorAdapter extends CursorAdapter {
 //			AwfulPost.getView(current, prefs, data, msgCallback);
 		}else if(data.getColumnIndex(AwfulMessage.DATE) >= 0){
 			AwfulMessage.getView(current, mPrefs, data, false);
-		}else if(data.getColumnIndex(AwfulEmote.INDEX) >= 0){
-			AwfulEmote.getView(current, mPrefs, data);
 		}
 		mParent.setPreferredFont(current);
 	}
@@ -95,9 +92,6 @@ public class AwfulCursorAdapter extends CursorAdapter {
 		}else if(data.getColumnIndex(AwfulMessage.UNREAD) >= 0){
 			row = inf.inflate(R.layout.thread_item, parent, false);
 			AwfulMessage.getView(row, mPrefs, data, false);
-		}else if(data.getColumnIndex(AwfulEmote.INDEX) >= 0){
-			row = inf.inflate(R.layout.emote_grid_item, parent, false);
-			AwfulEmote.getView(row, mPrefs, data);
 		}else{
 			row = inf.inflate(R.layout.loading, parent, false);
 		}
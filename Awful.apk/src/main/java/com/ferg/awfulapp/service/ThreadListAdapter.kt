@@ -0,0 +1,73 @@
+package com.ferg.awfulapp.service
+
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import android.widget.BaseAdapter
+import androidx.lifecycle.Lifecycle
+import androidx.paging.AsyncPagingDataDiffer
+import androidx.paging.PagingData
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import com.ferg.awfulapp.AwfulActivity
+import com.ferg.awfulapp.AwfulFragment
+import com.ferg.awfulapp.R
+import com.ferg.awfulapp.preferences.AwfulPreferences
+import com.ferg.awfulapp.provider.ThreadEntity
+import com.ferg.awfulapp.thread.AwfulThread
+
+/**
+ * Shows a list of threads from the database, paged in by a [ThreadDao][com.ferg.awfulapp.provider.ThreadDao]
+ * PagingSource.
+ *
+ * The thread list is a ListView, so instead of a PagingDataAdapter this passes the pages through an
+ * [AsyncPagingDataDiffer], which loads more threads as the list asks for them. Room invalidates the
+ * PagingSource whenever the threads change, so the list updates itself when a forum page is synced.
+ */
+class ThreadListAdapter(
+    private val activity: AwfulActivity,
+    private val fragment: AwfulFragment
+) : BaseAdapter() {
+
+    private val prefs = AwfulPreferences.getInstance(activity)
+    private val inflater = LayoutInflater.from(activity)
+
+    private val differ = AsyncPagingDataDiffer(ThreadDiff, object : ListUpdateCallback {
+        override fun onInserted(position: Int, count: Int) = notifyDataSetChanged()
+        override fun onRemoved(position: Int, count: Int) = notifyDataSetChanged()
+        override fun onMoved(fromPosition: Int, toPosition: Int) = notifyDataSetChanged()
+        override fun onChanged(position: Int, count: Int, payload: Any?) = notifyDataSetChanged()
+    })
+
+    /**
+     * Show some threads - this replaces whatever the list was showing.
+     */
+    fun submitData(lifecycle: Lifecycle, threads: PagingData<ThreadEntity>) = differ.submitData(lifecycle, threads)
+
+    /**
+     * Get one of the threads in the list by its ID, or null if it's not been loaded.
+     */
+    fun getThread(threadId: Long): AwfulThread? =
+        differ.snapshot().items.firstOrNull { it.id.toLong() == threadId }?.let(AwfulThread::fromEntity)
+
+    override fun getCount() = differ.itemCount
+
+    override fun getItem(position: Int): ThreadEntity? = differ.getItem(position)
+
+    // this is called for every row on every layout, so it mustn't trigger loading like getItem does
+    override fun getItemId(position: Int) = differ.peek(position)?.id?.toLong() ?: -1L
+
+    override fun hasStableIds() = true
+
+    override fun getView(position: Int, convertView: View?, parent: ViewGroup): View {
+        val row = convertView ?: inflater.inflate(R.layout.thread_item, parent, false)
+        getItem(position)?.let { AwfulThread.setDataOnThreadListItem(row, prefs, AwfulThread.fromEntity(it), fragment) }
+        activity.setPreferredFont(row)
+        return row
+    }
+
+    private object ThreadDiff : DiffUtil.ItemCallback<ThreadEntity>() {
+        override fun areItemsTheSame(oldItem: ThreadEntity, newItem: ThreadEntity) = oldItem.id == newItem.id
+        override fun areContentsTheSame(oldItem: ThreadEntity, newItem: ThreadEntity) = oldItem == newItem
+    }
+}
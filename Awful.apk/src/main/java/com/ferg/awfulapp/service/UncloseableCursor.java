@@ -13,7 +13,7 @@ import androidx.annotation.NonNull;
  * <p>Created by baka kaba on 19/03/2016.</p>
  *
  * <p>Simple wrapper for a Cursor, to enforce the 'don't close this' requirement in
- * {@link ThreadCursorAdapter#getRow(long)} and {@link AwfulCursorAdapter#getRow(long)}.
+ * {@link AwfulCursorAdapter#getRow(long)}.
  * Calling {@link #close()} throws an UnsupportedOperationException.</p>
  */
 public class UncloseableCursor implements Cursor {
@@ -16,9 +16,10 @@ import com.ferg.awfulapp.messages.PmManager;
 import com.ferg.awfulapp.network.NetworkUtils;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.preferences.Keys;
+import com.ferg.awfulapp.provider.CacheRetention;
 import com.ferg.awfulapp.task.FeatureRequest;
+import com.ferg.awfulapp.task.IgnoreListRequest;
 import com.ferg.awfulapp.task.RefreshUserProfileRequest;
-import com.ferg.awfulapp.util.AwfulUtils;
 
 import java.util.concurrent.TimeUnit;
 
@@ -44,6 +45,7 @@ public class SyncManager {
         Timber.i("------ syncing profile and forum details");
         updateProfile(appContext);
         updateAccountFeatures(appContext);
+        updateIgnoreList(appContext);
         updatePms(appContext);
         updateAnnouncements(appContext);
         updateForums(appContext);
@@ -57,6 +59,11 @@ public class SyncManager {
     }
 
 
+    private static void updateIgnoreList(@NonNull Context context) {
+        NetworkUtils.queueRequest(new IgnoreListRequest(context).build(null, null));
+    }
+
+
     private static void updatePms(@NonNull Context context) {
         PmManager.updatePms(context);
     }
@@ -75,7 +82,7 @@ public class SyncManager {
 
 
     private static void trimDatabase(@NonNull Context context) {
-        AwfulUtils.trimDbEntries(context.getContentResolver());
+        CacheRetention.trim(context);
     }
 
 
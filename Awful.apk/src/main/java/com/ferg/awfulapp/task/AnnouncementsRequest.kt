@@ -2,9 +2,9 @@ package com.ferg.awfulapp.task
 
 import android.content.Context
 import com.ferg.awfulapp.constants.Constants.FUNCTION_ANNOUNCEMENTS
-import com.ferg.awfulapp.preferences.AwfulPreferences
 import com.ferg.awfulapp.thread.AwfulPost
 import com.ferg.awfulapp.thread.AwfulPost.tryConvertToHttps
+import com.ferg.awfulapp.thread.PostContentRewriter
 import com.ferg.awfulapp.util.AwfulError
 import org.jsoup.nodes.Document
 import timber.log.Timber
@@ -31,7 +31,8 @@ class AnnouncementsRequest(context: Context)
 
     private fun parseAnnouncement(aThread: Document): List<AwfulPost> {
         val results = ArrayList<AwfulPost>()
-        val prefs = AwfulPreferences.getInstance()
+        // these are displayed like thread posts, which handles the settings-dependent processing
+        val rewriter = PostContentRewriter.forStorage()
 
         // TODO: tidy up when there's an announcement to test against
         // grab all the main announcement sections - these contain *most* of the data we need :/
@@ -75,13 +76,7 @@ class AnnouncementsRequest(context: Context)
             val postBody = announcementSection.selectFirst(".postbody")
             if (postBody != null) {
                 // process videos, images and links and store the resulting post HTML
-                AwfulPost.convertVideos(postBody, prefs.inlineYoutube, prefs.inlineTiktoks)
-                for (image in postBody.getElementsByTag("img")) {
-                    AwfulPost.processPostImage(image, false, prefs)
-                }
-                for (link in postBody.getElementsByTag("a")) {
-                    tryConvertToHttps(link)
-                }
+                rewriter.rewrite(postBody, PostContentRewriter.PostInfo(false, null, ""))
                 announcement.content = postBody.html()
             }
             // I guess this is important...?
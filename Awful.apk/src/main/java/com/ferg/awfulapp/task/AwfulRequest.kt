@@ -15,7 +15,10 @@ import com.ferg.awfulapp.R
 import com.ferg.awfulapp.constants.Constants.BASE_URL
 import com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING
 import com.ferg.awfulapp.network.CookieController
+import com.ferg.awfulapp.network.HtmlPruner
+import com.ferg.awfulapp.network.HtmlPruner.PruneRule
 import com.ferg.awfulapp.network.NetworkUtils
+import com.ferg.awfulapp.network.ParsePipeline
 import com.ferg.awfulapp.preferences.AwfulPreferences
 import com.ferg.awfulapp.task.AwfulRequest.Parameters.GetParams
 import com.ferg.awfulapp.task.AwfulRequest.Parameters.PostParams
@@ -28,10 +31,13 @@ import org.apache.http.entity.mime.content.StringBody
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
 import timber.log.Timber
-import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
 
 /**
  * Base class for requests to the Something Awful forums site, with HTML response and error handling.
@@ -57,6 +63,12 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
     private val handler: Handler = Handler(Looper.getMainLooper())
     private var progressListener: ProgressListener? = null
 
+    /** the tag the response is being handled under, once it's been passed to the [ParsePipeline] */
+    @Volatile
+    private var jobTag: Any? = null
+    /** the database writes queued while handling the response, which have to finish before the result is delivered */
+    private val queuedWrites = ArrayList<Future<*>>()
+
     /**
      * Represents parameters to be added to the final request.
      * The concrete type depends on whether this is a GET or POST request.
@@ -104,6 +116,15 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
 
     open val requestTag: Any get() = REQUEST_TAG
 
+    /**
+     * Elements to strip out of the response HTML before it's parsed - see [HtmlPruner].
+     *
+     * Nothing is stripped by default. Requests that don't need some parts of the page (e.g. the
+     * site's scripts and stylesheets, see [HtmlPruner.SCRIPTS_AND_STYLES]) can add rules for them,
+     * which makes parsing faster and the resulting Document smaller.
+     */
+    protected open val pruneRules: List<PruneRule> get() = emptyList()
+
     protected val preferences: AwfulPreferences get() = AwfulPreferences.getInstance(context)
     protected val contentResolver: ContentResolver get() = context.contentResolver
 
@@ -123,7 +144,7 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
      * get progress bar updates and error message display for free!
      */
     @JvmOverloads
-    fun build(progressListener: ProgressListener? = null, resultListener: AwfulResultCallback<T>? = null): Request<T> {
+    fun build(progressListener: ProgressListener? = null, resultListener: AwfulResultCallback<T>? = null): Request<*> {
         this@AwfulRequest.progressListener = progressListener
         // if it's a GET request, we need to build the full parameterised URL here
         val requestUrl =
@@ -185,6 +206,23 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
     // TODO: check if any request classes should be using this, for better error feedback
 
 
+    /**
+     * Store some parsed data on the [ParsePipeline.write] stage, instead of on the parse thread.
+     *
+     * Call this from [handleResponse] with the database [write]s the response produced - the parse
+     * thread can then move on to the next response while they're stored. Writes are done in the order
+     * they were queued, and the request's result isn't delivered until all of them have finished, so
+     * listeners can still expect to find the new data in the database. If any of them fail, the
+     * request fails with a [ParseError].
+     *
+     * This waits if the write stage is full, which holds up the parsing until the database catches up.
+     */
+    protected fun queueWrite(write: Runnable) {
+        val tag = checkNotNull(jobTag) { "Writes can only be queued while handling a response" }
+        queuedWrites.add(ParsePipeline.write.submit(tag) { write.run() })
+    }
+
+
     /**
      * Pass a progress [percent]age to any progress listener attached to this request.
      */
@@ -201,8 +239,11 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
      */
     @Throws(IOException::class)
     protected open fun parseAsHtml(response: NetworkResponse): Document {
+        val pruneStart = System.currentTimeMillis()
+        val html = HtmlPruner(pruneRules).prune(response.data)
+        Timber.d("Pruned HTML from ${response.data.size} to ${html.length} bytes (took ${System.currentTimeMillis() - pruneStart}ms)")
         val jsoupParseStart = System.currentTimeMillis()
-        val doc = Jsoup.parse(ByteArrayInputStream(response.data), SITE_HTML_ENCODING, BASE_URL)
+        val doc = Jsoup.parse(html.inputStream(), SITE_HTML_ENCODING, BASE_URL)
         Timber.d("Jsoup parsing finished (took ${System.currentTimeMillis() - jsoupParseStart}ms)")
         return doc
     }
@@ -224,24 +265,80 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
      * Since GET requests (apparently?) require their full parameterised URL to be passed into
      * the constructor here, we can't just make AwfulRequest a subclass of this, since its subclasses
      * add their GET parameters in the init blocks
+     *
+     * Volley only downloads the response here - it's parsed on the [ParsePipeline], so Volley's
+     * network threads are free to start on other requests while it's being handled. The result is
+     * delivered once that's finished, and any writes it queued (see [queueWrite]) have been stored,
+     * unless the work was cancelled by [NetworkUtils.cancelRequests].
      */
     private inner class ActualRequest internal constructor(
             url: String,
             private val success: Response.Listener<T>?,
             errorListener: Response.ErrorListener
-    ) : Request<T>(
+    ) : Request<NetworkResponse>(
             if (isPostRequest) Request.Method.POST else Request.Method.GET,
             url,
             errorListener
     ) {
 
+        /** the job handling this request's response, once it's been passed to the parse stage */
+        private var parseJob: Future<*>? = null
+
         init {
             Timber.i("Created request: $url")
             retryPolicy = lenientRetryPolicy
         }
 
 
-        override fun parseNetworkResponse(response: NetworkResponse): Response<T> {
+        override fun parseNetworkResponse(response: NetworkResponse): Response<NetworkResponse> {
+            // this runs on a network thread, so we just pass the response on for deliverResponse to queue for parsing
+            return Response.success(response, HttpHeaderParser.parseCacheHeaders(response))
+        }
+
+
+        override fun deliverResponse(response: NetworkResponse) {
+            // use the current tag, in case it was changed after building (e.g. by AwfulFragment#queueRequest)
+            val tag = tag ?: requestTag
+            jobTag = tag
+            parseJob = ParsePipeline.parse.submit(tag) {
+                val result = parse(response)
+                if (queuedWrites.isEmpty()) {
+                    handler.post { deliverResult(result) }
+                } else {
+                    // the write stage works through its queue in order, so this runs after the request's writes
+                    ParsePipeline.write.submit(tag) {
+                        val stored = checkWrites(result)
+                        handler.post { deliverResult(stored) }
+                    }
+                }
+            }
+        }
+
+
+        /**
+         * Check that all the writes queued while handling the response succeeded, returning the
+         * [result] if so, or an error for the first one that failed.
+         */
+        private fun checkWrites(result: Response<T>): Response<T> {
+            for (write in queuedWrites) {
+                try {
+                    write.get()
+                } catch (e: ExecutionException) {
+                    Timber.e(e.cause, "Failed to store response: $url")
+                    return Response.error(ParseError(e.cause))
+                } catch (e: CancellationException) {
+                    // the request was cancelled, so deliverResult will drop this anyway
+                    return Response.error(ParseError(e))
+                }
+            }
+            return result
+        }
+
+
+        /**
+         * Parse the [response] and let the request handle it, producing a result or an error.
+         */
+        private fun parse(response: NetworkResponse): Response<T> {
             val startTime = System.currentTimeMillis()
             Timber.i("Starting parse: $url")
             updateProgress(25)
@@ -255,9 +352,13 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
 
                 val result = handleResponseDocument(doc)
                 Timber.d("Successful parse: $url\nTook ${System.currentTimeMillis() - startTime}ms")
-                return Response.success(result, HttpHeaderParser.parseCacheHeaders(response))
+                return Response.success(result, null)
             } catch (ae: AwfulError) {
                 return Response.error(ae)
+            } catch (e: InterruptedIOException) {
+                // the parse was cancelled - nothing will be delivered, so this is just for the logs
+                Timber.i("Parse cancelled: $url")
+                return Response.error(ParseError(e))
             } catch (e: Exception) {
                 // TODO: find out what else this is meant to be catching, because it's swallowing every exception
                 Timber.e(e, "Failed parse: $url")
@@ -268,6 +369,23 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
         }
 
 
+        /**
+         * Pass a parsed [result] to the listeners, on the UI thread.
+         */
+        private fun deliverResult(result: Response<T>) {
+            if (parseJob?.isCancelled == true) {
+                Timber.i("Dropping result for cancelled request: $url")
+                return
+            }
+            if (result.isSuccess) {
+                success?.onResponse(result.result)
+                progressListener?.requestEnded(this@AwfulRequest, null)
+            } else {
+                deliverError(result.error)
+            }
+        }
+
+
         override fun parseNetworkError(volleyError: VolleyError?): VolleyError? {
             return volleyError.apply {
                 with(StringBuilder()) {
@@ -297,11 +415,6 @@ abstract class AwfulRequest<T>(protected val context: Context, private val baseU
             return this
         }
 
-        override fun deliverResponse(response: T) {
-            success?.onResponse(response)
-            progressListener?.requestEnded(this@AwfulRequest, null)
-        }
-
         override fun deliverError(error: VolleyError) {
             super.deliverError(error)
             progressListener?.requestEnded(this@AwfulRequest, customizeProgressListenerError(error))
@@ -4,6 +4,9 @@ import android.content.Context
 import com.android.volley.NetworkResponse
 import com.ferg.awfulapp.constants.Constants.BASE_URL
 import com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING
+import com.ferg.awfulapp.network.HtmlPruner
+import com.ferg.awfulapp.network.HtmlPruner.PrunedHtml
+import com.ferg.awfulapp.network.HtmlPruner.PruneRule
 import com.ferg.awfulapp.util.AwfulError
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
@@ -17,6 +20,9 @@ import java.nio.charset.Charset
  * Wrapper class for AwfulRequests, allowing a request to receive and handle a response with the
  * page selector elements stripped out (which can speed up HTML parsing considerably)
  *
+ * The site navigation and ads are stripped too (see [STRIPPED_PAGE_RULES]) so only use this for
+ * requests that don't need anything from those parts of the page.
+ *
  * Ideally this is just temporary until all the outstanding requests can be moved over to using it
  */
 abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : AwfulRequest<T>(context, apiUrl) {
@@ -25,6 +31,9 @@ abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : Awful
     private var selectedPage: Int? = null
     private var lastPage: Int? = null
 
+    override val pruneRules: List<PruneRule>
+        get() = STRIPPED_PAGE_RULES
+
     /**
      * Handle the HTML [document] parsed from the response, which has had the page selector elements
      * stripped out.
@@ -41,41 +50,80 @@ abstract class AwfulStrippedRequest<T>(context: Context, apiUrl: String) : Awful
     @Throws(IOException::class)
     override fun parseAsHtml(response: NetworkResponse): Document {
         // TODO: fall back to superclass implementation on error, set retry flag
-        val startTime = System.currentTimeMillis()
-        Timber.d("Stripping page selectors from HTML to speed up parsing")
-        // grab the data as a string, and match the select blocks
-        val html = String(response.data, SITE_CHARSET)
-
-        // try and pull out the useful data before we throw the blocks away
-        pageSelectorRegex.find(html)?.value?.let { selectBlock ->
-            // separate matchers so one can fail without breaking the other
-            selectedPage = selectedPageRegex.find(selectBlock)?.tryParseInt()
-            lastPage = lastPageRegex.find(selectBlock)?.tryParseInt()
-        }
-
-        // now dump the select blocks and parse what's left
-        val smaller = pageSelectorRegex.replace(html, "")
-        Timber.d("Garbage stripped (took ${startTime.elapsed}ms) - starting Jsoup parse")
+        val smaller = stripPageSelectors(response)
         val jsoupParseStart = System.currentTimeMillis()
-        return Jsoup.parse(smaller, BASE_URL).also {
+        return Jsoup.parse(smaller.inputStream(), SITE_HTML_ENCODING, BASE_URL).also {
             Timber.d("jsoup parsing finished (took ${jsoupParseStart.elapsed}ms)")
         }
     }
 
+    /**
+     * Prune the [response] HTML, removing the page selector elements (and anything else in [pruneRules])
+     * and storing the current and last page values they contain (which are later passed to [handleStrippedResponse]).
+     *
+     * This is for subclasses that need to do their own parsing of the stripped HTML.
+     */
+    protected fun stripPageSelectors(response: NetworkResponse): PrunedHtml {
+        val startTime = System.currentTimeMillis()
+        Timber.d("Stripping page selectors from HTML to speed up parsing")
+        return stripPage(response.data, pruneRules).let { stripped ->
+            selectedPage = stripped.selectedPage
+            lastPage = stripped.lastPage
+            Timber.d("Garbage stripped, ${response.data.size} bytes down to ${stripped.html.length} (took ${startTime.elapsed}ms)")
+            stripped.html
+        }
+    }
+
     private val Long.elapsed get() = System.currentTimeMillis() - this
-    private fun MatchResult.tryParseInt() = this.groupValues[1].toIntOrNull()
 
     @Throws(AwfulError::class)
     override fun handleResponseDocument(document: Document): T {
         return handleStrippedResponse(document, selectedPage, lastPage)
     }
 
+    /**
+     * Some page [html] with its page selectors removed, and the page values they contained (if any).
+     */
+    class StrippedHtml(val html: PrunedHtml, val selectedPage: Int?, val lastPage: Int?)
+
     companion object {
         private val SITE_CHARSET = Charset.forName(SITE_HTML_ENCODING)
 
+        /** The elements removed from every stripped page, as well as the page selectors */
+        @JvmField
+        val STRIPPED_PAGE_RULES = HtmlPruner.SITE_NAVIGATION + HtmlPruner.ADS
+
+        /** The elements removed from thread and forum pages, whose parsers only need the markup */
+        @JvmField
+        val LISTING_PAGE_RULES = STRIPPED_PAGE_RULES + HtmlPruner.SCRIPTS_AND_STYLES
+
+        /**
+         * Prune some raw page HTML, removing its page selectors and any elements matching [rules],
+         * and pulling out the current and last page values first.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun stripPage(data: ByteArray, rules: List<PruneRule> = STRIPPED_PAGE_RULES): StrippedHtml {
+            var selectBlock: String? = null
+            val pageSelector = HtmlPruner.PAGE_SELECTOR.withListener { html, start, end ->
+                // usually there's one at the top of the page and one at the bottom - we just need the first
+                if (selectBlock == null) selectBlock = String(html, start, end - start, SITE_CHARSET)
+            }
+            val pruned = HtmlPruner(rules + pageSelector).prune(data)
+
+            // separate matchers so one can fail without breaking the other
+            val block = selectBlock
+            return StrippedHtml(
+                pruned,
+                block?.let { selectedPageRegex.find(it)?.tryParseInt() },
+                block?.let { lastPageRegex.find(it)?.tryParseInt() }
+            )
+        }
+
+        private fun MatchResult.tryParseInt() = this.groupValues[1].toIntOrNull()
+
         // TODO: can/should this be done with the outer <div class="pages"> tag instead?
-        // matches a single page select block (usually 2 on a page)
-        private val pageSelectorRegex = Regex("""<select data-url="\S*\.php.*</select>""")
+        // these only run on the (small) page selector block that's been cut out of the page
         // matches the "value" attribute of the <option> tag with a "selected" attribute
         private val selectedPageRegex = Regex("""value="(\d*)"\s*selected""")
         // matches the inner text of the last <option> tag
@@ -0,0 +1,37 @@
+package com.ferg.awfulapp.task
+
+import android.content.Context
+import com.ferg.awfulapp.constants.Constants.*
+import com.ferg.awfulapp.users.IgnoreList
+import com.ferg.awfulapp.util.AwfulError
+import org.jsoup.nodes.Document
+import timber.log.Timber
+
+/**
+ * An AwfulRequest that fetches the user's ignore list from the site, and replaces the app's copy
+ * of it - so users who were ignored or unignored outside the app are picked up without having to
+ * come across one of their posts.
+ */
+class IgnoreListRequest(context: Context) : AwfulRequest<Void?>(context, FUNCTION_MEMBER2) {
+
+    init {
+        with(parameters) {
+            add(PARAM_ACTION, ACTION_VIEWLIST)
+            add(PARAM_USERLIST, USERLIST_IGNORE)
+        }
+    }
+
+    @Throws(AwfulError::class)
+    override fun handleResponse(doc: Document): Void? {
+        // the list is a form for editing it, with a checkbox for each user holding their ID -
+        // if there's no form, this isn't the list page, so leave the stored list alone
+        val list = doc.selectFirst("form:has(input[name=$PARAM_USERLIST][value=$USERLIST_IGNORE])")
+                ?: throw AwfulError("Couldn't find the ignore list")
+        val userIds = list.select("input[type=checkbox]")
+                .mapNotNull { it.`val`().toIntOrNull() }
+                .toSet()
+        IgnoreList.replace(contentResolver, userIds)
+        Timber.i("Updated ignore list: %d users", userIds.size)
+        return null
+    }
+}
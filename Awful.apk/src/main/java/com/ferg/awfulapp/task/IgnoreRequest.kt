@@ -2,13 +2,15 @@ package com.ferg.awfulapp.task
 
 import android.content.Context
 import com.ferg.awfulapp.constants.Constants.*
+import com.ferg.awfulapp.network.NetworkUtils
+import com.ferg.awfulapp.users.IgnoreList
 import com.ferg.awfulapp.util.AwfulError
 import org.jsoup.nodes.Document
 
 /**
- * An AwfulRequest that adds a userId to the user's ignore list.
+ * An AwfulRequest that adds a userId to the user's ignore list, and the app's copy of it.
  */
-class IgnoreRequest(context: Context, userId: Int)
+class IgnoreRequest(context: Context, private val userId: Int)
     : AwfulRequest<Void?>(context, FUNCTION_MEMBER2, isPostRequest = true) {
     init {
         with(parameters) {
@@ -20,6 +22,12 @@ class IgnoreRequest(context: Context, userId: Int)
     }
 
     @Throws(AwfulError::class)
-    override fun handleResponse(doc: Document): Void? = null // nothing to handle, just fire and forget
+    override fun handleResponse(doc: Document): Void? {
+        // their posts are shown as ignored straight away, in every cached thread
+        IgnoreList.ignore(contentResolver, userId)
+        // then catch up with any other changes to the list, e.g. users removed from it on the site
+        NetworkUtils.queueRequest(IgnoreListRequest(context).build(null, null))
+        return null
+    }
 
 }
@@ -5,11 +5,8 @@ import android.content.ContentValues
 import android.content.Context
 import com.android.volley.VolleyError
 import com.ferg.awfulapp.constants.Constants.*
-import com.ferg.awfulapp.provider.AwfulProvider
-import com.ferg.awfulapp.thread.AwfulPost
 import com.ferg.awfulapp.thread.AwfulThread
 import com.ferg.awfulapp.util.AwfulError
-import com.ferg.awfulapp.util.toSqlBoolean
 import org.jsoup.nodes.Document
 
 /**
@@ -29,27 +26,16 @@ class MarkLastReadRequest(context: Context, private val threadId: Int, private v
 
     @Throws(AwfulError::class)
     override fun handleResponse(doc: Document): Void? {
-        var cv = ContentValues()
         with(contentResolver) {
-            fun where(greaterThan: Boolean) =
-                    "${AwfulPost.THREAD_ID}=? AND ${AwfulPost.POST_INDEX} ${if (greaterThan) ">" else "<="}?"
-
-            val params = listOf(threadId, postIndex).map(Int::toString).toTypedArray()
-
-            // set later posts to unread, and this post (and all previous) to read
-            cv.put(AwfulPost.PREVIOUSLY_READ, false.toSqlBoolean)
-            update(AwfulPost.CONTENT_URI, cv, where(greaterThan = true), params)
-
-            cv.put(AwfulPost.PREVIOUSLY_READ, true.toSqlBoolean)
-            update(AwfulPost.CONTENT_URI, cv, where(greaterThan = false), params)
-
-            // update the thread's unread count
-            val threadData = query(ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong()), AwfulProvider.ThreadProjection, null, null, null)
-            threadData?.use { cursor ->
+            // posts get their read state from the thread, so this is the only thing that needs to change
+            val threadUri = ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong())
+            query(threadUri, arrayOf(AwfulThread.POSTCOUNT), null, null, null)?.use { cursor ->
                 if (cursor.moveToFirst()) {
-                    val newPostCount = cursor.getInt(cursor.getColumnIndex(AwfulThread.POSTCOUNT)) - postIndex
-                    cv = ContentValues().apply { put(AwfulThread.UNREADCOUNT, newPostCount) }
-                    update(AwfulThread.CONTENT_URI, cv, AwfulThread.ID + "=?", arrayOf(threadId.toString()))
+                    val cv = ContentValues().apply {
+                        put(AwfulThread.LAST_READ_INDEX, postIndex)
+                        put(AwfulThread.UNREADCOUNT, cursor.getInt(0) - postIndex)
+                    }
+                    update(threadUri, cv, null, null)
                 }
             }
         }
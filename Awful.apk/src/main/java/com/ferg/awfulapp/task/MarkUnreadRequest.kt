@@ -5,7 +5,6 @@ import android.content.ContentValues
 import android.content.Context
 import com.android.volley.VolleyError
 import com.ferg.awfulapp.constants.Constants.*
-import com.ferg.awfulapp.thread.AwfulPost
 import com.ferg.awfulapp.thread.AwfulThread
 import com.ferg.awfulapp.util.AwfulError
 import com.ferg.awfulapp.util.toSqlBoolean
@@ -26,14 +25,11 @@ class MarkUnreadRequest(context: Context, private val threadId: Int)
     @Throws(AwfulError::class)
     override fun handleResponse(doc: Document): Void? {
         with (contentResolver) {
-            // set all posts in the thread as unread
-            val unreadPost = ContentValues().apply { put(AwfulPost.PREVIOUSLY_READ, false.toSqlBoolean) }
-            update(AwfulPost.CONTENT_URI, unreadPost, AwfulPost.THREAD_ID + "=?", arrayOf(threadId.toString()))
-
-            // update the thread data to reflect an unread state
+            // update the thread data to reflect an unread state, which also marks all its posts as unread
             val unreadThread = ContentValues().apply {
                 put(AwfulThread.UNREADCOUNT, 0)
                 put(AwfulThread.HAS_VIEWED_THREAD, false.toSqlBoolean)
+                put(AwfulThread.LAST_READ_INDEX, 0)
             }
             update(ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong()), unreadThread, null, null)
         }
@@ -3,7 +3,8 @@ package com.ferg.awfulapp.task
 import android.content.Context
 import com.ferg.awfulapp.constants.Constants.*
 import com.ferg.awfulapp.preferences.AwfulPreferences
-import com.ferg.awfulapp.thread.AwfulPost
+import com.ferg.awfulapp.thread.PostContentPreferences
+import com.ferg.awfulapp.thread.PostContentRewriter
 import com.ferg.awfulapp.util.AwfulError
 import org.jsoup.nodes.Document
 
@@ -28,19 +29,11 @@ class SinglePostRequest(context: Context, private val postId: String)
     }
 
     override fun handleResponse(doc: Document): String {
-        val prefs = AwfulPreferences.getInstance();
+        val rewriter = PostContentRewriter.forPosts(PostContentPreferences.from(AwfulPreferences.getInstance()))
         val postBody = doc.selectFirst(".postbody")
         val fyadPostBody = postBody?.selectFirst(".complete_shit")
         (fyadPostBody ?: postBody ?: throw AwfulError("Couldn't find post content")).apply {
-            AwfulPost.convertVideos(this, prefs.inlineYoutube, prefs.inlineTiktoks)
-            getElementsByTag("img").forEach {
-                AwfulPost.processPostImage(
-                    it,
-                    false,
-                    prefs
-                )
-            }
-            getElementsByTag("a").forEach(AwfulPost::tryConvertToHttps)
+            rewriter.rewrite(this, PostContentRewriter.PostInfo(false, null, postId))
             if (this == fyadPostBody) {
                 // FYAD sigs are currently a sibling div alongside .complete_shit, so we need to stick them at the end of the content
                 postBody.selectFirst("> .signature")?.appendTo(this)
@@ -4,6 +4,7 @@ import android.content.Context
 import com.ferg.awfulapp.announcements.AnnouncementsManager
 import com.ferg.awfulapp.constants.Constants.*
 import com.ferg.awfulapp.messages.PmManager
+import com.ferg.awfulapp.network.HtmlPruner.PruneRule
 import com.ferg.awfulapp.thread.AwfulForum
 import com.ferg.awfulapp.thread.AwfulPagedItem
 import com.ferg.awfulapp.util.AwfulError
@@ -29,6 +30,9 @@ class ThreadListRequest(context: Context, private val forumId: Int, private val
     override val requestTag: Any
         get() = REQUEST_TAG
 
+    override val pruneRules: List<PruneRule>
+        get() = LISTING_PAGE_RULES
+
 
     init {
         with(parameters) {
@@ -52,10 +56,12 @@ class ThreadListRequest(context: Context, private val forumId: Int, private val
         try {
             // parse the threads on the page, and also check for announcements/PMs depending on where they appear
             if (forumId == USERCP_ID) {
-                AwfulForum.parseUCPThreads(document, page, lastPage, contentResolver)
+                val threads = AwfulForum.parseUCPThreads(document, page)
+                queueWrite { AwfulForum.storeUCPThreads(threads, page, lastPage, contentResolver) }
                 PmManager.parseUcpPage(document)
             } else {
-                AwfulForum.parseThreads(forumId, page, lastPage, document, contentResolver)
+                val threads = AwfulForum.parseThreads(forumId, page, document)
+                queueWrite { AwfulForum.storeThreads(forumId, page, lastPage, threads, contentResolver) }
                 AnnouncementsManager.getInstance().parseForumPage(document)
             }
         } catch (e: Exception) {
@@ -1,9 +1,14 @@
 package com.ferg.awfulapp.task
 
 import android.content.Context
+import com.android.volley.NetworkResponse
 import com.ferg.awfulapp.constants.Constants.*
+import com.ferg.awfulapp.network.HtmlPruner.PruneRule
 import com.ferg.awfulapp.thread.AwfulThread
+import com.ferg.awfulapp.thread.PostStreamParser
 import org.jsoup.nodes.Document
+import java.io.IOException
+import java.io.InputStreamReader
 
 /**
  * A request to fetch and parse the data on a thread page, updating the database with the results.
@@ -11,37 +16,67 @@ import org.jsoup.nodes.Document
  * Supplying a valid [userId] will fetch from the "show posts by this user" thread view, i.e. the
  * thread will consist entirely of their posts, and will have as many pages as those posts can fill.
  *
- * Currently this overwrites the "normal" thread view in the database, so viewing page 1 of a thread,
- * and then page 1 with a given [userId] will result in page 1 being fully or partially overwritten
- * with that user's posts, depending on how many there are. This is only a problem when viewing the
- * cached data (since usually the page will be reloaded and rewritten when you view it) but it's
- * something to be aware of.
+ * The filtered thread is stored separately from the "normal" thread view (see
+ * [com.ferg.awfulapp.thread.AwfulPost.filteredPageUri]), with its own pages and post count, so loading
+ * it doesn't overwrite any of the full thread's cached pages - and switching between the two views
+ * can show the cached data for each straight away.
+ *
+ * By default the page is parsed in [streamPosts] mode, where each post is parsed as soon as the parser
+ * reaches the end of it (see [PostStreamParser]) instead of waiting for the whole page to be parsed
+ * first. This only overlaps parsing the posts with parsing the rest of the page: Volley has already
+ * downloaded the whole response by the time it gets here, and nothing is stored until every post has
+ * been parsed, since the posts and the thread data are written in one batch. So none of the page is
+ * shown any earlier than it would be without [streamPosts].
  */
-class ThreadPageRequest(context: Context, private val threadId: Int, private val page: Int, private val userId: Int = 0)
-    : AwfulStrippedRequest<Void?>(context, FUNCTION_THREAD) {
+class ThreadPageRequest @JvmOverloads constructor(
+    context: Context,
+    private val threadId: Int,
+    private val page: Int,
+    private val userId: Int = 0,
+    private val streamPosts: Boolean = true
+) : AwfulStrippedRequest<Void?>(context, FUNCTION_THREAD) {
+
+    /** the user the thread is filtered on, or 0 for the full thread */
+    private val filterUserId = if (userId > 0) userId else 0
+
+    /** the parser that parsed the page's posts while parsing the page, if [streamPosts] is set */
+    private var streamedPosts: PostStreamParser? = null
 
 
     override val requestTag: Any
         get() = REQUEST_TAG
 
+    override val pruneRules: List<PruneRule>
+        get() = LISTING_PAGE_RULES
+
     init {
         with(parameters) {
             add(PARAM_THREAD_ID, threadId.toString())
             add(PARAM_PER_PAGE, preferences.postPerPage.toString())
             add(PARAM_PAGE, page.toString())
-            if (userId > 0) add(PARAM_USER_ID, userId.toString())
+            if (filterUserId > 0) add(PARAM_USER_ID, filterUserId.toString())
         }
     }
 
+    @Throws(IOException::class)
+    override fun parseAsHtml(response: NetworkResponse): Document {
+        if (!streamPosts) return super.parseAsHtml(response)
+        val html = stripPageSelectors(response)
+        val postParser = PostStreamParser(contentResolver, threadId, page, preferences.postPerPage, filterUserId)
+        return postParser.parse(InputStreamReader(html.inputStream(), SITE_HTML_ENCODING)).also { streamedPosts = postParser }
+    }
+
     override fun handleResponse(doc: Document): Void? {
-        AwfulThread.parseThreadPage(contentResolver, doc, threadId, page, -1, preferences.postPerPage, preferences, userId)
+        val writes = AwfulThread.parseThreadPage(contentResolver, doc, threadId, page, -1, preferences.postPerPage, preferences, filterUserId)
+        queueWrite { AwfulThread.storeThreadPage(contentResolver, writes, threadId, page) }
         return null
     }
 
     public override fun handleStrippedResponse(document: Document, currentPage: Int?, totalPages: Int?): Void? {
         // TODO: this is all kinda janky, best to use the passed data from the response, right? Instead of relying on 'page' from the request
         val lastPage = totalPages ?: page
-        AwfulThread.parseThreadPage(contentResolver, document, threadId, page, lastPage, preferences.postPerPage, preferences, userId)
+        val writes = AwfulThread.parseThreadPage(contentResolver, document, threadId, page, lastPage, preferences.postPerPage, preferences, filterUserId, streamedPosts)
+        queueWrite { AwfulThread.storeThreadPage(contentResolver, writes, threadId, page) }
         return null
     }
 
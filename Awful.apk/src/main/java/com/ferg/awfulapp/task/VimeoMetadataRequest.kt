@@ -0,0 +1,62 @@
+package com.ferg.awfulapp.task
+
+import android.content.ContentResolver
+import android.net.Uri
+import com.android.volley.NetworkResponse
+import com.android.volley.ParseError
+import com.android.volley.Request
+import com.android.volley.Response
+import com.android.volley.VolleyError
+import com.android.volley.toolbox.HttpHeaderParser
+import com.ferg.awfulapp.thread.AwfulEmbed
+import org.jsoup.Jsoup
+import org.jsoup.parser.Parser
+import java.nio.charset.StandardCharsets
+
+/**
+ * Fetches the metadata for a Vimeo video from Vimeo's API, and stores it in the database.
+ *
+ * The result is written on the network thread, before the [listener] is called (on the main thread)
+ * with the parsed metadata. If the request fails, or the response has no usable link, the listener
+ * receives null.
+ *
+ * @param resolver used to store the result
+ * @param videoId  the Vimeo ID of the video
+ * @param listener receives the video's metadata, or null if it couldn't be fetched
+ */
+class VimeoMetadataRequest(
+    private val resolver: ContentResolver,
+    private val videoId: String,
+    private val listener: Response.Listener<AwfulEmbed?>
+) : Request<AwfulEmbed?>(Method.GET, "https://vimeo.com/api/v2/video/$videoId.xml", null) {
+
+    init {
+        tag = REQUEST_TAG
+    }
+
+    override fun parseNetworkResponse(response: NetworkResponse): Response<AwfulEmbed?> {
+        val xml = Jsoup.parse(String(response.data, StandardCharsets.UTF_8), "", Parser.xmlParser())
+        val embed = AwfulEmbed.fromVimeoXml(videoId, xml)
+            ?: return Response.error(ParseError(VolleyError("No link found for Vimeo video $videoId")))
+
+        val row = Uri.withAppendedPath(AwfulEmbed.CONTENT_URI, embed.key)
+        with(embed.toContentValues()) {
+            if (resolver.update(row, this, null, null) < 1) {
+                resolver.insert(AwfulEmbed.CONTENT_URI, this)
+            }
+        }
+        return Response.success(embed, HttpHeaderParser.parseCacheHeaders(response))
+    }
+
+    override fun deliverResponse(response: AwfulEmbed?) {
+        listener.onResponse(response)
+    }
+
+    override fun deliverError(error: VolleyError) {
+        listener.onResponse(null)
+    }
+
+    companion object {
+        val REQUEST_TAG = Any()
+    }
+}
@@ -0,0 +1,109 @@
+package com.ferg.awfulapp.thread;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.provider.DatabaseHelper;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.sql.Timestamp;
+
+/**
+ * Metadata for a third-party video embedded in a post, e.g. the playable link for a Vimeo video.
+ * <p>
+ * Post parsing used to fetch this while it was rewriting the post, which meant a network round
+ * trip per video. Now posts get a placeholder link instead (see {@link #VIMEO_LINK_CLASS}), and
+ * the metadata is fetched in the background and cached in the database by
+ * {@link com.ferg.awfulapp.network.EmbedMetadataResolver}, so the WebView can patch the links later.
+ */
+public class AwfulEmbed {
+
+    public static final String PATH     = "/embed";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + Constants.AUTHORITY + PATH);
+
+    /** A key for the video, made up of its provider and the provider's video ID, e.g. "vimeo:1234" */
+    public static final String ID            = "_id";
+    public static final String URL           = "url";
+    public static final String THUMBNAIL_URL = "thumbnail_url";
+
+    /** The class added to placeholder links for Vimeo videos, which also carry a data-vimeo-id attribute */
+    public static final String VIMEO_LINK_CLASS = "vimeo-link";
+
+    private static final String PROVIDER_VIMEO = "vimeo";
+
+    @NonNull
+    public final String key;
+    @NonNull
+    public final String url;
+    @Nullable
+    public final String thumbnailUrl;
+
+    private AwfulEmbed(@NonNull String key, @NonNull String url, @Nullable String thumbnailUrl) {
+        this.key = key;
+        this.url = url;
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    /**
+     * Get the database key for a Vimeo video ID.
+     */
+    @NonNull
+    public static String vimeoKey(@NonNull String videoId) {
+        return PROVIDER_VIMEO + ":" + videoId;
+    }
+
+    /**
+     * The link used for a Vimeo video until its real metadata has been resolved.
+     */
+    @NonNull
+    public static String defaultVimeoUrl(@NonNull String videoId) {
+        return "https://vimeo.com/" + videoId;
+    }
+
+    /**
+     * Parse the response from Vimeo's video API.
+     *
+     * @param videoId the ID of the video that was requested
+     * @param xml     the XML response document
+     * @return the video's metadata, or null if it didn't contain a usable link
+     */
+    @Nullable
+    public static AwfulEmbed fromVimeoXml(@NonNull String videoId, @NonNull Document xml) {
+        Element link = xml.selectFirst("mobile_url");
+        if (link == null) {
+            link = xml.selectFirst("url");
+        }
+        if (link == null || link.text().isEmpty()) {
+            return null;
+        }
+        Element thumbnail = xml.selectFirst("thumbnail_large");
+        return new AwfulEmbed(vimeoKey(videoId), link.text(), thumbnail == null ? null : thumbnail.text());
+    }
+
+    @Nullable
+    public static AwfulEmbed fromCursorRow(@NonNull Cursor row) {
+        if (row.isBeforeFirst() || row.isAfterLast()) {
+            return null;
+        }
+        return new AwfulEmbed(
+                row.getString(row.getColumnIndex(ID)),
+                row.getString(row.getColumnIndex(URL)),
+                row.getString(row.getColumnIndex(THUMBNAIL_URL)));
+    }
+
+    public ContentValues toContentValues() {
+        ContentValues cv = new ContentValues();
+        cv.put(ID, key);
+        cv.put(URL, url);
+        cv.put(THUMBNAIL_URL, thumbnailUrl);
+        cv.put(DatabaseHelper.UPDATED_TIMESTAMP, new Timestamp(System.currentTimeMillis()).toString());
+        return cv;
+    }
+}
@@ -28,7 +28,6 @@
 package com.ferg.awfulapp.thread;
 
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.net.Uri;
 import android.util.Log;
 import android.view.View;
@@ -38,8 +37,8 @@ import com.android.volley.toolbox.NetworkImageView;
 import com.ferg.awfulapp.R;
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.network.NetworkUtils;
-import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.provider.DatabaseHelper;
+import com.ferg.awfulapp.provider.EmoteEntity;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -62,12 +61,12 @@ public class AwfulEmote {
 	
 	public static Pattern fileName_regex = Pattern.compile("/([^/]+)$");
 	
-	public static void getView(View current, AwfulPreferences aPref, Cursor data) {
+	public static void getView(View current, EmoteEntity emote) {
 		TextView emoteText = (TextView) current.findViewById(R.id.emote_text);
-		emoteText.setText(data.getString(data.getColumnIndex(TEXT)));
+		emoteText.setText(emote.getText());
 		emoteText.setTextColor(current.getResources().getColor(R.color.default_post_font));
 		NetworkImageView emoteImage = (NetworkImageView) current.findViewById(R.id.emote_icon);
-		emoteImage.setImageUrl(data.getString(data.getColumnIndex(URL)), NetworkUtils.getImageLoader());
+		emoteImage.setImageUrl(emote.getUrl(), NetworkUtils.getImageLoader());
 	}
 
 	
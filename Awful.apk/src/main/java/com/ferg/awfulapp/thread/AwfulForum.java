@@ -92,16 +92,26 @@ public class AwfulForum extends AwfulPagedItem {
 
 
 	/**
-	 * Parse a forum page, storing the thread list and updating the threads in the database.
+	 * Parse the thread list on a forum page, ready for {@link #storeThreads}.
 	 * @param forumId          the ID of the forum being parsed
 	 * @param pageNumber       the number of the page being parsed, e.g. page 2 of GBS
-	 * @param lastPageNumber
 	 * @param page             a forum page containing a list of threads
+	 * @return the threads on the page, indexed by their position in the forum
+	 */
+	public static List<ContentValues> parseThreads(int forumId, int pageNumber, Document page) {
+		return AwfulThread.parseForumThreads(page, forumId, forumPageToIndex(pageNumber));
+	}
+
+
+	/**
+	 * Store a forum page's thread list, replacing the threads previously stored for that page.
+	 * @param forumId          the ID of the forum the threads are from
+	 * @param pageNumber       the number of the page they were on
+	 * @param lastPageNumber
+	 * @param threads          the threads from {@link #parseThreads}
 	 * @param contentInterface used for database access
 	 */
-	public static void parseThreads(int forumId, int pageNumber, int lastPageNumber, Document page, ContentResolver contentInterface) {
-		// get the threads on a (normal) forum page, index them and store
-		List<ContentValues> threads = AwfulThread.parseForumThreads(page, forumId, forumPageToIndex(pageNumber));
+	public static void storeThreads(int forumId, int pageNumber, int lastPageNumber, List<ContentValues> threads, ContentResolver contentInterface) {
 		deletePageOfThreads(forumId, pageNumber, contentInterface);
 		insertThreads(threads, contentInterface);
 
@@ -111,15 +121,24 @@ public class AwfulForum extends AwfulPagedItem {
 
 
 	/**
-	 * Parse a Bookmarks page, storing the thread list and updating the threads in the database.
+	 * Parse the threads on a Bookmarks page, ready for {@link #storeUCPThreads}.
 	 *  @param page             a page containing the user's bookmarks
 	 * @param pageNumber       the number of the page being parsed, e.g. page 2 of the bookmarks
+	 * @return the threads on the page, indexed by their position in the bookmarks
+	 */
+	public static List<ContentValues> parseUCPThreads(@NonNull Document page, int pageNumber) {
+		return AwfulThread.parseForumThreads(page, Constants.USERCP_ID, forumPageToIndex(pageNumber));
+	}
+
+
+	/**
+	 * Store a Bookmarks page, updating the threads in the database and replacing the page's bookmarks.
+	 * @param threads          the threads from {@link #parseUCPThreads}
+	 * @param pageNumber       the number of the page they were on
 	 * @param lastPageNumber
 	 * @param contentInterface used for database access
 	 */
-	public static void parseUCPThreads(@NonNull Document page, int pageNumber, int lastPageNumber, @NonNull ContentResolver contentInterface) {
-		// get all the threads on the bookmarks page, with their INDEXes set appropriately, and store them
-		List<ContentValues> threads = AwfulThread.parseForumThreads(page, Constants.USERCP_ID, forumPageToIndex(pageNumber));
+	public static void storeUCPThreads(@NonNull List<ContentValues> threads, int pageNumber, int lastPageNumber, @NonNull ContentResolver contentInterface) {
 		insertThreads(threads, contentInterface);
 
 		// for each thread on the page, create a bookmark (with the thread's ID) in the same position (same index)
@@ -20,6 +20,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -41,8 +42,8 @@ import java.util.Map;
  * some markup yourself, e.g. styling it as a post (see the mustache files for the format those take)
  * so it looks correct.
  *
- * The {@link #getThreadHtml(List, AwfulPreferences, int, int)} method specifically allows you to
- * create a view of a thread by passing it a set of posts and some details about what part of the
+ * The {@link #getThreadHtml(PostPage, AwfulPreferences, int, int)} method specifically allows you to
+ * create a view of a thread by passing it a page of posts and some details about what part of the
  * thread it represents. This handles things like styling read/unread posts and hiding previously
  * read ones on the page.
  *
@@ -50,6 +51,15 @@ import java.util.Map;
  */
 public abstract class AwfulHtmlPage {
 
+    /** the initial size of the buffer a page is rendered into, which is about what a full page needs */
+    private static final int RENDER_BUFFER_SIZE = 256 * 1024;
+    /** the largest render buffer to hang on to between pages */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /** a buffer kept from the last render, see {@link #takeRenderBuffer()} */
+    @Nullable
+    private static StringWriter renderBuffer = null;
+
     // TODO: 16/08/2017 generate this automatically from the folder contents
     /**
      * All the scripts from the javascript folder used in generating HTML
@@ -146,14 +156,66 @@ public abstract class AwfulHtmlPage {
      * @return the generated content, ready for insertion into the template
      */
     public static String getThreadHtml(List<AwfulPost> aPosts, AwfulPreferences aPrefs, int page, int lastPage) {
-        StringBuilder buffer = new StringBuilder(1024);
+        return getThreadHtml(PostPage.of(aPosts), aPrefs, page, lastPage);
+    }
+
+
+    /**
+     * Generates post content HTML for a page of posts.
+     *
+     * @see #getThreadHtml(List, AwfulPreferences, int, int)
+     */
+    public static String getThreadHtml(PostPage posts, AwfulPreferences aPrefs, int page, int lastPage) {
+        return renderThreadPage(posts, aPrefs, page, lastPage).getHtml();
+    }
+
+
+    /**
+     * Generates post content HTML for a page of posts, using an already compiled post template.
+     * <p>
+     * This is the part of {@link #getThreadHtml(PostPage, AwfulPreferences, int, int)} that doesn't need
+     * a Context, so it can be run (and benchmarked) on its own.
+     *
+     * @param postTemplate the template to render each post with - if this is null, no posts are rendered
+     */
+    public static String getThreadHtml(PostPage aPosts, PostRenderPreferences aPrefs, @Nullable Template postTemplate, int page, int lastPage) {
+        return renderThreadPage(aPosts, aPrefs, postTemplate, page, lastPage).getHtml();
+    }
+
+
+    /**
+     * Generates post content HTML for a page of posts, keeping track of where each post is in it so
+     * a page that's already displayed can be updated post by post.
+     *
+     * @see #getThreadHtml(PostPage, AwfulPreferences, int, int)
+     */
+    public static ThreadPageHtml renderThreadPage(PostPage posts, AwfulPreferences aPrefs, int page, int lastPage) {
+        return renderThreadPage(posts, PostRenderPreferences.from(aPrefs), findPostTemplate(aPrefs), page, lastPage);
+    }
+
+
+    /**
+     * Generates post content HTML for a page of posts, using an already compiled post template and a
+     * snapshot of the user's settings.
+     * <p>
+     * This doesn't touch the UI or the preferences, so it can be run on a background thread - see
+     * {@link ThreadPageLoader}.
+     *
+     * @param postTemplate the template to render each post with (see {@link #findPostTemplate(AwfulPreferences)})
+     *                     - if this is null, no posts are rendered
+     * @see #renderThreadPage(PostPage, AwfulPreferences, int, int)
+     */
+    public static ThreadPageHtml renderThreadPage(PostPage aPosts, PostRenderPreferences aPrefs, @Nullable Template postTemplate, int page, int lastPage) {
+        StringWriter buffer = takeRenderBuffer();
+        StringBuffer written = buffer.getBuffer();
         buffer.append("<div class='content'>\n");
+        int headerStart = written.length();
 
         // if we're hiding read posts, work out how many are read and add the 'show old posts' link
-        if (aPrefs.hideOldPosts && aPosts.size() > 0 && !aPosts.get(aPosts.size() - 1).isPreviouslyRead()) {
+        if (aPrefs.getHideOldPosts() && aPosts.size() > 0 && !aPosts.isPreviouslyRead(aPosts.size() - 1)) {
             int unreadCount = 0;
-            for (AwfulPost ap : aPosts) {
-                if (!ap.isPreviouslyRead()) {
+            for (int i = 0; i < aPosts.size(); i++) {
+                if (!aPosts.isPreviouslyRead(i)) {
                     unreadCount++;
                 }
             }
@@ -162,121 +224,226 @@ public abstract class AwfulHtmlPage {
                 buffer.append("      <a>\n");
                 final int prevPosts = aPosts.size() - unreadCount;
                 buffer.append("        <h3>Show ")
-                        .append(prevPosts).append(" Previous Post").append(prevPosts > 1 ? "s" : "").append("</h3>\n");
+                        .append(String.valueOf(prevPosts)).append(" Previous Post").append(prevPosts > 1 ? "s" : "").append("</h3>\n");
                 buffer.append("      </a>\n");
                 buffer.append("    </article>");
             }
         }
 
+        int headerEnd = written.length();
+
         // add the actual posts
-        buffer.append(getPostsHtml(aPosts, aPrefs));
+        int postCount = postTemplate != null ? aPosts.size() : 0;
+        String[] postIds = new String[postCount];
+        int[] postStarts = new int[postCount];
+        int[] postEnds = new int[postCount];
+        if (postTemplate != null) {
+            writePostsHtml(aPosts, aPrefs, postTemplate, buffer, postStarts, postEnds);
+            for (int i = 0; i < postCount; i++) {
+                postIds[i] = aPosts.getPostIdString(i);
+            }
+        }
 
+        int footerStart = written.length();
         if (page == lastPage) {
             buffer.append("<div class='unread' ></div>\n");
         }
+        int footerEnd = written.length();
         buffer.append("</div>\n");
 
-        return buffer.toString();
+        String html = buffer.toString();
+        releaseRenderBuffer(buffer);
+        return new ThreadPageHtml(html, headerStart, headerEnd, footerStart, footerEnd, postIds, postStarts, postEnds);
     }
 
 
     /**
-     * Generates HTML for a list of posts using the appropriate Mustache layout.
-     * <p>
-     * This method generates HTML for the actual posts, taking user preferences into account.
-     *
-     * @return a HTML string representing all the posts
+     * Get a cleared buffer to render a page into, reusing the last one if it's free.
      */
-    private static String getPostsHtml(List<AwfulPost> aPosts, AwfulPreferences aPrefs) {
-        StringBuilder buffer = new StringBuilder();
-        Template postTemplate;
+    private static synchronized StringWriter takeRenderBuffer() {
+        StringWriter buffer = renderBuffer;
+        renderBuffer = null;
+        return buffer != null ? buffer : new StringWriter(RENDER_BUFFER_SIZE);
+    }
 
-        try {
-            postTemplate = getPostTemplate(aPrefs);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "";
+    /**
+     * Hand back a buffer from {@link #takeRenderBuffer()} once its contents have been copied out.
+     * Buffers that grew over {@link #MAX_RETAINED_BUFFER_SIZE} are dropped instead of being kept around.
+     */
+    private static synchronized void releaseRenderBuffer(StringWriter buffer) {
+        StringBuffer contents = buffer.getBuffer();
+        if (contents.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+            contents.setLength(0);
+            renderBuffer = buffer;
         }
+    }
+
+
+    /**
+     * Generates HTML for a page of posts using the appropriate Mustache layout.
+     * <p>
+     * This method generates HTML for the actual posts, taking user preferences into account. Each post's
+     * stored content is processed for display by {@link PostContentRenderer}. Each post is rendered
+     * straight into the output, so no per-post strings are built.
+     *
+     * @param out        where to write the posts' HTML
+     * @param postStarts filled with where each post's HTML starts in the output
+     * @param postEnds   filled with where each post's HTML ends in the output
+     */
+    private static void writePostsHtml(PostPage aPosts, PostRenderPreferences aPrefs, Template postTemplate,
+                                       StringWriter out, int[] postStarts, int[] postEnds) {
 
         // should be fine to re-use this since we rewrite every mapping each time
         Map<String, String> postData = new ArrayMap<>();
-        postData.put("notOnProbation", (aPrefs.isOnProbation()) ? null : "notOnProbation");
+        postData.put("notOnProbation", (aPrefs.getOnProbation()) ? null : "notOnProbation");
+        PostContentPreferences contentPrefs = aPrefs.getContent();
+        PostContentRewriter contentRewriter = PostContentRewriter.forDisplay(contentPrefs);
 
         // run each post's data through the template, and combine into a final HTML string
-        for (AwfulPost post : aPosts) {
-            String username = post.getUsername();
-            String avatar = post.getAvatar();
-            String avatarSecond = post.getAvatarSecond();
-
-            postData.put("seen", post.isPreviouslyRead() ? "read" : "unread");
-            postData.put("isOP", (aPrefs.highlightOP && post.isOp()) ? "op" : null);
-            postData.put("isIgnored", (aPrefs.hideIgnoredPosts && post.isIgnored()) ? "ignored" : null);
-            postData.put("isMarked", aPrefs.markedUsers.contains(username) ? "marked" : null);
-            postData.put("postID", post.getId());
-            postData.put("isSelf", (aPrefs.highlightSelf && username.equals(aPrefs.username)) ? "self" : null);
-            postData.put("avatarURL", (aPrefs.canLoadAvatars() && avatar != null && avatar.length() > 0) ? avatar : null);
-            postData.put("avatarSecondURL", (aPrefs.canLoadAvatars() && avatarSecond != null && avatarSecond.length() > 0) ? avatarSecond : null);
+        for (int i = 0; i < aPosts.size(); i++) {
+            String username = aPosts.getUsername(i);
+            String avatar = aPosts.getAvatar(i);
+            String avatarSecond = aPosts.getAvatarSecond(i);
+            String date = aPosts.getDate(i);
+            String regDate = aPosts.getRegDate(i);
+
+            postData.put("seen", aPosts.isPreviouslyRead(i) ? "read" : "unread");
+            postData.put("isOP", (aPrefs.getHighlightOP() && aPosts.isOp(i)) ? "op" : null);
+            postData.put("isIgnored", (aPrefs.getHideIgnoredPosts() && aPosts.isIgnored(i)) ? "ignored" : null);
+            postData.put("isMarked", aPrefs.getMarkedUsers().contains(username) ? "marked" : null);
+            postData.put("postID", aPosts.getPostIdString(i));
+            postData.put("isSelf", (aPrefs.getHighlightSelf() && username.equals(aPrefs.getUsername())) ? "self" : null);
+            postData.put("avatarURL", (aPrefs.getCanLoadAvatars() && avatar != null && avatar.length() > 0) ? avatar : null);
+            postData.put("avatarSecondURL", (aPrefs.getCanLoadAvatars() && avatarSecond != null && avatarSecond.length() > 0) ? avatarSecond : null);
             postData.put("username", username);
-            postData.put("userID", post.getUserId());
-            postData.put("postDate", !post.getDate().equals("") ? post.getDate() : null);
-            postData.put("regDate", !post.getRegDate().equals("") ? post.getRegDate() : null);
-            postData.put("role", parseRole(post.getRole()));
-            postData.put("plat", post.isPlat() ? "plat" : null);
-            postData.put("avatarText", post.getAvatarText());
-            postData.put("lastReadUrl", post.getLastReadUrl());
-            postData.put("editable", post.isEditable() ? "editable" : null);
-            postData.put("postcontent", post.getContent());
+            postData.put("userID", aPosts.getUserIdString(i));
+            postData.put("postDate", !date.equals("") ? date : null);
+            postData.put("regDate", !regDate.equals("") ? regDate : null);
+            postData.put("role", parseRole(aPosts.getRole(i)));
+            postData.put("plat", aPosts.isPlat(i) ? "plat" : null);
+            postData.put("avatarText", aPosts.getAvatarText(i));
+            postData.put("lastReadUrl", aPosts.getLastReadUrl(i));
+            postData.put("editable", aPosts.isEditable(i) ? "editable" : null);
+            postData.put("postcontent", PostContentRenderer.render(aPosts, i, contentPrefs, contentRewriter));
+            // the stored content isn't needed once it's rendered, so don't hold the whole page's worth of it
+            aPosts.releaseContent(i);
             postData.put("hideAvatar", aPrefs.isBlockedAvatar(avatar) ? "blockedAvatar" : null);
 
+            postStarts[i] = out.getBuffer().length();
             try {
-                buffer.append(postTemplate.execute(postData));
+                postTemplate.execute(postData, out);
             } catch (MustacheException e) {
                 e.printStackTrace();
             }
+            postEnds[i] = out.getBuffer().length();
         }
-        return buffer.toString();
     }
 
     /**
      * Get a Mustache template for posts, according to the user's preferences.
      * <p>
-     * Falls back to the default template if a custom layout can't be accessed.
+     * Falls back to the default template if a custom layout can't be accessed. The compiled template
+     * is cached, and only compiled again when the layout changes, or a custom layout's file is modified.
      *
      * @param aPrefs used to check if a custom layout is selected
      * @throws IOException if the default template can't be read
      */
     private static Template getPostTemplate(AwfulPreferences aPrefs) throws IOException {
-        Template postTemplate;
-        Reader templateReader = null;
+        File customTemplate = getCustomTemplate(aPrefs);
+        String layout = customTemplate != null ? aPrefs.layout : "default";
+        long modified = customTemplate != null ? customTemplate.lastModified() : 0;
+
+        Template postTemplate = PostTemplateCache.INSTANCE.get(layout, modified);
+        if (postTemplate != null) {
+            return postTemplate;
+        }
+
+        // use the default if there's no custom layout to read
+        try (Reader templateReader = customTemplate != null
+                ? new FileReader(customTemplate)
+                : new InputStreamReader(aPrefs.getResources().getAssets().open("mustache/post.mustache"))) {
+            postTemplate = Mustache.compiler().compile(templateReader);
+        }
+        PostTemplateCache.INSTANCE.put(aPrefs, layout, modified, postTemplate);
+        return postTemplate;
+    }
+
+    /**
+     * Get the template to render posts with, or null if it can't be read.
+     * <p>
+     * This can show a Toast if the user's custom layout can't be accessed, so call it on the main thread.
+     */
+    @Nullable
+    public static Template findPostTemplate(AwfulPreferences aPrefs) {
+        try {
+            return getPostTemplate(aPrefs);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
+    /**
+     * Get the user's custom post layout file, if they have one selected and it can be read.
+     */
+    @Nullable
+    private static File getCustomTemplate(AwfulPreferences aPrefs) {
         // user has a custom template selected (nobody uses this I bet)
-        if (!"default".equals(aPrefs.layout)) {
-            if (AwfulUtils.isMarshmallow23()) {
-                int permissionCheck = ContextCompat.checkSelfPermission(aPrefs.getContext(), Manifest.permission.READ_EXTERNAL_STORAGE);
-
-                if (permissionCheck == PackageManager.PERMISSION_GRANTED) {
-                    File template = new File(Environment.getExternalStorageDirectory() + "/awful/" + aPrefs.layout);
-                    if (template.isFile() && template.canRead()) {
-                        templateReader = new FileReader(template);
-                    }
-                } else {
-                    Toast.makeText(aPrefs.getContext(), "Can't access custom layout because Awful lacks storage permissions. Reverting to default layout.", Toast.LENGTH_LONG).show();
-                }
-            } else {
-                File template = new File(Environment.getExternalStorageDirectory() + "/awful/" + aPrefs.layout);
-                if (template.isFile() && template.canRead()) {
-                    templateReader = new FileReader(template);
-                }
+        if ("default".equals(aPrefs.layout)) {
+            return null;
+        }
+        if (AwfulUtils.isMarshmallow23()) {
+            int permissionCheck = ContextCompat.checkSelfPermission(aPrefs.getContext(), Manifest.permission.READ_EXTERNAL_STORAGE);
+            if (permissionCheck != PackageManager.PERMISSION_GRANTED) {
+                Toast.makeText(aPrefs.getContext(), "Can't access custom layout because Awful lacks storage permissions. Reverting to default layout.", Toast.LENGTH_LONG).show();
+                return null;
+            }
+        }
+        File template = new File(Environment.getExternalStorageDirectory() + "/awful/" + aPrefs.layout);
+        return template.isFile() && template.canRead() ? template : null;
+    }
 
+
+    /**
+     * Holds the last compiled post template, keyed on the layout it came from and the time its file
+     * was modified. It's dropped as soon as the layout setting changes, so an unused template isn't
+     * kept around.
+     */
+    private static final class PostTemplateCache implements AwfulPreferences.AwfulPreferenceUpdate {
+
+        // the preferences only hold their callbacks weakly, so this keeps the cache registered
+        static final PostTemplateCache INSTANCE = new PostTemplateCache();
+
+        @Nullable
+        private String layout = null;
+        private long modified = 0;
+        @Nullable
+        private Template template = null;
+        private boolean registered = false;
+
+        @Nullable
+        synchronized Template get(String layout, long modified) {
+            return layout.equals(this.layout) && modified == this.modified ? template : null;
+        }
+
+        synchronized void put(AwfulPreferences prefs, String layout, long modified, Template template) {
+            this.layout = layout;
+            this.modified = modified;
+            this.template = template;
+            if (!registered) {
+                prefs.registerCallback(this);
+                registered = true;
             }
         }
 
-        // use the default if necessary
-        if (templateReader == null) {
-            templateReader = new InputStreamReader(aPrefs.getResources().getAssets().open("mustache/post.mustache"));
+        @Override
+        public synchronized void onPreferenceChange(AwfulPreferences preferences, @Nullable String key) {
+            boolean stillSelected = "default".equals(layout) ? "default".equals(preferences.layout) : preferences.layout.equals(layout);
+            if (!stillSelected) {
+                layout = null;
+                template = null;
+            }
         }
-        postTemplate = Mustache.compiler().compile(templateReader);
-        return postTemplate;
     }
 
 }
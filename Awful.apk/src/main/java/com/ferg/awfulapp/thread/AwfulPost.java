@@ -27,16 +27,18 @@
 
 package com.ferg.awfulapp.thread;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.ferg.awfulapp.constants.Constants;
-import com.ferg.awfulapp.network.NetworkUtils;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
+import com.ferg.awfulapp.provider.AwfulProvider;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONException;
@@ -50,7 +52,9 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
@@ -63,6 +67,47 @@ public class AwfulPost {
 
     public static final String PATH     = "/post";
     public static final Uri CONTENT_URI = Uri.parse("content://" + Constants.AUTHORITY + PATH);
+    /**
+     * Posts from threads filtered to one user's posts. These are stored apart from the full threads,
+     * since they're on different pages at different indexes - see {@link #FILTER_USER_ID}.
+     */
+    public static final String FILTERED_PATH     = "/filteredpost";
+    public static final Uri FILTERED_CONTENT_URI = Uri.parse("content://" + Constants.AUTHORITY + FILTERED_PATH);
+
+    /**
+     * The URI for the posts on one page of a thread, at the user's current posts-per-page setting.
+     * Querying this returns the posts on that page, and changes to them are notified on it - so an
+     * observer only hears about the page it's showing, while anything watching {@link #CONTENT_URI}
+     * still hears about every change.
+     */
+    @NonNull
+    public static Uri threadPageUri(int threadId, int page) {
+        return threadUri(threadId).buildUpon()
+                .appendPath("page").appendPath(Integer.toString(page))
+                .build();
+    }
+
+    /**
+     * The URI for the posts on one page of a thread filtered to a single user's posts, as
+     * {@link #threadPageUri}. This is under the thread's {@link #threadUri}, so changes to the whole
+     * thread are notified on its filtered pages too.
+     */
+    @NonNull
+    public static Uri filteredPageUri(int threadId, int userId, int page) {
+        return threadUri(threadId).buildUpon()
+                .appendPath("user").appendPath(Integer.toString(userId))
+                .appendPath("page").appendPath(Integer.toString(page))
+                .build();
+    }
+
+    /**
+     * The parent of all the {@link #threadPageUri page URIs} for a thread, for notifying changes
+     * that affect all of its posts. This can't be queried.
+     */
+    @NonNull
+    public static Uri threadUri(int threadId) {
+        return CONTENT_URI.buildUpon().appendPath("thread").appendPath(Integer.toString(threadId)).build();
+    }
 
     private static final Pattern fixCharacters_regex = Pattern.compile("([\\r\\f])");
 	private static final Pattern youtubeId_regex = Pattern.compile("/v/([\\w_-]+)&?");
@@ -73,6 +118,10 @@ public class AwfulPost {
     private static final Pattern userid_regex = Pattern.compile("userid=(\\d+)");
     private static final Pattern badPost_regex = Pattern.compile("^\\(USER WAS (?:BANNED|AUTOBANNED|PERMABANNED|PUT ON PROBATION) FOR THIS POST\\)$");
 
+    static final String YOUTUBE_PLAYER_CLASS = "youtube-player";
+    static final String TIKTOK_PLAYER_CLASS = "tiktok-player";
+    static final String VIDEO_EMBED_CLASS = "bbcode_video";
+
     private static final List<String> HTTPS_SUPPORTED_DOMAINS =
             Collections.unmodifiableList(Arrays.asList("imgur.com", "somethingawful.com", "giphy.com"));
 
@@ -83,8 +132,15 @@ public class AwfulPost {
 	public static final String REGDATE				 = "regdate";
     public static final String USER_ID               = "user_id";
     public static final String USERNAME              = "username";
-    // 2022/09/21 - TODO: the disadvantage of storing this with a post is that it's not automatically refreshed if a user is unblocked
+    /**
+     * Whether the post's author is on the user's ignore list. This isn't stored - the provider
+     * looks the author up in the {@link com.ferg.awfulapp.users.IgnoreList} when posts are queried.
+     */
     public static final String IS_IGNORED            = "is_ignored";
+    /**
+     * Whether the user had read the post before they last viewed the thread. This isn't stored - the
+     * provider works it out from the thread's {@link AwfulThread#LAST_READ_INDEX} when posts are queried.
+     */
     public static final String PREVIOUSLY_READ       = "previously_read";
     public static final String EDITABLE              = "editable";
     public static final String IS_OP                 = "is_op";
@@ -96,6 +152,18 @@ public class AwfulPost {
 	public static final String AVATAR_TEXT 			 = "avatar_text";
     public static final String CONTENT               = "content";
     public static final String EDITED                = "edited";
+    /** a {@link PostFingerprint} of the post's raw HTML, used to skip reprocessing it when it hasn't changed */
+    public static final String CONTENT_HASH          = "content_hash";
+    /**
+     * For posts in {@link #FILTERED_CONTENT_URI}, the user the thread was filtered on. Their
+     * {@link #POST_INDEX} is their position in the filtered thread, not the full one.
+     */
+    public static final String FILTER_USER_ID        = "filter_user_id";
+    /**
+     * The size of the post's stored {@link #CONTENT}, for queries that leave the content itself out.
+     * This isn't stored - see {@link AwfulProvider#PostMetadataProjection}.
+     */
+    public static final String CONTENT_LENGTH        = "content_length";
 
 	public static final String FORM_KEY = "form_key";
 	public static final String FORM_COOKIE = "form_cookie";
@@ -119,6 +187,11 @@ public class AwfulPost {
     private String mAvatarSecond = "";
     private String mAvatarText = "";
     private String mContent = "";
+    /** the stored content, if it was compressed and hasn't been needed yet - see {@link #getContent()} */
+    @Nullable
+    private byte[] mCompressedContent = null;
+    @Nullable
+    private Long mContentHash = null;
     private String mEdited = "";
 
     private boolean isIgnored = false;
@@ -138,7 +211,7 @@ public class AwfulPost {
         result.put("username", mUsername);
         result.put("avatar", mAvatar);
         result.put("avatar_second", mAvatarSecond);
-        result.put("content", mContent);
+        result.put("content", getContent());
         result.put("edited", mEdited);
         result.put("isIgnored", Boolean.toString(isIgnored()));
         result.put("previouslyRead", Boolean.toString(mPreviouslyRead));
@@ -232,11 +305,40 @@ public class AwfulPost {
     public void setAvatarSecond(String aAvatarSecond) { mAvatarSecond = aAvatarSecond; }
 
     public String getContent() {
+        if (mCompressedContent != null) {
+            // decompressing on first use means posts that are already rendered (see PostContentRenderer) never need it
+            String decoded = PostContentCodec.decode(mCompressedContent);
+            // content that can't be read is displayed as an empty post, instead of breaking the page
+            mContent = decoded == null ? "" : decoded;
+            mCompressedContent = null;
+        }
         return mContent;
     }
 
     public void setContent(String aContent) {
         mContent = aContent;
+        mCompressedContent = null;
+    }
+
+    /**
+     * Set the post's content from a blob produced by {@link PostContentCodec#encode(String)}.
+     */
+    public void setCompressedContent(@NonNull byte[] compressedContent) {
+        mContent = null;
+        mCompressedContent = compressedContent;
+    }
+
+    /**
+     * The fingerprint of the post's stored data, if it was loaded from the database with one -
+     * identifies this version of the post's content, without having to look at the content itself.
+     */
+    @Nullable
+    public Long getContentHash() {
+        return mContentHash;
+    }
+
+    public void setContentHash(@Nullable Long contentHash) {
+        mContentHash = contentHash;
     }
 
     public static ArrayList<AwfulPost> fromCursor(Context aContext, Cursor aCursor) {
@@ -261,6 +363,7 @@ public class AwfulPost {
             int avatarTextIndex = aCursor.getColumnIndex(AVATAR_TEXT);
             int contentIndex = aCursor.getColumnIndex(CONTENT);
             int editedIndex = aCursor.getColumnIndex(EDITED);
+            int contentHashIndex = aCursor.getColumnIndex(CONTENT_HASH);
 
             AwfulPost current;
 
@@ -282,7 +385,14 @@ public class AwfulPost {
                 current.setAvatar(aCursor.getString(avatarIndex));
                 current.setAvatarSecond(aCursor.getString(avatarSecondIndex));
                 current.setAvatarText(aCursor.getString(avatarTextIndex));
-                current.setContent(aCursor.getString(contentIndex));
+                if (aCursor.getType(contentIndex) == Cursor.FIELD_TYPE_BLOB) {
+                    current.setCompressedContent(aCursor.getBlob(contentIndex));
+                } else {
+                    current.setContent(aCursor.getString(contentIndex));
+                }
+                if (contentHashIndex >= 0 && !aCursor.isNull(contentHashIndex)) {
+                    current.setContentHash(aCursor.getLong(contentHashIndex));
+                }
                 current.setEdited(aCursor.getString(editedIndex));
 
                 result.add(current);
@@ -303,132 +413,134 @@ public class AwfulPost {
      * @param contentNode       the Element to search and edit
      * @param inlineYouTubes    whether YouTube videos should be displayed inline, or replaced with a link
      * @param inlineTiktoks     whether TikTok videos should be displayed inline, or replaced with a link
+     * @see PostContentRewriter
      */
     public static void convertVideos(Element contentNode, boolean inlineYouTubes, boolean inlineTiktoks){
+        for (Element youTube : contentNode.getElementsByClass(YOUTUBE_PLAYER_CLASS)) {
+            convertYouTube(youTube, inlineYouTubes);
+        }
+        for (Element tiktok : contentNode.getElementsByClass(TIKTOK_PLAYER_CLASS)) {
+            convertTiktok(tiktok, inlineTiktoks);
+        }
+        for (Element node : contentNode.getElementsByClass(VIDEO_EMBED_CLASS)) {
+            convertVideoEmbed(node);
+        }
+    }
 
-        Elements youtubeNodes = contentNode.getElementsByClass("youtube-player");
-
-        for (Element youTube : youtubeNodes) {
-            try {
-                String src = youTube.attr("src");
-                //int height = Integer.parseInt(youTube.attr("height"));
-                //int width = Integer.parseInt(youTube.attr("width"));
-                Matcher youtubeMatcher = youtubeHDId_regex.matcher(src);
-                if (youtubeMatcher.find()) {
-                    String videoId = youtubeMatcher.group(1);
-                    String link = "http://www.youtube.com/watch?v=" + videoId;
-                    String image = "http://img.youtube.com/vi/" + videoId + "/0.jpg";
-
-                    Element youtubeLink = new Element(Tag.valueOf("a"), "");
-                    youtubeLink.text(link);
-                    youtubeLink.attr("href", link);
-                    if (!inlineYouTubes || postElementIsNMWSOrSpoilered(youTube)) {
-                        youTube.replaceWith(youtubeLink);
-                    } else {
-                        youTube.after(youtubeLink);
-                        youtubeLink.before(new Element(Tag.valueOf("br"), ""));
-
-                        Element youtubeContainer = new Element(Tag.valueOf("div"), "");
-                        youtubeContainer.addClass("videoWrapper");
-                        youTube.before(youtubeContainer);
-                        youtubeContainer.appendChild(youTube);
-                        youTube.attr("sandbox", youTube.attr("sandbox") + " allow-top-navigation");
-                    }
-                }
 
-            } catch (Exception e) {
-                Timber.e(e, "Failed youtube conversion:");
-                continue; //if we fail to convert the video tag, we can still display the rest.
+    /**
+     * Rewrite a YouTube player element, either wrapping it for inline display or replacing it with a link.
+     *
+     * @param youTube           an element with the {@link #YOUTUBE_PLAYER_CLASS} class
+     * @param inlineYouTubes    whether YouTube videos should be displayed inline, or replaced with a link
+     */
+    static void convertYouTube(Element youTube, boolean inlineYouTubes) {
+        try {
+            String src = youTube.attr("src");
+            //int height = Integer.parseInt(youTube.attr("height"));
+            //int width = Integer.parseInt(youTube.attr("width"));
+            Matcher youtubeMatcher = youtubeHDId_regex.matcher(src);
+            if (youtubeMatcher.find()) {
+                String videoId = youtubeMatcher.group(1);
+                String link = "http://www.youtube.com/watch?v=" + videoId;
+
+                Element youtubeLink = new Element(Tag.valueOf("a"), "");
+                youtubeLink.text(link);
+                youtubeLink.attr("href", link);
+                if (!inlineYouTubes || postElementIsNMWSOrSpoilered(youTube)) {
+                    youTube.replaceWith(youtubeLink);
+                } else {
+                    youTube.after(youtubeLink);
+                    youtubeLink.before(new Element(Tag.valueOf("br"), ""));
+
+                    Element youtubeContainer = new Element(Tag.valueOf("div"), "");
+                    youtubeContainer.addClass("videoWrapper");
+                    youTube.before(youtubeContainer);
+                    youtubeContainer.appendChild(youTube);
+                    youTube.attr("sandbox", youTube.attr("sandbox") + " allow-top-navigation");
+                }
             }
+        } catch (Exception e) {
+            //if we fail to convert the video tag, we can still display the rest.
+            Timber.e(e, "Failed youtube conversion:");
         }
+    }
+
 
-        /*
-         * TikTok URL forms seem to be:
-         * https://www.tiktok.com/embed/[video id = \d+]
-         * https://www.tiktok.com/@[username]/video/[video id]
-         * there are more but they don't relate to embedding and don't appear to have video IDs associated
-        */
-        Elements tiktokNodes = contentNode.getElementsByClass("tiktok-player");
-
-        for (Element tiktok : tiktokNodes) {
-            try {
-                String src = tiktok.attr("src");
-                Matcher tiktokMatcher = tiktokId_regex.matcher(src);
-                if (tiktokMatcher.find()) {
-                    String videoId = tiktokMatcher.group(1);
-                    // usernames aren't included in the embed link format, thankfully they don't matter
-                    String linkURLPrefix = "https://www.tiktok.com/@/video/";
-                    String link = linkURLPrefix + videoId;
-
-                    Element tiktokLink = new Element(Tag.valueOf("a"), "");
-                    tiktokLink.text(link);
-                    tiktokLink.attr("href", link);
-                    if (!inlineTiktoks || postElementIsNMWSOrSpoilered(tiktok)) {
-                        tiktok.replaceWith(tiktokLink);
-                    } else {
-                        tiktok.after(tiktokLink);
-                        tiktokLink.before(new Element(Tag.valueOf("br"), ""));
-                    }
+    /**
+     * Rewrite a TikTok player element, adding a link to the video or replacing the player with one.
+     * <p>
+     * TikTok URL forms seem to be:
+     * https://www.tiktok.com/embed/[video id = \d+]
+     * https://www.tiktok.com/@[username]/video/[video id]
+     * there are more but they don't relate to embedding and don't appear to have video IDs associated
+     *
+     * @param tiktok        an element with the {@link #TIKTOK_PLAYER_CLASS} class
+     * @param inlineTiktoks whether TikTok videos should be displayed inline, or replaced with a link
+     */
+    static void convertTiktok(Element tiktok, boolean inlineTiktoks) {
+        try {
+            String src = tiktok.attr("src");
+            Matcher tiktokMatcher = tiktokId_regex.matcher(src);
+            if (tiktokMatcher.find()) {
+                String videoId = tiktokMatcher.group(1);
+                // usernames aren't included in the embed link format, thankfully they don't matter
+                String linkURLPrefix = "https://www.tiktok.com/@/video/";
+                String link = linkURLPrefix + videoId;
+
+                Element tiktokLink = new Element(Tag.valueOf("a"), "");
+                tiktokLink.text(link);
+                tiktokLink.attr("href", link);
+                if (!inlineTiktoks || postElementIsNMWSOrSpoilered(tiktok)) {
+                    tiktok.replaceWith(tiktokLink);
+                } else {
+                    tiktok.after(tiktokLink);
+                    tiktokLink.before(new Element(Tag.valueOf("br"), ""));
                 }
-            } catch (Exception e) {
-                Timber.e(e, "Failed TikTok conversion:");
-                continue;
             }
+        } catch (Exception e) {
+            Timber.e(e, "Failed TikTok conversion:");
         }
+    }
 
-        Elements videoNodes = contentNode.getElementsByClass("bbcode_video");
-        for (Element node : videoNodes) {
-            try {
-                String src = null;
-                int height = 0;
-                int width = 0;
-                Elements object = node.getElementsByTag("object");
-                if (object.size() > 0) {
-                    height = Integer.parseInt(object.get(0).attr("height"));
-                    width = Integer.parseInt(object.get(0).attr("width"));
-                    Elements emb = object.get(0).getElementsByTag("embed");
-                    if (emb.size() > 0) {
-                        src = emb.get(0).attr("src");
-                    }
+
+    /**
+     * Replace an old-style embedded video (an object/embed block) with a link to the video.
+     *
+     * @param node an element with the {@link #VIDEO_EMBED_CLASS} class
+     */
+    static void convertVideoEmbed(Element node) {
+        try {
+            String src = null;
+            int height = 0;
+            int width = 0;
+            Elements object = node.getElementsByTag("object");
+            if (object.size() > 0) {
+                height = Integer.parseInt(object.get(0).attr("height"));
+                width = Integer.parseInt(object.get(0).attr("width"));
+                Elements emb = object.get(0).getElementsByTag("embed");
+                if (emb.size() > 0) {
+                    src = emb.get(0).attr("src");
                 }
-                if (src != null && height != 0 && width != 0) {
-                    String link = null, image = null;
-                    Matcher vimeo = vimeoId_regex.matcher(src);
-                    if (vimeo.find()) {
-                        String videoId = vimeo.group(1);
-                        Element vimeoXML;
-                        try {
-                            vimeoXML = NetworkUtils.get("http://vimeo.com/api/v2/video/" + videoId + ".xml");
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            continue;
-                        }
-                        if (vimeoXML.getElementsByTag("mobile_url").first() != null) {
-                            link = vimeoXML.getElementsByTag("mobile_url").first().text();
-                        } else {
-                            link = vimeoXML.getElementsByTag("url").first().text();
-                        }
-                        image = vimeoXML.getElementsByTag("thumbnail_large").first().text();
-                        src = link;
-                    } else {
-                        node.empty();
-                        Element ln = new Element(Tag.valueOf("a"), "");
-                        ln.attr("href", src);
-                        ln.text(src);
-                        node.replaceWith(ln);
-                        continue;
-                    }
-                    node.empty();
-                    Element ln = new Element(Tag.valueOf("a"), "");
-                    ln.attr("href", link);
-                    ln.text(link);
-                    node.replaceWith(ln);
+            }
+            if (src != null && height != 0 && width != 0) {
+                Element ln = new Element(Tag.valueOf("a"), "");
+                Matcher vimeo = vimeoId_regex.matcher(src);
+                if (vimeo.find()) {
+                    // the real link gets resolved in the background and patched in by the WebView,
+                    // so parsing never waits on Vimeo - see AwfulEmbed and EmbedMetadataResolver
+                    String videoId = vimeo.group(1);
+                    src = AwfulEmbed.defaultVimeoUrl(videoId);
+                    ln.addClass(AwfulEmbed.VIMEO_LINK_CLASS).attr("data-vimeo-id", videoId);
                 }
-
-            } catch (Exception e) {
-                Timber.e(e, "Failed video conversion:");
-                continue;//if we fail to convert the video tag, we can still display the rest.
+                node.empty();
+                ln.attr("href", src);
+                ln.text(src);
+                node.replaceWith(ln);
             }
+        } catch (Exception e) {
+            //if we fail to convert the video tag, we can still display the rest.
+            Timber.e(e, "Failed video conversion:");
         }
     }
 
@@ -490,33 +602,94 @@ public class AwfulPost {
 
 
     /**
-     * Parse a thread page to grab its post data.
+     * Parse the posts on a thread page, and add the inserts needed to store them to a batch of writes.
+     * <p>
+     * Posts that haven't changed since they were last stored (according to their {@link PostFingerprint})
+     * aren't parsed or written again, but they're still included in the returned count.
      *
-     * @param content
-     * @param aThread
-     * @param aThreadId
-     * @param unreadIndex
-     * @param opId
-     * @param prefs
-     * @param startIndex
-     * @return the number of posts found on the page
+     * @param filterUserId if the page is from a thread filtered to one user's posts, that user's ID, otherwise 0
+     * @param writes the batch to add the inserts to, so they can be applied with the rest of the page's data
+     * @return the number of posts on the page that will be stored once the batch is applied
      */
-    public static int syncPosts(ContentResolver content, Document aThread, int aThreadId, int unreadIndex, int opId, AwfulPreferences prefs, int startIndex){
-        List<ContentValues> result = AwfulPost.parsePosts(aThread, aThreadId, unreadIndex, opId, prefs, startIndex);
-        int resultCount = content.bulkInsert(CONTENT_URI, result.toArray(new ContentValues[result.size()]));
-        Timber.i("Inserted " + resultCount + " posts into DB, threadId:" + aThreadId + " unreadIndex: " + unreadIndex);
-        return resultCount;
+    public static int addPostWrites(ContentResolver content, Document aThread, int aThreadId, int opId, int startIndex, int postsPerPage, int filterUserId, List<ContentProviderOperation> writes){
+        Map<Integer, Long> storedFingerprints = getStoredFingerprints(content, aThreadId, startIndex, postsPerPage, filterUserId);
+        List<ContentValues> result = AwfulPost.parsePosts(aThread, aThreadId, opId, startIndex, storedFingerprints, filterUserId);
+        int changedCount = addPostWrites(result, filterUserId, writes);
+        Timber.i("Parsed " + changedCount + " posts to store (" + (result.size() - changedCount) + " unchanged), threadId:" + aThreadId);
+        return result.size();
     }
 
 
-    public static List<ContentValues> parsePosts(Document aThread, int aThreadId, int unreadIndex, int opId, AwfulPreferences prefs, int startIndex){
+    /**
+     * Add the inserts needed to store some parsed posts to a batch of writes. The provider stores a
+     * run of post inserts in a batch all together, like a bulk insert.
+     *
+     * @param posts the data for each post, in order - any null entries (unchanged posts) are skipped
+     * @param filterUserId if the posts are from a thread filtered to one user's posts, that user's ID, otherwise 0
+     * @param writes the batch to add the inserts to
+     * @return the number of posts added
+     */
+    public static int addPostWrites(List<ContentValues> posts, int filterUserId, List<ContentProviderOperation> writes) {
+        Uri table = filterUserId == 0 ? CONTENT_URI : FILTERED_CONTENT_URI;
+        int count = 0;
+        for (ContentValues post : posts) {
+            if (post != null) {
+                writes.add(ContentProviderOperation.newInsert(table).withValues(post).build());
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Get the fingerprints of the stored posts in a page of a thread, by post ID.
+     *
+     * @param startIndex the index of the first post on the page
+     * @param postsPerPage the number of posts on a full page
+     * @param filterUserId the user the thread is filtered on, or 0 for the full thread
+     */
+    @NonNull
+    public static Map<Integer, Long> getStoredFingerprints(ContentResolver content, int threadId, int startIndex, int postsPerPage, int filterUserId) {
+        Map<Integer, Long> fingerprints = new HashMap<>();
+        String selection = THREAD_ID + "=? AND " + POST_INDEX + ">=? AND " + POST_INDEX + "<? AND " + CONTENT_HASH + " IS NOT NULL";
+        String[] selectionArgs = AwfulProvider.int2StrArray(threadId, startIndex, startIndex + postsPerPage);
+        if (filterUserId != 0) {
+            selection += " AND " + FILTER_USER_ID + "=?";
+            selectionArgs = AwfulProvider.int2StrArray(threadId, startIndex, startIndex + postsPerPage, filterUserId);
+        }
+        try (Cursor cursor = content.query(filterUserId == 0 ? CONTENT_URI : FILTERED_CONTENT_URI,
+                new String[]{ID, CONTENT_HASH},
+                selection,
+                selectionArgs,
+                null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                fingerprints.put(cursor.getInt(0), cursor.getLong(1));
+            }
+        }
+        return fingerprints;
+    }
+
+
+    /**
+     * Parse the posts on a thread page.
+     * <p>
+     * Only the processing that doesn't depend on the user's settings is done here - the rest happens
+     * when the posts are displayed (see {@link PostContentRenderer}).
+     *
+     * @param storedFingerprints the fingerprints of posts that are already stored - see {@link #getStoredFingerprints}
+     * @param filterUserId the user the thread is filtered on, or 0 for the full thread
+     * @return the data for each post on the page, in order - posts that match their stored fingerprint will be null
+     */
+    public static List<ContentValues> parsePosts(Document aThread, int aThreadId, int opId, int startIndex, Map<Integer, Long> storedFingerprints, int filterUserId){
 		int index = startIndex;
         String updateTime = new Timestamp(System.currentTimeMillis()).toString();
 
         Elements posts = aThread.getElementsByClass("post");
         List<Callable<ContentValues>> parseTasks = new ArrayList<>(posts.size());
+        PostContentRewriter rewriter = PostContentRewriter.forStorage();
         for(Element postData : posts){
-            parseTasks.add(new PostParseTask(postData, updateTime, index, unreadIndex, aThreadId, opId, prefs));
+            parseTasks.add(new PostParseTask(postData, updateTime, index, aThreadId, opId, rewriter, storedFingerprints, filterUserId));
             index++;
         }
 
@@ -541,6 +714,16 @@ public class AwfulPost {
      * @param prefs      preferences used to make decisions
      */
     public static void processPostImage(Element img, boolean isOldImage, AwfulPreferences prefs) {
+        processPostImage(img, isOldImage, PostContentPreferences.from(prefs));
+    }
+
+
+    /**
+     * Process an img element from a post, using a snapshot of the user's preferences.
+     *
+     * @see #processPostImage(Element, boolean, AwfulPreferences)
+     */
+    public static void processPostImage(Element img, boolean isOldImage, PostContentPreferences prefs) {
         //don't alter video mock buttons
         if (img.hasClass("videoPlayButton")) {
             return;
@@ -559,7 +742,7 @@ public class AwfulPost {
 
         // image is a smiley - if required, replace it with its :code: (held in the 'title' attr)
         if (img.hasAttr("title")) {
-            if (!prefs.showSmilies) {
+            if (!prefs.getShowSmilies()) {
                 String name = img.attr("title");
                 img.replaceWith(new Element(Tag.valueOf("span"), "").text(name));
             }
@@ -568,7 +751,7 @@ public class AwfulPost {
 
         // image shouldn't be displayed - convert to link / plaintext url
         // if image is wrapped in an <a>, make a link to image and the <a>
-        if (isOldImage && prefs.hideOldImages || !prefs.canLoadImages()) {
+        if (isOldImage && prefs.getHideOldImages() || !prefs.getCanLoadImages()) {
             if (!linkOk) {
                 img.replaceWith(new Element(Tag.valueOf("span"), "").text(originalUrl).attr("class","link-no-ok"));
             } else if (alreadyLinked) {
@@ -602,12 +785,12 @@ public class AwfulPost {
         String thumbUrl = originalUrl;
 
         // thumbnail any imgur images according to user prefs, if set
-        if (!prefs.imgurThumbnails.equals("d") && thumbUrl.contains("i.imgur.com")) {
-            thumbUrl = imgurAsThumbnail(thumbUrl, prefs.imgurThumbnails);
+        if (!prefs.getImgurThumbnails().equals("d") && thumbUrl.contains("i.imgur.com")) {
+            thumbUrl = imgurAsThumbnail(thumbUrl, prefs.getImgurThumbnails());
         }
 
         // handle gifs - different cases for different sites
-        if (prefs.disableGifs && StringUtils.containsIgnoreCase(thumbUrl, ".gif")) {
+        if (prefs.getDisableGifs() && StringUtils.containsIgnoreCase(thumbUrl, ".gif")) {
             if (StringUtils.containsIgnoreCase(thumbUrl, "imgur.com")) {
                 thumbUrl = imgurAsThumbnail(thumbUrl, "h");
             } else if (StringUtils.containsIgnoreCase(thumbUrl, "i.kinja-img.com")) {
@@ -633,7 +816,7 @@ public class AwfulPost {
         }
 
         // non-gif images - wrap them in a link, unless handling as a TIMG (to avoid breaking its click behaviour)
-        if (!isTimg || prefs.disableTimgs) {
+        if (!isTimg || prefs.getDisableTimgs()) {
             // if the image hasn't been processed then thumbUrl will be the original image URL, i.e. a full-size image
             thumbnailAndLink(img, thumbUrl);
         }
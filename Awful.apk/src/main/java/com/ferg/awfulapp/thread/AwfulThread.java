@@ -27,15 +27,18 @@
 
 package com.ferg.awfulapp.thread;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
+import android.os.RemoteException;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
@@ -52,7 +55,7 @@ import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.network.NetworkUtils;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.provider.ColorProvider;
-import com.ferg.awfulapp.provider.DatabaseHelper;
+import com.ferg.awfulapp.provider.ThreadEntity;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -73,6 +76,33 @@ public class AwfulThread extends AwfulPagedItem  {
     public static final String UCP_PATH     = "/ucpthread";
     public static final Uri CONTENT_URI     = Uri.parse("content://" + Constants.AUTHORITY + PATH);
 	public static final Uri CONTENT_URI_UCP = Uri.parse("content://" + Constants.AUTHORITY + UCP_PATH);
+    /**
+     * The post counts of threads filtered to one user's posts, which are stored apart from the full
+     * threads' data - see {@link #filteredUri}.
+     */
+    public static final String FILTERED_PATH     = "/filteredthread";
+    public static final Uri FILTERED_CONTENT_URI = Uri.parse("content://" + Constants.AUTHORITY + FILTERED_PATH);
+
+    /**
+     * The URI for the threads in a forum. Querying this returns the forum's threads, and changes to
+     * them are notified on it (as well as on each thread's own URI).
+     */
+    @NonNull
+    public static Uri forumUri(int forumId) {
+        return CONTENT_URI.buildUpon().appendPath("forum").appendPath(Integer.toString(forumId)).build();
+    }
+
+    /**
+     * The URI for a thread filtered to one user's posts. Querying this returns the thread's data as
+     * usual, but with the filtered thread's {@link #POSTCOUNT} (and nothing unread), so it can be paged
+     * through like any other thread.
+     */
+    @NonNull
+    public static Uri filteredUri(int threadId, int userId) {
+        return CONTENT_URI.buildUpon().appendPath(Integer.toString(threadId))
+                .appendPath("user").appendPath(Integer.toString(userId))
+                .build();
+    }
 
     public static final String ID 		            = "_id";
     public static final String INDEX 		        = "thread_index";
@@ -80,6 +110,13 @@ public class AwfulThread extends AwfulPagedItem  {
     public static final String TITLE 		        = "title";
     public static final String POSTCOUNT 	        = "post_count";
     public static final String UNREADCOUNT          = "unread_count";
+    /** For rows in {@link #FILTERED_CONTENT_URI}, the user the thread was filtered on */
+    public static final String FILTER_USER_ID       = "filter_user_id";
+    /**
+     * The index of the last post the user had read before they last viewed the thread - posts up to
+     * here are shown as read (see {@link AwfulPost#PREVIOUSLY_READ}).
+     */
+    public static final String LAST_READ_INDEX      = "last_read_index";
     public static final String AUTHOR 		        = "author";
     public static final String AUTHOR_ID 	        = "author_id";
     public static final String LOCKED               = "locked";
@@ -111,6 +148,7 @@ public class AwfulThread extends AwfulPagedItem  {
     public String lastPoster;
     public int postCount;
     public int unreadCount;
+    public int lastReadIndex;
 
     public int rating;
     public int bookmarkType;
@@ -148,6 +186,10 @@ public class AwfulThread extends AwfulPagedItem  {
         thread.lastPoster = row.getString(row.getColumnIndex(LASTPOSTER));
         thread.postCount = row.getInt(row.getColumnIndex(POSTCOUNT));
         thread.unreadCount = row.getInt(row.getColumnIndex(UNREADCOUNT));
+        int lastReadIndex = row.getColumnIndex(LAST_READ_INDEX);
+        if (lastReadIndex >= 0) {
+            thread.lastReadIndex = row.getInt(lastReadIndex);
+        }
 
         thread.rating = row.getInt(row.getColumnIndex(RATING));
         thread.bookmarkType = row.getInt(row.getColumnIndex(BOOKMARKED));
@@ -167,6 +209,48 @@ public class AwfulThread extends AwfulPagedItem  {
     }
 
 
+    /**
+     * Get a thread's details from its row in the database, as read by a DAO - see {@link #fromCursorRow}.
+     */
+    @NonNull
+    public static AwfulThread fromEntity(@NonNull ThreadEntity row) {
+        AwfulThread thread = new AwfulThread();
+
+        thread.id = row.getId();
+        thread.index = orZero(row.getIndex());
+        thread.title = row.getTitle();
+        thread.forumId = orZero(row.getForumId());
+
+        thread.author = row.getAuthor();
+        thread.authorId = orZero(row.getAuthorId());
+        thread.lastPoster = row.getLastPoster();
+        thread.postCount = orZero(row.getPostCount());
+        thread.unreadCount = orZero(row.getUnreadCount());
+        thread.lastReadIndex = orZero(row.getLastReadIndex());
+
+        thread.rating = orZero(row.getRating());
+        thread.bookmarkType = orZero(row.getBookmarked());
+
+        thread.isLocked = Boolean.TRUE.equals(row.getLocked());
+        thread.archived = Boolean.TRUE.equals(row.getArchived());
+        thread.isSticky = Boolean.TRUE.equals(row.getSticky());
+        thread.canOpenClose = Boolean.TRUE.equals(row.getCanOpenClose());
+        thread.hasBeenViewed = Boolean.TRUE.equals(row.getHasViewedThread());
+
+        thread.tagUrl = row.getTagUrl();
+        thread.tagCacheFile = row.getTagCacheFile();
+        thread.tagExtra = orZero(row.getTagExtra());
+        thread.category = orZero(row.getCategory());
+
+        return thread;
+    }
+
+    /** A nullable column's value, or 0 if it's null - like reading it from a cursor */
+    private static int orZero(@Nullable Integer value) {
+        return value == null ? 0 : value;
+    }
+
+
     public ContentValues toContentValues() {
         ContentValues cv = new ContentValues();
         cv.put(ID, id);
@@ -191,6 +275,7 @@ public class AwfulThread extends AwfulPagedItem  {
         cv.put(POSTCOUNT, postCount);
 
         cv.put(UNREADCOUNT, unreadCount);
+        cv.put(LAST_READ_INDEX, lastReadIndex);
         cv.put(HAS_VIEWED_THREAD, asSqlBoolean(hasBeenViewed));
         cv.put(BOOKMARKED, bookmarkType);
         return cv;
@@ -247,15 +332,16 @@ public class AwfulThread extends AwfulPagedItem  {
 
 
     /**
-     * Parse a page from a thread, updating metadata and parsing the contained posts.
+     * Parse a page from a thread, producing the writes that update its metadata and store its posts.
      * <p>
      * This will update the current read/unread counts, estimating the total number of posts
      * if the last recorded total is too low (by the current number of pages) and this isn't the last page
      * (meaning we only know how many full pages there are, not how many posts are on the last page).
      * Defaults to a minimum estimate, i.e. a single post on the last page.
      * <p>
-     * Also stores/updates the rest of the thread metadata - title, locked status etc., and passes
-     * the page to {@link AwfulPost} for parsing and syncing.
+     * Also updates the rest of the thread metadata - title, locked status etc., and passes
+     * the page to {@link AwfulPost} for parsing and syncing. Nothing is written until the returned
+     * batch is passed to {@link #storeThreadPage}.
      *  @param resolver     a ContentResolver used to access the database
      * @param page         the thread page's HTML document
      * @param threadId     the ID of this thread
@@ -264,35 +350,55 @@ public class AwfulThread extends AwfulPagedItem  {
      * @param postsPerPage used to calculate post counts
      * @param prefs        a preferences instance
      * @param filterUserId if this page is for a thread filtered by user, this should be set to the user's ID, otherwise 0
+     * @return the page's writes, to be applied as one batch
      */
-    public static void parseThreadPage(ContentResolver resolver, Document page, int threadId, int pageNumber, int lastPageNumber, int postsPerPage, AwfulPreferences prefs, int filterUserId) {
-        long startTime = System.currentTimeMillis();
-        // TODO: 03/06/2017 see issue #503 on GitHub - filtering by user means the thread data gets overwritten by the pages from this new, shorter thread containing their posts
-        final int BLANK_USER_ID = 0;
-        // TODO: 05/01/2018 this filtering on userID thing isn't actually doing anything...
-        final boolean filteringOnUserId = filterUserId > BLANK_USER_ID;
-
-        // finally write new thread data to the database
-        ContentValues cv = new ThreadPageParseTask(resolver, page, threadId, pageNumber, lastPageNumber, postsPerPage, prefs).call();
-        // TODO: 04/06/2017 this should be handled in the database-management classes
-        String update_time = new Timestamp(startTime).toString();
-        cv.put(DatabaseHelper.UPDATED_TIMESTAMP, update_time);
-        if (resolver.update(ContentUris.withAppendedId(CONTENT_URI, threadId), cv, null, null) < 1) {
-            resolver.insert(CONTENT_URI, cv);
-        }
+    public static ArrayList<ContentProviderOperation> parseThreadPage(ContentResolver resolver, Document page, int threadId, int pageNumber, int lastPageNumber, int postsPerPage, AwfulPreferences prefs, int filterUserId) {
+        return parseThreadPage(resolver, page, threadId, pageNumber, lastPageNumber, postsPerPage, prefs, filterUserId, null);
+    }
+
 
+    /**
+     * Parse a page from a thread, as {@link #parseThreadPage(ContentResolver, Document, int, int, int, int, AwfulPreferences, int)},
+     * where the page's posts may have already been parsed by a {@link PostStreamParser}.
+     *
+     * @param streamedPosts the {@link PostStreamParser} that parsed the page's posts, or null
+     *                      if the posts still need to be parsed from the page
+     */
+    public static ArrayList<ContentProviderOperation> parseThreadPage(ContentResolver resolver, Document page, int threadId, int pageNumber, int lastPageNumber, int postsPerPage, AwfulPreferences prefs, int filterUserId, @Nullable PostStreamParser streamedPosts) {
+        long startTime = System.currentTimeMillis();
+        // pages from a thread filtered by user are stored separately (see AwfulPost#FILTERED_CONTENT_URI),
+        // so they don't overwrite the full thread's posts and post counts (issue #503 on GitHub)
+        ArrayList<ContentProviderOperation> writes = new ThreadPageParseTask(resolver, page, threadId, pageNumber, lastPageNumber, postsPerPage, filterUserId, streamedPosts).call();
         Timber.i("Thread parse time: %dms", System.currentTimeMillis() - startTime);
+        return writes;
+    }
+
+
+    /**
+     * Write the posts and new thread data from {@link #parseThreadPage} to the database, all in one go.
+     */
+    public static void storeThreadPage(ContentResolver resolver, ArrayList<ContentProviderOperation> writes, int threadId, int pageNumber) {
+        long startTime = System.currentTimeMillis();
+        try {
+            resolver.applyBatch(Constants.AUTHORITY, writes);
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            Timber.w(e, "Failed to store page %d of thread %d", pageNumber, threadId);
+        }
+        Timber.i("Thread store time: %dms", System.currentTimeMillis() - startTime);
     }
 
 
-    @SuppressWarnings("deprecation")
 	public static void setDataOnThreadListItem(View item, AwfulPreferences prefs, Cursor data, AwfulFragment parent) {
         AwfulThread thread = fromCursorRow(data);
         if (thread == null) {
             Timber.w("setDataOnThreadView: unable to get data for thread!");
             return;
         }
+        setDataOnThreadListItem(item, prefs, thread, parent);
+    }
 
+    @SuppressWarnings("deprecation")
+	public static void setDataOnThreadListItem(View item, AwfulPreferences prefs, @NonNull AwfulThread thread, AwfulFragment parent) {
         Resources resources = item.getResources();
         Context context = item.getContext();
         // get the forum ID for getting themed resources
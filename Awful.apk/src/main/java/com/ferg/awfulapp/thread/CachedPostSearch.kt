@@ -0,0 +1,129 @@
+package com.ferg.awfulapp.thread
+
+import android.content.ContentResolver
+import android.database.Cursor
+import android.graphics.Typeface
+import android.net.Uri
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.StyleSpan
+import com.ferg.awfulapp.NavigationEvent
+import com.ferg.awfulapp.constants.Constants
+
+/**
+ * Searches the posts we've got cached in the database, without touching the network.
+ *
+ * Every post that gets stored is indexed, along with the poster's username and the thread title,
+ * so this covers everything the user has looked at recently (until the old posts are trimmed). The
+ * index uses SQLite's FTS4, which can find the matches but can't rank them - so results are scored
+ * with [PostSearchQuery.bm25], using the match statistics it returns with each row.
+ */
+object CachedPostSearch {
+
+    const val PATH = "/post/search"
+    /** Append a [PostSearchQuery.toMatchQuery] query to this to search for it */
+    @JvmField
+    val CONTENT_URI: Uri = Uri.parse("content://" + Constants.AUTHORITY + PATH)
+
+    // columns in the search table
+    const val POST_TEXT = "post_text"
+    const val USERNAME = "username"
+    const val THREAD_TITLE = "thread_title"
+
+    // extra columns in search results
+    const val SNIPPET = "snippet"
+    const val MATCH_INFO = "match_info"
+
+    /** Marks the start of a matching term in a [SNIPPET] */
+    const val HIGHLIGHT_START = '\u0002'
+    /** Marks the end of a matching term in a [SNIPPET] */
+    const val HIGHLIGHT_END = '\u0003'
+
+
+    /**
+     * A cached post that matched a search.
+     */
+    data class Result(
+        val postId: Int,
+        val threadId: Int,
+        val postIndex: Int,
+        val username: String?,
+        val threadTitle: String?,
+        /** part of the post's text around the matches, marked with [HIGHLIGHT_START] and [HIGHLIGHT_END] */
+        val snippet: String,
+        val score: Double
+    ) {
+        fun page(postsPerPage: Int) = AwfulPagedItem.indexToPage(postIndex, postsPerPage)
+
+        /** Open the cached page this post is on, and jump to the post */
+        fun navigationEvent(postsPerPage: Int) = NavigationEvent.Thread(threadId, page(postsPerPage), "post$postId")
+
+        /** The [snippet] with the matching terms in bold */
+        val highlightedSnippet: CharSequence
+            get() {
+                val builder = SpannableStringBuilder()
+                var start = -1
+                for (c in snippet) {
+                    when (c) {
+                        HIGHLIGHT_START -> start = builder.length
+                        HIGHLIGHT_END -> if (start >= 0) {
+                            builder.setSpan(StyleSpan(Typeface.BOLD), start, builder.length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE)
+                            start = -1
+                        }
+                        else -> builder.append(c)
+                    }
+                }
+                return builder
+            }
+    }
+
+
+    /**
+     * Search the cached posts for some text.
+     *
+     * This takes two queries - the first just gets the match statistics for every matching post, so
+     * they can be ranked, and the second gets the details (and builds the snippets) for the best ones.
+     *
+     * @param query what the user typed - all the words need to match, and the last one can be the
+     * start of a word
+     * @param limit the maximum number of results to return
+     * @return the best matching posts, best first
+     */
+    @JvmStatic
+    fun search(resolver: ContentResolver, query: String, limit: Int): List<Result> {
+        val match = PostSearchQuery.toMatchQuery(query) ?: return emptyList()
+        val uri = CONTENT_URI.buildUpon().appendPath(match).build()
+
+        val scores = LinkedHashMap<Int, Double>()
+        resolver.query(uri, arrayOf(AwfulPost.ID, MATCH_INFO), null, null, null)?.use { cursor ->
+            val id = cursor.getColumnIndexOrThrow(AwfulPost.ID)
+            val matchInfo = cursor.getColumnIndexOrThrow(MATCH_INFO)
+            while (cursor.moveToNext()) {
+                scores[cursor.getInt(id)] = PostSearchQuery.bm25(cursor.getBlob(matchInfo))
+            }
+        }
+        val best = PostSearchQuery.top(scores, limit)
+        if (best.isEmpty()) return emptyList()
+
+        val projection = arrayOf(AwfulPost.ID, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX, AwfulPost.USERNAME, THREAD_TITLE, SNIPPET)
+        val selection = "docid IN (${best.joinToString(",") { "?" }})"
+        val results = resolver.query(uri, projection, selection, best.map(Int::toString).toTypedArray(), null)
+            ?.use { cursor -> generateSequence { if (cursor.moveToNext()) cursor.toResult(scores) else null }.associateBy(Result::postId) }
+            ?: emptyMap()
+        return best.mapNotNull(results::get)
+    }
+
+
+    private fun Cursor.toResult(scores: Map<Int, Double>): Result {
+        val postId = getInt(getColumnIndexOrThrow(AwfulPost.ID))
+        return Result(
+            postId = postId,
+            threadId = getInt(getColumnIndexOrThrow(AwfulPost.THREAD_ID)),
+            postIndex = getInt(getColumnIndexOrThrow(AwfulPost.POST_INDEX)),
+            username = getString(getColumnIndexOrThrow(AwfulPost.USERNAME)),
+            threadTitle = getString(getColumnIndexOrThrow(THREAD_TITLE)),
+            snippet = getString(getColumnIndexOrThrow(SNIPPET)) ?: "",
+            score = scores[postId] ?: 0.0
+        )
+    }
+}
@@ -1,19 +1,21 @@
 package com.ferg.awfulapp.thread
 
+import android.content.ContentProviderOperation
 import android.content.ContentResolver
 import android.content.ContentUris
 import android.content.ContentValues
 import android.net.Uri
 import com.ferg.awfulapp.constants.Constants
 import com.ferg.awfulapp.network.NetworkUtils
-import com.ferg.awfulapp.preferences.AwfulPreferences
 import com.ferg.awfulapp.provider.AwfulProvider
 import com.ferg.awfulapp.provider.DatabaseHelper
 import com.ferg.awfulapp.thread.AwfulPost.*
 import com.ferg.awfulapp.thread.AwfulThread.*
+import com.ferg.awfulapp.users.IgnoreList
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
 import timber.log.Timber
+import java.sql.Timestamp
 import java.util.concurrent.*
 import java.util.regex.Matcher
 import java.util.regex.Pattern
@@ -38,6 +40,14 @@ fun <T> parseSingleThreaded(parseTasks: Collection<Callable<T>>) = parseTasks.ma
 fun <T> parseMultiThreaded(parseTasks: Collection<Callable<T>>) =
     parseTaskExecutor.invokeAll(parseTasks).map(Future<T>::get)
 
+/**
+ * Queue a single parse task on the parsing threads, returning immediately.
+ *
+ * This is for callers that produce tasks incrementally (e.g. [PostStreamParser]) and want to start
+ * work on each one as soon as it's available, instead of collecting them all for [parse].
+ */
+fun <T> submitParseTask(parseTask: Callable<T>): Future<T> = parseTaskExecutor.submit(parseTask)
+
 /**
  * Run a set of parse tasks in parallel, retrying on the current thread if there's a failure.
  *
@@ -74,49 +84,88 @@ fun <T> parse(parseTasks: Collection<Callable<T>>): List<T> {
  * @param[postData]         an Element containing a post structure
  * @param[updateTime]       a parsing timestamp, which should be the same for each parsing task in a page load
  * @param[index]            the index of this post in the thread
- * @param[lastReadIndex]    the index of the last-read post, used to mark this post as seen or unseen
  * @param[threadId]         the ID of this post's thread
  * @param[opId]             the user ID of the person who created the thread
- * @returns the post data represented as a ContentValues (see [AwfulPost])
+ * @param[rewriter]         handles the post content, usually shared by all the posts on a page
+ * @param[storedFingerprints] the [PostFingerprint]s of posts already in the database, by post ID
+ * @param[filterUserId]     if the post is from a thread filtered to one user's posts, that user's ID -
+ * the post is stored at its position in the filtered thread (i.e. [index]) instead of its real index
+ * @returns the post data represented as a ContentValues (see [AwfulPost]), or null if the post's
+ * fingerprint matches the stored one, meaning the stored data is already up to date
  */
-class PostParseTask(
+class PostParseTask @JvmOverloads constructor(
     private val postData: Element,
     private val updateTime: String,
     private val index: Int,
-    private val lastReadIndex: Int,
     private val threadId: Int,
     private val opId: Int,
-    private val prefs: AwfulPreferences
-) : Callable<ContentValues> {
+    private val rewriter: PostContentRewriter,
+    private val storedFingerprints: Map<Int, Long> = emptyMap(),
+    private val filterUserId: Int = 0
+) : Callable<ContentValues?> {
 
     companion object {
         private val USER_ID_REGEX = Pattern.compile("userid=(\\d+)")
         private val POST_ID_GARBAGE = "\\D".toRegex()
         private val POST_TIMESTAMP_GARBAGE = "[^\\w\\s:,]".toRegex()
+
+        /**
+         * The index of a raw [post] element in its thread, or [fallback] if the page doesn't say.
+         */
+        @JvmStatic
+        fun indexOf(post: Element, fallback: Int): Int =
+            //we calculate this beforehand, but now can pull this from the post (thanks cooch!)
+            //wait actually no, FYAD doesn't support this. ~FYAD Privilege~
+            post.attr("data-idx").replace(POST_ID_GARBAGE, "").toIntOrNull() ?: fallback
+
+        /**
+         * Whether the site has marked a raw [post] element as seen, i.e. the user had already read it.
+         * Check this before the post is parsed, since parsing rewrites the element.
+         */
+        @JvmStatic
+        fun isMarkedSeen(post: Element): Boolean = post.selectFirst("[class^=seen]") != null
+
+        /**
+         * Whether the site has marked a raw [post] element as being by someone on the user's ignore list.
+         */
+        @JvmStatic
+        fun isMarkedIgnored(post: Element): Boolean = post.hasClass("ignored")
+
+        /**
+         * The user ID of the poster of a raw [post] element, or null if it can't be found.
+         */
+        @JvmStatic
+        fun posterIdOf(post: Element): Int? =
+            post.getElementsByClass("userinfo")
+                .flatMap(Element::classNames)
+                .map { it.substringAfter("userid-", "") }
+                .firstOrNull(String::isNotEmpty)
+                ?.toInt()
+                // fall back to the profile link if necessary
+                ?: post.selectFirst(".profilelinks [href*='userid=']")
+                    ?.let { USER_ID_REGEX.matcher(it.attr("href")) }
+                    ?.takeIf(Matcher::find)
+                    ?.group(1)?.toInt()
     }
 
     @Throws(Exception::class)
-    override fun call(): ContentValues {
+    override fun call(): ContentValues? {
+        //post id is formatted "post1234567", so we strip out the "post" prefix.
+        val postId = postData.id().replace(POST_ID_GARBAGE, "").toInt()
+        val postIndex = if (filterUserId == 0) indexOf(postData, index) else index
+
+        // this needs to happen before anything modifies the element
+        val fingerprint = PostFingerprint.of(postData, postIndex, opId, rewriter.variant)
+        if (storedFingerprints[postId] == fingerprint) return null
+
         return ContentValues().apply {
             //timestamp for DB trimming after a week
             put(DatabaseHelper.UPDATED_TIMESTAMP, updateTime)
             put(THREAD_ID, threadId)
-
-            //post id is formatted "post1234567", so we strip out the "post" prefix.
-            put(AwfulPost.ID, postData.id().replace(POST_ID_GARBAGE, "").toInt())
-            //we calculate this beforehand, but now can pull this from the post (thanks cooch!)
-            //wait actually no, FYAD doesn't support this. ~FYAD Privilege~
-            put(
-                POST_INDEX,
-                postData.attr("data-idx").replace(POST_ID_GARBAGE, "").toIntOrNull() ?: index
-            )
-
-            put(IS_IGNORED, postData.hasClass("ignored").sqlBool)
-
-            // Check for "class=seenX", or just rely on unread index
-            val markedSeen = postData.selectFirst("[class^=seen]") != null
-            val postHasBeenRead = markedSeen || index <= lastReadIndex
-            put(PREVIOUSLY_READ, postHasBeenRead.sqlBool)
+            put(AwfulPost.ID, postId)
+            put(POST_INDEX, postIndex)
+            put(CONTENT_HASH, fingerprint)
+            if (filterUserId != 0) put(AwfulPost.FILTER_USER_ID, filterUserId)
 
             put(USERNAME, textForClass("author"))
             put(REGDATE, textForClass("registered"))
@@ -139,28 +188,20 @@ class PostParseTask(
                 }
 
 
-            // parse user ID - fall back to the profile link if necessary
-            var userId = postData.getElementsByClass("userinfo")
-                .flatMap(Element::classNames)
-                .map { it.substringAfter("userid-", "") }
-                .firstOrNull(String::isNotEmpty)
-                ?.toInt()
+            val userId = posterIdOf(postData)
 
             // FYAD has its post contents inside the .complete_shit element, so we just grab that instead of the full .postbody
             val postBody = postData.selectFirst(".postbody")
             val fyadPostBody = postBody!!.selectFirst(".complete_shit")
             (fyadPostBody ?: postBody).apply {
-                convertVideos(this, prefs.inlineYoutube, prefs.inlineTiktoks)
-                getElementsByTag("img").forEach { processPostImage(it, postHasBeenRead, prefs) }
-                getElementsByTag("a").forEach(::tryConvertToHttps)
-                userId?.let {
-                    getElementsByTag("strong").forEach { setBanlistLinks(it, userId!!, postData.id()) }
-                }
+                // read state only matters to the display rewrites, which happen later
+                rewriter.rewrite(this, PostContentRewriter.PostInfo(false, userId, postData.id()))
                 if (this == fyadPostBody) {
                     // FYAD sigs are currently a sibling div alongside .complete_shit, so we need to stick them at the end of the content
                     postBody.selectFirst("> .signature")?.appendTo(this)
                 }
-                put(CONTENT, html())
+                // stored compressed if it's worth it - AwfulPost decompresses it when it's needed
+                html().let { html -> PostContentCodec.encode(html)?.let { put(CONTENT, it) } ?: put(CONTENT, html) }
             }
 
             // extract and clean up post timestamp
@@ -168,15 +209,6 @@ class PostParseTask(
                 .replace(POST_TIMESTAMP_GARBAGE, "").trim()
                 .let { put(DATE, it) }
 
-            if (userId == null) {
-                postData.selectFirst(".profilelinks [href*='userid=']")?.let {
-                    with(USER_ID_REGEX.matcher(it.attr("href"))) {
-                        if (find()) {
-                            userId = group(1).toInt()
-                        }
-                    }
-                }
-            }
 
             if (userId != null) {
                 put(USER_ID, userId)
@@ -303,6 +335,7 @@ class ForumParseTask(
             unreadCount = threadElement.selectFirst(".count")?.text()?.toInt() ?: 0
             // If there are X's then the user has viewed the thread
             hasBeenViewed = unreadCount > 0 || threadElement.selectFirst(".x") != null
+            lastReadIndex = ThreadPageParseTask.lastReadIndexFor(this)
 
             // Bookmarks can only be detected now by the presence of a "bmX" class - no star image
             val star = threadElement.selectFirst(".star")
@@ -331,15 +364,21 @@ class ForumParseTask(
 
 
 /**
- * A task that parses thread data from a thread page and returns it as a [ContentValues],
- * as defined in [AwfulThread].
+ * A task that parses thread data from a thread page, and returns the writes needed to store it - the
+ * thread's data (as defined in [AwfulThread]) and the page's posts. These should be applied together
+ * as one batch, so nothing sees the posts without the thread data that goes with them.
  *
  * @param resolver used to load current data for this thread
  * @param page a Document representing a page from a thread
  * @param threadId the ID of the thread this page is from
  * @param pageNumber this page's number in the thread when it was fetched
  * @param postsPerPage the posts-per-page setting used while fetching this page
- * @returns new or updated data for this thread, represented as a ContentValues (see [AwfulThread])
+ * @param filterUserId if the page is from the thread filtered to one user's posts, that user's ID,
+ * otherwise 0. Filtered pages have their own posts and post count, and don't change the full thread's
+ * counts or read state - only the data that applies to both, like its title and locked status
+ * @param streamedPosts if the page's posts have already been parsed and stored while it was streamed
+ * in, the parser that did it - otherwise null, and the posts will be parsed from [page]
+ * @returns the inserts for any new or changed posts, and an update or insert for the thread's data
  */
 class ThreadPageParseTask(
         private val resolver: ContentResolver,
@@ -348,19 +387,127 @@ class ThreadPageParseTask(
         private val pageNumber: Int,
         private val lastPageNumber: Int,
         private val postsPerPage: Int,
-        private val prefs: AwfulPreferences
-) : Callable<ContentValues> {
+        private val filterUserId: Int = 0,
+        private val streamedPosts: PostStreamParser? = null
+) : Callable<ArrayList<ContentProviderOperation>> {
 
     companion object {
         val FORUM_ID_REGEX: Pattern = Pattern.compile("forumid=(\\d+)")
+
+        /**
+         * Load the current data for a thread from the DB, or a blank [AwfulThread] if there isn't any.
+         */
+        fun loadThread(resolver: ContentResolver, threadId: Int): AwfulThread =
+            loadStoredThread(resolver, threadId) ?: AwfulThread()
+
+        private fun loadStoredThread(resolver: ContentResolver, threadId: Int): AwfulThread? {
+            val uri = ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong())
+            return resolver.query(uri, AwfulProvider.ThreadProjection, null, null, null).use {
+                it?.apply { moveToFirst() }?.let(::fromCursorRow)
+            }
+        }
+
+        /**
+         * The index of the last post the user has read, according to the stored [thread] data.
+         */
+        fun lastReadIndexFor(thread: AwfulThread): Int =
+            if (!thread.hasBeenViewed) 0 else thread.postCount - thread.unreadCount
+
+        /**
+         * The index of the last post on a [page] that the site has marked as seen, or 0 if there aren't any.
+         *
+         * @param firstIndex the index of the first post on the page
+         */
+        fun lastSeenIndexOn(page: Document, firstIndex: Int): Int =
+            page.getElementsByClass("post").withIndex()
+                .filter { (_, post) -> PostParseTask.isMarkedSeen(post) }
+                .maxOfOrNull { (i, post) -> PostParseTask.indexOf(post, firstIndex + i) } ?: 0
+
+        /**
+         * Whether the site has marked each poster on a [page] as ignored, by user ID.
+         */
+        fun postersOn(page: Document): Map<Int, Boolean> =
+            page.getElementsByClass("post")
+                .mapNotNull { post -> PostParseTask.posterIdOf(post)?.let { it to PostParseTask.isMarkedIgnored(post) } }
+                .toMap()
+
+        /**
+         * The stored post count for a thread filtered to one user's posts, or null if there isn't one.
+         */
+        private fun loadFilteredPostCount(resolver: ContentResolver, threadId: Int, userId: Int): Int? =
+            resolver.query(AwfulThread.filteredUri(threadId, userId), arrayOf(POSTCOUNT), null, null, null).use { cursor ->
+                cursor?.takeIf { it.moveToFirst() && !it.isNull(0) }?.getInt(0)
+            }
+
+        /**
+         * Work out the post count for a thread filtered to one user's posts, from one of its pages.
+         * Like [updatePostCounts], this is exact on the last page, and otherwise an estimate that
+         * keeps the [storedCount] if it still fits the number of pages.
+         */
+        @JvmStatic
+        fun filteredPostCount(storedCount: Int?, pageNumber: Int, lastPageNumber: Int, postsPerPage: Int, postsOnThisPage: Int): Int {
+            val lastPage = maxOf(pageNumber, lastPageNumber)
+            val minPosts = (lastPage - 1) * postsPerPage + 1
+            val maxPosts = lastPage * postsPerPage
+            return when {
+                pageNumber == lastPage -> (pageNumber - 1) * postsPerPage + postsOnThisPage
+                storedCount != null && storedCount in minPosts..maxPosts -> storedCount
+                else -> minPosts
+            }
+        }
+
+        /**
+         * Update the post and unread counts for a [thread], based on the posts found on one of its pages.
+         *
+         * @param postsOnThisPage the number of posts parsed from page [pageNumber]
+         * @return the number of posts the user has now read in the thread
+         */
+        @JvmStatic
+        fun updatePostCounts(thread: AwfulThread, pageNumber: Int, lastPageNumber: Int, postsPerPage: Int, postsOnThisPage: Int): Int {
+            val postsOnPreviousPages = (pageNumber - 1) * postsPerPage
+            val minimumPostsRead = postsOnPreviousPages + postsOnThisPage
+            // only update the read count if it has grown (e.g. going back to an old page will give a lower count)
+            val totalPostsRead = minimumPostsRead.coerceAtLeast(thread.readCount)
+
+            // post count is used for pagination (downstream.)
+            //
+            // post count should be an estimate of the total number of posts in our "virtual thread," i.e. even
+            // if we are only viewing posts by a specific user. this function is not aware if we are viewing a
+            // filtered version of the thread, so we detect that and return proper values for pagination.
+            //
+            // because the last page number accounts for a filtered thread, we can calculate minimum and maximum
+            // post ranges to constrain the post count properly.
+            val minPosts = (lastPageNumber - 1) * postsPerPage + 1   // one post on the last page, any preceding pages are full
+            val maxPosts = lastPageNumber * postsPerPage             // all pages full
+
+            thread.postCount = if (pageNumber == lastPageNumber) {
+                // if total posts are outside of our min/max, we're reading a filtered thread and should constrain the
+                // count accordingly.
+                if (totalPostsRead in minPosts..maxPosts) totalPostsRead else minimumPostsRead
+            } else {
+                // if we're not on the last page, doesn't matter whether the thread is filtered or unfiltered, we can't tell
+                // exactly how many posts the thread has, we have to estimate it.
+                //
+                // if the old post count is within min/max range, let's just assume it's more accurate than taking the minimum.
+                // if it's outside of that range it's a stale value, use the min as our best guess.
+                if (thread.postCount in minPosts..maxPosts) thread.postCount else minPosts
+            }
+
+            // TODO: 16/06/2017 would it be better to store postCount and postsRead in the DB, and calculate the unread count from that?
+            //
+            thread.unreadCount = thread.postCount - totalPostsRead
+            return totalPostsRead
+        }
     }
 
-    override fun call(): ContentValues {
+    override fun call(): ArrayList<ContentProviderOperation> {
+        val updateTime = Timestamp(System.currentTimeMillis()).toString()
+        val writes = ArrayList<ContentProviderOperation>()
         // try and load the current thread data from the DB, otherwise create a new AwfulThread
-        val uri = ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong())
-        val thread = resolver.query(uri, AwfulProvider.ThreadProjection, null, null, null).use {
-            it?.apply { moveToFirst() }?.let(::fromCursorRow) ?: AwfulThread()
-        }
+        val storedThread = loadStoredThread(resolver, threadId)
+        val thread = storedThread ?: AwfulThread()
+        // where the thread data goes in the batch - see below
+        var threadWriteAt = 0
 
         with(thread) {
             id = threadId
@@ -390,59 +537,75 @@ class ThreadPageParseTask(
 
             // now calculate some read/unread numbers based on what we can see on the page
             val firstPostOnPageIndex = AwfulPagedItem.pageToIndex(pageNumber, postsPerPage, 0)
-            val firstUnreadIndex = if (!hasBeenViewed) 0 else postCount - unreadCount
+            // the page also tells us who's on the user's ignore list
+            IgnoreList.addWrites(resolver, streamedPosts?.posters ?: postersOn(page), writes)
+            threadWriteAt = writes.size
 
             // hand off the page for post parsing, and get back the number of posts it found
+            // (unless the posts were already parsed while the page was being streamed in)
             // TODO: 02/06/2017 sort out the ignored posts issue, the post parser doesn't put them in the DB (if you have 'always hide' on in the settings) and it messes up the numbers
-            val postsOnThisPage = syncPosts(
+            val postsOnThisPage = streamedPosts?.let { streamed ->
+                addPostWrites(streamed.posts, filterUserId, writes)
+                streamed.postCount
+            } ?: addPostWrites(
                 resolver,
                 page,
                 threadId,
-                firstUnreadIndex,
                 authorId,
-                prefs,
-                firstPostOnPageIndex
+                firstPostOnPageIndex,
+                postsPerPage,
+                filterUserId,
+                writes
             )
-            val postsOnPreviousPages = (pageNumber - 1) * postsPerPage
-            val minimumPostsRead = postsOnPreviousPages + postsOnThisPage
-            // only update the read count if it has grown (e.g. going back to an old page will give a lower count)
-            val totalPostsRead = minimumPostsRead.coerceAtLeast(readCount)
 
-            // post count is used for pagination (downstream.)
-            //
-            // post count should be an estimate of the total number of posts in our "virtual thread," i.e. even
-            // if we are only viewing posts by a specific user. this function is not aware if we are viewing a
-            // filtered version of the thread, so we detect that and return proper values for pagination.
-            //
-            // because the last page number accounts for a filtered thread, we can calculate minimum and maximum
-            // post ranges to constrain the post count properly.
-            val minPosts = (lastPageNumber - 1) * postsPerPage + 1   // one post on the last page, any preceding pages are full
-            val maxPosts = lastPageNumber * postsPerPage             // all pages full
-
-            postCount = if (pageNumber == lastPageNumber) {
-                // if total posts are outside of our min/max, we're reading a filtered thread and should constrain the
-                // count accordingly.
-                if (totalPostsRead in minPosts..maxPosts) totalPostsRead else minimumPostsRead
+            if (filterUserId != 0) {
+                // the filtered thread's count is kept with its posts, and the full thread's numbers are left alone
+                val filteredCount = filteredPostCount(
+                    loadFilteredPostCount(resolver, threadId, filterUserId), pageNumber, lastPageNumber, postsPerPage, postsOnThisPage
+                )
+                writes += ContentProviderOperation.newInsert(AwfulThread.FILTERED_CONTENT_URI)
+                    .withValue(AwfulThread.ID, threadId)
+                    .withValue(AwfulThread.FILTER_USER_ID, filterUserId)
+                    .withValue(POSTCOUNT, filteredCount)
+                    .withValue(DatabaseHelper.UPDATED_TIMESTAMP, updateTime)
+                    .build()
+                Timber.d(
+                    "getThreadPosts: Thread ID %d filtered on user %d, page %d of %d, %d posts on page%n%d posts total",
+                    id, filterUserId, pageNumber, lastPageNumber, postsOnThisPage, filteredCount
+                )
             } else {
-                // if we're not on the last page, doesn't matter whether the thread is filtered or unfiltered, we can't tell
-                // exactly how many posts the thread has, we have to estimate it.
-                //
-                // if the old post count is within min/max range, let's just assume it's more accurate than taking the minimum.
-                // if it's outside of that range it's a stale value, use the min as our best guess.
-                if (postCount in minPosts..maxPosts) postCount else minPosts
+                // posts are shown as read if they were read before this page was loaded - either according to
+                // the stored thread data, or because the site has marked them as seen
+                val lastSeenIndex = streamedPosts?.lastSeenIndex ?: lastSeenIndexOn(page, firstPostOnPageIndex)
+                lastReadIndex = maxOf(lastReadIndexFor(this), lastSeenIndex)
+                val totalPostsRead = updatePostCounts(this, pageNumber, lastPageNumber, postsPerPage, postsOnThisPage)
+
+                Timber.d(
+                    "getThreadPosts: Thread ID %d, page %d of %d, %d posts on page%n%d posts total: %d read/%d unread",
+                    id, pageNumber, lastPageNumber, postsOnThisPage, postCount, totalPostsRead, unreadCount
+                )
             }
+        }
 
-            // TODO: 16/06/2017 would it be better to store postCount and postsRead in the DB, and calculate the unread count from that?
-            //
-            unreadCount = postCount - totalPostsRead
-
-            Timber.d(
-                "getThreadPosts: Thread ID %d, page %d of %d, %d posts on page%n%d posts total: %d read/%d unread",
-                id, pageNumber, lastPageNumber, postsOnThisPage, postCount, totalPostsRead, unreadCount
-            )
-
+        val threadData = thread.toContentValues().apply {
+            put(DatabaseHelper.UPDATED_TIMESTAMP, updateTime)
+            if (filterUserId != 0) {
+                remove(POSTCOUNT)
+                remove(UNREADCOUNT)
+                remove(LAST_READ_INDEX)
+                remove(HAS_VIEWED_THREAD)
+            }
         }
-        return thread.toContentValues()
+        // the thread data is written before the posts, so the search index picks up the page's thread
+        // title when the posts are indexed (see PostSearchIndex) - it's all one transaction anyway
+        writes.add(threadWriteAt, if (storedThread != null) {
+            ContentProviderOperation.newUpdate(ContentUris.withAppendedId(AwfulThread.CONTENT_URI, threadId.toLong()))
+                .withValues(threadData)
+                .build()
+        } else {
+            ContentProviderOperation.newInsert(AwfulThread.CONTENT_URI).withValues(threadData).build()
+        })
+        return writes
     }
 }
 
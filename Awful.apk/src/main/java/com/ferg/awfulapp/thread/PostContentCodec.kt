@@ -0,0 +1,115 @@
+package com.ferg.awfulapp.thread
+
+import timber.log.Timber
+import java.io.ByteArrayOutputStream
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * Compresses post content for storage in the database.
+ *
+ * Most of a post's HTML is markup the site repeats everywhere - quote blocks, image and smilie tags,
+ * links to other posts etc. Deflate can't do much with that inside a single post, since it's only
+ * looking for repeats within the post itself, so it's primed with a preset dictionary of common post
+ * markup. The dictionary was built from the benchmark fixtures with the benchmark module's
+ * PostContentDictionary tool.
+ *
+ * The content column holds either plain text or a blob from [encode], which starts with a format
+ * byte identifying the dictionary it was compressed with. Posts that are too short to benefit are
+ * left as plain text.
+ */
+object PostContentCodec {
+
+    /** Deflate with the first version of the dictionary. If the dictionary changes, add a new format. */
+    private const val FORMAT_DICTIONARY_1: Byte = 1
+    private const val DICTIONARY_RESOURCE = "post_content_1.dict"
+
+    /** content shorter than this isn't worth compressing */
+    private const val MIN_LENGTH = 128
+
+    private val dictionary: ByteArray by lazy {
+        PostContentCodec::class.java.getResourceAsStream(DICTIONARY_RESOURCE)
+            ?.use { it.readBytes() }
+            ?: throw IllegalStateException("Missing post content dictionary")
+    }
+
+    // these hold native memory, so they're reused instead of being created for every post
+    private val deflaters = ThreadLocal.withInitial { Deflater(Deflater.DEFAULT_COMPRESSION, true) }
+    private val inflaters = ThreadLocal.withInitial { Inflater(true) }
+
+
+    /**
+     * Compress some post [html], or return null if it should be stored as it is.
+     */
+    @JvmStatic
+    fun encode(html: String): ByteArray? {
+        if (html.length < MIN_LENGTH) return null
+        val input = html.toByteArray(Charsets.UTF_8)
+        val deflater = deflaters.get()!!.apply {
+            reset()
+            setDictionary(dictionary)
+            setInput(input)
+            finish()
+        }
+        val output = ByteArrayOutputStream(input.size / 3)
+        output.write(FORMAT_DICTIONARY_1.toInt())
+        val buffer = ByteArray(4096)
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer))
+        }
+        return output.takeIf { it.size() < input.size }?.toByteArray()
+    }
+
+
+    /**
+     * Decompress content produced by [encode], or return null if it can't be read.
+     */
+    @JvmStatic
+    fun decode(stored: ByteArray): String? {
+        if (stored.isEmpty() || stored[0] != FORMAT_DICTIONARY_1) {
+            Timber.w("Unknown post content format: %s", stored.firstOrNull())
+            return null
+        }
+        val inflater = inflaters.get()!!.apply {
+            reset()
+            setDictionary(dictionary)
+            setInput(stored, 1, stored.size - 1)
+        }
+        val output = ByteArrayOutputStream(stored.size * 4)
+        val buffer = ByteArray(8192)
+        return try {
+            while (!inflater.finished()) {
+                val count = inflater.inflate(buffer)
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw DataFormatException("Truncated post content")
+                }
+                output.write(buffer, 0, count)
+            }
+            output.toString(Charsets.UTF_8.name())
+        } catch (e: DataFormatException) {
+            Timber.w(e, "Couldn't decompress post content")
+            null
+        }
+    }
+
+
+    /**
+     * Get the HTML from a stored content value, which might be plain text or an [encode]d blob.
+     */
+    @JvmStatic
+    fun toHtml(stored: Any?): String? = when (stored) {
+        is ByteArray -> decode(stored)
+        else -> stored as String?
+    }
+
+
+    /**
+     * Get the HTML from a stored content value that's been read as bytes, which is how Room reads the
+     * column whether it holds text or a blob. Text comes back as its UTF-8 bytes, and HTML never
+     * starts with a format byte.
+     */
+    @JvmStatic
+    fun fromStoredBytes(stored: ByteArray): String? =
+        if (stored.firstOrNull() == FORMAT_DICTIONARY_1) decode(stored) else String(stored, Charsets.UTF_8)
+}
@@ -0,0 +1,73 @@
+package com.ferg.awfulapp.thread
+
+import android.content.ContentResolver
+import android.database.Cursor
+import android.net.Uri
+import timber.log.Timber
+
+/**
+ * Loads the content of a [PostPage] that was read without it (see
+ * [com.ferg.awfulapp.provider.AwfulProvider.PostMetadataProjection]), a few posts at a time.
+ *
+ * Posts' content is loaded when it's first needed - usually when they're rendered, and not at all
+ * if [PostContentRenderer] already has them cached. Each load fetches that post and the ones after
+ * it on the page, up to [CHUNK_SIZE] of stored content, so a page of huge posts is never held in a
+ * cursor (or in memory) all at once. Once a post has been rendered its content can be dropped with
+ * [PostPage.releaseContent], and it'll be loaded again if anything else needs it.
+ *
+ * @param resolver used to query the posts' content
+ * @param contentUri the Uri the page was queried from - the content is queried from the same place
+ */
+class PostContentLoader(
+    private val resolver: ContentResolver,
+    private val contentUri: Uri
+) {
+
+    companion object {
+        /** the most stored content to load in one go, unless a single post is bigger */
+        private const val CHUNK_SIZE = 256 * 1024
+    }
+
+
+    /**
+     * Load the content for the post at [index] on the [page], and for as many of the following posts
+     * as fit in the chunk.
+     */
+    fun load(page: PostPage, index: Int) {
+        val chunk = nextChunk(page, index)
+        val byId = chunk.associateBy(page::getPostId)
+        val selection = "${AwfulPost.ID} IN (${chunk.joinToString(",") { "?" }})"
+        val selectionArgs = byId.keys.map(Int::toString).toTypedArray()
+        resolver.query(contentUri, arrayOf(AwfulPost.ID, AwfulPost.CONTENT), selection, selectionArgs, null)?.use { cursor ->
+            while (cursor.moveToNext()) {
+                val loaded = byId[cursor.getInt(0)] ?: continue
+                if (cursor.getType(1) == Cursor.FIELD_TYPE_BLOB) {
+                    page.setContent(loaded, cursor.getBlob(1))
+                } else {
+                    page.setContent(loaded, cursor.getString(1) ?: "")
+                }
+            }
+        }
+        // anything that's been deleted since the page was loaded has nothing to show
+        chunk.filter(page::isContentPending).forEach {
+            Timber.w("No stored content for post %d", page.getPostId(it))
+            page.setContent(it, "")
+        }
+    }
+
+
+    /**
+     * The posts from [start] onwards that still need their content, up to [CHUNK_SIZE] of it.
+     */
+    private fun nextChunk(page: PostPage, start: Int): List<Int> {
+        val chunk = mutableListOf(start)
+        var size = page.getContentLength(start)
+        for (next in start + 1 until page.size()) {
+            if (!page.isContentPending(next)) continue
+            size += page.getContentLength(next)
+            if (size > CHUNK_SIZE) break
+            chunk += next
+        }
+        return chunk
+    }
+}
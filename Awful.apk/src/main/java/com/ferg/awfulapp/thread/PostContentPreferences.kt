@@ -0,0 +1,36 @@
+package com.ferg.awfulapp.thread
+
+import com.ferg.awfulapp.preferences.AwfulPreferences
+
+/**
+ * An immutable snapshot of the preferences that affect how post content is rewritten.
+ *
+ * [AwfulPreferences] fields can change under us while posts are being parsed on other threads, and
+ * some values (like [AwfulPreferences.canLoadImages], which checks the network connection) are
+ * relatively expensive to look up. Taking a snapshot once per page means every post on it is
+ * processed consistently, and each lookup only happens once.
+ */
+data class PostContentPreferences(
+    val showSmilies: Boolean,
+    val hideOldImages: Boolean,
+    val canLoadImages: Boolean,
+    val imgurThumbnails: String,
+    val disableGifs: Boolean,
+    val disableTimgs: Boolean,
+    val inlineYoutube: Boolean,
+    val inlineTiktoks: Boolean
+) {
+    companion object {
+        @JvmStatic
+        fun from(prefs: AwfulPreferences) = PostContentPreferences(
+            showSmilies = prefs.showSmilies,
+            hideOldImages = prefs.hideOldImages,
+            canLoadImages = prefs.canLoadImages(),
+            imgurThumbnails = prefs.imgurThumbnails,
+            disableGifs = prefs.disableGifs,
+            disableTimgs = prefs.disableTimgs,
+            inlineYoutube = prefs.inlineYoutube,
+            inlineTiktoks = prefs.inlineTiktoks
+        )
+    }
+}
@@ -0,0 +1,67 @@
+package com.ferg.awfulapp.thread
+
+import androidx.collection.LruCache
+import com.ferg.awfulapp.constants.Constants.BASE_URL
+import org.jsoup.Jsoup
+
+/**
+ * Produces the content of stored posts for display, applying the processing that depends on the
+ * user's settings (see [PostContentRewriter.forDisplay]).
+ *
+ * Posts are stored without any of this processing, so changing a setting (or moving from Wi-Fi to
+ * mobile data, which can affect whether images are loaded) just means rendering them again, instead
+ * of downloading the pages again to rebuild the stored content.
+ *
+ * Rendering a post means parsing and rewriting its HTML, so the results are cached. Each one is keyed
+ * on the post's ID, a hash of its content (so edits are picked up), its read state and the settings
+ * snapshot it was rendered with, so changing any of those produces a fresh version. The cache is
+ * limited by the total length of the content it holds, dropping the least recently used posts when
+ * it's full.
+ *
+ * Posts loaded from the database use their stored [PostFingerprint] as the hash, so a cache hit
+ * doesn't need the post's content at all - which means compressed content never gets decompressed.
+ */
+object PostContentRenderer {
+
+    /** the maximum number of characters of rendered content to hold */
+    private const val CACHE_SIZE = 2 * 1024 * 1024
+
+    private data class Key(
+        val postId: Int,
+        val contentHash: Long,
+        val hasBeenRead: Boolean,
+        val prefs: PostContentPreferences
+    )
+
+    private val cache = object : LruCache<Key, String>(CACHE_SIZE) {
+        override fun sizeOf(key: Key, value: String) = value.length
+    }
+
+
+    /**
+     * Get the display version of the content of the post at [index] on a [page].
+     *
+     * @param rewriter a [PostContentRewriter.forDisplay] rewriter, created with [prefs]
+     */
+    @JvmStatic
+    fun render(page: PostPage, index: Int, prefs: PostContentPreferences, rewriter: PostContentRewriter): String {
+        val contentHash = if (page.hasContentHash(index)) page.getContentHash(index)
+            else (page.getContent(index) ?: return "").hashCode().toLong()
+        val read = page.isPreviouslyRead(index)
+        val key = Key(page.getPostId(index), contentHash, read, prefs)
+        cache[key]?.let { return it }
+
+        val content = page.getContent(index) ?: return ""
+        val body = Jsoup.parseBodyFragment(content, BASE_URL).body()
+        val userId = page.getUserId(index).takeIf { it != 0 }
+        rewriter.rewrite(body, PostContentRewriter.PostInfo(read, userId, page.getPostIdString(index)))
+        return body.html().also { cache.put(key, it) }
+    }
+
+
+    /**
+     * Drop all the rendered content.
+     */
+    @JvmStatic
+    fun clearCache() = cache.evictAll()
+}
@@ -0,0 +1,137 @@
+package com.ferg.awfulapp.thread
+
+import com.ferg.awfulapp.thread.AwfulPost.*
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.jsoup.select.NodeTraversor
+import org.jsoup.select.NodeVisitor
+
+/**
+ * Rewrites the content of a post so the app can display it - converting videos, processing images
+ * according to the user's preferences, upgrading links to https and so on.
+ *
+ * This used to be done with a separate search of the post's tree for each kind of element. Instead,
+ * each rewrite is a [Handler] that matches elements by tag or class, and the post is walked once to
+ * find every element that needs handling. The handlers are run after the walk, in the order they were
+ * added, since some of them restructure the tree around the element (e.g. wrapping an image in a
+ * link) which isn't safe to do while it's being traversed. Elements that were removed from the post
+ * by an earlier handler are skipped.
+ *
+ * A rewriter holds no per-post state, so one instance can be shared by all the posts on a page, even
+ * when they're being parsed in parallel.
+ *
+ * Thread posts are rewritten in two parts. The [forStorage] rewrites don't depend on the user's
+ * settings, so they're done when the post is parsed and stored. The [forDisplay] rewrites do, so
+ * they're done when the post is rendered (see [PostContentRenderer]), which means changing those
+ * settings doesn't make the stored posts out of date. [forPosts] does both at once, for content
+ * that's displayed straight away instead of being stored.
+ *
+ * @param handlers the rewrites to perform, in the order they should be applied
+ * @param variant   identifies the settings the handlers were created with - rewriters with different
+ * variants can produce different results for the same post (see [PostFingerprint])
+ */
+class PostContentRewriter(private val handlers: List<Handler>, val variant: Int = 0) {
+
+    /**
+     * Details about the post being rewritten, which some handlers need.
+     *
+     * @param hasBeenRead   whether the user has already seen the post
+     * @param userId        the poster's user ID, if known
+     * @param postId        the post's element ID, e.g. "post1234567"
+     */
+    class PostInfo(val hasBeenRead: Boolean, val userId: Int?, val postId: String)
+
+    fun interface Rewrite {
+        fun apply(element: Element, post: PostInfo)
+    }
+
+    /**
+     * A rewrite, and the elements it applies to - those with a particular [tag], or a particular [cssClass].
+     */
+    class Handler private constructor(private val tag: String?, private val cssClass: String?, val rewrite: Rewrite) {
+        companion object {
+            fun forTag(tag: String, rewrite: Rewrite) = Handler(tag, null, rewrite)
+            fun forClass(cssClass: String, rewrite: Rewrite) = Handler(null, cssClass, rewrite)
+        }
+
+        fun matches(element: Element) =
+            if (tag != null) element.normalName() == tag else element.hasClass(cssClass!!)
+    }
+
+    companion object {
+        private val videoEmbedHandler = Handler.forClass(VIDEO_EMBED_CLASS) { element, _ -> convertVideoEmbed(element) }
+        private val linkHandler = Handler.forTag("a") { element, _ -> tryConvertToHttps(element) }
+        private val banlistHandler = Handler.forTag("strong") { element, post ->
+            post.userId?.let { setBanlistLinks(element, it, post.postId) }
+        }
+
+        private fun youTubeHandler(prefs: PostContentPreferences) =
+            Handler.forClass(YOUTUBE_PLAYER_CLASS) { element, _ -> convertYouTube(element, prefs.inlineYoutube) }
+
+        private fun tiktokHandler(prefs: PostContentPreferences) =
+            Handler.forClass(TIKTOK_PLAYER_CLASS) { element, _ -> convertTiktok(element, prefs.inlineTiktoks) }
+
+        private fun imageHandler(prefs: PostContentPreferences) =
+            Handler.forTag("img") { element, post -> processPostImage(element, post.hasBeenRead, prefs) }
+
+        /**
+         * Get a rewriter that performs all the standard processing for posts on a thread page.
+         */
+        @JvmStatic
+        fun forPosts(prefs: PostContentPreferences) = PostContentRewriter(variant = prefs.hashCode(), handlers = listOf(
+            youTubeHandler(prefs),
+            tiktokHandler(prefs),
+            videoEmbedHandler,
+            imageHandler(prefs),
+            linkHandler,
+            banlistHandler
+        ))
+
+        /**
+         * Get a rewriter for the processing that doesn't depend on the user's settings, for posts
+         * that are being stored.
+         */
+        @JvmStatic
+        fun forStorage() = PostContentRewriter(listOf(videoEmbedHandler, banlistHandler))
+
+        /**
+         * Get a rewriter for the processing that depends on the user's settings, for stored posts
+         * that are being displayed. Links are handled here too, since converting videos and images
+         * can create new ones.
+         */
+        @JvmStatic
+        fun forDisplay(prefs: PostContentPreferences) = PostContentRewriter(variant = prefs.hashCode(), handlers = listOf(
+            youTubeHandler(prefs),
+            tiktokHandler(prefs),
+            imageHandler(prefs),
+            linkHandler
+        ))
+    }
+
+    /**
+     * Rewrite the [content] element and its descendants in place.
+     */
+    fun rewrite(content: Element, post: PostInfo) {
+        val matches = Array(handlers.size) { ArrayList<Element>() }
+        NodeTraversor.traverse(NodeVisitor { node, _ ->
+            if (node is Element) {
+                handlers.forEachIndexed { i, handler -> if (handler.matches(node)) matches[i].add(node) }
+            }
+        }, content)
+
+        handlers.forEachIndexed { i, handler ->
+            matches[i].forEach { element ->
+                if (element.isWithin(content)) handler.rewrite.apply(element, post)
+            }
+        }
+    }
+
+    private fun Element.isWithin(root: Element): Boolean {
+        var node: Node? = this
+        while (node != null) {
+            if (node === root) return true
+            node = node.parentNode()
+        }
+        return false
+    }
+}
@@ -0,0 +1,82 @@
+package com.ferg.awfulapp.thread
+
+import androidx.annotation.VisibleForTesting
+import org.jsoup.nodes.DataNode
+import org.jsoup.nodes.Element
+import org.jsoup.nodes.Node
+import org.jsoup.nodes.TextNode
+import org.jsoup.select.NodeTraversor
+import org.jsoup.select.NodeVisitor
+
+/**
+ * Produces a fingerprint for a post as it came from the site, so we can tell if it's changed since
+ * it was last stored, and skip parsing and writing it again if it hasn't.
+ *
+ * This has to be computed from the raw post element, before [PostParseTask] starts rewriting it. It
+ * hashes the element's tree directly (tags, attributes and text) rather than serialising it, which
+ * is a lot cheaper than the rewrite and the final [Element.html] call it lets us avoid.
+ *
+ * The stored data for a post also depends on things outside the element - its position in the
+ * thread, the user's preferences etc. - so anything like that needs to be passed in as extra context.
+ */
+object PostFingerprint {
+
+    /**
+     * Bump this when a change to post parsing affects what gets stored, so posts stored by the old
+     * version don't look unchanged and get skipped.
+     */
+    @VisibleForTesting
+    const val VERSION = 2
+
+    // FNV-1a, 64 bit
+    private const val OFFSET_BASIS = -0x340d631b7bdddcdbL
+    private const val PRIME = 0x100000001b3L
+
+    // marks the boundaries between values, so e.g. "ab" + "c" doesn't hash the same as "a" + "bc"
+    private const val SEPARATOR = 0xFFFF
+    private const val ELEMENT_END = 0xFFFE
+
+    /**
+     * Fingerprint a raw [post] element, along with any [context] that affects how it's parsed.
+     */
+    @JvmStatic
+    fun of(post: Element, vararg context: Int): Long = ofVersion(VERSION, post, *context)
+
+    /**
+     * Fingerprint a raw [post] element as [of] does, but as a different [version] of the parsing would.
+     */
+    @VisibleForTesting
+    @JvmStatic
+    fun ofVersion(version: Int, post: Element, vararg context: Int): Long {
+        var hash = OFFSET_BASIS
+
+        fun add(value: Int) {
+            hash = (hash xor value.toLong()) * PRIME
+        }
+
+        fun add(text: String) {
+            for (c in text) add(c.code)
+            add(SEPARATOR)
+        }
+
+        add(version)
+        context.forEach(::add)
+        NodeTraversor.traverse(object : NodeVisitor {
+            override fun head(node: Node, depth: Int) {
+                when (node) {
+                    is Element -> {
+                        add(node.normalName())
+                        node.attributes().forEach { add(it.key); add(it.value) }
+                    }
+                    is TextNode -> add(node.wholeText)
+                    is DataNode -> add(node.wholeData)
+                }
+            }
+
+            override fun tail(node: Node, depth: Int) {
+                if (node is Element) add(ELEMENT_END)
+            }
+        }, post)
+        return hash
+    }
+}
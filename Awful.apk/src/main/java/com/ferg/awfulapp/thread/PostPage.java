@@ -0,0 +1,379 @@
+package com.ferg.awfulapp.thread;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ferg.awfulapp.provider.AwfulProvider;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+import static com.ferg.awfulapp.thread.AwfulPost.AVATAR;
+import static com.ferg.awfulapp.thread.AwfulPost.AVATAR_SECOND;
+import static com.ferg.awfulapp.thread.AwfulPost.AVATAR_TEXT;
+import static com.ferg.awfulapp.thread.AwfulPost.CONTENT;
+import static com.ferg.awfulapp.thread.AwfulPost.CONTENT_HASH;
+import static com.ferg.awfulapp.thread.AwfulPost.CONTENT_LENGTH;
+import static com.ferg.awfulapp.thread.AwfulPost.DATE;
+import static com.ferg.awfulapp.thread.AwfulPost.EDITABLE;
+import static com.ferg.awfulapp.thread.AwfulPost.EDITED;
+import static com.ferg.awfulapp.thread.AwfulPost.ID;
+import static com.ferg.awfulapp.thread.AwfulPost.IS_IGNORED;
+import static com.ferg.awfulapp.thread.AwfulPost.IS_OP;
+import static com.ferg.awfulapp.thread.AwfulPost.IS_PLAT;
+import static com.ferg.awfulapp.thread.AwfulPost.POST_INDEX;
+import static com.ferg.awfulapp.thread.AwfulPost.PREVIOUSLY_READ;
+import static com.ferg.awfulapp.thread.AwfulPost.REGDATE;
+import static com.ferg.awfulapp.thread.AwfulPost.ROLE;
+import static com.ferg.awfulapp.thread.AwfulPost.USERNAME;
+import static com.ferg.awfulapp.thread.AwfulPost.USER_ID;
+
+/**
+ * A page of posts for display, read straight from a posts cursor and handed to
+ * {@link AwfulHtmlPage} to render.
+ * <p>
+ * The page is stored by column rather than as an {@link AwfulPost} per post - IDs, indexes and
+ * flags are held in primitive arrays, and the poster details that repeat across a page (names,
+ * avatars, reg dates, roles) are pooled, so each distinct value is only held once however many
+ * posts it appears on.
+ * <p>
+ * If the cursor was queried without the posts' content (see {@link AwfulProvider#PostMetadataProjection}),
+ * it's loaded by a {@link PostContentLoader} a few posts at a time, as the page is rendered.
+ */
+public final class PostPage {
+
+    private static final byte IGNORED = 1;
+    private static final byte PREVIOUSLY_READ_FLAG = 1 << 1;
+    private static final byte EDITABLE_FLAG = 1 << 2;
+    private static final byte OP = 1 << 3;
+    private static final byte PLAT = 1 << 4;
+    private static final byte HAS_CONTENT_HASH = 1 << 5;
+
+    private final int size;
+    private final int[] postIds;
+    private final int[] userIds;
+    private final int[] postIndexes;
+    private final byte[] flags;
+    private final long[] contentHashes;
+    private final String[] usernames;
+    private final String[] dates;
+    private final String[] regDates;
+    private final String[] roles;
+    private final String[] avatars;
+    private final String[] avatarSeconds;
+    private final String[] avatarTexts;
+    private final String[] edits;
+    /** each post's content - a String, a {@link PostContentCodec} blob, or null if it needs loading */
+    private final Object[] contents;
+    private final int[] contentLengths;
+    @Nullable
+    private PostContentLoader contentLoader = null;
+
+
+    private PostPage(int size) {
+        this.size = size;
+        postIds = new int[size];
+        userIds = new int[size];
+        postIndexes = new int[size];
+        flags = new byte[size];
+        contentHashes = new long[size];
+        usernames = new String[size];
+        dates = new String[size];
+        regDates = new String[size];
+        roles = new String[size];
+        avatars = new String[size];
+        avatarSeconds = new String[size];
+        avatarTexts = new String[size];
+        edits = new String[size];
+        contents = new Object[size];
+        contentLengths = new int[size];
+    }
+
+
+    /**
+     * Read a page of posts from a cursor.
+     *
+     * @param resolver   used to load the posts' content, if the cursor doesn't have it
+     * @param contentUri the Uri the cursor was queried from, if it was queried without the posts' content
+     */
+    @NonNull
+    public static PostPage fromCursor(@NonNull Cursor cursor, @Nullable ContentResolver resolver, @Nullable Uri contentUri) {
+        PostPage page = new PostPage(cursor.getCount());
+        if (!cursor.moveToFirst()) {
+            Timber.i("No posts to convert.");
+            return page;
+        }
+
+        int idIndex = cursor.getColumnIndex(ID);
+        int postIndexIndex = cursor.getColumnIndex(POST_INDEX);
+        int dateIndex = cursor.getColumnIndex(DATE);
+        int regdateIndex = cursor.getColumnIndex(REGDATE);
+        int userIdIndex = cursor.getColumnIndex(USER_ID);
+        int usernameIndex = cursor.getColumnIndex(USERNAME);
+        int isIgnoredIndex = cursor.getColumnIndex(IS_IGNORED);
+        int previouslyReadIndex = cursor.getColumnIndex(PREVIOUSLY_READ);
+        int editableIndex = cursor.getColumnIndex(EDITABLE);
+        int isOpIndex = cursor.getColumnIndex(IS_OP);
+        int isPlatIndex = cursor.getColumnIndex(IS_PLAT);
+        int roleIndex = cursor.getColumnIndex(ROLE);
+        int avatarIndex = cursor.getColumnIndex(AVATAR);
+        int avatarSecondIndex = cursor.getColumnIndex(AVATAR_SECOND);
+        int avatarTextIndex = cursor.getColumnIndex(AVATAR_TEXT);
+        int contentIndex = cursor.getColumnIndex(CONTENT);
+        int contentLengthIndex = cursor.getColumnIndex(CONTENT_LENGTH);
+        int editedIndex = cursor.getColumnIndex(EDITED);
+        int contentHashIndex = cursor.getColumnIndex(CONTENT_HASH);
+
+        if (contentIndex < 0 && resolver != null && contentUri != null) {
+            page.contentLoader = new PostContentLoader(resolver, contentUri);
+        }
+        Map<String, String> pool = new HashMap<>();
+
+        int i = 0;
+        do {
+            page.postIds[i] = cursor.getInt(idIndex);
+            page.userIds[i] = cursor.getInt(userIdIndex);
+            page.postIndexes[i] = cursor.getInt(postIndexIndex);
+            page.flags[i] = flags(
+                    cursor.getInt(isIgnoredIndex) == 1,
+                    cursor.getInt(previouslyReadIndex) > 0,
+                    cursor.getInt(editableIndex) == 1,
+                    cursor.getInt(isOpIndex) == 1,
+                    cursor.getInt(isPlatIndex) > 0);
+            if (contentHashIndex >= 0 && !cursor.isNull(contentHashIndex)) {
+                page.flags[i] |= HAS_CONTENT_HASH;
+                page.contentHashes[i] = cursor.getLong(contentHashIndex);
+            }
+            page.usernames[i] = pooled(pool, cursor.getString(usernameIndex));
+            page.dates[i] = cursor.getString(dateIndex);
+            page.regDates[i] = pooled(pool, cursor.getString(regdateIndex));
+            page.roles[i] = pooled(pool, cursor.getString(roleIndex));
+            page.avatars[i] = pooled(pool, cursor.getString(avatarIndex));
+            page.avatarSeconds[i] = pooled(pool, cursor.getString(avatarSecondIndex));
+            page.avatarTexts[i] = pooled(pool, cursor.getString(avatarTextIndex));
+            page.edits[i] = cursor.getString(editedIndex);
+
+            if (contentIndex >= 0) {
+                page.contents[i] = cursor.getType(contentIndex) == Cursor.FIELD_TYPE_BLOB
+                        ? cursor.getBlob(contentIndex)
+                        : cursor.getString(contentIndex);
+            } else if (page.contentLoader == null) {
+                page.contents[i] = "";
+            }
+            if (contentLengthIndex >= 0) {
+                page.contentLengths[i] = cursor.getInt(contentLengthIndex);
+            }
+            i++;
+        } while (cursor.moveToNext() && i < page.size);
+        return page;
+    }
+
+
+    /**
+     * Build a page from posts that weren't read from the database, e.g. announcements.
+     */
+    @NonNull
+    public static PostPage of(@NonNull List<AwfulPost> posts) {
+        PostPage page = new PostPage(posts.size());
+        Map<String, String> pool = new HashMap<>();
+        for (int i = 0; i < page.size; i++) {
+            AwfulPost post = posts.get(i);
+            page.postIds[i] = parseId(post.getId());
+            page.userIds[i] = parseId(post.getUserId());
+            page.postIndexes[i] = parseId(post.getLastReadUrl());
+            page.flags[i] = flags(post.isIgnored(), post.isPreviouslyRead(), post.isEditable(), post.isOp(), post.isPlat());
+            Long contentHash = post.getContentHash();
+            if (contentHash != null) {
+                page.flags[i] |= HAS_CONTENT_HASH;
+                page.contentHashes[i] = contentHash;
+            }
+            page.usernames[i] = pooled(pool, post.getUsername());
+            page.dates[i] = post.getDate();
+            page.regDates[i] = pooled(pool, post.getRegDate());
+            page.roles[i] = pooled(pool, post.getRole());
+            page.avatars[i] = pooled(pool, post.getAvatar());
+            page.avatarSeconds[i] = pooled(pool, post.getAvatarSecond());
+            page.avatarTexts[i] = pooled(pool, post.getAvatarText());
+            page.edits[i] = post.getEdited();
+            page.contents[i] = post.getContent();
+        }
+        return page;
+    }
+
+
+    private static byte flags(boolean ignored, boolean previouslyRead, boolean editable, boolean op, boolean plat) {
+        return (byte) ((ignored ? IGNORED : 0)
+                | (previouslyRead ? PREVIOUSLY_READ_FLAG : 0)
+                | (editable ? EDITABLE_FLAG : 0)
+                | (op ? OP : 0)
+                | (plat ? PLAT : 0));
+    }
+
+    @Nullable
+    private static String pooled(@NonNull Map<String, String> pool, @Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = pool.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    private static int parseId(@Nullable String id) {
+        try {
+            return id == null || id.isEmpty() ? 0 : Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getPostId(int i) {
+        return postIds[i];
+    }
+
+    /** The post's ID as it appears in the page's HTML, or an empty string if it doesn't have one */
+    @NonNull
+    public String getPostIdString(int i) {
+        return postIds[i] == 0 ? "" : Integer.toString(postIds[i]);
+    }
+
+    /** The poster's user ID, or 0 if it isn't known */
+    public int getUserId(int i) {
+        return userIds[i];
+    }
+
+    /** The poster's user ID as it appears in the page's HTML, or an empty string if it isn't known */
+    @NonNull
+    public String getUserIdString(int i) {
+        return userIds[i] == 0 ? "" : Integer.toString(userIds[i]);
+    }
+
+    /** The post's index in the thread, used to mark the thread as read up to it */
+    public String getLastReadUrl(int i) {
+        return Integer.toString(postIndexes[i]);
+    }
+
+    public boolean isIgnored(int i) {
+        return (flags[i] & IGNORED) != 0;
+    }
+
+    public boolean isPreviouslyRead(int i) {
+        return (flags[i] & PREVIOUSLY_READ_FLAG) != 0;
+    }
+
+    public boolean isEditable(int i) {
+        return (flags[i] & EDITABLE_FLAG) != 0;
+    }
+
+    public boolean isOp(int i) {
+        return (flags[i] & OP) != 0;
+    }
+
+    public boolean isPlat(int i) {
+        return (flags[i] & PLAT) != 0;
+    }
+
+    /** Whether the post was loaded with a {@link PostFingerprint} of its stored data */
+    public boolean hasContentHash(int i) {
+        return (flags[i] & HAS_CONTENT_HASH) != 0;
+    }
+
+    /** The post's stored {@link PostFingerprint} - only valid if {@link #hasContentHash(int)} */
+    public long getContentHash(int i) {
+        return contentHashes[i];
+    }
+
+    public String getUsername(int i) {
+        return usernames[i];
+    }
+
+    public String getDate(int i) {
+        return dates[i];
+    }
+
+    public String getRegDate(int i) {
+        return regDates[i];
+    }
+
+    public String getRole(int i) {
+        return roles[i];
+    }
+
+    public String getAvatar(int i) {
+        return avatars[i];
+    }
+
+    public String getAvatarSecond(int i) {
+        return avatarSeconds[i];
+    }
+
+    public String getAvatarText(int i) {
+        return avatarTexts[i];
+    }
+
+    public String getEdited(int i) {
+        return edits[i];
+    }
+
+
+    /**
+     * Get a post's content, loading or decompressing it if that hasn't happened yet.
+     */
+    @Nullable
+    public String getContent(int i) {
+        if (contents[i] == null && contentLoader != null) {
+            // this loads the content for this post, and some of the ones after it on the page
+            contentLoader.load(this, i);
+        }
+        Object content = contents[i];
+        if (content instanceof byte[]) {
+            // decompressing on first use means posts that are already rendered (see PostContentRenderer) never need it
+            String decoded = PostContentCodec.decode((byte[]) content);
+            // content that can't be read is displayed as an empty post, instead of breaking the page
+            contents[i] = decoded == null ? "" : decoded;
+            return (String) contents[i];
+        }
+        return (String) content;
+    }
+
+    /**
+     * Drop a post's content once it's been rendered, if it can be loaded again when it's needed -
+     * so only a few posts' content is held in memory at once.
+     */
+    public void releaseContent(int i) {
+        if (contentLoader != null) {
+            contents[i] = null;
+        }
+    }
+
+    /** Whether the post's content still needs to be loaded by the page's {@link PostContentLoader} */
+    boolean isContentPending(int i) {
+        return contents[i] == null;
+    }
+
+    /** The size of the post's stored content, if the page was queried without it */
+    int getContentLength(int i) {
+        return contentLengths[i];
+    }
+
+    /**
+     * Set a post's content, as a String or a {@link PostContentCodec} blob.
+     */
+    void setContent(int i, @NonNull Object content) {
+        contents[i] = content;
+    }
+}
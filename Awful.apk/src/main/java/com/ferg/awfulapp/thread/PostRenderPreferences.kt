@@ -0,0 +1,45 @@
+package com.ferg.awfulapp.thread
+
+import com.ferg.awfulapp.preferences.AwfulPreferences
+
+/**
+ * An immutable snapshot of the preferences used when rendering posts as HTML with [AwfulHtmlPage].
+ *
+ * Like [PostContentPreferences], this means things like [AwfulPreferences.canLoadAvatars] (which
+ * checks the network connection) are only looked up once per page, rather than once per post. It
+ * also lets pages be rendered without an [AwfulPreferences] instance, which needs a Context.
+ *
+ * [content] holds the settings used to process each post's content for display - see [PostContentRenderer].
+ */
+data class PostRenderPreferences(
+    val hideOldPosts: Boolean,
+    val onProbation: Boolean,
+    val highlightOP: Boolean,
+    val highlightSelf: Boolean,
+    val hideIgnoredPosts: Boolean,
+    val canLoadAvatars: Boolean,
+    val username: String?,
+    val markedUsers: Set<String>,
+    val blockedAvatarUrls: Set<String>,
+    val content: PostContentPreferences
+) {
+
+    fun isBlockedAvatar(avatarUrl: String?) = avatarUrl != null && avatarUrl in blockedAvatarUrls
+
+    companion object {
+        @JvmStatic
+        fun from(prefs: AwfulPreferences) = PostRenderPreferences(
+            hideOldPosts = prefs.hideOldPosts,
+            onProbation = prefs.isOnProbation,
+            highlightOP = prefs.highlightOP,
+            highlightSelf = prefs.highlightSelf,
+            hideIgnoredPosts = prefs.hideIgnoredPosts,
+            canLoadAvatars = prefs.canLoadAvatars(),
+            username = prefs.username,
+            // these sets are replaced rather than modified when they change, so they're safe to hold on to
+            markedUsers = prefs.markedUsers,
+            blockedAvatarUrls = prefs.blockedAvatarUrls,
+            content = PostContentPreferences.from(prefs)
+        )
+    }
+}
@@ -0,0 +1,80 @@
+package com.ferg.awfulapp.thread
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.ln
+
+/**
+ * Builds the full-text queries for [CachedPostSearch], and ranks their results.
+ *
+ * The search table uses SQLite's FTS4, which can find the matches but can't rank them - there's no
+ * bm25() function like FTS5 has, and Android doesn't let us add one. So matches are scored here with
+ * BM25, using the match statistics FTS4 returns with each row.
+ */
+object PostSearchQuery {
+
+    /** how much a match in each column counts for, in the search table's column order */
+    private val COLUMN_WEIGHTS = doubleArrayOf(1.0, 0.5, 2.0)
+    // standard BM25 tuning parameters
+    private const val K1 = 1.2
+    private const val B = 0.75
+
+
+    /**
+     * Turn the user's search text into an FTS query, or null if there's nothing to search for.
+     *
+     * Each word is quoted, so any characters in it that mean something to FTS are treated as plain
+     * text instead of making the query invalid. Words with no letters or digits are dropped, since
+     * the tokenizer would drop them anyway - and a prefix query for one would match nothing.
+     */
+    @JvmStatic
+    fun toMatchQuery(query: String): String? {
+        val words = query.split(Regex("\\s+"))
+            .map { it.replace("\"", "") }
+            .filter { word -> word.any(Char::isLetterOrDigit) }
+        if (words.isEmpty()) return null
+        return words.mapIndexed { i, word -> if (i == words.lastIndex) "\"$word*\"" else "\"$word\"" }.joinToString(" ")
+    }
+
+
+    /**
+     * Score a row with BM25, from its matchinfo('pcnalx') data.
+     */
+    @JvmStatic
+    fun bm25(matchInfo: ByteArray): Double {
+        val info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer()
+        val phrases = info[0]
+        val columns = info[1]
+        val rows = info[2].toDouble()
+        val averageLengths = 3
+        val lengths = averageLengths + columns
+        val hits = lengths + columns
+
+        var score = 0.0
+        for (phrase in 0 until phrases) {
+            for (column in 0 until columns) {
+                val offset = hits + 3 * (phrase * columns + column)
+                val hitsInRow = info[offset].toDouble()
+                if (hitsInRow == 0.0) continue
+                val rowsWithHits = info[offset + 2].toDouble()
+                val idf = ln(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5))
+                val lengthRatio = info[lengths + column] / info[averageLengths + column].coerceAtLeast(1).toDouble()
+                val weight = COLUMN_WEIGHTS.getOrElse(column) { 1.0 }
+                score += weight * idf * (hitsInRow * (K1 + 1)) / (hitsInRow + K1 * (1 - B + B * lengthRatio))
+            }
+        }
+        return score
+    }
+
+
+    /**
+     * Pick the best matches from a set of scored rows.
+     *
+     * @param scores each matching post's score, by post ID
+     * @param limit the maximum number of posts to return
+     * @return the IDs of the highest scoring posts, best first
+     */
+    @JvmStatic
+    fun top(scores: Map<Int, Double>, limit: Int): List<Int> =
+        scores.entries.sortedByDescending { it.value }.take(limit).map { it.key }
+}
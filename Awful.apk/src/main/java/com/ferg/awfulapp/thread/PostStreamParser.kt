@@ -0,0 +1,161 @@
+package com.ferg.awfulapp.thread
+
+import android.content.ContentResolver
+import android.content.ContentValues
+import com.ferg.awfulapp.constants.Constants.BASE_URL
+import org.jsoup.nodes.Document
+import org.jsoup.parser.Parser
+import org.jsoup.parser.StreamParser
+import timber.log.Timber
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.io.Reader
+import java.sql.Timestamp
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+
+/**
+ * Parses a thread page incrementally, handing off each post as soon as the parser has read it.
+ *
+ * The normal thread page path builds a full [Document] and only then starts looking for posts. This
+ * uses jsoup's [StreamParser] instead, so each _.post_ element is detached from the tree as soon as
+ * it's closed and passed to a [PostParseTask] on the parsing threads, while the parser carries on
+ * with the rest of the page. The parsed posts are collected in [posts], to be stored by
+ * [ThreadPageParseTask] in the same batch as the page's thread data - so readers never see the new
+ * posts with the old thread data, or the other way round.
+ *
+ * This doesn't get posts on screen any sooner: the [Reader] passed to [parse] is over a response Volley
+ * has already downloaded in full, and nothing is stored until the whole page has been parsed. What it
+ * saves is the time spent parsing posts after the rest of the page has been parsed.
+ *
+ * If the parsing thread is interrupted (e.g. because the request was cancelled) this stops reading
+ * the page, cancels any outstanding work and throws an [InterruptedIOException]. If any post fails to
+ * parse, the whole page fails the same way with an [IOException] - storing the rest would leave a gap
+ * in the page's post indices, and the page's thread data would claim posts that were never stored.
+ *
+ * Since posts are removed from the tree as they're found, the [Document] returned by [parse] only
+ * contains the page furniture (title, breadcrumbs, buttons etc.) - enough for [ThreadPageParseTask]
+ * to update the thread's metadata, using [postCount] instead of parsing the posts again.
+ *
+ * @param resolver      used to read the current thread data and stored posts
+ * @param threadId      the ID of the thread this page belongs to
+ * @param pageNumber    the number of this page in the thread
+ * @param postsPerPage  the posts-per-page setting used to fetch this page
+ * @param filterUserId  if the page is from the thread filtered to one user's posts, that user's ID,
+ * otherwise 0
+ */
+class PostStreamParser(
+    private val resolver: ContentResolver,
+    private val threadId: Int,
+    private val pageNumber: Int,
+    private val postsPerPage: Int,
+    private val filterUserId: Int
+) {
+
+    private val rewriter = PostContentRewriter.forStorage()
+
+    /** The posts on the page that need storing, in order, once [parse] has finished */
+    val posts = ArrayList<ContentValues>()
+
+    /** The number of posts on the page, including any that are already stored, once [parse] has finished */
+    val postCount: Int
+        get() = unchangedCount + posts.size
+
+    /** The index of the last post the site had marked as seen, or 0 if there weren't any, once [parse] has finished */
+    var lastSeenIndex = 0
+        private set
+
+    /** Whether the site marked each poster on the page as ignored, by user ID, once [parse] has finished */
+    val posters = HashMap<Int, Boolean>()
+
+    /** posts that matched their stored fingerprint, so they didn't need parsing or writing */
+    private var unchangedCount = 0
+
+    /**
+     * Stream the page [html], parsing each post as it's found.
+     *
+     * This blocks until the whole page has been read and every post has been parsed.
+     *
+     * @return the page document, minus its posts
+     */
+    @Throws(IOException::class)
+    fun parse(html: Reader): Document {
+        val startTime = System.currentTimeMillis()
+        val updateTime = Timestamp(startTime).toString()
+
+        // we need these before we see any posts, so they come from the stored thread data
+        val thread = ThreadPageParseTask.loadThread(resolver, threadId)
+        var index = AwfulPagedItem.pageToIndex(pageNumber, postsPerPage, 0)
+        val storedFingerprints = AwfulPost.getStoredFingerprints(resolver, threadId, index, postsPerPage, filterUserId)
+
+        val pending = ArrayDeque<Future<ContentValues?>>()
+
+        StreamParser(Parser.htmlParser()).use { parser ->
+            parser.parse(html, BASE_URL)
+            while (true) {
+                checkNotCancelled(pending)
+                val post = parser.selectNext(".post") ?: break
+                // detach it so the parser can't touch it while it's being worked on, and so it can be GC'd afterwards
+                post.remove()
+                if (PostParseTask.isMarkedSeen(post)) {
+                    lastSeenIndex = maxOf(lastSeenIndex, PostParseTask.indexOf(post, index))
+                }
+                PostParseTask.posterIdOf(post)?.let { posters[it] = PostParseTask.isMarkedIgnored(post) }
+                pending.add(submitParseTask(PostParseTask(post, updateTime, index, threadId, thread.authorId, rewriter, storedFingerprints, filterUserId)))
+                index++
+
+                collectFinished(pending, wait = false)
+            }
+            collectFinished(pending, wait = true)
+            checkNotCancelled(pending)
+
+            Timber.i("%d posts streamed (%d unchanged) in %dms", postCount, unchangedCount, System.currentTimeMillis() - startTime)
+            return parser.complete()
+        }
+    }
+
+
+    /**
+     * Move completed tasks from the front of the [pending] queue to [posts], keeping them in post order.
+     *
+     * If [wait] is true this blocks until every task has finished, otherwise it stops at the first one
+     * that's still running. Posts that match their stored fingerprint are counted but not added to [posts].
+     *
+     * @throws IOException if a post failed to parse, after cancelling any outstanding work
+     */
+    @Throws(IOException::class)
+    private fun collectFinished(pending: ArrayDeque<Future<ContentValues?>>, wait: Boolean) {
+        while (pending.isNotEmpty() && (wait || pending.first().isDone)) {
+            try {
+                // posts that haven't changed since they were stored don't need writing
+                pending.removeFirst().get()?.let(posts::add) ?: unchangedCount++
+            } catch (e: ExecutionException) {
+                cancelAll(pending)
+                throw IOException("Failed to parse post in thread $threadId page $pageNumber", e.cause)
+            } catch (e: InterruptedException) {
+                Timber.w(e, "Interrupted while parsing posts in thread %d", threadId)
+                java.lang.Thread.currentThread().interrupt()
+                return
+            }
+        }
+    }
+
+
+    /**
+     * Throw an [InterruptedIOException] if this thread has been interrupted, cancelling any [pending] tasks.
+     */
+    private fun checkNotCancelled(pending: ArrayDeque<Future<ContentValues?>>) {
+        if (!java.lang.Thread.currentThread().isInterrupted) return
+        cancelAll(pending)
+        throw InterruptedIOException("Parsing cancelled for thread $threadId page $pageNumber")
+    }
+
+
+    /**
+     * Cancel any [pending] tasks.
+     */
+    private fun cancelAll(pending: ArrayDeque<Future<ContentValues?>>) {
+        pending.forEach { it.cancel(true) }
+        pending.clear()
+    }
+}
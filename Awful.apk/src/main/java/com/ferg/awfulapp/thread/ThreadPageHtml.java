@@ -0,0 +1,142 @@
+package com.ferg.awfulapp.thread;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The HTML for a page of posts, produced by {@link AwfulHtmlPage#renderThreadPage}, along with where
+ * each post's HTML is within it.
+ * <p>
+ * This lets a WebView that's already displaying a version of the page update just the posts that
+ * have changed (see {@link com.ferg.awfulapp.webview.AwfulWebView#setThreadPage}), instead of
+ * replacing the whole page. Each post is identified by its ID, and has a hash of its rendered HTML -
+ * anything that changes how a post is displayed (an edit, its read state, the user's settings)
+ * changes its HTML, so posts with the same hash can be left as they are.
+ */
+public final class ThreadPageHtml {
+
+    @NonNull
+    private final String html;
+    private final int headerStart;
+    private final int headerEnd;
+    private final int footerStart;
+    private final int footerEnd;
+    @NonNull
+    private final String[] postIds;
+    private final int[] postStarts;
+    private final int[] postEnds;
+    /** calculated when they're first needed, since most pages never get compared */
+    @Nullable
+    private int[] postHashes = null;
+
+
+    /**
+     * @param html     the whole page's HTML
+     * @param postIds  each post's ID, in page order
+     * @param postStarts where each post's HTML starts
+     * @param postEnds where each post's HTML ends
+     */
+    ThreadPageHtml(@NonNull String html, int headerStart, int headerEnd, int footerStart, int footerEnd,
+                   @NonNull String[] postIds, int[] postStarts, int[] postEnds) {
+        this.html = html;
+        this.headerStart = headerStart;
+        this.headerEnd = headerEnd;
+        this.footerStart = footerStart;
+        this.footerEnd = footerEnd;
+        this.postIds = postIds;
+        this.postStarts = postStarts;
+        this.postEnds = postEnds;
+    }
+
+    /**
+     * Build a page from its parts, as {@link AwfulHtmlPage#renderThreadPage} would lay it out.
+     *
+     * @param postIds   each post's ID, in page order
+     * @param postsHtml each post's HTML, in the same order
+     */
+    @VisibleForTesting
+    @NonNull
+    public static ThreadPageHtml of(@NonNull String headerHtml, @NonNull String[] postIds, @NonNull String[] postsHtml, @NonNull String footerHtml) {
+        StringBuilder html = new StringBuilder(headerHtml);
+        int[] postStarts = new int[postIds.length];
+        int[] postEnds = new int[postIds.length];
+        for (int i = 0; i < postIds.length; i++) {
+            postStarts[i] = html.length();
+            html.append(postsHtml[i]);
+            postEnds[i] = html.length();
+        }
+        int footerStart = html.length();
+        html.append(footerHtml);
+        return new ThreadPageHtml(html.toString(), 0, headerHtml.length(), footerStart, html.length(), postIds, postStarts, postEnds);
+    }
+
+    /** Same as {@link String#hashCode()} for the substring, without copying it out */
+    private static int hash(String text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+
+    /** The whole page's HTML */
+    @NonNull
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * Whether every post on the page can be told apart by its ID, so it can be updated on its own.
+     * Pages that weren't read from the database (e.g. announcements) have no post IDs.
+     */
+    public boolean hasPostIds() {
+        Set<String> seen = new HashSet<>();
+        for (String id : postIds) {
+            if (id.isEmpty() || !seen.add(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getPostCount() {
+        return postIds.length;
+    }
+
+    @NonNull
+    public String getPostId(int i) {
+        return postIds[i];
+    }
+
+    public synchronized int getPostHash(int i) {
+        if (postHashes == null) {
+            postHashes = new int[postIds.length];
+            for (int post = 0; post < postIds.length; post++) {
+                postHashes[post] = hash(html, postStarts[post], postEnds[post]);
+            }
+        }
+        return postHashes[i];
+    }
+
+    @NonNull
+    public String getPostHtml(int i) {
+        return html.substring(postStarts[i], postEnds[i]);
+    }
+
+    /** Anything displayed before the posts, like the link to show previously read posts */
+    @NonNull
+    public String getHeaderHtml() {
+        return html.substring(headerStart, headerEnd);
+    }
+
+    /** Anything displayed after the posts, like the last page's unread marker */
+    @NonNull
+    public String getFooterHtml() {
+        return html.substring(footerStart, footerEnd);
+    }
+}
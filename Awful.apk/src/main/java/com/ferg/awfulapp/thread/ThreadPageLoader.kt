@@ -0,0 +1,102 @@
+package com.ferg.awfulapp.thread
+
+import android.content.Context
+import android.net.Uri
+import androidx.loader.content.AsyncTaskLoader
+import com.ferg.awfulapp.preferences.AwfulPreferences
+import com.ferg.awfulapp.provider.AwfulProvider
+import com.samskivert.mustache.Template
+
+/**
+ * Loads a page of posts from the database and renders it as HTML, off the main thread.
+ *
+ * The posts are queried without their content (see [AwfulProvider.PostMetadataProjection]), which a
+ * [PostContentLoader] then loads a chunk at a time as they're rendered - so none of the database reads
+ * or the rendering happen on the main thread, and it only has to display the [RenderedPage]. Like a
+ * CursorLoader, this loads the page again whenever any of its posts change.
+ *
+ * The settings the page is rendered with are taken on the main thread each time a load starts, since
+ * looking up the post template can show a Toast.
+ *
+ * @param pageUri    the page of posts to load, e.g. [AwfulPost.threadPageUri]
+ * @param pageNumber the number of the page in the thread
+ * @param lastPage   gets the number of the thread's last page, when a load starts
+ */
+class ThreadPageLoader(
+    context: Context,
+    private val pageUri: Uri,
+    private val pageNumber: Int,
+    private val lastPage: () -> Int
+) : AsyncTaskLoader<ThreadPageLoader.RenderedPage>(context) {
+
+    /**
+     * A rendered page of posts.
+     *
+     * @param postCount the number of posts on the page
+     * @param prefs     the settings the page was rendered with
+     */
+    class RenderedPage(val html: ThreadPageHtml, val postCount: Int, val prefs: PostRenderPreferences)
+
+    private class RenderSettings(val prefs: PostRenderPreferences, val template: Template?, val lastPage: Int)
+
+    private val observer = ForceLoadContentObserver()
+    private var observing = false
+    private var result: RenderedPage? = null
+    @Volatile
+    private var settings: RenderSettings? = null
+
+
+    override fun onForceLoad() {
+        val prefs = AwfulPreferences.getInstance(context)
+        settings = RenderSettings(PostRenderPreferences.from(prefs), AwfulHtmlPage.findPostTemplate(prefs), lastPage())
+        super.onForceLoad()
+    }
+
+    override fun loadInBackground(): RenderedPage? {
+        val settings = settings ?: return null
+        val resolver = context.contentResolver
+        val page = resolver.query(pageUri, AwfulProvider.PostMetadataProjection, null, null, SORT_ORDER)
+            ?.use { PostPage.fromCursor(it, resolver, pageUri) }
+            ?: return null
+        val html = AwfulHtmlPage.renderThreadPage(page, settings.prefs, settings.template, pageNumber, settings.lastPage)
+        return RenderedPage(html, page.size(), settings.prefs)
+    }
+
+    override fun deliverResult(data: RenderedPage?) {
+        if (isReset) {
+            return
+        }
+        result = data
+        if (isStarted) {
+            super.deliverResult(data)
+        }
+    }
+
+    override fun onStartLoading() {
+        if (!observing) {
+            context.contentResolver.registerContentObserver(pageUri, true, observer)
+            observing = true
+        }
+        result?.let(::deliverResult)
+        if (takeContentChanged() || result == null) {
+            forceLoad()
+        }
+    }
+
+    override fun onStopLoading() {
+        cancelLoad()
+    }
+
+    override fun onReset() {
+        onStopLoading()
+        result = null
+        if (observing) {
+            context.contentResolver.unregisterContentObserver(observer)
+            observing = false
+        }
+    }
+
+    private companion object {
+        const val SORT_ORDER = "${AwfulPost.POST_INDEX} ASC"
+    }
+}
@@ -0,0 +1,95 @@
+package com.ferg.awfulapp.users
+
+import android.content.ContentProviderOperation
+import android.content.ContentResolver
+import android.content.ContentValues
+import android.net.Uri
+import com.ferg.awfulapp.constants.Constants
+import com.ferg.awfulapp.provider.DatabaseHelper
+import com.ferg.awfulapp.task.IgnoreListRequest
+import java.sql.Timestamp
+
+/**
+ * The users on the user's ignore list, kept in the database so posts can be shown as ignored when
+ * they're queried, instead of when they're stored.
+ *
+ * The whole list is fetched from the site when the app syncs at startup, and after the user ignores
+ * someone in the app (see [IgnoreListRequest]). In between, it's kept up to date from the posts
+ * the site marks as ignored on every thread page that's parsed (see [addWrites]). Any change is
+ * picked up straight away by every cached thread that has posts by that user, without having to
+ * download those pages again.
+ */
+object IgnoreList {
+
+    const val PATH = "/ignoredusers"
+    @JvmField
+    val CONTENT_URI: Uri = Uri.parse("content://" + Constants.AUTHORITY + PATH)
+
+    const val USER_ID = "user_id"
+
+
+    /**
+     * Get the IDs of all the ignored users.
+     */
+    @JvmStatic
+    fun load(resolver: ContentResolver): Set<Int> =
+        resolver.query(CONTENT_URI, arrayOf(USER_ID), null, null, null)?.use { cursor ->
+            generateSequence { if (cursor.moveToNext()) cursor.getInt(0) else null }.toSet()
+        } ?: emptySet()
+
+
+    /**
+     * Add a user to the list.
+     */
+    @JvmStatic
+    fun ignore(resolver: ContentResolver, userId: Int) {
+        if (userId !in load(resolver)) {
+            resolver.insert(CONTENT_URI, valuesFor(userId))
+        }
+    }
+
+
+    /**
+     * Replace the list with the user's full ignore list from the site.
+     *
+     * @param userIds the IDs of everyone on the list
+     */
+    @JvmStatic
+    fun replace(resolver: ContentResolver, userIds: Set<Int>) {
+        val writes = ArrayList<ContentProviderOperation>()
+        addWrites(resolver, (load(resolver) + userIds).associateWith { it in userIds }, writes)
+        if (writes.isNotEmpty()) {
+            resolver.applyBatch(Constants.AUTHORITY, writes)
+        }
+    }
+
+
+    /**
+     * Add the writes needed to bring the list up to date with the posters on a thread page.
+     *
+     * Only users whose ignored state has changed get written, since any change to the list
+     * refreshes every post that's being displayed.
+     *
+     * @param posters whether the site marked each poster on the page as ignored, by user ID
+     */
+    @JvmStatic
+    fun addWrites(resolver: ContentResolver, posters: Map<Int, Boolean>, writes: MutableList<ContentProviderOperation>) {
+        if (posters.isEmpty()) return
+        val ignored = load(resolver)
+        posters.forEach { (userId, isIgnored) ->
+            if (isIgnored && userId !in ignored) {
+                writes += ContentProviderOperation.newInsert(CONTENT_URI).withValues(valuesFor(userId)).build()
+            } else if (!isIgnored && userId in ignored) {
+                writes += ContentProviderOperation.newDelete(CONTENT_URI)
+                    .withSelection("$USER_ID=?", arrayOf(userId.toString()))
+                    .build()
+            }
+        }
+    }
+
+
+    private fun valuesFor(userId: Int) = ContentValues().apply {
+        put(USER_ID, userId)
+        put(DatabaseHelper.UPDATED_TIMESTAMP, Timestamp(System.currentTimeMillis()).toString())
+    }
+}
@@ -8,7 +8,6 @@ import android.view.View
 import android.view.ViewGroup
 import android.webkit.JavascriptInterface
 import android.webkit.WebView
-import android.webkit.WebViewClient
 import com.android.volley.VolleyError
 import com.ferg.awfulapp.AwfulFragment
 import com.ferg.awfulapp.NavigationEvent
@@ -25,6 +24,7 @@ import com.ferg.awfulapp.thread.AwfulURL
 import com.ferg.awfulapp.util.bind
 import com.ferg.awfulapp.util.tryGetInt
 import com.ferg.awfulapp.webview.AwfulWebView
+import com.ferg.awfulapp.webview.AwfulWebViewClient
 import com.ferg.awfulapp.webview.WebViewJsInterface
 import com.ferg.awfulapp.widget.PageBar
 import com.ferg.awfulapp.widget.PagePicker
@@ -244,7 +244,7 @@ class LepersColonyFragment : AwfulFragment(), SwipyRefreshLayout.OnRefreshListen
             @JavascriptInterface
             fun getPostJump(): String = ""
         })
-        webViewClient = object : WebViewClient() {
+        webViewClient = object : AwfulWebViewClient() {
             override fun shouldOverrideUrlLoading(aView: WebView, url: String): Boolean {
                 url.run(AwfulURL::parse).run(NavigationEvent::Url).run(::navigate)
                 return true
@@ -4,13 +4,17 @@ import android.content.Context;
 import android.graphics.Color;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import android.net.Uri;
 import android.util.AttributeSet;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
+import android.webkit.WebViewClient;
 
 import com.ferg.awfulapp.constants.Constants;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.thread.AwfulHtmlPage;
+import com.ferg.awfulapp.thread.ThreadPageHtml;
 
 import timber.log.Timber;
 
@@ -29,13 +33,15 @@ import static com.ferg.awfulapp.constants.Constants.DEBUG;
  * To use it, add it to a layout. Call {@link #setContent(String)} to display some HTML,
  * and use {@link #setJavascriptHandler(WebViewJsInterface)} if you want to handle some
  * JavaScript on the page. By default this uses a {@link LoggingWebChromeClient} to add
- * some debug logging, and the default {@link android.webkit.WebViewClient}. You should
- * call {@link #onPause()} and {@link #onResume()} to handle those lifecycle events.
+ * some debug logging, and an {@link AwfulWebViewClient} - any other client needs to extend that,
+ * since it serves the page content. You should call {@link #onPause()} and {@link #onResume()}
+ * to handle those lifecycle events.
  * <p>
  * Most of the time you'll want to use {@link #setContent(String)} to add the template from
  * {@link AwfulHtmlPage#getContainerHtml(AwfulPreferences, Integer, boolean)}, which
  * loads the HTML, CSS and JS for displaying thread content, and then use {@link #setBodyHtml(String)}
- * to add and display that content. {@link #setJavascriptHandler(WebViewJsInterface)} needs to be
+ * to add and display that content - or {@link #setThreadPage(String, ThreadPageHtml)} for thread
+ * pages, which can be updated in place. {@link #setJavascriptHandler(WebViewJsInterface)} needs to be
  * called, since the thread JS relies on it.
  * <p>
  * You can also run arbitrary JavaScript code with the {@link #runJavascript(String)} method.
@@ -50,7 +56,7 @@ public class AwfulWebView extends WebView {
     private static final String HANDLER_NAME_IN_JAVASCRIPT = "listener";
 
     @Nullable
-    private WebViewJsInterface jsInterface = null;
+    private volatile WebViewJsInterface jsInterface = null;
 
     public AwfulWebView(Context context) {
         super(context);
@@ -80,6 +86,7 @@ public class AwfulWebView extends WebView {
         AwfulPreferences prefs = AwfulPreferences.getInstance();
         WebSettings webSettings = getSettings();
         setWebChromeClient(new LoggingWebChromeClient(this));
+        setWebViewClient(new AwfulWebViewClient());
         setKeepScreenOn(false); // explicitly setting this since some people are complaining the screen stays on until they toggle it on and off
 
         setBackgroundColor(Color.TRANSPARENT);
@@ -104,6 +111,19 @@ public class AwfulWebView extends WebView {
     }
 
 
+    /**
+     * Set the WebViewClient - this should be an {@link AwfulWebViewClient}, which serves the page
+     * content to the page's JavaScript.
+     */
+    @Override
+    public void setWebViewClient(@NonNull WebViewClient client) {
+        if (!(client instanceof AwfulWebViewClient)) {
+            Timber.w("%s isn't an AwfulWebViewClient, page content won't load", client.getClass().getName());
+        }
+        super.setWebViewClient(client);
+    }
+
+
     @Override
     public void onPause() {
         pauseTimers();
@@ -127,6 +147,7 @@ public class AwfulWebView extends WebView {
      */
     public void setJavascriptHandler(@NonNull WebViewJsInterface handler) {
         jsInterface = handler;
+        handler.setWebView(this);
         addJavascriptInterface(handler, HANDLER_NAME_IN_JAVASCRIPT);
     }
 
@@ -159,12 +180,27 @@ public class AwfulWebView extends WebView {
     }
 
 
+    /**
+     * Run some JavaScript once the page content has been displayed.
+     * <p>
+     * The content is fetched asynchronously by <i>thread.js</i>, so anything that works on the
+     * displayed posts has to wait for a fetch that's still in progress - otherwise it would run
+     * against the old content, which then gets replaced. This calls the #afterPageContent function,
+     * which runs the code straight away if nothing is being fetched.
+     *
+     * @param javascript the code to run
+     */
+    public void runJavascriptAfterContent(@NonNull String javascript) {
+        runJavascript("afterPageContent(function() {" + javascript + "})");
+    }
+
+
     /**
      * Calls the javascript function that displays the current body HTML
      * <p>
-     * This calls the #loadPageHtml function in <i>thread.js</i>, which displays the HTML passed to
-     * {@link #setBodyHtml(String)}. Calling this with unchanged HTML acts as a refresh, resetting
-     * the displayed state of that page.
+     * This calls the #loadPageHtml function in <i>thread.js</i>, which fetches and displays the HTML
+     * passed to {@link #setBodyHtml(String)}. Calling this with unchanged HTML acts as a refresh,
+     * resetting the displayed state of that page.
      *
      */
     public void refreshPageContents() {
@@ -184,12 +220,44 @@ public class AwfulWebView extends WebView {
             Timber.w("Attempted to set html with no JS interface handler added");
             return;
         }
-        if (html != null && html.hashCode() == jsInterface.getBodyHtml().hashCode()) {
-            Timber.d("New HTML appears to match the current HTML, not updating");
+        if (!jsInterface.setBodyHtml(html)) {
+            Timber.d("New HTML matches the current HTML, not updating");
             return;
         }
-        jsInterface.setBodyHtml(html);
         refreshPageContents();
     }
 
+
+    /**
+     * Set and display a page of a thread.
+     * <p>
+     * If the same page (as identified by the key) is already displayed, only the posts that have
+     * changed are replaced, through the #updatePageHtml function in <i>thread.js</i>. That keeps the
+     * scroll position, and anything loaded in the other posts - and if nothing has changed, nothing
+     * is replaced. Otherwise this acts like {@link #setBodyHtml(String)}.
+     *
+     * @param pageKey identifies which page of which thread this is, e.g. the thread ID and page number
+     */
+    public void setThreadPage(@NonNull String pageKey, @NonNull ThreadPageHtml page) {
+        if (jsInterface == null) {
+            Timber.w("Attempted to set html with no JS interface handler added");
+            return;
+        }
+        jsInterface.setThreadPage(pageKey, page);
+        runJavascript("updatePageHtml()");
+    }
+
+
+    /**
+     * Serve any requests for content from this WebView's {@link WebViewJsInterface}.
+     * Called by {@link AwfulWebViewClient}, on a WebView thread.
+     *
+     * @return the response, or null if this request should go ahead as normal
+     */
+    @Nullable
+    WebResourceResponse interceptRequest(@NonNull Uri url) {
+        WebViewJsInterface handler = jsInterface;
+        return handler == null ? null : handler.servePageContent(url);
+    }
+
 }
@@ -0,0 +1,30 @@
+package com.ferg.awfulapp.webview;
+
+import androidx.annotation.Nullable;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+/**
+ * The base WebViewClient for {@link AwfulWebView}s.
+ * <p>
+ * This serves the page content from the WebView's {@link WebViewJsInterface}, which <i>thread.js</i>
+ * fetches from {@link WebViewJsInterface#PAGE_CONTENT_URL}. Any client set on an AwfulWebView needs
+ * to extend this (or call through to {@link #shouldInterceptRequest(WebView, WebResourceRequest)}),
+ * or the page won't be able to load anything.
+ */
+public class AwfulWebViewClient extends WebViewClient {
+
+    @Nullable
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (view instanceof AwfulWebView) {
+            WebResourceResponse response = ((AwfulWebView) view).interceptRequest(request.getUrl());
+            if (response != null) {
+                return response;
+            }
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+}
@@ -0,0 +1,79 @@
+package com.ferg.awfulapp.webview;
+
+import androidx.annotation.NonNull;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams some text as UTF-8, encoding it a chunk at a time as it's read, so the whole thing is
+ * never copied into a byte array at once.
+ */
+final class CharSequenceInputStream extends InputStream {
+
+    /** how many chars to encode at a time */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    @NonNull
+    private final CharSequence text;
+    private int position = 0;
+    @NonNull
+    private ByteBuffer encoded = ByteBuffer.allocate(0);
+
+
+    CharSequenceInputStream(@NonNull CharSequence text) {
+        this.text = text;
+    }
+
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        return encoded.get() & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, encoded.remaining());
+        encoded.get(buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return encoded.remaining();
+    }
+
+
+    /**
+     * Encode the next chunk of text if everything encoded so far has been read.
+     *
+     * @return false if there's nothing left to read
+     */
+    private boolean fill() {
+        if (encoded.hasRemaining()) {
+            return true;
+        }
+        if (position >= text.length()) {
+            return false;
+        }
+        int end = Math.min(position + CHUNK_SIZE, text.length());
+        // don't split a surrogate pair across chunks, or each half gets encoded as garbage
+        if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text, position, end));
+        position = end;
+        return true;
+    }
+}
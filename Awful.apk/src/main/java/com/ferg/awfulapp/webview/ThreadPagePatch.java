@@ -0,0 +1,64 @@
+package com.ferg.awfulapp.webview;
+
+import androidx.annotation.NonNull;
+
+import com.ferg.awfulapp.thread.ThreadPageHtml;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Works out the changes needed to update a displayed thread page to a new version of it, for
+ * <i>thread.js</i>'s <i>updatePageHtml</i> function to apply.
+ * <p>
+ * The patch lists every post on the new page, in order, by ID. Posts whose HTML has changed (or that
+ * weren't on the displayed page) include their new HTML - any others are left as they are, along
+ * with their loaded images, embeds and videos. Displayed posts that aren't listed get removed. The
+ * page's header and footer are only included if they've changed.
+ */
+final class ThreadPagePatch {
+
+    private ThreadPagePatch() {
+    }
+
+
+    /**
+     * Get the patch from a displayed page to the new version of it, as JSON.
+     *
+     * @param displayed the page that's currently displayed
+     * @param next      the page to update it to
+     */
+    @NonNull
+    static String between(@NonNull ThreadPageHtml displayed, @NonNull ThreadPageHtml next) throws JSONException {
+        Map<String, Integer> displayedHashes = new HashMap<>();
+        for (int i = 0; i < displayed.getPostCount(); i++) {
+            displayedHashes.put(displayed.getPostId(i), displayed.getPostHash(i));
+        }
+
+        JSONArray posts = new JSONArray();
+        for (int i = 0; i < next.getPostCount(); i++) {
+            String id = next.getPostId(i);
+            JSONObject post = new JSONObject().put("id", id);
+            Integer displayedHash = displayedHashes.get(id);
+            if (displayedHash == null || displayedHash != next.getPostHash(i)) {
+                post.put("html", next.getPostHtml(i));
+            }
+            posts.put(post);
+        }
+
+        JSONObject patch = new JSONObject().put("posts", posts);
+        String header = next.getHeaderHtml();
+        if (!header.equals(displayed.getHeaderHtml())) {
+            patch.put("header", header);
+        }
+        String footer = next.getFooterHtml();
+        if (!footer.equals(displayed.getFooterHtml())) {
+            patch.put("footer", footer);
+        }
+        return patch.toString();
+    }
+}
@@ -2,11 +2,21 @@ package com.ferg.awfulapp.webview;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import android.net.Uri;
 import android.webkit.JavascriptInterface;
+import android.webkit.WebResourceResponse;
 
+import com.ferg.awfulapp.constants.Constants;
+import com.ferg.awfulapp.network.EmbedMetadataResolver;
 import com.ferg.awfulapp.preferences.AwfulPreferences;
 import com.ferg.awfulapp.preferences.Keys;
+import com.ferg.awfulapp.thread.ThreadPageHtml;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -25,8 +35,30 @@ public class WebViewJsInterface {
 
     private final Map<String, String> preferences = new ConcurrentHashMap<>();
 
+    /** the path thread.js fetches the page content from, which is served by {@link #servePageContent(Uri)} */
+    static final String PAGE_CONTENT_PATH = "/awful-app/page-content";
+    /** the full URL for {@link #PAGE_CONTENT_PATH} - this never reaches the network */
+    public static final String PAGE_CONTENT_URL = Constants.BASE_URL + PAGE_CONTENT_PATH;
+    /** how many recent thread pages to keep, so the page can be patched from an older one */
+    private static final int KEPT_PAGES = 3;
+
     @NonNull
-    private volatile String bodyHtml = "";
+    private String bodyHtml = "";
+    /** the hash of {@link #bodyHtml} when it was set by {@link #setBodyHtml(String)}, to check new content against */
+    private int bodyHash = 0;
+    /** goes up every time the content changes, so the page can tell which version it has */
+    private long revision = 0;
+    /** the recent thread pages by revision, if the content is a thread page */
+    private final Map<Long, PageVersion> recentPages = new LinkedHashMap<Long, PageVersion>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, PageVersion> eldest) {
+            return size() > KEPT_PAGES;
+        }
+    };
+
+    /** The WebView this handler is attached to, used to push updates back into the page */
+    @Nullable
+    private volatile AwfulWebView webView = null;
 
     public WebViewJsInterface() {
         updatePreferences();
@@ -67,14 +99,122 @@ public class WebViewJsInterface {
     protected void setCustomPreferences(Map<String, String> preferences) {
     }
 
-    @NonNull
-    @JavascriptInterface
-    public final String getBodyHtml() {
-        return bodyHtml;
+    /**
+     * Set the content to display, if it's changed.
+     *
+     * The new content is checked against a hash of the current content, rather than comparing the
+     * whole strings.
+     *
+     * @return false if the content was already set to this
+     */
+    final synchronized boolean setBodyHtml(@Nullable String html) {
+        html = (html == null) ? "" : html;
+        int hash = html.hashCode();
+        if (recentPages.isEmpty() && hash == bodyHash && html.length() == bodyHtml.length()) {
+            return false;
+        }
+        bodyHtml = html;
+        bodyHash = hash;
+        revision++;
+        recentPages.clear();
+        return true;
     }
 
-    final void setBodyHtml(@Nullable String html) {
-        bodyHtml = (html == null) ? "" : html;
+    /**
+     * Set a thread page as the content to display.
+     *
+     * @param pageKey identifies which page this is - the page can only be patched from an earlier
+     *                version with the same key
+     */
+    final synchronized void setThreadPage(@NonNull String pageKey, @NonNull ThreadPageHtml page) {
+        bodyHtml = page.getHtml();
+        revision++;
+        recentPages.put(revision, new PageVersion(pageKey, page));
+    }
+
+    /**
+     * Serve the page content, if this is a request for it.
+     * <p>
+     * Requests to {@link #PAGE_CONTENT_URL} pass the revision the page already has, if any. If that's
+     * an earlier version of the current thread page, the response is a patch to bring it up to date
+     * (see {@link ThreadPagePatch}), otherwise it's the whole content. The response headers say which
+     * it is, and which revision it brings the page to. The content is streamed out as the WebView
+     * reads it, on its own thread.
+     *
+     * @return the response, or null if this isn't a page content request
+     */
+    @Nullable
+    final WebResourceResponse servePageContent(@NonNull Uri url) {
+        if (!PAGE_CONTENT_PATH.equals(url.getPath()) || !Uri.parse(Constants.BASE_URL).getHost().equals(url.getHost())) {
+            return null;
+        }
+        long have = parseRevision(url.getQueryParameter("have"));
+
+        String content = null;
+        String contentType = "full";
+        long current;
+        synchronized (this) {
+            current = revision;
+            PageVersion latest = recentPages.get(current);
+            PageVersion had = recentPages.get(have);
+            if (latest != null && had != null && latest.key.equals(had.key)
+                    && latest.page.hasPostIds() && had.page.hasPostIds()) {
+                try {
+                    content = ThreadPagePatch.between(had.page, latest.page);
+                    contentType = "patch";
+                } catch (JSONException e) {
+                    Timber.w(e, "Couldn't create page patch");
+                }
+            }
+            if (content == null) {
+                content = bodyHtml;
+            }
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        headers.put("X-Page-Revision", Long.toString(current));
+        headers.put("X-Page-Content", contentType);
+        if ("patch".equals(contentType)) {
+            headers.put("X-Page-Base", Long.toString(have));
+        }
+        String mimeType = "patch".equals(contentType) ? "application/json" : "text/html";
+        return new WebResourceResponse(mimeType, "UTF-8", 200, "OK", headers, new CharSequenceInputStream(content));
+    }
+
+    private static long parseRevision(@Nullable String revision) {
+        try {
+            return revision == null ? 0 : Long.parseLong(revision);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    final void setWebView(@Nullable AwfulWebView view) {
+        webView = view;
+    }
+
+    /**
+     * Look up the resolved link for a Vimeo video.
+     * <p>
+     * This returns straight away, so the JS bridge thread isn't held up - the link is looked up in
+     * the cache (or fetched) in the background, and when it's available the page's
+     * <i>updateVimeoLinks</i> function is called to patch the placeholder links for that video.
+     *
+     * @param videoId the video's Vimeo ID
+     */
+    @JavascriptInterface
+    public final void resolveVimeoUrl(String videoId) {
+        AwfulWebView view = webView;
+        if (view == null || videoId == null) {
+            return;
+        }
+        EmbedMetadataResolver.INSTANCE.lookupVimeo(view.getContext(), videoId, embed -> {
+            AwfulWebView target = webView;
+            if (target != null) {
+                target.evaluateJavascript(String.format("updateVimeoLinks(%s, %s)", JSONObject.quote(videoId), JSONObject.quote(embed.url)), null);
+            }
+        });
     }
 
     @JavascriptInterface
@@ -89,4 +229,20 @@ public class WebViewJsInterface {
     }
 
     // TODO: 28/01/2017 work out if any other common interface methods can go in here
+
+
+    /**
+     * A thread page that was set as the content, and the key for which page it is.
+     */
+    private static final class PageVersion {
+        @NonNull
+        final String key;
+        @NonNull
+        final ThreadPageHtml page;
+
+        PageVersion(@NonNull String key, @NonNull ThreadPageHtml page) {
+            this.key = key;
+            this.page = page;
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package com.ferg.awfulapp.network;
+
+import com.ferg.awfulapp.network.HtmlPruner.PruneRule;
+import com.ferg.awfulapp.network.HtmlPruner.PrunedHtml;
+import com.ferg.awfulapp.task.AwfulStrippedRequest;
+import com.ferg.awfulapp.task.AwfulStrippedRequest.StrippedHtml;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Checks the byte-level pruning done to responses before they're parsed, particularly the markup that
+ * could trip up a scanner that isn't a real HTML parser.
+ */
+public class HtmlPrunerTest {
+
+    private static final Charset SITE_CHARSET = Charset.forName(SITE_HTML_ENCODING);
+
+    private static final String PAGE_SELECTOR =
+            "<div class=\"pages\"><select data-url=\"showthread.php?threadid=1\">" +
+            "<option value=\"1\">1</option>\n<option value=\"2\" selected=\"selected\">2</option>\n" +
+            "<option value=\"3\">3</option>\n</select></div>";
+
+
+    @Test
+    public void prune_removesMatchingElementsAndTheirContents() {
+        String html = "<p>before</p><div id=\"ad_top\"><div><b>ad</b></div></div><p>after</p>";
+        assertThat(prune(HtmlPruner.ADS, html), is("<p>before</p><p>after</p>"));
+    }
+
+
+    @Test
+    public void prune_removesNestedAdContainersWhole() {
+        String html = "<div id=\"ad_outer\"><div id=\"ad_inner\">one</div><div>two</div></div><p>kept</p>";
+        assertThat(prune(HtmlPruner.ADS, html), is("<p>kept</p>"));
+    }
+
+
+    @Test
+    public void prune_onlyMatchesAttributeValuePrefix() {
+        String html = "<div id=\"head_ad\">a</div><div class=\"ad_x\">b</div><div data-id=\"ad_x\">c</div>";
+        assertThat(prune(HtmlPruner.ADS, html), is(html));
+    }
+
+
+    @Test
+    public void prune_matchesExactAttributeValue() {
+        String html = "<div id=\"globalmenus\">a</div><div id=\"globalmenu\">b</div>";
+        assertThat(prune(HtmlPruner.SITE_NAVIGATION, html), is("<div id=\"globalmenus\">a</div>"));
+    }
+
+
+    @Test
+    public void prune_ignoresCaseOfTagsAndAttributes() {
+        assertThat(prune(HtmlPruner.ADS, "<DIV ID=\"ad_x\"><Div>a</DIV></div>kept"), is("kept"));
+    }
+
+
+    @Test
+    public void prune_handlesSingleQuotedAndSelfClosingElements() {
+        assertThat(prune(HtmlPruner.ADS, "<div id='ad_x'>a</div>kept"), is("kept"));
+        assertThat(prune(HtmlPruner.ADS, "<div id=\"ad_x\"/>kept"), is("kept"));
+    }
+
+
+    @Test
+    public void prune_leavesUnquotedAttributeValues() {
+        String html = "<div id=ad_x>a</div>";
+        assertThat(prune(HtmlPruner.ADS, html), is(html));
+    }
+
+
+    @Test
+    public void prune_skipsTagEndsInQuotedAttributeValues() {
+        assertThat(prune(HtmlPruner.ADS, "<div title=\"a > b\" id=\"ad_x\">a</div>kept"), is("kept"));
+        assertThat(prune(HtmlPruner.ADS, "<div id=\"ad_x\"><a title=\"</div>\">a</a></div>kept"), is("kept"));
+    }
+
+
+    @Test
+    public void prune_doesNotEndElementAtClosingTagInScript() {
+        String html = "<div id=\"ad_x\"><script>var s = \"</div>\";</script>ad</div><p>kept</p>";
+        assertThat(prune(HtmlPruner.ADS, html), is("<p>kept</p>"));
+    }
+
+
+    @Test
+    public void prune_ignoresMarkupInsideScriptsAndStyles() {
+        String html = "<script>document.write('<div id=\"ad_x\">a</div>');</script>" +
+                "<style>div[id^=\"ad_\"] { content: '<div id=\"ad_y\">'; }</style><p>kept</p>";
+        assertThat(prune(HtmlPruner.ADS, html), is(html));
+    }
+
+
+    @Test
+    public void prune_ignoresMarkupInsideComments() {
+        String html = "<!-- <div id=\"ad_x\">a</div> --><p>kept</p>";
+        assertThat(prune(HtmlPruner.ADS, html), is(html));
+        assertThat(prune(HtmlPruner.ADS, "<div id=\"ad_x\"><!-- </div> -->a</div><p>kept</p>"), is("<p>kept</p>"));
+    }
+
+
+    @Test
+    public void prune_leavesUnclosedElements() {
+        String html = "<p>kept</p><div id=\"ad_x\"><p>never closed";
+        assertThat(prune(HtmlPruner.ADS, html), is(html));
+    }
+
+
+    @Test
+    public void prune_leavesUnterminatedTags() {
+        String html = "<p>kept</p><div id=\"ad_x\"";
+        assertThat(prune(HtmlPruner.ADS, html), is(html));
+        String unterminatedQuote = "<div id=\"ad_x>a</div><p>kept</p>";
+        assertThat(prune(HtmlPruner.ADS, unterminatedQuote), is(unterminatedQuote));
+    }
+
+
+    @Test
+    public void prune_removesScriptsAndStyles() {
+        String html = "<head><script src=\"a.js\"></script><style>p { color: red; }</style></head>" +
+                "<body><script>if (a < b) { x = '</p>'; }</script><p>kept</p></body>";
+        assertThat(prune(HtmlPruner.SCRIPTS_AND_STYLES, html), is("<head></head><body><p>kept</p></body>"));
+    }
+
+
+    @Test
+    public void prune_keepsSiteEncodedText() {
+        String html = "<p>“quoted” café</p><div id=\"ad_x\">a</div>";
+        assertThat(prune(HtmlPruner.ADS, html), is("<p>“quoted” café</p>"));
+    }
+
+
+    @Test
+    public void prune_onlyReadsTheGivenLength() {
+        byte[] html = "<p>kept</p><div id=\"ad_x\">a</div><p>not read</p>".getBytes(SITE_CHARSET);
+        int length = "<p>kept</p><div id=\"ad_x\">a</div>".length();
+        assertThat(toString(new HtmlPruner(HtmlPruner.ADS).prune(html, length)), is("<p>kept</p>"));
+    }
+
+
+    @Test
+    public void prune_withNoRules_returnsTheOriginalBytes() {
+        byte[] html = "<script>a</script><p>kept</p>".getBytes(SITE_CHARSET);
+        PrunedHtml pruned = new HtmlPruner(Collections.emptyList()).prune(html);
+        assertThat(pruned.getData(), is(sameInstance(html)));
+        assertThat(pruned.getLength(), is(html.length));
+    }
+
+
+    @Test
+    public void prune_passesPrunedElementsToListener() {
+        List<String> pruned = new ArrayList<>();
+        PruneRule rule = new PruneRule("div", "id", "ad_", true, null)
+                .withListener((html, start, end) -> pruned.add(new String(html, start, end - start, SITE_CHARSET)));
+        String html = "<div id=\"ad_1\">a</div><p>kept</p><div id=\"ad_2\"><div>b</div></div>";
+        assertThat(prune(Collections.singletonList(rule), html), is("<p>kept</p>"));
+        assertThat(pruned.size(), is(2));
+        assertThat(pruned.get(0), is("<div id=\"ad_1\">a</div>"));
+        assertThat(pruned.get(1), is("<div id=\"ad_2\"><div>b</div></div>"));
+    }
+
+
+    @Test
+    public void stripPage_removesPageSelectorsAndReadsTheirValues() {
+        String html = "<p>top</p>" + PAGE_SELECTOR + "<p>posts</p>" + PAGE_SELECTOR.replace("\"2\" selected", "\"2\"") + "<p>end</p>";
+        StrippedHtml stripped = AwfulStrippedRequest.stripPage(html.getBytes(SITE_CHARSET), AwfulStrippedRequest.LISTING_PAGE_RULES);
+        assertThat(toString(stripped.getHtml()), is("<p>top</p><div class=\"pages\"></div><p>posts</p><div class=\"pages\"></div><p>end</p>"));
+        assertThat(stripped.getSelectedPage(), is(2));
+        assertThat(stripped.getLastPage(), is(3));
+    }
+
+
+    @Test
+    public void stripPage_withoutPageSelectors_hasNoPageValues() {
+        StrippedHtml stripped = AwfulStrippedRequest.stripPage("<p>one page</p>".getBytes(SITE_CHARSET), AwfulStrippedRequest.LISTING_PAGE_RULES);
+        assertThat(toString(stripped.getHtml()), is("<p>one page</p>"));
+        assertThat(stripped.getSelectedPage(), is(nullValue()));
+        assertThat(stripped.getLastPage(), is(nullValue()));
+    }
+
+
+    private static String prune(List<PruneRule> rules, String html) {
+        return toString(new HtmlPruner(rules).prune(html.getBytes(SITE_CHARSET)));
+    }
+
+    private static String toString(PrunedHtml html) {
+        return new String(html.getData(), 0, html.getLength(), SITE_CHARSET);
+    }
+}
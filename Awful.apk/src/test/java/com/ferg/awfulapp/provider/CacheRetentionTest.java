@@ -0,0 +1,152 @@
+package com.ferg.awfulapp.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Checks which threads {@link CacheRetention#evictThreads} picks to evict, and that everything cached
+ * for them goes with them.
+ */
+public class CacheRetentionTest {
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        DatabaseHelper.createSchema(this::execute);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+
+    @Test
+    public void evictThreads_keepsBookmarkedThreads() throws SQLException {
+        addThread(1, null);
+        addThread(2, null);
+        execute("UPDATE threads SET bookmarked=1 WHERE _id=1");
+        evict(10);
+        assertThat(threadIds(), is(Arrays.asList(1)));
+    }
+
+
+    @Test
+    public void evictThreads_keepsThreadsInTheUserControlPanel() throws SQLException {
+        addThread(1, null);
+        addThread(2, null);
+        execute("INSERT INTO ucp_thread (_id, thread_index) VALUES (2, 0)");
+        evict(10);
+        assertThat(threadIds(), is(Arrays.asList(2)));
+    }
+
+
+    @Test
+    public void evictThreads_keepsThreadsWithADraftReply() throws SQLException {
+        addThread(1, null);
+        addThread(2, null);
+        addPost(10, 1);
+        execute("INSERT INTO draft_messages (_id, reply_content) VALUES (1, 'a reply')");
+        evict(10);
+        assertThat(threadIds(), is(Arrays.asList(1)));
+        assertThat(postIds("posts"), is(Arrays.asList(10)));
+    }
+
+
+    @Test
+    public void evictThreads_evictsLeastRecentlyViewedFirst() throws SQLException {
+        addThread(1, "1970-01-01 00:00:05");
+        addThread(2, "1970-01-01 00:00:05");
+        // never viewed, so it counts as accessed when it was last listed
+        addThread(3, "1970-01-01 00:00:02");
+        // only has posts cached, so it's never been listed or viewed
+        addPost(40, 4);
+        execute("INSERT INTO thread_access (thread_id, last_accessed) VALUES (1, 3000), (2, 1000)");
+
+        assertThat(evict(2), is(Arrays.asList(1, 3)));
+        assertThat(evict(1), is(Arrays.asList(1)));
+        assertThat(evict(1), is(Arrays.<Integer>asList()));
+    }
+
+
+    @Test
+    public void evictThreads_removesEverythingCachedForTheThread() throws SQLException {
+        addThread(1, null);
+        addThread(2, null);
+        execute("UPDATE threads SET bookmarked=1 WHERE _id=1");
+        addPost(10, 1);
+        addPost(20, 2);
+        addPost(21, 2);
+        execute("INSERT INTO filtered_posts (thread_id, filter_user_id, post_index, _id) VALUES (1, 100, 0, 10), (2, 100, 0, 20)");
+        execute("INSERT INTO filtered_threads (_id, filter_user_id, post_count) VALUES (1, 100, 1), (2, 100, 1)");
+        execute("INSERT INTO thread_access (thread_id, last_accessed) VALUES (1, 1000), (2, 1000)");
+        evict(10);
+
+        assertThat(postIds("posts"), is(Arrays.asList(10)));
+        assertThat(postIds("filtered_posts"), is(Arrays.asList(10)));
+        assertThat(ids("SELECT _id FROM filtered_threads"), is(Arrays.asList(1)));
+        assertThat(ids("SELECT thread_id FROM thread_access"), is(Arrays.asList(1)));
+        assertThat(ids("SELECT docid FROM posts_search ORDER BY docid"), is(Arrays.asList(10)));
+    }
+
+
+    /**
+     * Evict some threads, and return the IDs of the threads that are left.
+     */
+    private List<Integer> evict(int limit) throws SQLException {
+        CacheRetention.evictThreads(JdbcSupportDatabase.wrap(connection), limit, new ChangeNotifications(40));
+        return ids("SELECT _id FROM threads UNION SELECT thread_id FROM posts ORDER BY 1");
+    }
+
+    private void addThread(int threadId, String updated) {
+        execute("INSERT INTO threads (_id, title, timestamp_row_update) VALUES (" + threadId + ", 'a thread', "
+                + (updated == null ? "NULL" : "'" + updated + "'") + ")");
+    }
+
+    /** Add a post, and index it for searching */
+    private void addPost(int postId, int threadId) {
+        execute("INSERT INTO posts (_id, thread_id, post_index) VALUES (" + postId + ", " + threadId + ", " + postId + ")");
+        execute("INSERT INTO posts_search (docid, post_text) VALUES (" + postId + ", 'a post')");
+    }
+
+    private List<Integer> threadIds() throws SQLException {
+        return ids("SELECT _id FROM threads ORDER BY _id");
+    }
+
+    private List<Integer> postIds(String table) throws SQLException {
+        return ids("SELECT _id FROM " + table + " ORDER BY _id");
+    }
+
+    private List<Integer> ids(String sql) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Statement select = connection.createStatement(); ResultSet results = select.executeQuery(sql)) {
+            while (results.next()) {
+                ids.add(results.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private void execute(String sql) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.ferg.awfulapp.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ferg.awfulapp.provider.DatabaseHelper.DATABASE_VERSION;
+import static com.ferg.awfulapp.provider.DatabaseHelper.LAST_LEGACY_VERSION;
+import static com.ferg.awfulapp.provider.DatabaseHelper.MIGRATIONS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Checks the app's most common queries are able to use an index, by looking at SQLite's query plans
+ * for them. Each query here mirrors one the app makes, so if you change one of those (or the schema)
+ * update it here too.
+ */
+public class DatabaseIndexTest {
+
+    private Connection connection;
+    private DatabaseHelper.SqlExecutor executor;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        executor = sql -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+
+    @Test
+    public void newDatabase_hotQueriesUseIndexes() throws SQLException {
+        DatabaseHelper.createSchema(executor);
+        assertHotQueriesUseIndexes();
+    }
+
+
+    @Test
+    public void migratedDatabase_hotQueriesUseIndexes() throws SQLException {
+        // the legacy upgrades leave the tables as they were at the last legacy version, with no indexes
+        createPreviousTables();
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        assertHotQueriesUseIndexes();
+    }
+
+
+    @Test
+    public void migratedDatabase_matchesNewSchema() throws SQLException {
+        DatabaseHelper.createSchema(executor);
+        List<String> newSchema = schema();
+
+        connection.close();
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        createPreviousTables();
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        assertThat(schema(), is(newSchema));
+    }
+
+
+    @Test
+    public void legacyUpgradedDatabase_matchesNewSchema() throws SQLException {
+        DatabaseHelper.createSchema(executor);
+        List<String> newSchema = schema();
+
+        connection.close();
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        createPreviousTables();
+        DatabaseHelper.upgradeLegacySchema(executor, 38);
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        assertThat(schema(), is(newSchema));
+    }
+
+
+    @Test
+    public void postsAreReplacedByThreadAndIndex() throws SQLException {
+        DatabaseHelper.createSchema(executor);
+        executor.execSQL("INSERT OR REPLACE INTO posts (_id, thread_id, post_index, content) VALUES (1, 10, 0, 'old')");
+        executor.execSQL("INSERT OR REPLACE INTO posts (_id, thread_id, post_index, content) VALUES (2, 10, 0, 'new')");
+        executor.execSQL("INSERT OR REPLACE INTO posts (_id, thread_id, post_index, content) VALUES (3, 10, 1, 'other')");
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT _id FROM posts WHERE thread_id=10 AND post_index=0")) {
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(2));
+            assertThat(results.next(), is(false));
+        }
+    }
+
+
+    @Test
+    public void migration_dropsDuplicatePosts() throws SQLException {
+        createPreviousTables();
+        executor.execSQL("INSERT INTO posts (_id, thread_id, post_index) VALUES (1, 10, 0)");
+        executor.execSQL("INSERT INTO posts (_id, thread_id, post_index) VALUES (2, 10, 0)");
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT _id FROM posts")) {
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(2));
+            assertThat(results.next(), is(false));
+        }
+    }
+
+
+    @Test
+    public void migration_rebuildsPostsForRoom() throws SQLException {
+        createPreviousTables();
+        assertThat(columnType("posts", "content"), is("VARCHAR"));
+        executor.execSQL("INSERT INTO posts (_id, thread_id, post_index, content) VALUES (1, 10, 1, 'post')");
+
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        assertThat(columnType("posts", "_id"), is("INTEGER NOT NULL PRIMARY KEY"));
+        assertThat(columnType("posts", "content"), is("BLOB"));
+        assertThat(columnType("posts", "timestamp_row_update"), is("TEXT"));
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT _id, content FROM posts")) {
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(1));
+            assertThat(results.getString(2), is("post"));
+            assertThat(results.next(), is(false));
+        }
+        assertUsesIndex("SELECT * FROM posts WHERE thread_id=? AND post_index>=? AND post_index<? ORDER BY post_index ASC", 1, 0, 40);
+    }
+
+
+    @Test
+    public void migration_movesReadStateToThreads() throws SQLException {
+        createPreviousTables();
+        executor.execSQL("INSERT INTO threads (_id, post_count, unread_count, has_viewed_thread) VALUES (1, 50, 10, 1)");
+        executor.execSQL("INSERT INTO threads (_id, post_count, unread_count, has_viewed_thread) VALUES (2, 50, 50, 0)");
+
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        assertThat(schema(), not(hasItem(containsString("previously_read"))));
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT last_read_index FROM threads ORDER BY _id")) {
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(40));
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(0));
+        }
+    }
+
+
+    @Test
+    public void migration_movesIgnoredStateToIgnoreList() throws SQLException {
+        createPreviousTables();
+        executor.execSQL("INSERT INTO posts (_id, thread_id, post_index, user_id, is_ignored) VALUES (1, 10, 1, 100, 1)");
+        executor.execSQL("INSERT INTO posts (_id, thread_id, post_index, user_id, is_ignored) VALUES (2, 10, 2, 100, 1)");
+        executor.execSQL("INSERT INTO posts (_id, thread_id, post_index, user_id, is_ignored) VALUES (3, 10, 3, 200, 0)");
+
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION);
+        assertThat(schema(), not(hasItem(containsString("is_ignored"))));
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT user_id FROM ignored_users")) {
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(100));
+            assertThat(results.next(), is(false));
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT COUNT(*) FROM posts")) {
+            assertThat(results.next(), is(true));
+            assertThat(results.getInt(1), is(3));
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void migrate_withMissingVersion_throws() {
+        Migration.migrate(executor, MIGRATIONS, LAST_LEGACY_VERSION, DATABASE_VERSION + 1);
+    }
+
+
+    private void assertHotQueriesUseIndexes() throws SQLException {
+        // the posts on a page of a thread (ThreadDisplayFragment, AwfulPost.getStoredFingerprints)
+        assertUsesIndex("SELECT * FROM posts WHERE thread_id=? AND post_index>=? AND post_index<? ORDER BY post_index ASC", 1, 0, 40);
+        // the same, with each post's read and ignored state derived from its thread and the ignore list (AwfulProvider)
+        assertUsesIndex("SELECT posts.*, (posts.post_index <= IFNULL((SELECT last_read_index FROM threads"
+                + " WHERE threads._id=posts.thread_id), 0)) AS previously_read,"
+                + " EXISTS (SELECT 1 FROM ignored_users WHERE ignored_users.user_id=posts.user_id) AS is_ignored FROM posts"
+                + " WHERE thread_id=? AND post_index>=? AND post_index<? ORDER BY post_index ASC", 1, 0, 40);
+        // a page of a thread filtered to one user's posts, and its post count (AwfulProvider)
+        assertUsesIndex("SELECT * FROM filtered_posts WHERE thread_id=? AND filter_user_id=? AND post_index>=? AND post_index<?"
+                + " ORDER BY post_index ASC", 1, 2, 0, 40);
+        assertUsesIndex("SELECT threads.*, filtered_threads.post_count FROM threads LEFT OUTER JOIN filtered_threads"
+                + " ON threads._id=filtered_threads._id AND filtered_threads.filter_user_id=2 WHERE threads._id=?", 1);
+        // the threads on a page of a forum (ForumDisplayFragment, AwfulForum.deletePageOfThreads)
+        assertUsesIndex("SELECT * FROM threads WHERE forum_id=? AND thread_index>=? AND thread_index<? ORDER BY thread_index", 1, 0, 40);
+        assertUsesIndex("DELETE FROM threads WHERE forum_id=? AND thread_index>=? AND thread_index<?", 1, 0, 40);
+        // a page of bookmarks (ForumDisplayFragment, AwfulForum.deletePageOfBookmarks)
+        assertUsesIndex("SELECT * FROM ucp_thread JOIN threads ON ucp_thread._id=threads._id"
+                + " WHERE ucp_thread.thread_index>=? AND ucp_thread.thread_index<? ORDER BY ucp_thread.thread_index", 0, 40);
+        assertUsesIndex("DELETE FROM ucp_thread WHERE thread_index>=? AND thread_index<?", 0, 40);
+        // trimming old data by age (CacheRetention.trim)
+        for (String table : new String[]{"threads", "ucp_thread", "posts", "emotes", "embeds"}) {
+            assertUsesIndex("DELETE FROM " + table + " WHERE timestamp_row_update < datetime('now','-7 days')");
+        }
+    }
+
+
+    /**
+     * Check the query plan for a statement uses an index (or primary key) for every table it touches,
+     * rather than scanning the whole table or building a temporary index.
+     */
+    private void assertUsesIndex(String sql, Object... args) throws SQLException {
+        List<String> plan = queryPlan(sql, args);
+        String description = sql + "\nplan: " + plan;
+        assertThat(description, plan.isEmpty(), is(false));
+        for (String step : plan) {
+            if (step.startsWith("SCAN") || step.startsWith("SEARCH")) {
+                assertThat(description, step, not(containsString("AUTOMATIC")));
+                assertThat(description, step, containsString("USING"));
+            }
+        }
+        assertThat(description, plan, not(hasItem(containsString("TEMP B-TREE"))));
+    }
+
+
+    /**
+     * Create the tables as they were at the last legacy version, which is where the migrations start.
+     */
+    private void createPreviousTables() {
+        SchemaHistory.createTables40(executor);
+    }
+
+
+    /**
+     * All the tables and indexes in the database, as the SQL that would create them.
+     */
+    private List<String> schema() throws SQLException {
+        List<String> schema = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT sql FROM sqlite_master WHERE sql IS NOT NULL ORDER BY name")) {
+            while (results.next()) {
+                schema.add(results.getString(1));
+            }
+        }
+        return schema;
+    }
+
+
+    /**
+     * A column's declared type, plus NOT NULL and PRIMARY KEY if it has those constraints - which is
+     * what Room checks against its entities.
+     */
+    private String columnType(String table, String column) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (results.next()) {
+                if (results.getString("name").equals(column)) {
+                    return results.getString("type")
+                            + (results.getInt("notnull") != 0 ? " NOT NULL" : "")
+                            + (results.getInt("pk") != 0 ? " PRIMARY KEY" : "");
+                }
+            }
+        }
+        throw new AssertionError("No column " + column + " in " + table);
+    }
+
+
+    private List<String> queryPlan(String sql, Object... args) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    plan.add(results.getString("detail"));
+                }
+            }
+        }
+        return plan;
+    }
+}
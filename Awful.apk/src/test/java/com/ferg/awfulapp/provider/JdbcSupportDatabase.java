@@ -0,0 +1,142 @@
+package com.ferg.awfulapp.provider;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link SupportSQLiteDatabase} over a JDBC connection to a desktop SQLite, so the provider's
+ * database code can be run in unit tests. Only the calls that code makes are supported - anything
+ * else throws an {@link UnsupportedOperationException}.
+ */
+final class JdbcSupportDatabase {
+
+    private JdbcSupportDatabase() {
+    }
+
+
+    static SupportSQLiteDatabase wrap(Connection connection) {
+        return proxy(SupportSQLiteDatabase.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "execSQL":
+                    execute(connection, (String) args[0], args.length > 1 ? (Object[]) args[1] : null);
+                    return null;
+                case "query":
+                    if (args[0] instanceof String) {
+                        return query(connection, (String) args[0], args.length > 1 ? (Object[]) args[1] : null);
+                    }
+                    break;
+                case "delete":
+                    String where = (String) args[1];
+                    return execute(connection, "DELETE FROM " + args[0] + (where == null ? "" : " WHERE " + where), (Object[]) args[2]);
+            }
+            throw new UnsupportedOperationException(method.toString());
+        });
+    }
+
+
+    private static int execute(Connection connection, String sql, Object[] args) throws SQLException {
+        try (PreparedStatement statement = prepare(connection, sql, args)) {
+            statement.execute();
+            return statement.getUpdateCount();
+        }
+    }
+
+    private static Cursor query(Connection connection, String sql, Object[] args) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        try (PreparedStatement statement = prepare(connection, sql, args); ResultSet results = statement.executeQuery()) {
+            ResultSetMetaData metaData = results.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnLabel(i));
+            }
+            while (results.next()) {
+                Object[] row = new Object[columns.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = results.getObject(i + 1);
+                }
+                rows.add(row);
+            }
+        }
+        return proxy(Cursor.class, new RowsCursor(columns, rows));
+    }
+
+    private static PreparedStatement prepare(Connection connection, String sql, Object[] args) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int i = 0; args != null && i < args.length; i++) {
+            statement.setObject(i + 1, args[i]);
+        }
+        return statement;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(JdbcSupportDatabase.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+
+    /**
+     * A cursor over some query results that have already been read.
+     */
+    private static final class RowsCursor implements InvocationHandler {
+        private final List<String> columns;
+        private final List<Object[]> rows;
+        private int position = -1;
+
+        RowsCursor(List<String> columns, List<Object[]> rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getCount":
+                    return rows.size();
+                case "moveToFirst":
+                    position = 0;
+                    return !rows.isEmpty();
+                case "moveToNext":
+                    position = Math.min(position + 1, rows.size());
+                    return position < rows.size();
+                case "getColumnIndex":
+                    return columns.indexOf((String) args[0]);
+                case "getColumnIndexOrThrow":
+                    int index = columns.indexOf((String) args[0]);
+                    if (index < 0) {
+                        throw new IllegalArgumentException("No column " + args[0] + " in " + columns);
+                    }
+                    return index;
+                case "isNull":
+                    return value(args) == null;
+                case "getLong":
+                    return value(args) == null ? 0L : ((Number) value(args)).longValue();
+                case "getInt":
+                    return value(args) == null ? 0 : ((Number) value(args)).intValue();
+                case "getString":
+                    return value(args) == null ? null : value(args).toString();
+                case "close":
+                    return null;
+                case "toString":
+                    return columns + " " + Arrays.deepToString(rows.toArray());
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+
+        private Object value(Object[] args) {
+            return rows.get(position)[(Integer) args[0]];
+        }
+    }
+}
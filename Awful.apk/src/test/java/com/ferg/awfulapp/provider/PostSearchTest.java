@@ -0,0 +1,185 @@
+package com.ferg.awfulapp.provider;
+
+import com.ferg.awfulapp.thread.PostSearchQuery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Checks the queries built for searching cached posts, and how their results are ranked. The ranking
+ * query mirrors the first one {@link com.ferg.awfulapp.thread.CachedPostSearch#search} makes.
+ */
+public class PostSearchTest {
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        DatabaseHelper.createSchema(sql -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+
+    @Test
+    public void toMatchQuery_quotesWordsAndMatchesPrefixOfLastWord() {
+        assertThat(PostSearchQuery.toMatchQuery("  big   dog "), is("\"big\" \"dog*\""));
+        assertThat(PostSearchQuery.toMatchQuery("say \"hello\""), is("\"say\" \"hello*\""));
+        assertThat(PostSearchQuery.toMatchQuery("NEAR OR -dog"), is("\"NEAR\" \"OR\" \"-dog*\""));
+    }
+
+
+    @Test
+    public void toMatchQuery_dropsWordsWithoutLettersOrDigits() {
+        assertThat(PostSearchQuery.toMatchQuery("dog -"), is("\"dog*\""));
+        assertThat(PostSearchQuery.toMatchQuery("- big ... dog !!"), is("\"big\" \"dog*\""));
+        assertThat(PostSearchQuery.toMatchQuery("- \"\" ..."), is(nullValue()));
+        assertThat(PostSearchQuery.toMatchQuery("   "), is(nullValue()));
+    }
+
+
+    @Test
+    public void search_trailingPunctuationStillMatches() throws SQLException {
+        addPost(1, "a dog", "someone", "a thread");
+        addPost(2, "a cat", "someone", "a thread");
+        assertThat(search("dog -", 10), is(Arrays.asList(1)));
+    }
+
+
+    @Test
+    public void search_ranksMoreFrequentMatchesFirst() throws SQLException {
+        addPost(1, "the dog went to the shop to buy some milk and then came home again", "someone", "a thread");
+        addPost(2, "dog dog dog", "someone", "a thread");
+        addPost(3, "a cat", "someone", "a thread");
+        assertThat(search("dog", 10), is(Arrays.asList(2, 1)));
+    }
+
+
+    @Test
+    public void search_ranksTitleMatchesAboveTextMatches() throws SQLException {
+        addPost(1, "the dog is here", "someone", "a thread");
+        addPost(2, "the cat is here", "someone", "the dog thread");
+        addPost(3, "a bird", "someone", "a thread");
+        assertThat(search("dog", 10), is(Arrays.asList(2, 1)));
+    }
+
+
+    @Test
+    public void search_returnsOnlyTheBestMatches() throws SQLException {
+        addPost(1, "dog", "someone", "a thread");
+        addPost(2, "dog dog dog", "someone", "a thread");
+        addPost(3, "dog dog", "someone", "a thread");
+        assertThat(search("dog", 2), is(Arrays.asList(2, 3)));
+    }
+
+
+    @Test
+    public void updateThreadTitles_givesTheThreadsIndexedPostsTheNewTitle() throws SQLException {
+        addThread(1, "the dog thread");
+        addThread(2, "another thread");
+        addStoredPost(1, 1, "a post", null);
+        addStoredPost(2, 1, "a post", "an old title");
+        addStoredPost(3, 2, "a post", "another thread");
+
+        PostSearchIndex.updateThreadTitles(JdbcSupportDatabase.wrap(connection), "the dog thread", "_id=?", new String[]{"1"});
+        assertThat(titles(), is(Arrays.asList("the dog thread", "the dog thread", "another thread")));
+        assertThat(search("dog", 10).size(), is(2));
+    }
+
+
+    @Test
+    public void updateThreadTitles_leavesPostsWithoutAStoredThread() throws SQLException {
+        addStoredPost(1, 1, "a post", "a title");
+        PostSearchIndex.updateThreadTitles(JdbcSupportDatabase.wrap(connection), "a new title", "_id=?", new String[]{"1"});
+        assertThat(titles(), is(Arrays.asList("a title")));
+    }
+
+
+    private void addThread(int threadId, String title) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO threads (_id, title) VALUES (?, ?)")) {
+            insert.setInt(1, threadId);
+            insert.setString(2, title);
+            insert.executeUpdate();
+        }
+    }
+
+    /** Add a post to the posts table as well as the search index, with the title it was indexed with */
+    private void addStoredPost(int postId, int threadId, String text, String threadTitle) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO posts (_id, thread_id, post_index) VALUES (?, ?, ?)")) {
+            insert.setInt(1, postId);
+            insert.setInt(2, threadId);
+            insert.setInt(3, postId);
+            insert.executeUpdate();
+        }
+        addPost(postId, text, "someone", threadTitle);
+    }
+
+    /** The indexed thread title of every post, by post ID */
+    private List<String> titles() throws SQLException {
+        List<String> titles = new ArrayList<>();
+        try (Statement select = connection.createStatement();
+             ResultSet results = select.executeQuery("SELECT thread_title FROM posts_search ORDER BY docid")) {
+            while (results.next()) {
+                titles.add(results.getString(1));
+            }
+        }
+        return titles;
+    }
+
+
+    private void addPost(int postId, String text, String username, String threadTitle) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO posts_search (docid, post_text, username, thread_title) VALUES (?, ?, ?, ?)")) {
+            insert.setInt(1, postId);
+            insert.setString(2, text);
+            insert.setString(3, username);
+            insert.setString(4, threadTitle);
+            insert.executeUpdate();
+        }
+    }
+
+
+    /**
+     * Score every post matching a search, and return the IDs of the best ones.
+     */
+    private List<Integer> search(String query, int limit) throws SQLException {
+        Map<Integer, Double> scores = new LinkedHashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT docid, matchinfo(posts_search, 'pcnalx') FROM posts_search WHERE posts_search MATCH ?")) {
+            select.setString(1, PostSearchQuery.toMatchQuery(query));
+            try (ResultSet results = select.executeQuery()) {
+                while (results.next()) {
+                    scores.put(results.getInt(1), PostSearchQuery.bm25(results.getBytes(2)));
+                }
+            }
+        }
+        return PostSearchQuery.top(scores, limit);
+    }
+}
@@ -0,0 +1,117 @@
+package com.ferg.awfulapp.thread;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Checks that posts are only skipped by {@link PostParseTask} when their {@link PostFingerprint} says
+ * the stored data is still up to date.
+ */
+public class PostFingerprintTest {
+
+    private static final int POST_ID = 123;
+    private static final int POST_INDEX = 5;
+    private static final int THREAD_ID = 1;
+    private static final int OP_ID = 42;
+
+    private static final String POST =
+            "<table class=\"post\" id=\"post" + POST_ID + "\" data-idx=\"" + POST_INDEX + "\"><tr>" +
+            "<td class=\"userinfo userid-" + OP_ID + "\"><dl><dt class=\"author\">Poster1</dt>" +
+            "<dd class=\"registered\">Jan 1, 2010</dd><dd class=\"title\">a title</dd></dl></td>" +
+            "<td class=\"postbody\">%s</td></tr>" +
+            "<tr><td class=\"postdate\">Jan 2, 2020 10:00</td></tr></table>";
+
+
+    @Test
+    public void of_isTheSameForTheSamePost() {
+        assertThat(PostFingerprint.of(post("hello <b>world</b>"), POST_INDEX), is(PostFingerprint.of(post("hello <b>world</b>"), POST_INDEX)));
+    }
+
+
+    @Test
+    public void of_changesWhenThePostIsEdited() {
+        long original = PostFingerprint.of(post("hello <b>world</b>"));
+        assertThat(PostFingerprint.of(post("hello <b>world!</b>")), is(not(original)));
+        assertThat(PostFingerprint.of(post("hello <i>world</i>")), is(not(original)));
+        assertThat(PostFingerprint.of(post("hello <b class=\"x\">world</b>")), is(not(original)));
+    }
+
+
+    @Test
+    public void of_separatesValuesAtTheirBoundaries() {
+        assertThat(PostFingerprint.of(post("<b>ab</b>c")), is(not(PostFingerprint.of(post("<b>a</b>bc")))));
+        assertThat(PostFingerprint.of(post("<b><i>a</i></b>")), is(not(PostFingerprint.of(post("<b></b><i>a</i>")))));
+    }
+
+
+    @Test
+    public void of_changesWithContext() {
+        Element post = post("hello");
+        long original = PostFingerprint.of(post, POST_INDEX, OP_ID, 0);
+        assertThat(PostFingerprint.of(post, POST_INDEX + 1, OP_ID, 0), is(not(original)));
+        assertThat(PostFingerprint.of(post, POST_INDEX, OP_ID + 1, 0), is(not(original)));
+        assertThat(PostFingerprint.of(post, POST_INDEX, OP_ID, 1), is(not(original)));
+    }
+
+
+    @Test
+    public void of_changesWithVersion() {
+        Element post = post("hello");
+        assertThat(PostFingerprint.ofVersion(PostFingerprint.VERSION, post, POST_INDEX), is(PostFingerprint.of(post, POST_INDEX)));
+        assertThat(PostFingerprint.ofVersion(PostFingerprint.VERSION - 1, post, POST_INDEX), is(not(PostFingerprint.of(post, POST_INDEX))));
+    }
+
+
+    @Test
+    public void parseTask_skipsUnchangedPost() throws Exception {
+        Element post = post("hello <b>world</b>");
+        Map<Integer, Long> stored = Collections.singletonMap(POST_ID, fingerprint(post));
+        assertThat(parse(post("hello <b>world</b>"), stored), is(nullValue()));
+    }
+
+
+    @Test
+    public void parseTask_reparsesEditedPost() throws Exception {
+        Map<Integer, Long> stored = Collections.singletonMap(POST_ID, fingerprint(post("hello <b>world</b>")));
+        assertThat(parse(post("hello <b>everyone</b>"), stored), is(notNullValue()));
+    }
+
+
+    @Test
+    public void parseTask_reparsesPostStoredByAnOlderVersion() throws Exception {
+        Element post = post("hello <b>world</b>");
+        long oldFingerprint = PostFingerprint.ofVersion(PostFingerprint.VERSION - 1, post, POST_INDEX, OP_ID, PostContentRewriter.forStorage().getVariant());
+        assertThat(parse(post, Collections.singletonMap(POST_ID, oldFingerprint)), is(notNullValue()));
+    }
+
+
+    @Test
+    public void parseTask_parsesPostThatIsNotStored() throws Exception {
+        assertThat(parse(post("hello"), Collections.emptyMap()), is(notNullValue()));
+    }
+
+
+    private static Element post(String body) {
+        return Jsoup.parseBodyFragment(String.format(POST, body)).selectFirst(".post");
+    }
+
+    /** The fingerprint a {@link PostParseTask} stores for a post */
+    private static long fingerprint(Element post) {
+        return PostFingerprint.of(post, POST_INDEX, OP_ID, PostContentRewriter.forStorage().getVariant());
+    }
+
+    private static Object parse(Element post, Map<Integer, Long> storedFingerprints) throws Exception {
+        return new PostParseTask(post, "2020-01-02 10:00:00", POST_INDEX, THREAD_ID, OP_ID,
+                PostContentRewriter.forStorage(), storedFingerprints, 0).call();
+    }
+}
@@ -0,0 +1,280 @@
+package com.ferg.awfulapp.thread;
+
+import android.app.Application;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ferg.awfulapp.thread.AwfulPost.AVATAR;
+import static com.ferg.awfulapp.thread.AwfulPost.AVATAR_SECOND;
+import static com.ferg.awfulapp.thread.AwfulPost.AVATAR_TEXT;
+import static com.ferg.awfulapp.thread.AwfulPost.CONTENT;
+import static com.ferg.awfulapp.thread.AwfulPost.CONTENT_HASH;
+import static com.ferg.awfulapp.thread.AwfulPost.CONTENT_LENGTH;
+import static com.ferg.awfulapp.thread.AwfulPost.DATE;
+import static com.ferg.awfulapp.thread.AwfulPost.EDITABLE;
+import static com.ferg.awfulapp.thread.AwfulPost.EDITED;
+import static com.ferg.awfulapp.thread.AwfulPost.ID;
+import static com.ferg.awfulapp.thread.AwfulPost.IS_IGNORED;
+import static com.ferg.awfulapp.thread.AwfulPost.IS_OP;
+import static com.ferg.awfulapp.thread.AwfulPost.IS_PLAT;
+import static com.ferg.awfulapp.thread.AwfulPost.POST_INDEX;
+import static com.ferg.awfulapp.thread.AwfulPost.PREVIOUSLY_READ;
+import static com.ferg.awfulapp.thread.AwfulPost.REGDATE;
+import static com.ferg.awfulapp.thread.AwfulPost.ROLE;
+import static com.ferg.awfulapp.thread.AwfulPost.USERNAME;
+import static com.ferg.awfulapp.thread.AwfulPost.USER_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Checks reading a {@link PostPage} from a posts cursor, and loading its content through a
+ * {@link PostContentLoader} when the cursor was queried without it.
+ * <p>
+ * This runs under Robolectric, for a real {@link MatrixCursor} and {@link ContentResolver}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class, sdk = 34)
+public class PostPageTest {
+
+    private static final String AUTHORITY = "com.ferg.awfulapp.test";
+    private static final Uri PAGE_URI = Uri.parse("content://" + AUTHORITY + "/post");
+
+    private static final String[] METADATA_COLUMNS = {
+            ID, POST_INDEX, DATE, REGDATE, USER_ID, USERNAME, IS_IGNORED, PREVIOUSLY_READ, EDITABLE,
+            IS_OP, IS_PLAT, ROLE, AVATAR, AVATAR_SECOND, AVATAR_TEXT, EDITED, CONTENT_HASH, CONTENT_LENGTH};
+
+    private ContentResolver resolver;
+
+
+    @Before
+    public void setUp() {
+        StoredPosts.content.clear();
+        StoredPosts.queries.clear();
+        Robolectric.buildContentProvider(StoredPosts.class).create(AUTHORITY);
+        resolver = RuntimeEnvironment.getApplication().getContentResolver();
+    }
+
+
+    @Test
+    public void fromCursor_poolsRepeatedPosterDetails() {
+        MatrixCursor cursor = metadataCursor();
+        addPost(cursor, 1, 10, "Poster1", 0);
+        addPost(cursor, 2, 11, "Poster2", 0);
+        addPost(cursor, 3, 10, "Poster1", 0);
+        PostPage page = PostPage.fromCursor(cursor, null, null);
+
+        assertThat(page.size(), is(3));
+        assertThat(page.getUsername(2), is(sameInstance(page.getUsername(0))));
+        assertThat(page.getRegDate(2), is(sameInstance(page.getRegDate(0))));
+        assertThat(page.getAvatar(2), is(sameInstance(page.getAvatar(0))));
+        assertThat(page.getRole(1), is(sameInstance(page.getRole(0))));
+        assertThat(page.getUsername(1), is(not(page.getUsername(0))));
+    }
+
+
+    @Test
+    public void fromCursor_readsEachPost() {
+        MatrixCursor cursor = metadataCursor();
+        cursor.addRow(new Object[]{5, 41, "Jan 2, 2020", "Jan 1, 2010", 10, "Poster1", 1, 1, 0, 1, 0, "mod",
+                "avatar.png", null, "a title", "<i>edited</i>", 99L, 0});
+        cursor.addRow(new Object[]{6, 42, "Jan 3, 2020", "Jan 1, 2011", 11, "Poster2", 0, 0, 1, 0, 1, "",
+                null, null, "", null, null, 0});
+        PostPage page = PostPage.fromCursor(cursor, null, null);
+
+        assertThat(page.getPostId(0), is(5));
+        assertThat(page.getPostIdString(1), is("6"));
+        assertThat(page.getUserId(0), is(10));
+        assertThat(page.getDate(1), is("Jan 3, 2020"));
+        assertThat(Arrays.asList(page.isIgnored(0), page.isPreviouslyRead(0), page.isEditable(0), page.isOp(0), page.isPlat(0)),
+                is(Arrays.asList(true, true, false, true, false)));
+        assertThat(Arrays.asList(page.isIgnored(1), page.isPreviouslyRead(1), page.isEditable(1), page.isOp(1), page.isPlat(1)),
+                is(Arrays.asList(false, false, true, false, true)));
+        assertThat(page.getRole(0), is("mod"));
+        assertThat(page.getEdited(0), is("<i>edited</i>"));
+        assertThat(page.hasContentHash(0), is(true));
+        assertThat(page.getContentHash(0), is(99L));
+        assertThat(page.hasContentHash(1), is(false));
+    }
+
+
+    @Test
+    public void fromCursor_withContent_doesNotQueryForIt() {
+        String compressible = repeat("a post that's long enough to be worth compressing ", 10);
+        MatrixCursor cursor = new MatrixCursor(withColumn(METADATA_COLUMNS, CONTENT));
+        addPost(cursor, 1, 10, "Poster1", 0, "a short post");
+        addPost(cursor, 2, 10, "Poster1", 0, PostContentCodec.encode(compressible));
+        PostPage page = PostPage.fromCursor(cursor, resolver, PAGE_URI);
+
+        assertThat(page.getContent(0), is("a short post"));
+        assertThat(page.getContent(1), is(compressible));
+        // content that came with the page isn't dropped, since it couldn't be loaded again
+        page.releaseContent(0);
+        assertThat(page.getContent(0), is("a short post"));
+        assertThat(StoredPosts.queries.size(), is(0));
+    }
+
+
+    @Test
+    public void fromCursor_withoutContent_loadsItWhenItsFirstNeeded() {
+        MatrixCursor cursor = metadataCursor();
+        for (int id = 1; id <= 3; id++) {
+            store(id, "post " + id);
+            addPost(cursor, id, 10, "Poster1", 6);
+        }
+        PostPage page = PostPage.fromCursor(cursor, resolver, PAGE_URI);
+        assertThat(StoredPosts.queries.size(), is(0));
+
+        // small posts are all loaded in one go
+        assertThat(page.getContent(0), is("post 1"));
+        assertThat(page.getContent(2), is("post 3"));
+        assertThat(page.getContent(1), is("post 2"));
+        assertThat(StoredPosts.queries, is(Arrays.asList(Arrays.asList("1", "2", "3"))));
+    }
+
+
+    @Test
+    public void fromCursor_withoutContent_loadsLargePostsInChunks() {
+        MatrixCursor cursor = metadataCursor();
+        for (int id = 1; id <= 3; id++) {
+            store(id, "post " + id);
+            addPost(cursor, id, 10, "Poster1", 200 * 1024);
+        }
+        PostPage page = PostPage.fromCursor(cursor, resolver, PAGE_URI);
+
+        assertThat(page.getContent(1), is("post 2"));
+        assertThat(page.getContent(0), is("post 1"));
+        assertThat(page.getContent(2), is("post 3"));
+        assertThat(StoredPosts.queries, is(Arrays.asList(
+                Arrays.asList("2"), Arrays.asList("1"), Arrays.asList("3"))));
+    }
+
+
+    @Test
+    public void releaseContent_loadsItAgainWhenNeeded() {
+        MatrixCursor cursor = metadataCursor();
+        store(1, "post 1");
+        addPost(cursor, 1, 10, "Poster1", 6);
+        PostPage page = PostPage.fromCursor(cursor, resolver, PAGE_URI);
+
+        assertThat(page.getContent(0), is("post 1"));
+        page.releaseContent(0);
+        store(1, "post 1 (edited)");
+        assertThat(page.getContent(0), is("post 1 (edited)"));
+        assertThat(StoredPosts.queries.size(), is(2));
+    }
+
+
+    @Test
+    public void fromCursor_withoutContent_showsDeletedPostsAsEmpty() {
+        MatrixCursor cursor = metadataCursor();
+        store(1, "post 1");
+        addPost(cursor, 1, 10, "Poster1", 6);
+        addPost(cursor, 2, 10, "Poster1", 6);
+        PostPage page = PostPage.fromCursor(cursor, resolver, PAGE_URI);
+
+        assertThat(page.getContent(0), is("post 1"));
+        assertThat(page.getContent(1), is(""));
+        assertThat(StoredPosts.queries.size(), is(1));
+    }
+
+
+    private static MatrixCursor metadataCursor() {
+        return new MatrixCursor(METADATA_COLUMNS);
+    }
+
+    /**
+     * Add a post to a cursor, with new String instances for its poster's details - like a real
+     * cursor, which creates a new String each time a value is read.
+     */
+    private static void addPost(MatrixCursor cursor, int id, int userId, String username, int contentLength, Object... content) {
+        List<Object> row = new ArrayList<>(Arrays.asList(id, id, "Jan 2, 2020", new String("Jan 1, 2010"), userId, new String(username),
+                0, 0, 0, 0, 0, new String(""), new String(username + ".png"), null, new String(""), null, null, contentLength));
+        row.addAll(Arrays.asList(content));
+        cursor.addRow(row);
+    }
+
+    private static String[] withColumn(String[] columns, String column) {
+        String[] result = Arrays.copyOf(columns, columns.length + 1);
+        result[columns.length] = column;
+        return result;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static void store(int id, String content) {
+        StoredPosts.content.put(id, content);
+    }
+
+
+    /**
+     * Serves the posts' content to {@link PostContentLoader}, and records which posts each query asked for.
+     */
+    public static class StoredPosts extends ContentProvider {
+        static final Map<Integer, String> content = new HashMap<>();
+        static final List<List<String>> queries = new ArrayList<>();
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            queries.add(Arrays.asList(selectionArgs));
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (String id : selectionArgs) {
+                String stored = content.get(Integer.parseInt(id));
+                if (stored != null) {
+                    cursor.addRow(new Object[]{Integer.parseInt(id), stored});
+                }
+            }
+            return cursor;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
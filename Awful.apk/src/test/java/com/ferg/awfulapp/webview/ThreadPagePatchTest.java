@@ -0,0 +1,122 @@
+package com.ferg.awfulapp.webview;
+
+import com.ferg.awfulapp.thread.ThreadPageHtml;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Checks the patches sent to <i>thread.js</i> to update a displayed thread page, which only carry
+ * the HTML for the parts of the page that changed.
+ */
+public class ThreadPagePatchTest {
+
+    private static final String HEADER = "<article class='toggle_read'>Show 2 Previous Posts</article>";
+    private static final String FOOTER = "<div class='unread' ></div>";
+
+
+    @Test
+    public void between_samePage_onlyListsPosts() throws JSONException {
+        ThreadPageHtml page = page(HEADER, FOOTER, "1", "one", "2", "two");
+        JSONObject patch = patch(page, page(HEADER, FOOTER, "1", "one", "2", "two"));
+        assertThat(ids(patch), is(Arrays.asList("1", "2")));
+        assertThat(changedHtml(patch), is(Arrays.asList(null, null)));
+        assertThat(patch.has("header"), is(false));
+        assertThat(patch.has("footer"), is(false));
+    }
+
+
+    @Test
+    public void between_changedPost_includesItsHtml() throws JSONException {
+        JSONObject patch = patch(page(HEADER, FOOTER, "1", "one", "2", "two"), page(HEADER, FOOTER, "1", "one", "2", "two (edited)"));
+        assertThat(ids(patch), is(Arrays.asList("1", "2")));
+        assertThat(changedHtml(patch), is(Arrays.asList(null, "two (edited)")));
+    }
+
+
+    @Test
+    public void between_insertedPosts_includeTheirHtml() throws JSONException {
+        JSONObject patch = patch(page(HEADER, FOOTER, "2", "two"), page(HEADER, FOOTER, "1", "one", "2", "two", "3", "three"));
+        assertThat(ids(patch), is(Arrays.asList("1", "2", "3")));
+        assertThat(changedHtml(patch), is(Arrays.asList("one", null, "three")));
+    }
+
+
+    @Test
+    public void between_removedPosts_areNotListed() throws JSONException {
+        JSONObject patch = patch(page(HEADER, FOOTER, "1", "one", "2", "two", "3", "three"), page(HEADER, FOOTER, "1", "one", "3", "three"));
+        assertThat(ids(patch), is(Arrays.asList("1", "3")));
+        assertThat(changedHtml(patch), is(Arrays.asList(null, null)));
+    }
+
+
+    @Test
+    public void between_reorderedPosts_areListedInTheirNewOrder() throws JSONException {
+        JSONObject patch = patch(page(HEADER, FOOTER, "1", "one", "2", "two", "3", "three"), page(HEADER, FOOTER, "3", "three", "1", "one", "2", "two"));
+        assertThat(ids(patch), is(Arrays.asList("3", "1", "2")));
+        assertThat(changedHtml(patch), is(Arrays.asList(null, null, null)));
+    }
+
+
+    @Test
+    public void between_changedHeader_includesIt() throws JSONException {
+        JSONObject patch = patch(page(HEADER, FOOTER, "1", "one"), page("", FOOTER, "1", "one"));
+        assertThat(patch.getString("header"), is(""));
+        assertThat(patch.has("footer"), is(false));
+    }
+
+
+    @Test
+    public void between_changedFooter_includesIt() throws JSONException {
+        JSONObject patch = patch(page(HEADER, "", "1", "one"), page(HEADER, FOOTER, "1", "one"));
+        assertThat(patch.getString("footer"), is(FOOTER));
+        assertThat(patch.has("header"), is(false));
+    }
+
+
+    /**
+     * Build a page from its header and footer, and pairs of post IDs and post HTML.
+     */
+    private static ThreadPageHtml page(String header, String footer, String... posts) {
+        String[] ids = new String[posts.length / 2];
+        String[] html = new String[posts.length / 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = posts[i * 2];
+            html[i] = posts[i * 2 + 1];
+        }
+        return ThreadPageHtml.of(header, ids, html, footer);
+    }
+
+    private static JSONObject patch(ThreadPageHtml displayed, ThreadPageHtml next) throws JSONException {
+        return new JSONObject(ThreadPagePatch.between(displayed, next));
+    }
+
+    private static List<String> ids(JSONObject patch) throws JSONException {
+        JSONArray posts = patch.getJSONArray("posts");
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < posts.length(); i++) {
+            ids.add(posts.getJSONObject(i).getString("id"));
+        }
+        return ids;
+    }
+
+    /** The HTML included for each listed post, or null for posts that are left as they are */
+    private static List<String> changedHtml(JSONObject patch) throws JSONException {
+        JSONArray posts = patch.getJSONArray("posts");
+        List<String> html = new ArrayList<>();
+        for (int i = 0; i < posts.length(); i++) {
+            JSONObject post = posts.getJSONObject(i);
+            html.add(post.has("html") ? post.getString("html") : null);
+        }
+        return html;
+    }
+}
@@ -0,0 +1,231 @@
+package com.ferg.awfulapp.benchmark;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.ferg.awfulapp.constants.Constants.BASE_URL;
+import static com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING;
+
+/**
+ * Turns a page saved from the site into a fixture, removing anything that identifies the people in it.
+ * <p>
+ * The page's markup is kept as it is, so the parsers and the pruning do the same work on it as on the
+ * real thing. What's replaced:
+ * <ul>
+ * <li>user IDs, everywhere they appear (links, class names, scripts), with made-up ones</li>
+ * <li>usernames (posters, quoted users, the logged-in user) with made-up ones, in any case</li>
+ * <li>every word of post text, custom titles and signatures, with a stand-in word of the same length
+ * - the same word always gets the same stand-in, so the text still compresses and indexes like text</li>
+ * <li>the paths of images and links in posts, keeping their hosts and file extensions</li>
+ * <li>form keys and other hidden tokens</li>
+ * </ul>
+ * Run it with the {@code recordFixture} task in this module's build.gradle.
+ */
+public final class FixtureAnonymiser {
+
+    /** marks a fixture as a recorded page, at the top of the file */
+    static final String RECORDED_MARKER = "<!-- recorded from the site, anonymised by FixtureAnonymiser -->";
+
+    private static final Pattern USER_ID = Pattern.compile("(userid[=-]|userid=\"|userid\\s*[:=]\\s*)(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WORD = Pattern.compile("\\p{L}+");
+    private static final Pattern TOKEN = Pattern.compile("[0-9a-fA-F]{8,}");
+    private static final Set<String> STRUCTURAL_ATTRIBUTES = new HashSet<>(Arrays.asList("class", "id", "name"));
+    private static final String[] STAND_INS = (
+            "a do ut et in id ex ad non sit est qui nisi amet elit sunt culpa dolor irure velit lorem " +
+            "ipsum magna fugiat veniam minim nulla tempor labore dolore aliqua officia laboris commodo " +
+            "eiusmod laborum pariatur occaecat proident deserunt voluptate cupidatat incididunt " +
+            "consectetur exercitation reprehenderit adipiscing consequatur").split(" ");
+
+    private final Map<String, String> userIds = new LinkedHashMap<>();
+    private final Map<String, String> usernames = new LinkedHashMap<>();
+    private final Map<String, String> words = new LinkedHashMap<>();
+    private Pattern usernamePattern = null;
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: FixtureAnonymiser <saved page> <fixture file>");
+            System.exit(1);
+        }
+        File saved = new File(args[0]);
+        File fixture = new File(args[1]);
+        // saved pages usually keep the site's encoding, and say so - jsoup picks that up from the page
+        Document page = Jsoup.parse(saved, null, BASE_URL);
+        new FixtureAnonymiser().anonymise(page);
+        Files.write(fixture.toPath(), toFixture(page));
+        System.out.println("Wrote " + fixture);
+    }
+
+
+    /**
+     * Serialise a page the way it came from the site, i.e. in the site's encoding and without reformatting.
+     */
+    static byte[] toFixture(Document page) {
+        Charset charset = Charset.forName(SITE_HTML_ENCODING);
+        page.outputSettings().prettyPrint(false).charset(charset).escapeMode(Entities.EscapeMode.base);
+        return (RECORDED_MARKER + "\n" + page.outerHtml()).getBytes(charset);
+    }
+
+
+    /**
+     * Anonymise a page in place.
+     */
+    void anonymise(Document page) {
+        collectUsernames(page);
+        for (Element element : page.select(".postbody, .signature, dd.title")) {
+            replaceWords(element);
+        }
+        for (Element element : page.select(".postbody [href], .postbody [src], dd.title img[src], .signature [src]")) {
+            for (String key : new String[]{"href", "src"}) {
+                if (element.hasAttr(key)) {
+                    element.attr(key, replacePath(element.attr(key)));
+                }
+            }
+        }
+        for (Element input : page.select("input[type=hidden][value]")) {
+            input.attr("value", TOKEN.matcher(input.attr("value")).replaceAll(m -> "0".repeat(m.group().length())));
+        }
+        // user IDs and names can turn up anywhere - links, class names, quote headers, scripts
+        NodeTraversor.traverse((node, depth) -> {
+            if (node instanceof TextNode) {
+                TextNode text = (TextNode) node;
+                text.text(replaceUsers(text.getWholeText()));
+            } else if (node instanceof DataNode) {
+                DataNode data = (DataNode) node;
+                data.setWholeData(replaceUsers(data.getWholeData()));
+            }
+            if (node instanceof Element) {
+                for (Attribute attribute : node.attributes()) {
+                    // class names and IDs are only changed for user IDs, since they're what the parsers look for
+                    boolean structural = STRUCTURAL_ATTRIBUTES.contains(attribute.getKey());
+                    attribute.setValue(structural ? replaceUserIds(attribute.getValue()) : replaceUsers(attribute.getValue()));
+                }
+            }
+        }, page);
+    }
+
+
+    /**
+     * Find everyone named on the page, so their names can be replaced wherever they turn up.
+     */
+    private void collectUsernames(Document page) {
+        for (Element author : page.select("dt.author, td.author a, td.lastpost a.author, #loggedinusername")) {
+            String name = author.ownText().trim();
+            if (!name.isEmpty() && !usernames.containsKey(name.toLowerCase(Locale.ROOT))) {
+                usernames.put(name.toLowerCase(Locale.ROOT), "Poster" + (usernames.size() + 1));
+            }
+        }
+        if (usernames.isEmpty()) {
+            return;
+        }
+        // longest first, so a name that contains another one is replaced whole
+        List<String> names = new ArrayList<>(usernames.keySet());
+        names.sort(Comparator.comparingInt(String::length).reversed());
+        StringBuilder pattern = new StringBuilder();
+        for (String name : names) {
+            pattern.append(pattern.length() == 0 ? "" : "|").append(Pattern.quote(name));
+        }
+        usernamePattern = Pattern.compile("(?<![\\p{L}\\p{N}])(?:" + pattern + ")(?![\\p{L}\\p{N}])",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+
+    private String replaceUserIds(String text) {
+        return USER_ID.matcher(text).replaceAll(m -> Matcher.quoteReplacement(m.group(1) + userId(m.group(2))));
+    }
+
+    private String replaceUsers(String text) {
+        String result = replaceUserIds(text);
+        if (usernamePattern != null) {
+            result = usernamePattern.matcher(result).replaceAll(m -> {
+                String standIn = usernames.get(m.group().toLowerCase(Locale.ROOT));
+                // custom title images etc. use lowercased names
+                return Matcher.quoteReplacement(m.group().equals(m.group().toLowerCase(Locale.ROOT)) ? standIn.toLowerCase(Locale.ROOT) : standIn);
+            });
+        }
+        return result;
+    }
+
+    private String userId(String id) {
+        return userIds.computeIfAbsent(id, k -> String.valueOf(1000 + userIds.size() + 1));
+    }
+
+
+    /**
+     * Replace every word in an element's text with its stand-in.
+     */
+    private void replaceWords(Element element) {
+        for (Node node : element.childNodes()) {
+            if (node instanceof TextNode) {
+                TextNode text = (TextNode) node;
+                text.text(WORD.matcher(text.getWholeText()).replaceAll(m -> standIn(m.group())));
+            } else if (node instanceof Element) {
+                replaceWords((Element) node);
+            }
+        }
+    }
+
+    private String standIn(String word) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        String standIn = words.computeIfAbsent(lower, k -> {
+            // a stand-in of the same length if there is one, otherwise the longest ones strung together
+            List<String> sameLength = new ArrayList<>();
+            for (String candidate : STAND_INS) {
+                if (candidate.length() == k.length()) {
+                    sameLength.add(candidate);
+                }
+            }
+            if (!sameLength.isEmpty()) {
+                return sameLength.get(Math.floorMod(k.hashCode(), sameLength.size()));
+            }
+            StringBuilder joined = new StringBuilder();
+            while (joined.length() < k.length()) {
+                joined.append(STAND_INS[STAND_INS.length - 1 - Math.floorMod(k.hashCode() + joined.length(), 4)]);
+            }
+            return joined.substring(0, k.length());
+        });
+        if (Character.isUpperCase(word.charAt(0))) {
+            return Character.toUpperCase(standIn.charAt(0)) + standIn.substring(1);
+        }
+        return standIn;
+    }
+
+
+    /**
+     * Replace the path of a link or image outside the site, keeping its host and file extension so
+     * it's still handled the same way (e.g. as an imgur image, or a YouTube link).
+     */
+    private String replacePath(String url) {
+        Matcher matcher = Pattern.compile("^(https?://[^/]+)(/[^?#]*)?(.*)$").matcher(url);
+        if (!matcher.matches() || matcher.group(1).contains("somethingawful.com") || matcher.group(2) == null) {
+            return url;
+        }
+        String path = matcher.group(2);
+        int dot = path.lastIndexOf('.');
+        String extension = dot > path.lastIndexOf('/') ? path.substring(dot) : "";
+        return matcher.group(1) + "/" + Integer.toHexString(path.hashCode()) + extension;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ferg.awfulapp.benchmark;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.ferg.awfulapp.task.AwfulStrippedRequest;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.PostContentPreferences;
+import com.ferg.awfulapp.thread.PostContentRewriter;
+import com.ferg.awfulapp.thread.PostParseTask;
+import com.ferg.awfulapp.thread.PostRenderPreferences;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.ferg.awfulapp.constants.Constants.BASE_URL;
+import static com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING;
+
+/**
+ * Page fixtures and shared setup for the benchmarks.
+ * <p>
+ * The fixtures are in src/jmh/resources/fixtures, stored in the site's encoding. Each one should be a
+ * real page recorded from the site with the {@code recordFixture} task, which anonymises it (see
+ * {@link FixtureAnonymiser}) and marks it with {@link FixtureAnonymiser#RECORDED_MARKER}. The pages
+ * without that marker are generated stand-ins, which reproduce the markup of each kind of page
+ * (including the scripts, ads and page selectors the parsers have to get through) at a typical size,
+ * but not real post content - numbers measured on them only show relative changes. Record new pages,
+ * or add more and include them in the {@code @Param} lists, when the site's markup changes.
+ */
+final class Fixtures {
+
+    static final String THREAD_PAGE = "thread_page.html";
+    static final String FYAD_PAGE = "fyad_page.html";
+    static final String FORUM_PAGE = "forum_page.html";
+    static final String BOOKMARKS_PAGE = "bookmarks_page.html";
+
+    /** The default post content settings */
+    static final PostContentPreferences CONTENT_PREFS =
+            new PostContentPreferences(true, false, true, "d", true, false, true, false);
+
+    /** The default post rendering settings, with a couple of marked users */
+    static final PostRenderPreferences RENDER_PREFS =
+            new PostRenderPreferences(true, false, true, true, true, true, "Someone",
+                    Collections.singleton("Marked"), Collections.emptySet(), CONTENT_PREFS);
+
+    /** The post columns {@link AwfulPost#fromCursor} reads */
+    private static final String[] POST_COLUMNS = {
+            AwfulPost.ID, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX, AwfulPost.DATE, AwfulPost.REGDATE,
+            AwfulPost.USER_ID, AwfulPost.USERNAME, AwfulPost.IS_IGNORED, AwfulPost.PREVIOUSLY_READ,
+            AwfulPost.EDITABLE, AwfulPost.IS_OP, AwfulPost.IS_PLAT, AwfulPost.ROLE, AwfulPost.AVATAR,
+            AwfulPost.AVATAR_SECOND, AwfulPost.AVATAR_TEXT, AwfulPost.CONTENT, AwfulPost.EDITED, AwfulPost.CONTENT_HASH
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * The raw bytes of a fixture, as they'd arrive in a network response.
+     */
+    static byte[] bytes(String fixture) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + fixture)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No such fixture: " + fixture);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A fixture parsed the way the app parses it, i.e. with the page selectors etc. stripped first.
+     */
+    static Document document(String fixture) {
+        try {
+            return Jsoup.parse(AwfulStrippedRequest.stripPage(bytes(fixture), AwfulStrippedRequest.LISTING_PAGE_RULES).getHtml().inputStream(), SITE_HTML_ENCODING, BASE_URL);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create parse tasks for every post in a thread page, using copies of the post elements so the
+     * original document can be reused.
+     */
+    static List<PostParseTask> postParseTasks(Document threadPage, PostContentRewriter rewriter) {
+        return postParseTasks(threadPage, rewriter, Collections.emptyMap());
+    }
+
+    /**
+     * Create parse tasks for every post in a thread page, as if some posts were already stored with
+     * these fingerprints.
+     */
+    static List<PostParseTask> postParseTasks(Document threadPage, PostContentRewriter rewriter, Map<Integer, Long> storedFingerprints) {
+        List<PostParseTask> tasks = new ArrayList<>();
+        int index = 0;
+        for (Element post : threadPage.getElementsByClass("post")) {
+            tasks.add(new PostParseTask(post.clone(), "2024-10-10 10:10:10.0", index++, 1, 1000, rewriter, storedFingerprints));
+        }
+        return tasks;
+    }
+
+    /**
+     * Parse the posts on a thread page fixture as they'd be stored, producing the objects the app renders.
+     */
+    static List<AwfulPost> parsedPosts(String fixture) throws Exception {
+        MatrixCursor cursor = new MatrixCursor(POST_COLUMNS);
+        for (PostParseTask task : postParseTasks(document(fixture), PostContentRewriter.forStorage())) {
+            ContentValues values = task.call();
+            Object[] row = new Object[POST_COLUMNS.length];
+            for (int i = 0; i < POST_COLUMNS.length; i++) {
+                row[i] = values.get(POST_COLUMNS[i]);
+            }
+            cursor.addRow(row);
+        }
+        return AwfulPost.fromCursor(null, cursor);
+    }
+}
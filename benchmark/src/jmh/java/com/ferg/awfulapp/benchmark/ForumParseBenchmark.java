@@ -0,0 +1,54 @@
+package com.ferg.awfulapp.benchmark;
+
+import android.content.ContentValues;
+
+import com.ferg.awfulapp.thread.ForumParseTask;
+
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running {@link ForumParseTask} on every thread in a forum or bookmarks page, on a single thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForumParseBenchmark {
+
+    @Param({Fixtures.FORUM_PAGE, Fixtures.BOOKMARKS_PAGE})
+    public String fixture;
+
+    private List<Element> threads;
+
+    @Setup
+    public void setup() {
+        threads = new ArrayList<>();
+        for (Element thread : Fixtures.document(fixture).select("#forum .thread")) {
+            // same as AwfulThread#parseForumThreads - skip the header
+            if (!thread.id().isEmpty()) {
+                threads.add(thread);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<ContentValues> parseThreads() {
+        List<ContentValues> results = new ArrayList<>(threads.size());
+        int index = 0;
+        for (Element thread : threads) {
+            results.add(new ForumParseTask(thread, 22, index++, "Someone", "2024-10-10 10:10:10.0").call());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,55 @@
+package com.ferg.awfulapp.benchmark;
+
+import com.ferg.awfulapp.task.AwfulStrippedRequest;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.ferg.awfulapp.constants.Constants.BASE_URL;
+import static com.ferg.awfulapp.constants.Constants.SITE_HTML_ENCODING;
+
+/**
+ * Parsing a page into a jsoup Document, with and without the page being stripped first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsoupParseBenchmark {
+
+    @Param({Fixtures.THREAD_PAGE, Fixtures.FYAD_PAGE, Fixtures.FORUM_PAGE, Fixtures.BOOKMARKS_PAGE})
+    public String fixture;
+
+    @Param({"true", "false"})
+    public boolean stripped;
+
+    private byte[] html;
+    private int length;
+
+    @Setup
+    public void setup() {
+        html = Fixtures.bytes(fixture);
+        length = html.length;
+        if (stripped) {
+            AwfulStrippedRequest.StrippedHtml strippedHtml = AwfulStrippedRequest.stripPage(html, AwfulStrippedRequest.LISTING_PAGE_RULES);
+            html = strippedHtml.getHtml().getData();
+            length = strippedHtml.getHtml().getLength();
+        }
+    }
+
+    @Benchmark
+    public Document parse() throws IOException {
+        return Jsoup.parse(new ByteArrayInputStream(html, 0, length), SITE_HTML_ENCODING, BASE_URL);
+    }
+}
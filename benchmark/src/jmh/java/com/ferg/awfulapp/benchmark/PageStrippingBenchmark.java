@@ -0,0 +1,47 @@
+package com.ferg.awfulapp.benchmark;
+
+import com.ferg.awfulapp.network.HtmlPruner;
+import com.ferg.awfulapp.task.AwfulStrippedRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pruning a raw response before it's parsed - everything that's removed from thread and forum pages
+ * (see {@link AwfulStrippedRequest#LISTING_PAGE_RULES}), and just their scripts and styles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PageStrippingBenchmark {
+
+    @Param({Fixtures.THREAD_PAGE, Fixtures.FYAD_PAGE, Fixtures.FORUM_PAGE, Fixtures.BOOKMARKS_PAGE})
+    public String fixture;
+
+    private byte[] response;
+    private HtmlPruner scriptPruner;
+
+    @Setup
+    public void setup() {
+        response = Fixtures.bytes(fixture);
+        scriptPruner = new HtmlPruner(HtmlPruner.SCRIPTS_AND_STYLES);
+    }
+
+    @Benchmark
+    public AwfulStrippedRequest.StrippedHtml stripPage() {
+        return AwfulStrippedRequest.stripPage(response, AwfulStrippedRequest.LISTING_PAGE_RULES);
+    }
+
+    @Benchmark
+    public HtmlPruner.PrunedHtml pruneScriptsAndStyles() {
+        return scriptPruner.prune(response);
+    }
+}
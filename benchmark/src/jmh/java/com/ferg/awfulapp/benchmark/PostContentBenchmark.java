@@ -0,0 +1,158 @@
+package com.ferg.awfulapp.benchmark;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.ferg.awfulapp.thread.AwfulHtmlPage;
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.PostContentCodec;
+import com.ferg.awfulapp.thread.PostContentRenderer;
+import com.ferg.awfulapp.thread.PostContentRewriter;
+import com.ferg.awfulapp.thread.PostPage;
+import com.ferg.awfulapp.thread.PostParseTask;
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a page of stored posts from the database and rendering it, with the post content stored
+ * as plain HTML or compressed with {@link PostContentCodec}.
+ * <p>
+ * The database is filled with {@link #PAGES} copies of the fixture page, as if that many pages were
+ * cached, and its size is printed during setup. Each invocation queries one page of posts and renders
+ * it, like opening a cached page. When {@link #cachedContent} is true the posts have already been
+ * rendered, so compressed content never needs decompressing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostContentBenchmark {
+
+    private static final int PAGES = 500;
+    private static final String[] COLUMNS = {
+            AwfulPost.ID, AwfulPost.THREAD_ID, AwfulPost.POST_INDEX, AwfulPost.DATE, AwfulPost.REGDATE,
+            AwfulPost.USER_ID, AwfulPost.USERNAME, AwfulPost.IS_IGNORED, AwfulPost.PREVIOUSLY_READ,
+            AwfulPost.EDITABLE, AwfulPost.IS_OP, AwfulPost.IS_PLAT, AwfulPost.ROLE, AwfulPost.AVATAR,
+            AwfulPost.AVATAR_SECOND, AwfulPost.AVATAR_TEXT, AwfulPost.CONTENT, AwfulPost.EDITED, AwfulPost.CONTENT_HASH
+    };
+
+    @Param({Fixtures.THREAD_PAGE, Fixtures.FYAD_PAGE})
+    public String fixture;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    @Param({"true", "false"})
+    public boolean cachedContent;
+
+    private File file;
+    private Connection db;
+    private PreparedStatement selectPage;
+    private Template template;
+    private int threadId;
+
+    @Setup
+    public void setup() throws Exception {
+        file = File.createTempFile("posts", ".db");
+        db = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try (Statement statement = db.createStatement()) {
+            StringBuilder create = new StringBuilder("CREATE TABLE posts (");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                create.append(i == 0 ? "" : ", ").append(COLUMNS[i])
+                        .append(COLUMNS[i].equals(AwfulPost.CONTENT) ? " BLOB" : "");
+            }
+            statement.execute(create.append(", PRIMARY KEY (" + AwfulPost.THREAD_ID + ", " + AwfulPost.POST_INDEX + "))").toString());
+        }
+        storePosts();
+        try (Statement statement = db.createStatement();
+             ResultSet size = statement.executeQuery("SELECT page_count * page_size FROM pragma_page_count(), pragma_page_size()")) {
+            size.next();
+            System.out.printf("%n%s, %d pages, compressed=%s: %,d byte database%n", fixture, PAGES, compressed, size.getLong(1));
+        }
+
+        selectPage = db.prepareStatement("SELECT " + String.join(", ", COLUMNS) + " FROM posts WHERE "
+                + AwfulPost.THREAD_ID + "=? ORDER BY " + AwfulPost.POST_INDEX);
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/post.mustache"), StandardCharsets.UTF_8)) {
+            template = Mustache.compiler().compile(reader);
+        }
+    }
+
+    private void storePosts() throws Exception {
+        List<ContentValues> posts = new ArrayList<>();
+        for (PostParseTask task : Fixtures.postParseTasks(Fixtures.document(fixture), PostContentRewriter.forStorage())) {
+            ContentValues post = task.call();
+            if (!compressed) {
+                post.put(AwfulPost.CONTENT, PostContentCodec.toHtml(post.get(AwfulPost.CONTENT)));
+            }
+            posts.add(post);
+        }
+        db.setAutoCommit(false);
+        try (PreparedStatement insert = db.prepareStatement("INSERT INTO posts VALUES (" + "?, ".repeat(COLUMNS.length - 1) + "?)")) {
+            for (int page = 0; page < PAGES; page++) {
+                for (ContentValues post : posts) {
+                    for (int i = 0; i < COLUMNS.length; i++) {
+                        insert.setObject(i + 1, COLUMNS[i].equals(AwfulPost.THREAD_ID) ? page : post.get(COLUMNS[i]));
+                    }
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        db.commit();
+        db.setAutoCommit(true);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextPage() {
+        threadId = (threadId + 1) % PAGES;
+        if (!cachedContent) {
+            PostContentRenderer.clearCache();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        db.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public String loadPage() throws Exception {
+        // every page has the same post IDs, so the renderer's cache works across them
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        selectPage.setInt(1, threadId);
+        try (ResultSet rows = selectPage.executeQuery()) {
+            while (rows.next()) {
+                Object[] row = new Object[COLUMNS.length];
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    row[i] = rows.getObject(i + 1);
+                }
+                cursor.addRow(row);
+            }
+        }
+        return AwfulHtmlPage.getThreadHtml(PostPage.fromCursor(cursor, null, null), Fixtures.RENDER_PREFS, template, 57, 143);
+    }
+}
@@ -0,0 +1,109 @@
+package com.ferg.awfulapp.benchmark;
+
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.PostContentCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the preset dictionary {@link PostContentCodec} compresses post content with, from the
+ * stored content of the posts in the thread page fixtures. Run it with:
+ * <pre>
+ *   ./gradlew :benchmark:postContentDictionary
+ * </pre>
+ * which overwrites the app's current dictionary. Existing compressed posts can't be read with a
+ * different dictionary, so a new one needs a new format in {@link PostContentCodec}.
+ * <p>
+ * Post HTML is split into tags and runs of text, and every sequence of up to {@link #MAX_TOKENS}
+ * of those that turns up in more than one post is a candidate. The ones that would save the most
+ * (how many posts they're in times their length) are packed into the dictionary, with the best at
+ * the end - deflate can refer back to those with shorter distances.
+ */
+public final class PostContentDictionary {
+
+    /** deflate can only look back 32KB, so anything bigger than this is wasted */
+    static final int MAX_SIZE = 32 * 1024;
+    private static final int MAX_TOKENS = 4;
+    private static final int MIN_FRAGMENT_LENGTH = 8;
+    private static final Pattern TOKEN = Pattern.compile("<[^>]*>|[^<]+");
+
+    private PostContentDictionary() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> contents = new ArrayList<>();
+        for (String fixture : new String[]{Fixtures.THREAD_PAGE, Fixtures.FYAD_PAGE}) {
+            for (AwfulPost post : Fixtures.parsedPosts(fixture)) {
+                contents.add(post.getContent());
+            }
+        }
+        byte[] dictionary = build(contents, MAX_SIZE);
+        Files.write(Paths.get(args[0]), dictionary);
+        System.out.printf("Wrote a %d byte dictionary from %d posts to %s%n", dictionary.length, contents.size(), args[0]);
+    }
+
+
+    static byte[] build(List<String> contents, int maxSize) {
+        // count the number of posts each fragment appears in
+        Map<String, Integer> postCounts = new HashMap<>();
+        for (String content : contents) {
+            List<String> tokens = new ArrayList<>();
+            Matcher matcher = TOKEN.matcher(content);
+            while (matcher.find()) {
+                tokens.add(matcher.group());
+            }
+            Set<String> fragments = new HashSet<>();
+            for (int start = 0; start < tokens.size(); start++) {
+                StringBuilder fragment = new StringBuilder();
+                for (int end = start; end < Math.min(tokens.size(), start + MAX_TOKENS); end++) {
+                    fragment.append(tokens.get(end));
+                    if (fragment.length() >= MIN_FRAGMENT_LENGTH) {
+                        fragments.add(fragment.toString());
+                    }
+                }
+            }
+            for (String fragment : fragments) {
+                postCounts.merge(fragment, 1, Integer::sum);
+            }
+        }
+
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : postCounts.entrySet()) {
+            if (entry.getValue() > 1) {
+                candidates.add(entry.getKey());
+            }
+        }
+        Comparator<String> bySavings = Comparator.comparingLong(fragment -> (long) postCounts.get(fragment) * fragment.length());
+        candidates.sort(bySavings.reversed().thenComparing(Comparator.naturalOrder()));
+
+        // take the best fragments that fit, skipping any that are already covered by a better one
+        List<String> chosen = new ArrayList<>();
+        int size = 0;
+        for (String candidate : candidates) {
+            int length = candidate.getBytes(StandardCharsets.UTF_8).length;
+            if (size + length > maxSize || chosen.stream().anyMatch(it -> it.contains(candidate))) {
+                continue;
+            }
+            chosen.add(candidate);
+            size += length;
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.writeBytes(chosen.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        return dictionary.toByteArray();
+    }
+}
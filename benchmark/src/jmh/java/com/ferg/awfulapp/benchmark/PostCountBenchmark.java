@@ -0,0 +1,42 @@
+package com.ferg.awfulapp.benchmark;
+
+import com.ferg.awfulapp.thread.AwfulThread;
+import com.ferg.awfulapp.thread.ThreadPageParseTask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read/unread post count calculations {@link ThreadPageParseTask} does after parsing a page,
+ * for a page in the middle of a thread and for the last page.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PostCountBenchmark {
+
+    private final AwfulThread thread = new AwfulThread();
+
+    @Benchmark
+    public void middlePage(Blackhole blackhole) {
+        thread.postCount = 5700;
+        thread.unreadCount = 300;
+        blackhole.consume(ThreadPageParseTask.updatePostCounts(thread, 57, 143, 40, 40));
+        blackhole.consume(thread.unreadCount);
+    }
+
+    @Benchmark
+    public void lastPage(Blackhole blackhole) {
+        thread.postCount = 5700;
+        thread.unreadCount = 300;
+        blackhole.consume(ThreadPageParseTask.updatePostCounts(thread, 143, 143, 40, 17));
+        blackhole.consume(thread.unreadCount);
+    }
+}
@@ -0,0 +1,83 @@
+package com.ferg.awfulapp.benchmark;
+
+import android.content.ContentValues;
+
+import com.ferg.awfulapp.thread.AwfulPost;
+import com.ferg.awfulapp.thread.PostContentRewriter;
+import com.ferg.awfulapp.thread.PostParseTask;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running {@link PostParseTask} on every post in a page, on a single thread.
+ * <p>
+ * The tasks rewrite their post elements, so each invocation gets fresh copies - a page takes a few
+ * milliseconds, so the per-invocation setup doesn't skew the results.
+ * <p>
+ * {@link #parseUnchangedPosts} is the refresh case, where every post is already stored with a
+ * matching fingerprint, so each task only has to fingerprint its post.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostParseBenchmark {
+
+    @Param({Fixtures.THREAD_PAGE, Fixtures.FYAD_PAGE})
+    public String fixture;
+
+    private Document page;
+    private PostContentRewriter rewriter;
+    private Map<Integer, Long> storedFingerprints;
+    private List<PostParseTask> tasks;
+    private List<PostParseTask> unchangedTasks;
+
+    @Setup
+    public void setup() throws Exception {
+        page = Fixtures.document(fixture);
+        rewriter = PostContentRewriter.forStorage();
+        storedFingerprints = new HashMap<>();
+        for (PostParseTask task : Fixtures.postParseTasks(page, rewriter)) {
+            ContentValues post = task.call();
+            storedFingerprints.put(post.getAsInteger(AwfulPost.ID), post.getAsLong(AwfulPost.CONTENT_HASH));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copyPosts() {
+        tasks = Fixtures.postParseTasks(page, rewriter);
+        unchangedTasks = Fixtures.postParseTasks(page, rewriter, storedFingerprints);
+    }
+
+    @Benchmark
+    public List<ContentValues> parsePosts() throws Exception {
+        List<ContentValues> results = new ArrayList<>(tasks.size());
+        for (PostParseTask task : tasks) {
+            results.add(task.call());
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<ContentValues> parseUnchangedPosts() throws Exception {
+        List<ContentValues> results = new ArrayList<>(unchangedTasks.size());
+        for (PostParseTask task : unchangedTasks) {
+            results.add(task.call());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ferg.awfulapp.benchmark;
+
+import com.ferg.awfulapp.thread.AwfulHtmlPage;
+import com.ferg.awfulapp.thread.PostContentRenderer;
+import com.ferg.awfulapp.thread.PostPage;
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a page of parsed posts with {@link AwfulHtmlPage#getThreadHtml}, using the app's post template.
+ * <p>
+ * When {@link #cachedContent} is false, the {@link PostContentRenderer} cache is cleared before each
+ * invocation, so every post's content is processed for display - this is the first render of a page,
+ * or the first one after a setting changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThreadHtmlBenchmark {
+
+    @Param({Fixtures.THREAD_PAGE, Fixtures.FYAD_PAGE})
+    public String fixture;
+
+    @Param({"true", "false"})
+    public boolean cachedContent;
+
+    private PostPage posts;
+    private Template template;
+
+    @Setup
+    public void setup() throws Exception {
+        posts = PostPage.of(Fixtures.parsedPosts(fixture));
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/post.mustache"), StandardCharsets.UTF_8)) {
+            template = Mustache.compiler().compile(reader);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearContentCache() {
+        if (!cachedContent) {
+            PostContentRenderer.clearCache();
+        }
+    }
+
+    @Benchmark
+    public String getThreadHtml() {
+        return AwfulHtmlPage.getThreadHtml(posts, Fixtures.RENDER_PREFS, template, 57, 143);
+    }
+}